@@ -0,0 +1,2 @@
+@echo off
+start jre\bin\java -jar stat-movie-1.0.0.jar --watch
@@ -0,0 +1,130 @@
+package indi.liht.stat.bench;
+
+import indi.liht.stat.collection.CountMinSketch;
+import indi.liht.stat.collection.HeavyHitterTracker;
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.collection.PairKey;
+import indi.liht.stat.core.BlockDeduplicator;
+import indi.liht.stat.core.MovieWeightAggregator;
+import indi.liht.stat.models.MovieBlock;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Usage:
+ * MovieWeightAggregator.putToWeightMap的基准：把一批电影累加到一个新的权重表，得分为每秒处理的电影数。
+ * addToSketch是近似统计的累加：公司对的权重累加到固定大小的Count-Min草图，同时跟踪估计权重最高的公司对。
+ * Repeated的两项用阵容重复的电影（每种阵容平均出现REPEATS次），比较直接累加和先合并相同阵容再累加
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/19
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AggregateBenchmark {
+
+    /** 每次调用处理的电影数 */
+    private static final int MOVIES = 1024;
+
+    /** 近似统计的草图大小，字节 */
+    private static final long SKETCH_BYTES = 8L * 1024 * 1024;
+
+    /** 近似统计跟踪的公司对数 */
+    private static final int TOP_PAIRS = 1000;
+
+    /** 阵容重复时每种阵容平均出现的次数 */
+    private static final int REPEATS = 8;
+
+    /** 公司数 */
+    @Param({"1000", "100000"})
+    public int companyCount;
+
+    /** 分工数 */
+    @Param({"10", "100"})
+    public int sectionCount;
+
+    /** 每部电影的公司数 */
+    @Param({"4", "16"})
+    public int blockSize;
+
+    /** 公司的分布 */
+    @Param({BenchData.UNIFORM, BenchData.SKEWED})
+    public String distribution;
+
+    /** 电影 */
+    private List<MovieBlock> movieBlocks;
+
+    /** 阵容重复的电影 */
+    private List<MovieBlock> repeatedBlocks;
+
+    /** 分工权重 */
+    private LongIntHashMap sectionABWeight;
+
+    /** 近似统计的草图，每次调用前清空 */
+    private CountMinSketch sketch;
+
+    /** 近似统计的重要公司对，每次调用前清空 */
+    private HeavyHitterTracker tracker;
+
+    @Setup
+    public void setUp() {
+        movieBlocks = BenchData.blocks(MOVIES, companyCount, sectionCount, blockSize, distribution, 42L);
+        repeatedBlocks = BenchData.repeated(movieBlocks.subList(0, MOVIES / REPEATS), MOVIES, 42L);
+        sectionABWeight = BenchData.relation(sectionCount, 42L);
+        sketch = CountMinSketch.ofBytes(SKETCH_BYTES, 4);
+        tracker = new HeavyHitterTracker(TOP_PAIRS);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MOVIES)
+    public LongIntHashMap putToWeightMap() {
+        LongIntHashMap movieABWeight = new LongIntHashMap();
+        for (MovieBlock movieBlock : movieBlocks) {
+            MovieWeightAggregator.putToWeightMap(movieBlock, movieABWeight, sectionABWeight);
+        }
+        return movieABWeight;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MOVIES)
+    public HeavyHitterTracker addToSketch() {
+        sketch.clear();
+        tracker.clear();
+        for (MovieBlock movieBlock : movieBlocks) {
+            for (int i = 0, size = movieBlock.size(); i < size; i++) {
+                for (int j = i + 1; j < size; j++) {
+                    int weight = sectionABWeight.getOrDefault(
+                            PairKey.of(movieBlock.getSectionId(i), movieBlock.getSectionId(j)), 0);
+                    long key = PairKey.of(movieBlock.getMovieComId(i), movieBlock.getMovieComId(j));
+                    tracker.offer(key, sketch.add(key, weight));
+                }
+            }
+        }
+        return tracker;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MOVIES)
+    public LongIntHashMap putToWeightMapRepeated() {
+        return BenchData.aggregate(repeatedBlocks, sectionABWeight);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(MOVIES)
+    public LongIntHashMap dedupThenPutRepeated() {
+        LongIntHashMap movieABWeight = new LongIntHashMap();
+        BlockDeduplicator deduplicator = new BlockDeduplicator(MOVIES);
+        for (MovieBlock movieBlock : repeatedBlocks) {
+            deduplicator.add(movieBlock);
+        }
+        deduplicator.drain(movieBlock ->
+                MovieWeightAggregator.putToWeightMap(movieBlock, movieABWeight, sectionABWeight));
+        return movieABWeight;
+    }
+
+}
@@ -0,0 +1,139 @@
+package indi.liht.stat.bench;
+
+import indi.liht.stat.collection.IntDictionary;
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.collection.PairKey;
+import indi.liht.stat.core.MovieWeightAggregator;
+import indi.liht.stat.models.MovieBlock;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Usage:
+ * 基准测试用的合成数据。电影公司按分布抽取：uniform为均匀分布；
+ * skewed为幂律分布，少数大公司出现在大部分电影里，公司对高度集中
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/19
+ **/
+public final class BenchData {
+
+    /** 均匀分布 */
+    public static final String UNIFORM = "uniform";
+
+    /** 幂律分布 */
+    public static final String SKEWED = "skewed";
+
+    private BenchData() {}
+
+    /**
+     * 生成电影公司字典，公司名为“电影公司N”
+     * @param companyCount 公司数
+     * @return 字典
+     */
+    public static IntDictionary companies(int companyCount) {
+        IntDictionary dictionary = new IntDictionary(companyCount);
+        for (int i = 0; i < companyCount; i++) {
+            dictionary.intern("电影公司" + i);
+        }
+        return dictionary;
+    }
+
+    /**
+     * 生成分工权重，每两个分工（含相同分工）都有1到20的权重
+     * @param sectionCount 分工数
+     * @param seed 随机种子
+     * @return 分工权重
+     */
+    public static LongIntHashMap relation(int sectionCount, long seed) {
+        Random random = new Random(seed);
+        LongIntHashMap sectionABWeight = new LongIntHashMap(sectionCount * (sectionCount + 1) / 2);
+        for (int a = 0; a < sectionCount; a++) {
+            for (int b = a; b < sectionCount; b++) {
+                sectionABWeight.put(PairKey.of(a, b), 1 + random.nextInt(20));
+            }
+        }
+        return sectionABWeight;
+    }
+
+    /**
+     * 生成电影
+     * @param movieCount 电影数
+     * @param companyCount 公司数
+     * @param sectionCount 分工数
+     * @param blockSize 每部电影的公司数
+     * @param distribution 公司的分布，uniform或者skewed
+     * @param seed 随机种子
+     * @return 电影
+     */
+    public static List<MovieBlock> blocks(int movieCount, int companyCount, int sectionCount,
+                                          int blockSize, String distribution, long seed) {
+        Random random = new Random(seed);
+        List<MovieBlock> movieBlocks = new ArrayList<>(movieCount);
+        for (int m = 0; m < movieCount; m++) {
+            MovieBlock movieBlock = new MovieBlock(blockSize);
+            for (int i = 0; i < blockSize; i++) {
+                movieBlock.add(pick(random, companyCount, distribution), random.nextInt(sectionCount));
+            }
+            movieBlocks.add(movieBlock);
+        }
+        return movieBlocks;
+    }
+
+    /**
+     * 生成阵容重复的电影：从给定的电影中随机抽取，打乱公司的顺序，模拟系列片、剧集
+     * @param lineups 不同的阵容
+     * @param movieCount 电影数
+     * @param seed 随机种子
+     * @return 电影
+     */
+    public static List<MovieBlock> repeated(List<MovieBlock> lineups, int movieCount, long seed) {
+        Random random = new Random(seed);
+        List<MovieBlock> movieBlocks = new ArrayList<>(movieCount);
+        for (int m = 0; m < movieCount; m++) {
+            MovieBlock lineup = lineups.get(random.nextInt(lineups.size()));
+            List<Integer> order = new ArrayList<>(lineup.size());
+            for (int i = 0; i < lineup.size(); i++) {
+                order.add(i);
+            }
+            Collections.shuffle(order, random);
+            MovieBlock movieBlock = new MovieBlock(lineup.size());
+            for (int i : order) {
+                movieBlock.add(lineup.getMovieComId(i), lineup.getSectionId(i));
+            }
+            movieBlocks.add(movieBlock);
+        }
+        return movieBlocks;
+    }
+
+    /**
+     * 计算电影公司权重
+     * @param movieBlocks 电影
+     * @param sectionABWeight 分工权重
+     * @return 电影公司权重
+     */
+    public static LongIntHashMap aggregate(List<MovieBlock> movieBlocks, LongIntHashMap sectionABWeight) {
+        LongIntHashMap movieABWeight = new LongIntHashMap();
+        for (MovieBlock movieBlock : movieBlocks) {
+            MovieWeightAggregator.putToWeightMap(movieBlock, movieABWeight, sectionABWeight);
+        }
+        return movieABWeight;
+    }
+
+    /**
+     * 按分布抽取一个编号
+     * @param random 随机数
+     * @param n 编号范围[0, n)
+     * @param distribution 分布
+     * @return 编号
+     */
+    static int pick(Random random, int n, String distribution) {
+        if (SKEWED.equals(distribution)) {
+            return (int) (n * Math.pow(random.nextDouble(), 4));
+        }
+        return random.nextInt(n);
+    }
+
+}
@@ -0,0 +1,91 @@
+package indi.liht.stat.bench;
+
+import indi.liht.stat.reader.SheetRow;
+import indi.liht.stat.utils.PoiUtils;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Usage:
+ * 非流式读取时逐个单元格取值的基准：PoiUtils.copyCell把单元格按类型写入SheetRow，再按统计时的方式
+ * 用isBlank、getString、getDouble读出来。一行中字符串、数字、空白单元格各占三分之一，得分为每秒读取的单元格数
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/19
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CellValueBenchmark {
+
+    /** 一行的单元格数 */
+    @Param({"16", "256"})
+    public int cellCount;
+
+    /** 工作簿 */
+    private XSSFWorkbook workbook;
+
+    /** 要读取的行 */
+    private Row row;
+
+    /** 复用的行对象 */
+    private SheetRow sheetRow;
+
+    @Setup
+    public void setUp() {
+        workbook = new XSSFWorkbook();
+        XSSFSheet sheet = workbook.createSheet("例子");
+        row = sheet.createRow(0);
+        sheetRow = new SheetRow();
+        for (int i = 0; i < cellCount; i++) {
+            switch (i % 3) {
+                case 0:
+                    row.createCell(i).setCellValue("电影公司" + i);
+                    break;
+                case 1:
+                    row.createCell(i).setCellValue(i);
+                    break;
+                default:
+                    // 空白单元格
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        workbook.close();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(256)
+    public void copyAndReadCells(Blackhole blackhole) {
+        // 每次调用读取256个单元格，cellCount较小时循环读取同一行
+        for (int i = 0; i < 256; i++) {
+            int columnNum = i % cellCount;
+            if (columnNum == 0) {
+                sheetRow.reset(0);
+            }
+            Cell cell = row.getCell(columnNum);
+            if (cell != null) {
+                PoiUtils.copyCell(cell, sheetRow);
+            }
+            if (sheetRow.isBlank(columnNum)) {
+                blackhole.consume(false);
+            } else if (columnNum % 3 == 0) {
+                blackhole.consume(sheetRow.getString(columnNum));
+            } else {
+                blackhole.consume(sheetRow.getDouble(columnNum));
+            }
+        }
+    }
+
+}
@@ -0,0 +1,62 @@
+package indi.liht.stat.bench;
+
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.collection.StripedLongIntMap;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Usage:
+ * 把单个Sheet的权重合并到汇总权重（原putPartToAll）的基准，4个线程同时合并。
+ * stripedAddAll为分段加锁的StripedLongIntMap，synchronizedAddAll为整表加一把锁的做法，作为对照
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/19
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(4)
+public class MergeBenchmark {
+
+    /** 公司数 */
+    @Param({"1000", "100000"})
+    public int companyCount;
+
+    /** 公司的分布 */
+    @Param({BenchData.UNIFORM, BenchData.SKEWED})
+    public String distribution;
+
+    /** 单个Sheet的权重 */
+    private LongIntHashMap part;
+
+    /** 分段加锁的汇总权重 */
+    private StripedLongIntMap stripedAll;
+
+    /** 整表加锁的汇总权重 */
+    private LongIntHashMap lockedAll;
+
+    @Setup
+    public void setUp() {
+        part = BenchData.aggregate(BenchData.blocks(4096, companyCount, 20, 8, distribution, 42L),
+                BenchData.relation(20, 42L));
+        stripedAll = new StripedLongIntMap(4);
+        lockedAll = new LongIntHashMap();
+    }
+
+    @Benchmark
+    public void stripedAddAll() {
+        stripedAll.addAll(part);
+    }
+
+    @Benchmark
+    public void synchronizedAddAll() {
+        synchronized (lockedAll) {
+            lockedAll.addAll(part);
+        }
+    }
+
+}
@@ -0,0 +1,123 @@
+package indi.liht.stat.bench;
+
+import indi.liht.stat.collection.CsrMatrix;
+import indi.liht.stat.collection.IntDictionary;
+import indi.liht.stat.writer.CsvResultWriter;
+import indi.liht.stat.writer.IResultWriter;
+import indi.liht.stat.writer.WorkbookResultWriter;
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Usage:
+ * 输出一个结果Sheet（原writeWeightToCell）的基准：生成并保存一个文件，得分为每秒输出的文件数。
+ * xls、xlsx、sxssf输出n×n矩阵，csv只输出非0的公司对
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/19
+ **/
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 3, time = 2)
+@Fork(1)
+public class OutputBenchmark {
+
+    /** 公司数 */
+    @Param({"100", "1000"})
+    public int companyCount;
+
+    /** 公司的分布 */
+    @Param({BenchData.UNIFORM, BenchData.SKEWED})
+    public String distribution;
+
+    /** 输出方式 */
+    @Param({"xls", "xlsx", "sxssf", "csv"})
+    public String writer;
+
+    /** 电影公司字典 */
+    private IntDictionary movieComDictionary;
+
+    /** 电影公司权重 */
+    private CsrMatrix movieABWeight;
+
+    /** 涉及到的所有电影公司编号 */
+    private int[] movieComList;
+
+    /** 输出目录 */
+    private File outputDir;
+
+    @Setup
+    public void setUp() throws IOException {
+        movieComDictionary = BenchData.companies(companyCount);
+        movieABWeight = CsrMatrix.of(BenchData.aggregate(
+                BenchData.blocks(companyCount, companyCount, 20, 6, distribution, 42L),
+                BenchData.relation(20, 42L)), companyCount);
+        int count = 0;
+        movieComList = new int[companyCount];
+        for (int id = 0; id < companyCount; id++) {
+            if (movieABWeight.rowEnd(id) > movieABWeight.rowStart(id)) {
+                movieComList[count++] = id;
+            }
+        }
+        movieComList = Arrays.copyOf(movieComList, count);
+        outputDir = Files.createTempDirectory("stat-bench").toFile();
+    }
+
+    @TearDown
+    public void tearDown() {
+        File[] files = outputDir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                File[] children = file.listFiles();
+                if (children != null) {
+                    for (File child : children) {
+                        child.delete();
+                    }
+                }
+                file.delete();
+            }
+        }
+        outputDir.delete();
+    }
+
+    @Benchmark
+    public void writeSheet() throws IOException {
+        IResultWriter resultWriter = this.createWriter(new File(outputDir, "stat-movie").getPath());
+        try {
+            resultWriter.writeSheet("All", movieABWeight, movieComList);
+        } finally {
+            resultWriter.close();
+        }
+    }
+
+    /**
+     * 根据输出方式构造输出
+     * @param outputPath 输出路径（不含后缀）
+     * @return 输出
+     */
+    private IResultWriter createWriter(String outputPath) {
+        switch (writer) {
+            case "xls":
+                return new WorkbookResultWriter(new HSSFWorkbook(), outputPath + ".xls", "xls", movieComDictionary,
+                        false);
+            case "sxssf":
+                return new WorkbookResultWriter(new SXSSFWorkbook(100), outputPath + ".xlsx", "xlsx",
+                        movieComDictionary, false);
+            case "csv":
+                return new CsvResultWriter(outputPath, movieComDictionary);
+            default:
+                return new WorkbookResultWriter(new XSSFWorkbook(), outputPath + ".xlsx", "xlsx",
+                        movieComDictionary, false);
+        }
+    }
+
+}
@@ -0,0 +1,201 @@
+package indi.liht.stat.bench;
+
+import indi.liht.stat.core.StatMovie;
+import indi.liht.stat.metrics.StatMetrics;
+import org.apache.poi.util.IOUtils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Usage:
+ * 端到端的规模测试：按参数扫描生成合成Excel，跑完整的stat()流程，
+ * 每个阶段的耗时、堆内存峰值和GC耗时（取自StatMovie的运行指标）追加到工作目录下的scaling-report.csv，用于画规模曲线。
+ * mvn -P bench package 之后：
+ * java -cp target/benchmarks.jar indi.liht.stat.bench.ScalingHarness 工作目录 --format=xlsx --sweep=movies=1000,10000,100000
+ * 参数（括号内为默认值）：--format=xls|xlsx(xlsx) --sheets=(3) --movies=每个Sheet的电影数(1000)
+ * --companies-per-movie=(8) --companies=不同的电影公司数(500) --sections=(10) --distribution=uniform|skewed(uniform)
+ * --output=xlsx|xls|csv(csv) --sweep=参数名=值1,值2,... --clean 跑完删除生成的文件
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/20
+ **/
+public class ScalingHarness {
+
+    /** 报告文件名 */
+    private static final String REPORT_FILE_NAME = "scaling-report.csv";
+
+    /** 报告表头 */
+    private static final String REPORT_HEADER = "run,format,output,sheets,movies,companiesPerMovie,companies,"
+            + "sections,distribution,phase,wallMs,peakHeapMB,gcMs,gcCount";
+
+    /** 赋值Excel的工作表名 */
+    private static final String RELATION_SHEET_NAME = "赋值表";
+
+    /** 主数据Excel的工作表名前缀 */
+    private static final String MAIN_SHEET_NAME_PREFIX = "例子";
+
+    private ScalingHarness() {}
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.out.println("用法：ScalingHarness 工作目录 [--参数名=值 ...] [--sweep=参数名=值1,值2,...]");
+            return;
+        }
+        File workDir = new File(args[0]);
+        Map<String, String> params = new LinkedHashMap<>();
+        params.put("format", "xlsx");
+        params.put("sheets", "3");
+        params.put("movies", "1000");
+        params.put("companies-per-movie", "8");
+        params.put("companies", "500");
+        params.put("sections", "10");
+        params.put("distribution", BenchData.UNIFORM);
+        params.put("output", "csv");
+        String sweepName = null;
+        String[] sweepValues = {null};
+        boolean clean = false;
+        for (int i = 1; i < args.length; i++) {
+            String arg = args[i];
+            if ("--clean".equals(arg)) {
+                clean = true;
+            } else if (arg.startsWith("--sweep=")) {
+                String sweep = arg.substring("--sweep=".length());
+                int index = sweep.indexOf('=');
+                sweepName = sweep.substring(0, index);
+                sweepValues = sweep.substring(index + 1).split(",");
+            } else if (arg.startsWith("--") && arg.indexOf('=') > 2) {
+                int index = arg.indexOf('=');
+                params.put(arg.substring(2, index), arg.substring(index + 1));
+            } else {
+                throw new IllegalArgumentException("无法识别的参数[" + arg + "]！");
+            }
+        }
+        if (sweepName != null && !params.containsKey(sweepName)) {
+            throw new IllegalArgumentException("无法识别的扫描参数[" + sweepName + "]！");
+        }
+
+        File reportFile = new File(workDir, REPORT_FILE_NAME);
+        for (int run = 0; run < sweepValues.length; run++) {
+            if (sweepName != null) {
+                params.put(sweepName, sweepValues[run].trim());
+            }
+            File runDir = new File(workDir, "run-" + run);
+            System.out.println("===== 第[" + (run + 1) + "/" + sweepValues.length + "]轮：" + params + " =====");
+            List<StatMetrics.Phase> phases = runOnce(runDir, params);
+            appendReport(reportFile, run, params, phases);
+            for (StatMetrics.Phase phase : phases) {
+                System.out.println(phase.getName() + "：耗时" + phase.getDurationMillis() + "ms，堆内存峰值"
+                        + phase.getHeapHighWaterBytes() / (1024 * 1024) + "MB，GC耗时" + phase.getGcMillis() + "ms");
+            }
+            if (clean) {
+                deleteRecursively(runDir);
+            }
+        }
+        System.out.println("完成写入[" + reportFile.getPath() + "]！");
+    }
+
+    /**
+     * 生成一组输入Excel并跑一次完整流程
+     * @param runDir 本轮的资源文件路径
+     * @param params 参数
+     * @return 各阶段的指标
+     * @throws IOException 生成文件失败
+     */
+    private static List<StatMetrics.Phase> runOnce(File runDir, Map<String, String> params) throws IOException {
+        String format = params.get("format");
+        WorkbookGenerator generator = new WorkbookGenerator(format)
+                .setSheetCount(Integer.parseInt(params.get("sheets")))
+                .setMovieCount(Integer.parseInt(params.get("movies")))
+                .setCompaniesPerMovie(Integer.parseInt(params.get("companies-per-movie")))
+                .setCompanyCount(Integer.parseInt(params.get("companies")))
+                .setSectionCount(Integer.parseInt(params.get("sections")))
+                .setDistribution(params.get("distribution"));
+        File excelDir = new File(runDir, "conf/excel");
+        String relationFileName = "赋值." + format;
+        String mainFileName = "合成数据." + format;
+        long start = System.nanoTime();
+        generator.writeRelation(new File(excelDir, relationFileName), RELATION_SHEET_NAME);
+        String[] sheetNames = generator.writeMain(new File(excelDir, mainFileName), MAIN_SHEET_NAME_PREFIX);
+        System.out.println("生成输入Excel完成，耗时" + (System.nanoTime() - start) / 1000000 + "ms！");
+
+        // 关闭输入缓存和增量计算，每轮都是完整的解析和计算
+        Properties properties = new Properties();
+        properties.setProperty("stat.movie.main-data.file-name", mainFileName);
+        properties.setProperty("stat.movie.main-data.sheet-names", String.join(",", sheetNames));
+        properties.setProperty("stat.movie.relation-data.file-name", relationFileName);
+        properties.setProperty("stat.movie.relation-data.sheet-name", RELATION_SHEET_NAME);
+        properties.setProperty("stat.movie.input-data.cache", "false");
+        properties.setProperty("stat.movie.aggregate.incremental", "false");
+        properties.setProperty("stat.movie.output-data.suffix", params.get("output"));
+        properties.setProperty("stat.movie.output-data.xlsx-writer", "sxssf");
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(
+                    new FileOutputStream(new File(runDir, "conf/stat.properties")), StandardCharsets.UTF_8);
+            properties.store(writer, null);
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
+
+        StatMovie statMovie = new StatMovie(runDir.getAbsolutePath() + "/");
+        System.gc();
+        statMovie.stat();
+        return statMovie.getMetrics().getPhases();
+    }
+
+    /**
+     * 把一轮的统计追加到报告
+     * @param reportFile 报告文件
+     * @param run 第几轮
+     * @param params 参数
+     * @param phases 各阶段的指标
+     * @throws IOException 写入失败
+     */
+    private static void appendReport(File reportFile, int run, Map<String, String> params,
+                                     List<StatMetrics.Phase> phases) throws IOException {
+        boolean newFile = !reportFile.isFile();
+        PrintWriter pw = null;
+        try {
+            pw = new PrintWriter(new OutputStreamWriter(
+                    new FileOutputStream(reportFile, true), StandardCharsets.UTF_8));
+            if (newFile) {
+                pw.println(REPORT_HEADER);
+            }
+            String prefix = run + "," + params.get("format") + "," + params.get("output") + ","
+                    + params.get("sheets") + "," + params.get("movies") + ","
+                    + params.get("companies-per-movie") + "," + params.get("companies") + ","
+                    + params.get("sections") + "," + params.get("distribution");
+            for (StatMetrics.Phase phase : phases) {
+                pw.println(prefix + "," + phase.getName() + "," + phase.getDurationMillis() + ","
+                        + String.format("%.1f", phase.getHeapHighWaterBytes() / (1024.0 * 1024.0)) + ","
+                        + phase.getGcMillis() + "," + phase.getGcCount());
+            }
+        } finally {
+            IOUtils.closeQuietly(pw);
+        }
+    }
+
+    /**
+     * 删除目录
+     * @param file 文件或目录
+     */
+    private static void deleteRecursively(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                deleteRecursively(child);
+            }
+        }
+        file.delete();
+    }
+
+}
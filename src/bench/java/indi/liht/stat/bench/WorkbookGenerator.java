@@ -0,0 +1,284 @@
+package indi.liht.stat.bench;
+
+import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+
+/**
+ * Usage:
+ * 合成输入Excel：赋值表和主数据，格式与正式输入一致。
+ * 主数据每4行为一部电影：第1行“表N”，第2行电影名，第3行分工，第4行对应的电影公司。
+ * 赋值表第1行为表头，之后每两个分工（含相同分工）一行“分工A,分工B,权重”。
+ * xlsx用SXSSF边生成边写，文件再大也不占内存；xls超出行数、列数上限时报错
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/20
+ **/
+public class WorkbookGenerator {
+
+    /** xls每个Sheet的最大行数 */
+    private static final int XLS_MAX_ROWS = 65536;
+
+    /** xls每个Sheet的最大列数 */
+    private static final int XLS_MAX_COLUMNS = 256;
+
+    /** xlsx每个Sheet的最大行数 */
+    private static final int XLSX_MAX_ROWS = 1048576;
+
+    /** xlsx每个Sheet的最大列数 */
+    private static final int XLSX_MAX_COLUMNS = 16384;
+
+    /** 文件类型，xls或者xlsx */
+    private final String suffix;
+
+    /** Sheet数 */
+    private int sheetCount = 3;
+
+    /** 每个Sheet的电影数 */
+    private int movieCount = 1000;
+
+    /** 每部电影的公司数 */
+    private int companiesPerMovie = 8;
+
+    /** 不同的电影公司数 */
+    private int companyCount = 500;
+
+    /** 分工数 */
+    private int sectionCount = 10;
+
+    /** 公司的分布，uniform或者skewed */
+    private String distribution = BenchData.UNIFORM;
+
+    /** 随机种子 */
+    private long seed = 42L;
+
+    /**
+     * 构造函数
+     * @param suffix 文件类型，xls或者xlsx
+     */
+    public WorkbookGenerator(String suffix) {
+        if (!"xls".equals(suffix) && !"xlsx".equals(suffix)) {
+            throw new IllegalArgumentException("不支持的文件类型[" + suffix + "]！");
+        }
+        this.suffix = suffix;
+    }
+
+    /**
+     * 生成赋值Excel
+     * @param file 输出文件
+     * @param sheetName 工作表名
+     * @throws IOException 写入失败
+     */
+    public void writeRelation(File file, String sheetName) throws IOException {
+        int rowCount = sectionCount * (sectionCount + 1) / 2 + 1;
+        this.checkLimits(rowCount, 3);
+        Random random = new Random(seed);
+        Workbook workbook = this.newWorkbook();
+        try {
+            Sheet sheet = workbook.createSheet(sheetName);
+            Row header = sheet.createRow(0);
+            header.createCell(0).setCellValue("分工A");
+            header.createCell(1).setCellValue("分工B");
+            header.createCell(2).setCellValue("赋值");
+            int rowNum = 1;
+            for (int a = 0; a < sectionCount; a++) {
+                for (int b = a; b < sectionCount; b++) {
+                    Row row = sheet.createRow(rowNum++);
+                    row.createCell(0).setCellValue(sectionName(a));
+                    row.createCell(1).setCellValue(sectionName(b));
+                    row.createCell(2).setCellValue(1 + random.nextInt(20));
+                }
+            }
+            this.save(workbook, file);
+        } finally {
+            this.dispose(workbook);
+        }
+    }
+
+    /**
+     * 生成主数据Excel，Sheet名为sheetNamePrefix加上从1开始的序号
+     * @param file 输出文件
+     * @param sheetNamePrefix 工作表名前缀
+     * @return 工作表名
+     * @throws IOException 写入失败
+     */
+    public String[] writeMain(File file, String sheetNamePrefix) throws IOException {
+        this.checkLimits(movieCount * 4, companiesPerMovie);
+        // 每个Sheet用不同的种子，Sheet数变化时前面的Sheet内容不变
+        String[] sheetNames = new String[sheetCount];
+        Workbook workbook = this.newWorkbook();
+        try {
+            for (int s = 0; s < sheetCount; s++) {
+                sheetNames[s] = sheetNamePrefix + (s + 1);
+                Random random = new Random(seed * 31 + s);
+                Sheet sheet = workbook.createSheet(sheetNames[s]);
+                for (int m = 0; m < movieCount; m++) {
+                    int rowNum = m * 4;
+                    sheet.createRow(rowNum).createCell(0).setCellValue("表" + (m + 1));
+                    sheet.createRow(rowNum + 1).createCell(0).setCellValue("电影" + (s + 1) + "-" + (m + 1));
+                    Row sectionRow = sheet.createRow(rowNum + 2);
+                    Row movieComRow = sheet.createRow(rowNum + 3);
+                    for (int i = 0; i < companiesPerMovie; i++) {
+                        sectionRow.createCell(i).setCellValue(sectionName(random.nextInt(sectionCount)));
+                        movieComRow.createCell(i).setCellValue(
+                                "电影公司" + BenchData.pick(random, companyCount, distribution));
+                    }
+                }
+            }
+            this.save(workbook, file);
+        } finally {
+            this.dispose(workbook);
+        }
+        return sheetNames;
+    }
+
+    /**
+     * 检查行数、列数是否超出文件类型的上限
+     * @param rowCount 行数
+     * @param columnCount 列数
+     */
+    private void checkLimits(int rowCount, int columnCount) {
+        boolean xls = "xls".equals(suffix);
+        int maxRows = xls ? XLS_MAX_ROWS : XLSX_MAX_ROWS;
+        int maxColumns = xls ? XLS_MAX_COLUMNS : XLSX_MAX_COLUMNS;
+        if (rowCount > maxRows || columnCount > maxColumns) {
+            throw new IllegalArgumentException("[" + rowCount + "]行[" + columnCount + "]列超出了" + suffix
+                    + "的上限[" + maxRows + "]行[" + maxColumns + "]列！");
+        }
+    }
+
+    /**
+     * 新建工作簿
+     * @return 工作簿
+     */
+    private Workbook newWorkbook() {
+        return "xls".equals(suffix) ? new HSSFWorkbook() : new SXSSFWorkbook(100);
+    }
+
+    /**
+     * 保存工作簿
+     * @param workbook 工作簿
+     * @param file 输出文件
+     * @throws IOException 写入失败
+     */
+    private void save(Workbook workbook, File file) throws IOException {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("创建目录[" + dir.getPath() + "]失败！");
+        }
+        OutputStream os = null;
+        try {
+            os = new FileOutputStream(file);
+            workbook.write(os);
+        } finally {
+            IOUtils.closeQuietly(os);
+        }
+    }
+
+    /**
+     * 关闭工作簿，SXSSF还要删除临时文件
+     * @param workbook 工作簿
+     */
+    private void dispose(Workbook workbook) {
+        if (workbook instanceof SXSSFWorkbook) {
+            ((SXSSFWorkbook) workbook).dispose();
+        }
+        IOUtils.closeQuietly(workbook);
+    }
+
+    /**
+     * 分工名
+     * @param sectionId 分工编号
+     * @return 分工名
+     */
+    private static String sectionName(int sectionId) {
+        return "分工" + sectionId;
+    }
+
+    /**
+     * 获取 文件类型
+     * @return xls或者xlsx
+     */
+    public String getSuffix() {
+        return suffix;
+    }
+
+    /**
+     * 设置 Sheet数
+     * @param sheetCount Sheet数
+     * @return this
+     */
+    public WorkbookGenerator setSheetCount(int sheetCount) {
+        this.sheetCount = sheetCount;
+        return this;
+    }
+
+    /**
+     * 设置 每个Sheet的电影数
+     * @param movieCount 每个Sheet的电影数
+     * @return this
+     */
+    public WorkbookGenerator setMovieCount(int movieCount) {
+        this.movieCount = movieCount;
+        return this;
+    }
+
+    /**
+     * 设置 每部电影的公司数
+     * @param companiesPerMovie 每部电影的公司数
+     * @return this
+     */
+    public WorkbookGenerator setCompaniesPerMovie(int companiesPerMovie) {
+        this.companiesPerMovie = companiesPerMovie;
+        return this;
+    }
+
+    /**
+     * 设置 不同的电影公司数
+     * @param companyCount 不同的电影公司数
+     * @return this
+     */
+    public WorkbookGenerator setCompanyCount(int companyCount) {
+        this.companyCount = companyCount;
+        return this;
+    }
+
+    /**
+     * 设置 分工数
+     * @param sectionCount 分工数
+     * @return this
+     */
+    public WorkbookGenerator setSectionCount(int sectionCount) {
+        this.sectionCount = sectionCount;
+        return this;
+    }
+
+    /**
+     * 设置 公司的分布，uniform或者skewed
+     * @param distribution 公司的分布，uniform或者skewed
+     * @return this
+     */
+    public WorkbookGenerator setDistribution(String distribution) {
+        this.distribution = distribution;
+        return this;
+    }
+
+    /**
+     * 设置 随机种子
+     * @param seed 随机种子
+     * @return this
+     */
+    public WorkbookGenerator setSeed(long seed) {
+        this.seed = seed;
+        return this;
+    }
+
+}
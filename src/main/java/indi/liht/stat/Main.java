@@ -1,8 +1,9 @@
 package indi.liht.stat;
 
-import indi.liht.stat.core.IStat;
 import indi.liht.stat.core.StatMovie;
+import indi.liht.stat.core.StatWatcher;
 
+import java.io.IOException;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -15,13 +16,22 @@ public class Main {
 
     /**
      * 程序入口
-     * @param args 入口参数
+     * @param args 入口参数。--watch[=防抖毫秒数]：常驻监听模式，配置文件或者Excel有变化就重新统计
      */
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].startsWith("--watch")) {
+            watch(args[0]);
+            return;
+        }
         // 开始统计
-        IStat stat = new StatMovie();
+        StatMovie stat = new StatMovie();
         System.out.println("やほー、统计开始……");
         stat.stat();
+        if (stat.isQueryServing()) {
+            // 查询服务的线程让程序继续运行
+            System.out.println("よっしゃ、mission completed！查询服务运行中，关闭窗口退出程序……");
+            return;
+        }
         try {
             System.out.println("よっしゃ、mission completed！5秒后退出程序……");
             TimeUnit.SECONDS.sleep(5);
@@ -30,4 +40,19 @@ public class Main {
         }
     }
 
+    /**
+     * 常驻监听模式，直到进程被终止
+     * @param arg --watch或者--watch=防抖毫秒数
+     */
+    private static void watch(String arg) {
+        long debounceMillis = arg.startsWith("--watch=")
+                ? Long.parseLong(arg.substring("--watch=".length()).trim()) : StatWatcher.DEFAULT_DEBOUNCE_MILLIS;
+        System.out.println("やほー、常驻监听模式开始……");
+        try {
+            new StatWatcher(new StatMovie(), debounceMillis).watch();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
 }
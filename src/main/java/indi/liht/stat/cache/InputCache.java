@@ -0,0 +1,648 @@
+package indi.liht.stat.cache;
+
+import indi.liht.stat.collection.IntDictionary;
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.models.MovieBlock;
+import indi.liht.stat.reader.IMovieBlockHandler;
+import org.apache.poi.util.IOUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Checksum;
+
+/**
+ * Usage:
+ * 解析后的输入缓存。把赋值表的分工权重、来源工作表整理出的电影，以及两个字典存成一个二进制文件，
+ * 以两个Excel的大小、修改时间、SHA-256和配置的工作表名为Key。下次运行Key一致时直接读取，不再用POI解析。
+ * 分工权重和字典经由FileChannel读到堆内缓冲区，电影在回放时顺序读取；不做内存映射，读完就关闭文件，
+ * 下一次解析可以立即覆盖缓存文件（Windows下映射着的文件要等映射被回收才能覆盖）。
+ * 文件结构：头部（Key）| 分工权重 | 各工作表的电影 | 字典 | 字典的偏移量 | 校验和。
+ * 校验和（CRC32）覆盖它之前的全部内容，读取时先校验整个文件，回放中途不会因为文件损坏而出错
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/17
+ **/
+public class InputCache {
+
+    /** 文件标识"STMC" */
+    private static final int MAGIC = 0x53544D43;
+
+    /** 文件格式版本，格式或者读取规则（比如什么样的单元格算空）变化时加一，旧缓存自动失效 */
+    private static final int VERSION = 3;
+
+    /** 文件末尾的长度：字典的偏移量+校验和 */
+    private static final int TRAILER_LENGTH = 16;
+
+    /** 记录类型：结束 */
+    private static final byte TAG_END = 0;
+
+    /** 记录类型：工作表开始 */
+    private static final byte TAG_START_SHEET = 1;
+
+    /** 记录类型：一部电影 */
+    private static final byte TAG_BLOCK = 2;
+
+    /** 记录类型：工作表结束 */
+    private static final byte TAG_END_SHEET = 3;
+
+    /** 缓存文件 */
+    private final File cacheFile;
+
+    /** 赋值Excel */
+    private final File relationFile;
+
+    /** 赋值工作表名 */
+    private final String relationSheetName;
+
+    /** 来源Excel */
+    private final File mainFile;
+
+    /** 来源工作表名 */
+    private final String[] mainSheetNames;
+
+    /**
+     * 全参构造函数
+     * @param cacheFile 缓存文件
+     * @param relationFile 赋值Excel
+     * @param relationSheetName 赋值工作表名
+     * @param mainFile 来源Excel
+     * @param mainSheetNames 来源工作表名
+     */
+    public InputCache(File cacheFile, File relationFile, String relationSheetName,
+                      File mainFile, String[] mainSheetNames) {
+        this.cacheFile = cacheFile;
+        this.relationFile = relationFile;
+        this.relationSheetName = relationSheetName;
+        this.mainFile = mainFile;
+        this.mainSheetNames = mainSheetNames;
+    }
+
+    /**
+     * 读取缓存。Key一致时把字典恢复到传入的空字典中，编号与解析时完全相同
+     * @param sectionDictionary 分工字典（空）
+     * @param movieComDictionary 电影公司字典（空）
+     * @return 缓存的输入，缓存不存在、已经过期或者已经损坏返回null，损坏的缓存文件会被删除
+     */
+    public CachedInput load(IntDictionary sectionDictionary, IntDictionary movieComDictionary) {
+        if (!cacheFile.isFile() || sectionDictionary.size() > 0 || movieComDictionary.size() > 0) {
+            return null;
+        }
+        FileChannel channel = null;
+        boolean corrupt = false;
+        try {
+            channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ);
+            long fileSize = channel.size();
+            int headerLength = readFully(channel, 0, 4).getInt();
+            if (headerLength <= 0 || 4L + headerLength + 8 + TRAILER_LENGTH > fileSize
+                    || !this.matchHeader(readFully(channel, 4, headerLength))) {
+                return null;
+            }
+            // Key一致才校验整个文件：回放时电影已经陆续交给流水线，不能读到一半才发现损坏
+            ByteBuffer trailer = readFully(channel, fileSize - TRAILER_LENGTH, TRAILER_LENGTH);
+            long dictionaryOffset = trailer.getLong();
+            if (trailer.getLong() != checksum(channel, fileSize - 8)) {
+                corrupt = true;
+                return null;
+            }
+            // 先完整读出字典，确认无误后才写入传入的字典
+            if (dictionaryOffset < 4L + headerLength || dictionaryOffset > fileSize - TRAILER_LENGTH
+                    || fileSize - TRAILER_LENGTH - dictionaryOffset > Integer.MAX_VALUE) {
+                corrupt = true;
+                return null;
+            }
+            ByteBuffer dictionaries = readFully(channel, dictionaryOffset,
+                    (int) (fileSize - TRAILER_LENGTH - dictionaryOffset));
+            String[] sectionNames = readStrings(dictionaries);
+            String[] movieComNames = readStrings(dictionaries);
+            // 分工权重
+            long relationOffset = 4L + headerLength;
+            ByteBuffer relation = readFully(channel, relationOffset, 8);
+            int relationCnt = relation.getInt();
+            int relationSize = relation.getInt();
+            long blocksOffset = relationOffset + 8 + (long) relationSize * 12;
+            if (relationSize < 0 || blocksOffset > dictionaryOffset) {
+                corrupt = true;
+                return null;
+            }
+            relation = readFully(channel, relationOffset + 8, relationSize * 12);
+            LongIntHashMap sectionABWeight = new LongIntHashMap(relationSize);
+            for (int i = 0; i < relationSize; i++) {
+                long key = relation.getLong();
+                sectionABWeight.put(key, relation.getInt());
+            }
+            for (String sectionName : sectionNames) {
+                sectionDictionary.intern(sectionName);
+            }
+            for (String movieComName : movieComNames) {
+                movieComDictionary.intern(movieComName);
+            }
+            return new CachedInput(sectionABWeight, relationCnt, cacheFile, blocksOffset);
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            IOUtils.closeQuietly(channel);
+            if (corrupt) {
+                System.out.println("输入缓存[" + cacheFile.getPath() + "]已损坏，删除后重新解析Excel！");
+                cacheFile.delete();
+            }
+        }
+    }
+
+    /**
+     * 开始记录一次解析的结果。先写入头部和分工权重，电影经由返回的记录器边解析边写入
+     * @param sectionABWeight 分工权重
+     * @param relationCnt 赋值表的有效行数
+     * @param delegate 记录后再交给它处理
+     * @return 记录器
+     * @throws IOException 写入失败
+     */
+    public Recorder record(LongIntHashMap sectionABWeight, int relationCnt, IMovieBlockHandler delegate)
+            throws IOException {
+        File dir = cacheFile.getAbsoluteFile().getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("创建缓存目录[" + dir.getPath() + "]失败！");
+        }
+        File tempFile = new File(cacheFile.getPath() + ".tmp");
+        CheckedOutputStream cos = new CheckedOutputStream(new FileOutputStream(tempFile), new CRC32());
+        DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(cos, 64 * 1024));
+        try {
+            byte[] header = this.createHeader();
+            dos.writeInt(header.length);
+            dos.write(header);
+            dos.writeInt(relationCnt);
+            dos.writeInt(sectionABWeight.size());
+            DataOutputStream out = dos;
+            IOException[] error = new IOException[1];
+            sectionABWeight.forEach((key, weight) -> {
+                try {
+                    out.writeLong(key);
+                    out.writeInt(weight);
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            });
+            if (error[0] != null) {
+                throw error[0];
+            }
+        } catch (IOException e) {
+            IOUtils.closeQuietly(dos);
+            tempFile.delete();
+            throw e;
+        }
+        return new Recorder(dos, cos.getChecksum(), tempFile, delegate);
+    }
+
+    /**
+     * 生成头部：格式版本、文件名、工作表名，以及两个Excel的大小、修改时间、SHA-256
+     * @return 头部
+     * @throws IOException 读取Excel失败
+     */
+    private byte[] createHeader() throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        this.writeIdentity(dos);
+        writeFingerprint(dos, relationFile);
+        writeFingerprint(dos, mainFile);
+        dos.flush();
+        return bos.toByteArray();
+    }
+
+    /**
+     * 写入头部中与文件内容无关的部分
+     * @param dos 输出
+     * @throws IOException 写入失败
+     */
+    private void writeIdentity(DataOutputStream dos) throws IOException {
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        writeString(dos, relationFile.getName());
+        writeString(dos, relationSheetName);
+        writeString(dos, mainFile.getName());
+        dos.writeInt(mainSheetNames.length);
+        for (String sheetName : mainSheetNames) {
+            writeString(dos, sheetName);
+        }
+    }
+
+    /**
+     * 检查头部与当前的配置、Excel是否一致
+     * @param header 头部
+     * @return 是否一致
+     * @throws IOException 读取Excel失败
+     */
+    private boolean matchHeader(ByteBuffer header) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream dos = new DataOutputStream(bos);
+        this.writeIdentity(dos);
+        dos.flush();
+        byte[] identity = bos.toByteArray();
+        if (header.remaining() < identity.length) {
+            return false;
+        }
+        byte[] cachedIdentity = new byte[identity.length];
+        header.get(cachedIdentity);
+        return Arrays.equals(identity, cachedIdentity)
+                && matchFingerprint(header, relationFile)
+                && matchFingerprint(header, mainFile);
+    }
+
+    /**
+     * 写入文件的大小、修改时间和SHA-256
+     * @param dos 输出
+     * @param file 文件
+     * @throws IOException 读取文件失败
+     */
+    private static void writeFingerprint(DataOutputStream dos, File file) throws IOException {
+        dos.writeLong(file.length());
+        dos.writeLong(file.lastModified());
+        dos.write(sha256(file));
+    }
+
+    /**
+     * 检查文件是否与缓存时一致。大小和修改时间都没变就认为一致；只有修改时间变了，再比较SHA-256
+     * @param header 头部，读取位置在该文件的指纹处
+     * @param file 文件
+     * @return 是否一致
+     * @throws IOException 读取文件失败
+     */
+    private static boolean matchFingerprint(ByteBuffer header, File file) throws IOException {
+        if (header.remaining() < 16 + 32) {
+            return false;
+        }
+        long size = header.getLong();
+        long lastModified = header.getLong();
+        byte[] sha = new byte[32];
+        header.get(sha);
+        if (!file.isFile() || size != file.length()) {
+            return false;
+        }
+        return lastModified == file.lastModified() || Arrays.equals(sha, sha256(file));
+    }
+
+    /**
+     * 计算文件的SHA-256
+     * @param file 文件
+     * @return SHA-256
+     * @throws IOException 读取文件失败
+     */
+    private static byte[] sha256(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        InputStream is = null;
+        try {
+            is = new DigestInputStream(new FileInputStream(file), digest);
+            byte[] buf = new byte[64 * 1024];
+            while (is.read(buf) >= 0) {
+                // 读取的同时计算摘要
+            }
+        } finally {
+            IOUtils.closeQuietly(is);
+        }
+        return digest.digest();
+    }
+
+    /**
+     * 写入字符串：UTF-8字节数+UTF-8字节
+     * @param dos 输出
+     * @param s 字符串
+     * @throws IOException 写入失败
+     */
+    private static void writeString(DataOutputStream dos, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    /**
+     * 从文件的指定位置读满一段到堆内缓冲区
+     * @param channel 文件
+     * @param position 起始位置
+     * @param length 字节数
+     * @return 缓冲区，位置在开头
+     * @throws IOException 读取失败，或者文件不够长
+     */
+    private static ByteBuffer readFully(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("输入缓存不完整");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * 计算文件开头一段的CRC32
+     * @param channel 文件
+     * @param length 字节数
+     * @return CRC32
+     * @throws IOException 读取失败，或者文件不够长
+     */
+    private static long checksum(FileChannel channel, long length) throws IOException {
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+        long position = 0;
+        while (position < length) {
+            buffer.clear();
+            if (length - position < buffer.capacity()) {
+                buffer.limit((int) (length - position));
+            }
+            int read = channel.read(buffer, position);
+            if (read < 0) {
+                throw new EOFException("输入缓存不完整");
+            }
+            buffer.flip();
+            crc.update(buffer);
+            position += read;
+        }
+        return crc.getValue();
+    }
+
+    /**
+     * 读取字符串
+     * @param buffer 输入
+     * @return 字符串
+     */
+    private static String readString(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 读取字符串数组：个数+各字符串
+     * @param buffer 输入
+     * @return 字符串数组
+     */
+    private static String[] readStrings(ByteBuffer buffer) {
+        String[] strings = new String[buffer.getInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = readString(buffer);
+        }
+        return strings;
+    }
+
+    /**
+     * 读取字符串
+     * @param dis 输入
+     * @return 字符串
+     * @throws IOException 读取失败
+     */
+    private static String readString(DataInputStream dis) throws IOException {
+        byte[] bytes = new byte[dis.readInt()];
+        dis.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Usage:
+     * 命中的缓存：分工权重已经读出，电影在回放时从缓存文件中顺序读出
+     */
+    public static class CachedInput {
+
+        /** 分工权重 */
+        private final LongIntHashMap sectionABWeight;
+
+        /** 赋值表的有效行数 */
+        private final int relationCnt;
+
+        /** 缓存文件 */
+        private final File cacheFile;
+
+        /** 各工作表的电影记录在文件中的起始位置 */
+        private final long blocksOffset;
+
+        /**
+         * 全参构造函数
+         * @param sectionABWeight 分工权重
+         * @param relationCnt 赋值表的有效行数
+         * @param cacheFile 缓存文件
+         * @param blocksOffset 各工作表的电影记录在文件中的起始位置
+         */
+        CachedInput(LongIntHashMap sectionABWeight, int relationCnt, File cacheFile, long blocksOffset) {
+            this.sectionABWeight = sectionABWeight;
+            this.relationCnt = relationCnt;
+            this.cacheFile = cacheFile;
+            this.blocksOffset = blocksOffset;
+        }
+
+        /**
+         * 获取 分工权重
+         * @return 分工权重
+         */
+        public LongIntHashMap getSectionABWeight() {
+            return sectionABWeight;
+        }
+
+        /**
+         * 获取 赋值表的有效行数
+         * @return 赋值表的有效行数
+         */
+        public int getRelationCnt() {
+            return relationCnt;
+        }
+
+        /**
+         * 按解析时的顺序回放各工作表的电影，回放完关闭文件
+         * @param handler 电影处理器
+         * @throws UncheckedIOException 读取缓存文件失败
+         */
+        public void replay(IMovieBlockHandler handler) {
+            FileInputStream fis = null;
+            try {
+                fis = new FileInputStream(cacheFile);
+                fis.getChannel().position(blocksOffset);
+                DataInputStream dis = new DataInputStream(new BufferedInputStream(fis, 64 * 1024));
+                String sheetName = null;
+                byte tag;
+                while ((tag = dis.readByte()) != TAG_END) {
+                    switch (tag) {
+                        case TAG_START_SHEET:
+                            sheetName = readString(dis);
+                            handler.startSheet(sheetName);
+                            break;
+                        case TAG_BLOCK:
+                            int size = dis.readInt();
+                            MovieBlock movieBlock = new MovieBlock(size);
+                            for (int i = 0; i < size; i++) {
+                                int movieComId = dis.readInt();
+                                movieBlock.add(movieComId, dis.readInt());
+                            }
+                            handler.handleBlock(sheetName, movieBlock);
+                            break;
+                        case TAG_END_SHEET:
+                            handler.endSheet(sheetName, dis.readInt());
+                            break;
+                        default:
+                            throw new IllegalStateException("输入缓存已损坏，未知的记录类型：" + tag);
+                    }
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("读取输入缓存[" + cacheFile.getPath() + "]失败", e);
+            } finally {
+                IOUtils.closeQuietly(fis);
+            }
+        }
+
+    }
+
+    /**
+     * Usage:
+     * 记录器：把电影写入缓存的临时文件，再交给下一个处理器。
+     * 全部解析成功后commit，写入字典并替换旧的缓存文件；中途写入失败则只放弃缓存，不影响统计
+     */
+    public class Recorder implements IMovieBlockHandler {
+
+        /** 临时文件的输出 */
+        private final DataOutputStream dos;
+
+        /** 已经写入临时文件的内容的校验和 */
+        private final Checksum checksum;
+
+        /** 临时文件 */
+        private final File tempFile;
+
+        /** 下一个处理器 */
+        private final IMovieBlockHandler delegate;
+
+        /** 写入是否已经失败 */
+        private boolean failed;
+
+        /**
+         * 全参构造函数
+         * @param dos 临时文件的输出
+         * @param checksum 已经写入临时文件的内容的校验和
+         * @param tempFile 临时文件
+         * @param delegate 下一个处理器
+         */
+        Recorder(DataOutputStream dos, Checksum checksum, File tempFile, IMovieBlockHandler delegate) {
+            this.dos = dos;
+            this.checksum = checksum;
+            this.tempFile = tempFile;
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void startSheet(String sheetName) {
+            if (!failed) {
+                try {
+                    dos.writeByte(TAG_START_SHEET);
+                    writeString(dos, sheetName);
+                } catch (IOException e) {
+                    this.fail(e);
+                }
+            }
+            delegate.startSheet(sheetName);
+        }
+
+        @Override
+        public void handleBlock(String sheetName, MovieBlock movieBlock) {
+            if (!failed) {
+                try {
+                    dos.writeByte(TAG_BLOCK);
+                    dos.writeInt(movieBlock.size());
+                    for (int i = 0; i < movieBlock.size(); i++) {
+                        dos.writeInt(movieBlock.getMovieComId(i));
+                        dos.writeInt(movieBlock.getSectionId(i));
+                    }
+                } catch (IOException e) {
+                    this.fail(e);
+                }
+            }
+            delegate.handleBlock(sheetName, movieBlock);
+        }
+
+        @Override
+        public void endSheet(String sheetName, int cnt) {
+            if (!failed) {
+                try {
+                    dos.writeByte(TAG_END_SHEET);
+                    dos.writeInt(cnt);
+                } catch (IOException e) {
+                    this.fail(e);
+                }
+            }
+            delegate.endSheet(sheetName, cnt);
+        }
+
+        /**
+         * 解析全部完成，写入字典，替换旧的缓存文件
+         * @param sectionDictionary 分工字典
+         * @param movieComDictionary 电影公司字典
+         */
+        public void commit(IntDictionary sectionDictionary, IntDictionary movieComDictionary) {
+            if (failed) {
+                return;
+            }
+            try {
+                dos.writeByte(TAG_END);
+                long dictionaryOffset = dos.size();
+                writeDictionary(sectionDictionary);
+                writeDictionary(movieComDictionary);
+                dos.writeLong(dictionaryOffset);
+                // 先把缓冲的内容写出去，校验和才覆盖到字典的偏移量
+                dos.flush();
+                dos.writeLong(checksum.getValue());
+                // DataOutputStream的计数到int上限就不再增加，之后记下的字典偏移量就不对了
+                if (dos.size() == Integer.MAX_VALUE) {
+                    throw new IOException("输入缓存超过2GB，不再缓存");
+                }
+                dos.close();
+                Files.move(tempFile.toPath(), cacheFile.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                System.out.println("写入输入缓存[" + cacheFile.getPath() + "]完成！");
+            } catch (IOException e) {
+                this.fail(e);
+            }
+        }
+
+        /**
+         * 放弃缓存，删除临时文件
+         */
+        public void abort() {
+            IOUtils.closeQuietly(dos);
+            tempFile.delete();
+        }
+
+        /**
+         * 写入字典：个数+按编号顺序的字符串
+         * @param dictionary 字典
+         * @throws IOException 写入失败
+         */
+        private void writeDictionary(IntDictionary dictionary) throws IOException {
+            int size = dictionary.size();
+            dos.writeInt(size);
+            for (int id = 0; id < size; id++) {
+                writeString(dos, dictionary.getName(id));
+            }
+        }
+
+        /**
+         * 写入失败，放弃缓存
+         * @param e 异常
+         */
+        private void fail(IOException e) {
+            e.printStackTrace();
+            failed = true;
+            this.abort();
+        }
+
+    }
+
+}
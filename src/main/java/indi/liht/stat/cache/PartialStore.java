@@ -0,0 +1,260 @@
+package indi.liht.stat.cache;
+
+import indi.liht.stat.collection.CsrMatrix;
+import indi.liht.stat.collection.IntDictionary;
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.collection.PairKey;
+import org.apache.poi.util.IOUtils;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Usage:
+ * 各工作表上次计算出的电影公司权重，每个工作表一个文件，和工作表的指纹存在一起。
+ * 权重中的公司编号是文件内部的编号，附带公司名，读取时再换成本次运行的字典编号。
+ * 文件头部还记着保存时的计算配置（去重、近似统计、筛选），配置变了就当作没有上次的结果
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/18
+ **/
+public class PartialStore {
+
+    /** 文件标识"STMP" */
+    private static final int MAGIC = 0x53544D50;
+
+    /** 文件格式版本 */
+    private static final int VERSION = 2;
+
+    /** 存放目录 */
+    private final File dir;
+
+    /** 本次运行的计算配置 */
+    private final String settings;
+
+    /**
+     * 全参构造函数
+     * @param dir 存放目录
+     * @param settings 本次运行的计算配置，与保存时不同的结果不再复用
+     */
+    public PartialStore(File dir, String settings) {
+        this.dir = dir;
+        this.settings = settings;
+    }
+
+    /**
+     * 读取某个工作表上次的结果
+     * @param sheetName 工作表名
+     * @return 上次的结果，不存在、无法读取或者计算配置不同返回null
+     */
+    public StoredPartial load(String sheetName) {
+        File file = this.fileOf(sheetName);
+        if (!file.isFile()) {
+            return null;
+        }
+        DataInputStream dis = null;
+        try {
+            dis = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 64 * 1024));
+            if (dis.readInt() != MAGIC || dis.readInt() != VERSION || !sheetName.equals(dis.readUTF())
+                    || !settings.equals(dis.readUTF())) {
+                return null;
+            }
+            StoredPartial partial = new StoredPartial();
+            partial.fingerprint = readBytes(dis);
+            int checkpointCount = dis.readInt();
+            partial.checkpoints = new ArrayList<>(checkpointCount);
+            for (int i = 0; i < checkpointCount; i++) {
+                partial.checkpoints.add(readBytes(dis));
+            }
+            partial.movieComNames = new String[dis.readInt()];
+            for (int i = 0; i < partial.movieComNames.length; i++) {
+                partial.movieComNames[i] = dis.readUTF();
+            }
+            int pairCount = dis.readInt();
+            partial.keys = new long[pairCount];
+            partial.weights = new int[pairCount];
+            for (int i = 0; i < pairCount; i++) {
+                partial.keys[i] = dis.readLong();
+                partial.weights[i] = dis.readInt();
+            }
+            return partial;
+        } catch (IOException e) {
+            e.printStackTrace();
+            return null;
+        } finally {
+            IOUtils.closeQuietly(dis);
+        }
+    }
+
+    /**
+     * 保存某个工作表的结果
+     * @param sheetName 工作表名
+     * @param fingerprint 工作表的指纹
+     * @param checkpoints 工作表的中间摘要
+     * @param movieABWeight 电影公司权重，按PairKey从小到大排列的公司对，读两遍
+     * @param movieComDictionary 电影公司字典
+     * @throws IOException 写入失败
+     */
+    public void save(String sheetName, byte[] fingerprint, List<byte[]> checkpoints,
+                     CsrMatrix.PairSource movieABWeight, IntDictionary movieComDictionary) throws IOException {
+        // 只存权重表中出现过的公司，编号按字典编号的顺序重新从0开始
+        int[] localIds = new int[movieComDictionary.size()];
+        int[] pairCount = new int[1];
+        movieABWeight.forEach((key, weight) -> {
+            localIds[PairKey.first(key)] = 1;
+            localIds[PairKey.second(key)] = 1;
+            pairCount[0]++;
+        });
+        List<String> movieComNames = new ArrayList<>();
+        for (int id = 0; id < localIds.length; id++) {
+            if (localIds[id] != 0) {
+                localIds[id] = movieComNames.size();
+                movieComNames.add(movieComDictionary.getName(id));
+            }
+        }
+
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("创建目录[" + dir.getPath() + "]失败！");
+        }
+        File file = this.fileOf(sheetName);
+        File tempFile = new File(file.getPath() + ".tmp");
+        DataOutputStream dos = null;
+        try {
+            dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile), 64 * 1024));
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeUTF(sheetName);
+            dos.writeUTF(settings);
+            writeBytes(dos, fingerprint);
+            dos.writeInt(checkpoints.size());
+            for (byte[] checkpoint : checkpoints) {
+                writeBytes(dos, checkpoint);
+            }
+            dos.writeInt(movieComNames.size());
+            for (String movieComName : movieComNames) {
+                dos.writeUTF(movieComName);
+            }
+            dos.writeInt(pairCount[0]);
+            DataOutputStream out = dos;
+            IOException[] error = new IOException[1];
+            movieABWeight.forEach((key, weight) -> {
+                if (error[0] != null) {
+                    return;
+                }
+                try {
+                    out.writeLong(PairKey.of(localIds[PairKey.first(key)], localIds[PairKey.second(key)]));
+                    out.writeInt(weight);
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            });
+            if (error[0] != null) {
+                throw error[0];
+            }
+            dos.close();
+            Files.move(tempFile.toPath(), file.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            IOUtils.closeQuietly(dos);
+            tempFile.delete();
+        }
+    }
+
+    /**
+     * 工作表对应的文件。文件名用工作表名的UTF-8十六进制，避免工作表名中有文件名不允许的字符
+     * @param sheetName 工作表名
+     * @return 文件
+     */
+    private File fileOf(String sheetName) {
+        StringBuilder sb = new StringBuilder("sheet-");
+        for (byte b : sheetName.getBytes(StandardCharsets.UTF_8)) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return new File(dir, sb.append(".partial").toString());
+    }
+
+    /**
+     * 写入字节数组：长度+内容
+     * @param dos 输出
+     * @param bytes 字节数组
+     * @throws IOException 写入失败
+     */
+    private static void writeBytes(DataOutputStream dos, byte[] bytes) throws IOException {
+        dos.writeInt(bytes.length);
+        dos.write(bytes);
+    }
+
+    /**
+     * 读取字节数组
+     * @param dis 输入
+     * @return 字节数组
+     * @throws IOException 读取失败
+     */
+    private static byte[] readBytes(DataInputStream dis) throws IOException {
+        byte[] bytes = new byte[dis.readInt()];
+        dis.readFully(bytes);
+        return bytes;
+    }
+
+    /**
+     * Usage:
+     * 一个工作表上次的结果
+     */
+    public static class StoredPartial {
+
+        /** 工作表的指纹 */
+        private byte[] fingerprint;
+
+        /** 工作表的中间摘要 */
+        private List<byte[]> checkpoints;
+
+        /** 文件内部编号 -> 公司名 */
+        private String[] movieComNames;
+
+        /** 公司对（文件内部编号） */
+        private long[] keys;
+
+        /** 权重 */
+        private int[] weights;
+
+        /**
+         * 获取 工作表的指纹
+         * @return 指纹
+         */
+        public byte[] getFingerprint() {
+            return fingerprint;
+        }
+
+        /**
+         * 获取 第i个中间摘要
+         * @param i 下标
+         * @return 中间摘要，不存在返回null
+         */
+        public byte[] getCheckpoint(int i) {
+            return i < checkpoints.size() ? checkpoints.get(i) : null;
+        }
+
+        /**
+         * 换成本次运行的字典编号，得到电影公司权重
+         * @param movieComDictionary 电影公司字典
+         * @return 电影公司权重
+         */
+        public LongIntHashMap toWeightMap(IntDictionary movieComDictionary) {
+            int[] globalIds = new int[movieComNames.length];
+            for (int i = 0; i < movieComNames.length; i++) {
+                globalIds[i] = movieComDictionary.intern(movieComNames[i]);
+            }
+            LongIntHashMap movieABWeight = new LongIntHashMap(keys.length);
+            for (int i = 0; i < keys.length; i++) {
+                movieABWeight.put(PairKey.of(globalIds[PairKey.first(keys[i])],
+                        globalIds[PairKey.second(keys[i])]), weights[i]);
+            }
+            return movieABWeight;
+        }
+
+    }
+
+}
@@ -0,0 +1,185 @@
+package indi.liht.stat.cache;
+
+import indi.liht.stat.collection.IntDictionary;
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.collection.PairKey;
+import indi.liht.stat.models.MovieBlock;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Usage:
+ * 一个工作表的指纹：赋值表的指纹，加上按顺序的每部电影的公司名和分工名，取SHA-256。
+ * 用名字而不用编号，别的工作表增删公司不会影响这个工作表的指纹。
+ * 每CHECKPOINT_INTERVAL部电影记录一次中间摘要，和上次的比较就能尽早发现工作表有变化
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/18
+ **/
+public class SheetFingerprint {
+
+    /** 每多少部电影记录一次中间摘要 */
+    public static final int CHECKPOINT_INTERVAL = 4096;
+
+    /** 摘要 */
+    private final MessageDigest digest;
+
+    /** 分工字典 */
+    private final IntDictionary sectionDictionary;
+
+    /** 电影公司字典 */
+    private final IntDictionary movieComDictionary;
+
+    /** 中间摘要 */
+    private final List<byte[]> checkpoints = new ArrayList<>();
+
+    /** 已经加入的电影数 */
+    private int blockCount;
+
+    /** 最终的指纹，finish之后才有 */
+    private byte[] value;
+
+    /**
+     * 全参构造函数
+     * @param relationFingerprint 赋值表的指纹
+     * @param sectionDictionary 分工字典
+     * @param movieComDictionary 电影公司字典
+     */
+    public SheetFingerprint(byte[] relationFingerprint,
+                            IntDictionary sectionDictionary, IntDictionary movieComDictionary) {
+        this.digest = newDigest();
+        this.digest.update(relationFingerprint);
+        this.sectionDictionary = sectionDictionary;
+        this.movieComDictionary = movieComDictionary;
+    }
+
+    /**
+     * 加入一部电影
+     * @param movieBlock 电影公司与其分工
+     * @return 是否刚好到了一个记录中间摘要的位置
+     */
+    public boolean add(MovieBlock movieBlock) {
+        updateInt(digest, movieBlock.size());
+        for (int i = 0; i < movieBlock.size(); i++) {
+            updateString(digest, movieComDictionary.getName(movieBlock.getMovieComId(i)));
+            updateString(digest, sectionDictionary.getName(movieBlock.getSectionId(i)));
+        }
+        if (++blockCount % CHECKPOINT_INTERVAL != 0) {
+            return false;
+        }
+        try {
+            checkpoints.add(((MessageDigest) digest.clone()).digest());
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException(e);
+        }
+        return true;
+    }
+
+    /**
+     * 获取 最近一次的中间摘要
+     * @return 中间摘要
+     */
+    public byte[] getLastCheckpoint() {
+        return checkpoints.get(checkpoints.size() - 1);
+    }
+
+    /**
+     * 获取 已经记录的中间摘要个数
+     * @return 个数
+     */
+    public int getCheckpointCount() {
+        return checkpoints.size();
+    }
+
+    /**
+     * 获取 所有中间摘要
+     * @return 中间摘要
+     */
+    public List<byte[]> getCheckpoints() {
+        return checkpoints;
+    }
+
+    /**
+     * 工作表结束，算出最终的指纹
+     * @param cnt 工作表的有效电影数
+     * @return 指纹
+     */
+    public byte[] finish(int cnt) {
+        updateInt(digest, blockCount);
+        updateInt(digest, cnt);
+        value = digest.digest();
+        return value;
+    }
+
+    /**
+     * 获取 最终的指纹
+     * @return 指纹，finish之前为空
+     */
+    public byte[] getValue() {
+        return value;
+    }
+
+    /**
+     * 赋值表的指纹。条目按分工名排序后再摘要，与赋值表的行顺序无关
+     * @param sectionABWeight 分工权重
+     * @param sectionDictionary 分工字典
+     * @return 指纹
+     */
+    public static byte[] ofRelation(LongIntHashMap sectionABWeight, IntDictionary sectionDictionary) {
+        List<String[]> entries = new ArrayList<>(sectionABWeight.size());
+        sectionABWeight.forEach((key, weight) -> {
+            String a = sectionDictionary.getName(PairKey.first(key));
+            String b = sectionDictionary.getName(PairKey.second(key));
+            entries.add(a.compareTo(b) <= 0
+                    ? new String[]{a, b, String.valueOf(weight)}
+                    : new String[]{b, a, String.valueOf(weight)});
+        });
+        entries.sort((x, y) -> x[0].equals(y[0]) ? x[1].compareTo(y[1]) : x[0].compareTo(y[0]));
+        MessageDigest relationDigest = newDigest();
+        for (String[] entry : entries) {
+            for (String s : entry) {
+                updateString(relationDigest, s);
+            }
+        }
+        return relationDigest.digest();
+    }
+
+    /**
+     * 新建SHA-256摘要
+     * @return 摘要
+     */
+    private static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * 摘要一个整数
+     * @param digest 摘要
+     * @param value 整数
+     */
+    private static void updateInt(MessageDigest digest, int value) {
+        digest.update((byte) (value >>> 24));
+        digest.update((byte) (value >>> 16));
+        digest.update((byte) (value >>> 8));
+        digest.update((byte) value);
+    }
+
+    /**
+     * 摘要一个字符串，先摘要长度，避免"ab"+"c"和"a"+"bc"相同
+     * @param digest 摘要
+     * @param s 字符串
+     */
+    private static void updateString(MessageDigest digest, String s) {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        updateInt(digest, bytes.length);
+        digest.update(bytes);
+    }
+
+}
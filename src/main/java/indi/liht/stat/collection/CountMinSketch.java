@@ -0,0 +1,164 @@
+package indi.liht.stat.collection;
+
+import java.util.Arrays;
+
+/**
+ * Usage:
+ * Count-Min计数草图：depth行、每行width个long计数器，每行用不同的哈希把键映射到一个计数器上累加，
+ * 估计值取各行的最小值。内存固定为depth*width*8字节，与键的个数无关。
+ * 权重都不为负时，估计值不会小于真实值；设累加的权重总和为N，ε=e/width，δ=e^-depth，
+ * 则每个键的估计值以不低于1-δ的概率不超过真实值+εN。不是线程安全的
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class CountMinSketch {
+
+    /** 每行的计数器数，2的幂 */
+    private final int width;
+
+    /** 行数 */
+    private final int depth;
+
+    /** 计数器，第row行从row*width开始 */
+    private final long[] counters;
+
+    /** 每行哈希的种子 */
+    private final long[] seeds;
+
+    /** 累加的权重总和 */
+    private long total;
+
+    /**
+     * 全参构造函数
+     * @param width 每行的计数器数，向下取到2的幂
+     * @param depth 行数
+     */
+    public CountMinSketch(int width, int depth) {
+        this.width = Integer.highestOneBit(Math.max(width, 2));
+        this.depth = Math.max(depth, 1);
+        this.counters = new long[this.width * this.depth];
+        this.seeds = new long[this.depth];
+        long seed = 0x2545F4914F6CDD1DL;
+        for (int row = 0; row < this.depth; row++) {
+            seed += 0x9E3779B97F4A7C15L;
+            seeds[row] = mix(seed);
+        }
+    }
+
+    /**
+     * 按内存大小构造
+     * @param bytes 计数器占用的字节数
+     * @param depth 行数
+     * @return 计数草图，每行的计数器数为不超过预算的最大的2的幂
+     */
+    public static CountMinSketch ofBytes(long bytes, int depth) {
+        int rows = Math.max(depth, 1);
+        long width = bytes / Long.BYTES / rows;
+        return new CountMinSketch((int) Math.min(Math.max(width, 2), Integer.MAX_VALUE / 2 / rows), rows);
+    }
+
+    /**
+     * 累加一个键的权重，同时返回累加后的估计值
+     * @param key 键
+     * @param weight 权重，不能为负
+     * @return 估计值
+     */
+    public long add(long key, long weight) {
+        total += weight;
+        long estimate = Long.MAX_VALUE;
+        int mask = width - 1;
+        for (int row = 0, offset = 0; row < depth; row++, offset += width) {
+            int index = offset + ((int) mix(key ^ seeds[row]) & mask);
+            long count = counters[index] += weight;
+            if (count < estimate) {
+                estimate = count;
+            }
+        }
+        return estimate;
+    }
+
+    /**
+     * 估计一个键的权重
+     * @param key 键
+     * @return 估计值，不小于真实值
+     */
+    public long estimate(long key) {
+        long estimate = Long.MAX_VALUE;
+        int mask = width - 1;
+        for (int row = 0, offset = 0; row < depth; row++, offset += width) {
+            long count = counters[offset + ((int) mix(key ^ seeds[row]) & mask)];
+            if (count < estimate) {
+                estimate = count;
+            }
+        }
+        return estimate;
+    }
+
+    /**
+     * 清空所有计数器，内存不释放，可以重新使用
+     */
+    public void clear() {
+        Arrays.fill(counters, 0L);
+        total = 0L;
+    }
+
+    /**
+     * 获取 估计值最多高出的权重εN（以1-δ的概率）
+     * @return 权重
+     */
+    public long getErrorBound() {
+        return (long) Math.ceil(Math.E / width * total);
+    }
+
+    /**
+     * 获取 估计超出误差上限的概率δ
+     * @return 概率
+     */
+    public double getFailureProbability() {
+        return Math.exp(-depth);
+    }
+
+    /**
+     * 获取 累加的权重总和
+     * @return 权重总和
+     */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * 获取 每行的计数器数
+     * @return 计数器数
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * 获取 行数
+     * @return 行数
+     */
+    public int getDepth() {
+        return depth;
+    }
+
+    /**
+     * 获取 计数器占用的字节数
+     * @return 字节数
+     */
+    public long getBytes() {
+        return (long) counters.length * Long.BYTES;
+    }
+
+    /**
+     * 64位混合函数（SplitMix64的最后一步），键的每一位都影响结果的每一位
+     * @param z 输入
+     * @return 混合后的值
+     */
+    private static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+}
@@ -0,0 +1,450 @@
+package indi.liht.stat.collection;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Usage:
+ * 只读的对称稀疏矩阵，按行压缩存储（CSR），只存上三角：rowOffsets[i]到rowOffsets[i+1]之间是第i行列号不小于i的非空元素，
+ * 列号从小到大排列，权重与列号一一对应。行号、列号都是字典编号，(a, b)只在第min(a, b)行存一次，每对公司只占一个int列号加一个int权重。
+ * 需要整行（含镜像的下三角）时，第一次用到才建一个镜像索引：每行列号比行号小的元素在上三角中的下标，每对公司再多4个字节，
+ * 只按对遍历的csv输出用不到它。按整行遍历用partners返回的游标，镜像部分的行号随下标递增，游标从上一个位置往后找，不用每个元素都二分查找。
+ * 构造之后不再修改，可以被多个线程同时读取。
+ * 每个结果Sheet算完之后就冻结成这个结构，之后的筛选、输出、保存和查询都读取它
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/22
+ **/
+public final class CsrMatrix {
+
+    /** 每行的起始下标，长度为行数+1 */
+    private final int[] rowOffsets;
+
+    /** 列号 */
+    private final int[] columns;
+
+    /** 权重 */
+    private final int[] weights;
+
+    /** 镜像索引，第一次用到整行时才建 */
+    private volatile Mirror mirror;
+
+    /**
+     * 全参构造函数
+     * @param rowOffsets 每行的起始下标
+     * @param columns 列号
+     * @param weights 权重
+     */
+    private CsrMatrix(int[] rowOffsets, int[] columns, int[] weights) {
+        this.rowOffsets = rowOffsets;
+        this.columns = columns;
+        this.weights = weights;
+    }
+
+    /**
+     * 由公司对权重表构造
+     * @param pairWeights 公司对权重，Key为PairKey
+     * @param rowCount 行数，不足时按最大的编号补足
+     * @return 矩阵
+     */
+    public static CsrMatrix of(LongIntHashMap pairWeights, int rowCount) {
+        int[] maxId = {rowCount - 1};
+        pairWeights.forEach((key, weight) -> maxId[0] = Math.max(maxId[0], PairKey.second(key)));
+        int rows = maxId[0] + 1;
+        // 每行的元素数，前缀和之后为每行的起始下标
+        int[] rowOffsets = new int[rows + 1];
+        pairWeights.forEach((key, weight) -> rowOffsets[PairKey.first(key) + 1]++);
+        for (int i = 0; i < rows; i++) {
+            rowOffsets[i + 1] += rowOffsets[i];
+        }
+        // 先打包成“列号<<32|权重”按行排序，再拆开
+        long[] entries = new long[rowOffsets[rows]];
+        int[] fills = Arrays.copyOf(rowOffsets, rows);
+        pairWeights.forEach((key, weight) ->
+                entries[fills[PairKey.first(key)]++] = ((long) PairKey.second(key) << 32) | (weight & 0xFFFFFFFFL));
+        int[] columns = new int[entries.length];
+        int[] weights = new int[entries.length];
+        for (int i = 0; i < rows; i++) {
+            Arrays.sort(entries, rowOffsets[i], rowOffsets[i + 1]);
+        }
+        for (int i = 0; i < entries.length; i++) {
+            columns[i] = (int) (entries[i] >>> 32);
+            weights[i] = (int) entries[i];
+        }
+        return new CsrMatrix(rowOffsets, columns, weights);
+    }
+
+    /**
+     * 由按PairKey从小到大排列、不重复的公司对构造，读两遍：第一遍数每行的元素数，第二遍按顺序填进去。
+     * 这个顺序就是上三角按行、列从小到大的顺序，不用再排序，也不需要额外的临时数组
+     * @param pairs 有序的公司对
+     * @return 矩阵
+     * @throws IOException 读取失败
+     */
+    public static CsrMatrix ofSortedPairs(PairSource pairs) throws IOException {
+        int[][] counts = {new int[64]};
+        int[] maxId = {-1};
+        pairs.forEach((key, weight) -> {
+            int b = PairKey.second(key);
+            if (b >= counts[0].length - 1) {
+                counts[0] = Arrays.copyOf(counts[0], Math.max(counts[0].length << 1, b + 2));
+            }
+            counts[0][PairKey.first(key) + 1]++;
+            maxId[0] = Math.max(maxId[0], b);
+        });
+        int rows = maxId[0] + 1;
+        int[] rowOffsets = Arrays.copyOf(counts[0], rows + 1);
+        for (int i = 0; i < rows; i++) {
+            rowOffsets[i + 1] += rowOffsets[i];
+        }
+        int[] columns = new int[rowOffsets[rows]];
+        int[] weights = new int[columns.length];
+        int[] fill = {0};
+        pairs.forEach((key, weight) -> {
+            columns[fill[0]] = PairKey.second(key);
+            weights[fill[0]++] = weight;
+        });
+        return new CsrMatrix(rowOffsets, columns, weights);
+    }
+
+    /**
+     * 只保留标记了的元素，得到新的矩阵。每对公司只存一次，新矩阵自然是对称的
+     * @param keep 每个元素是否保留，下标与元素下标一致
+     * @return 新的矩阵，行数不变
+     */
+    public CsrMatrix retain(boolean[] keep) {
+        int rows = this.getRowCount();
+        int[] newRowOffsets = new int[rows + 1];
+        int count = 0;
+        for (int i = 0; i < columns.length; i++) {
+            if (keep[i]) {
+                count++;
+            }
+        }
+        int[] newColumns = new int[count];
+        int[] newWeights = new int[count];
+        int fill = 0;
+        for (int row = 0; row < rows; row++) {
+            for (int i = rowOffsets[row]; i < rowOffsets[row + 1]; i++) {
+                if (keep[i]) {
+                    newColumns[fill] = columns[i];
+                    newWeights[fill] = weights[i];
+                    fill++;
+                }
+            }
+            newRowOffsets[row + 1] = fill;
+        }
+        return new CsrMatrix(newRowOffsets, newColumns, newWeights);
+    }
+
+    /**
+     * 按行号、列号从小到大遍历每一对公司，(a, b)只在a不大于b时访问一次
+     * @param procedure 对每一对执行的操作，键为PairKey
+     */
+    public void forEachPair(LongIntProcedure procedure) {
+        for (int row = 0; row < rowOffsets.length - 1; row++) {
+            for (int i = rowOffsets[row], end = rowOffsets[row + 1]; i < end; i++) {
+                procedure.apply(PairKey.of(row, columns[i]), weights[i]);
+            }
+        }
+    }
+
+    /**
+     * 获取 行数
+     * @return 行数
+     */
+    public int getRowCount() {
+        return rowOffsets.length - 1;
+    }
+
+    /**
+     * 获取 公司对数，也就是存放的元素数
+     * @return 公司对数
+     */
+    public int getPairCount() {
+        return columns.length;
+    }
+
+    /**
+     * 获取 某行存放的第一个元素的下标，只含列号不小于行号的元素
+     * @param row 行号
+     * @return 下标，行号超出范围时为0
+     */
+    public int rowStart(int row) {
+        return row >= 0 && row < rowOffsets.length - 1 ? rowOffsets[row] : 0;
+    }
+
+    /**
+     * 获取 某行存放的最后一个元素的下一个下标
+     * @param row 行号
+     * @return 下标，行号超出范围时为0
+     */
+    public int rowEnd(int row) {
+        return row >= 0 && row < rowOffsets.length - 1 ? rowOffsets[row + 1] : 0;
+    }
+
+    /**
+     * 获取 某个元素的列号
+     * @param index 元素下标
+     * @return 列号
+     */
+    public int column(int index) {
+        return columns[index];
+    }
+
+    /**
+     * 获取 某个元素的权重
+     * @param index 元素下标
+     * @return 权重
+     */
+    public int weight(int index) {
+        return weights[index];
+    }
+
+    /**
+     * 获取 整行（含镜像的下三角）的元素数
+     * @param row 行号
+     * @return 元素数，行号超出范围时为0
+     */
+    public int getPartnerCount(int row) {
+        if (row < 0 || row >= rowOffsets.length - 1) {
+            return 0;
+        }
+        int[] mirrorOffsets = this.mirror().offsets;
+        return mirrorOffsets[row + 1] - mirrorOffsets[row] + rowOffsets[row + 1] - rowOffsets[row];
+    }
+
+    /**
+     * 获取 整行第k个元素的下标：前面是镜像的下三角，后面是这一行存放的元素，合起来列号从小到大
+     * @param row 行号
+     * @param k 整行中的第几个，小于getPartnerCount(row)
+     * @return 元素下标，可以用weight取权重
+     */
+    public int entryOf(int row, int k) {
+        Mirror m = this.mirror();
+        int lower = m.offsets[row + 1] - m.offsets[row];
+        return k < lower ? m.entries[m.offsets[row] + k] : rowOffsets[row] + k - lower;
+    }
+
+    /**
+     * 按列号从小到大遍历整行（含镜像的下三角）
+     * @param row 行号，超出范围时是空行
+     * @return 游标，位置在第一个元素之前
+     */
+    public PartnerCursor partners(int row) {
+        return new PartnerCursor(row);
+    }
+
+    /**
+     * 获取(row, column)的权重，(column, row)也一样
+     * @param row 行号
+     * @param column 列号
+     * @param defaultValue 不存在时返回的值
+     * @return 权重
+     */
+    public int get(int row, int column, int defaultValue) {
+        int index = this.indexOf(row, column);
+        return index >= 0 ? weights[index] : defaultValue;
+    }
+
+    /**
+     * 获取(row, column)的元素下标，(column, row)也一样，在较小编号的那一行内二分查找
+     * @param row 行号
+     * @param column 列号
+     * @return 元素下标，不存在时为-1
+     */
+    public int indexOf(int row, int column) {
+        int a = Math.min(row, column);
+        int b = Math.max(row, column);
+        int index = Arrays.binarySearch(columns, this.rowStart(a), this.rowEnd(a), b);
+        return index >= 0 ? index : -1;
+    }
+
+    /**
+     * 某个元素存放在第几行：最后一个起始下标不大于它的行，空行的起始下标与下一行相同，会被跳过。
+     * 从from开始按1、2、4……的步长往后跳，越过之后再在最后一步内二分，离from近的元素只比较几次
+     * @param index 元素下标
+     * @param from 从这一行开始找，它的起始下标不大于index
+     * @return 行号
+     */
+    private int rowOf(int index, int from) {
+        int last = rowOffsets.length - 2;
+        int low = from;
+        int step = 1;
+        while (low + step <= last && rowOffsets[low + step] <= index) {
+            low += step;
+            step <<= 1;
+        }
+        int high = Math.min(low + step - 1, last);
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (rowOffsets[mid] <= index) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * 获取 镜像索引，第一次用到时建好
+     * @return 镜像索引
+     */
+    private Mirror mirror() {
+        Mirror m = mirror;
+        if (m == null) {
+            synchronized (this) {
+                m = mirror;
+                if (m == null) {
+                    mirror = m = new Mirror(rowOffsets, columns);
+                }
+            }
+        }
+        return m;
+    }
+
+    /**
+     * Usage:
+     * 整行的游标：先是镜像的下三角，再是这一行存放的元素，合起来列号从小到大。
+     * 镜像部分的元素下标递增，所在的行也递增，每次从上一个元素的行往后找
+     */
+    public final class PartnerCursor {
+
+        /** 镜像部分的当前位置 */
+        private int lower;
+
+        /** 镜像部分的结束位置 */
+        private final int lowerEnd;
+
+        /** 存放部分的当前下标 */
+        private int upper;
+
+        /** 存放部分的结束下标 */
+        private final int upperEnd;
+
+        /** 镜像索引，没有镜像部分时为空 */
+        private final Mirror m;
+
+        /** 当前元素的下标 */
+        private int entry = -1;
+
+        /** 当前元素的列号，从第0行开始找镜像部分的第一个元素 */
+        private int partner;
+
+        /**
+         * 全参构造函数
+         * @param row 行号
+         */
+        private PartnerCursor(int row) {
+            boolean inRange = row >= 0 && row < rowOffsets.length - 1;
+            this.m = inRange ? mirror() : null;
+            this.lower = inRange ? m.offsets[row] : 0;
+            this.lowerEnd = inRange ? m.offsets[row + 1] : 0;
+            this.upper = rowStart(row);
+            this.upperEnd = rowEnd(row);
+        }
+
+        /**
+         * 移到下一个元素
+         * @return 是否还有元素
+         */
+        public boolean next() {
+            if (lower < lowerEnd) {
+                entry = m.entries[lower++];
+                partner = rowOf(entry, partner);
+                return true;
+            }
+            if (upper < upperEnd) {
+                entry = upper++;
+                partner = columns[entry];
+                return true;
+            }
+            return false;
+        }
+
+        /**
+         * 获取 当前元素的列号，也就是合作公司的编号
+         * @return 列号
+         */
+        public int partner() {
+            return partner;
+        }
+
+        /**
+         * 获取 当前元素的权重
+         * @return 权重
+         */
+        public int weight() {
+            return weights[entry];
+        }
+
+        /**
+         * 获取 当前元素的下标
+         * @return 下标
+         */
+        public int entry() {
+            return entry;
+        }
+
+    }
+
+    /**
+     * Usage:
+     * 镜像索引：offsets[i]到offsets[i+1]之间是第i行列号比i小的元素在上三角中的下标，按所在行从小到大排列
+     */
+    private static final class Mirror {
+
+        /** 每行的起始位置，长度为行数+1 */
+        private final int[] offsets;
+
+        /** 元素下标 */
+        private final int[] entries;
+
+        /**
+         * 按上三角建镜像索引
+         * @param rowOffsets 上三角每行的起始下标
+         * @param columns 上三角的列号
+         */
+        private Mirror(int[] rowOffsets, int[] columns) {
+            int rows = rowOffsets.length - 1;
+            offsets = new int[rows + 1];
+            for (int row = 0; row < rows; row++) {
+                for (int i = rowOffsets[row]; i < rowOffsets[row + 1]; i++) {
+                    if (columns[i] != row) {
+                        offsets[columns[i] + 1]++;
+                    }
+                }
+            }
+            for (int i = 0; i < rows; i++) {
+                offsets[i + 1] += offsets[i];
+            }
+            entries = new int[offsets[rows]];
+            int[] fills = Arrays.copyOf(offsets, rows);
+            for (int row = 0; row < rows; row++) {
+                for (int i = rowOffsets[row]; i < rowOffsets[row + 1]; i++) {
+                    if (columns[i] != row) {
+                        entries[fills[columns[i]]++] = i;
+                    }
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Usage:
+     * 可以重复遍历的有序公司对，比如溢出到磁盘的文件
+     */
+    @FunctionalInterface
+    public interface PairSource {
+
+        /**
+         * 按PairKey从小到大遍历每一对
+         * @param procedure 对每一对执行的操作
+         * @throws IOException 读取失败
+         */
+        void forEach(LongIntProcedure procedure) throws IOException;
+
+    }
+
+}
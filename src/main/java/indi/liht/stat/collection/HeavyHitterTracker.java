@@ -0,0 +1,171 @@
+package indi.liht.stat.collection;
+
+import java.util.Arrays;
+
+/**
+ * Usage:
+ * 重要键跟踪器：只保留估计值最大的capacity个键，用小顶堆按估计值排列，外加键 -> 堆下标的索引。
+ * 配合CountMinSketch使用：每次累加后把键和新的估计值交给offer，堆没满就加入，满了且超过堆顶就顶替堆顶。
+ * 草图的估计值只增不减，所以已经在堆里的键更新后只会下沉，不在堆里、又不超过堆顶的键直接跳过，不用查索引。
+ * 内存固定为capacity个条目。不是线程安全的
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class HeavyHitterTracker {
+
+    /** 最多保留的键数 */
+    private final int capacity;
+
+    /** 堆中的键 */
+    private final long[] keys;
+
+    /** 堆中的估计值，与keys一一对应 */
+    private final long[] counts;
+
+    /** 键 -> 堆下标 */
+    private final LongIntHashMap positions;
+
+    /** 堆中的键数 */
+    private int size;
+
+    /**
+     * 全参构造函数
+     * @param capacity 最多保留的键数
+     */
+    public HeavyHitterTracker(int capacity) {
+        this.capacity = Math.max(capacity, 1);
+        this.keys = new long[this.capacity];
+        this.counts = new long[this.capacity];
+        this.positions = new LongIntHashMap(this.capacity);
+    }
+
+    /**
+     * 提交一个键最新的估计值
+     * @param key 键
+     * @param count 估计值，同一个键的估计值只增不减
+     */
+    public void offer(long key, long count) {
+        if (size == capacity && count <= counts[0]) {
+            // 堆里的键估计值都不小于堆顶，所以这个键要么不在堆里，要么估计值没有变化
+            return;
+        }
+        int index = positions.getOrDefault(key, -1);
+        if (index >= 0) {
+            counts[index] = count;
+            this.siftDown(index);
+        } else if (size < capacity) {
+            keys[size] = key;
+            counts[size] = count;
+            positions.put(key, size);
+            this.siftUp(size++);
+        } else {
+            positions.remove(keys[0]);
+            keys[0] = key;
+            counts[0] = count;
+            positions.put(key, 0);
+            this.siftDown(0);
+        }
+    }
+
+    /**
+     * 按估计值从大到小排列的键，估计值相同时键小的在前
+     * @return 键
+     */
+    public long[] topKeys() {
+        long[] sorted = new long[size];
+        Integer[] order = new Integer[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> counts[a] != counts[b]
+                ? Long.compare(counts[b], counts[a]) : Long.compare(keys[a], keys[b]));
+        for (int i = 0; i < size; i++) {
+            sorted[i] = keys[order[i]];
+        }
+        return sorted;
+    }
+
+    /**
+     * 获取 某个键在堆中的估计值
+     * @param key 键
+     * @return 估计值，不在堆中时为0
+     */
+    public long countOf(long key) {
+        int index = positions.getOrDefault(key, -1);
+        return index >= 0 ? counts[index] : 0L;
+    }
+
+    /**
+     * 获取 堆中的键数
+     * @return 键数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 清空，内存不释放，可以重新使用
+     */
+    public void clear() {
+        positions.clear();
+        size = 0;
+    }
+
+    /**
+     * 某个元素上浮
+     * @param i 元素下标
+     */
+    private void siftUp(int i) {
+        long key = keys[i];
+        long count = counts[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (counts[parent] <= count) {
+                break;
+            }
+            this.moveTo(parent, i);
+            i = parent;
+        }
+        keys[i] = key;
+        counts[i] = count;
+        positions.put(key, i);
+    }
+
+    /**
+     * 某个元素下沉
+     * @param i 元素下标
+     */
+    private void siftDown(int i) {
+        long key = keys[i];
+        long count = counts[i];
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && counts[child + 1] < counts[child]) {
+                child++;
+            }
+            if (count <= counts[child]) {
+                break;
+            }
+            this.moveTo(child, i);
+            i = child;
+        }
+        keys[i] = key;
+        counts[i] = count;
+        positions.put(key, i);
+    }
+
+    /**
+     * 把一个元素移到另一个下标，同时更新索引
+     * @param from 原下标
+     * @param to 新下标
+     */
+    private void moveTo(int from, int to) {
+        keys[to] = keys[from];
+        counts[to] = counts[from];
+        positions.put(keys[to], to);
+    }
+
+}
@@ -0,0 +1,136 @@
+package indi.liht.stat.collection;
+
+import java.util.Arrays;
+
+/**
+ * Usage:
+ * 字符串字典，把字符串映射成从0开始连续的int编号，编号按第一次出现的顺序分配。
+ * 查找用开放寻址表，不装箱。所有方法都加了锁，读取线程和输出线程可以共用一个字典
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/06
+ **/
+public class IntDictionary {
+
+    /** 装载因子 */
+    private static final float LOAD_FACTOR = 0.6f;
+
+    /** 编号->字符串 */
+    private String[] names;
+
+    /** 开放寻址表，存放编号+1，0表示空槽位 */
+    private int[] table;
+
+    /** table长度-1，用于取模 */
+    private int mask;
+
+    /** 字符串个数 */
+    private int size;
+
+    /**
+     * 默认构造函数
+     */
+    public IntDictionary() {
+        this(64);
+    }
+
+    /**
+     * 指定预计字符串个数的构造函数
+     * @param expectedSize 预计字符串个数
+     */
+    public IntDictionary(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max((int) (expectedSize / LOAD_FACTOR), 2) - 1) << 1;
+        names = new String[Math.max(expectedSize, 8)];
+        table = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    /**
+     * 获取字符串的编号，不存在则分配一个新编号
+     * @param name 字符串
+     * @return 编号
+     */
+    public synchronized int intern(String name) {
+        int index = hash(name) & mask;
+        int slot;
+        while ((slot = table[index]) != 0) {
+            if (names[slot - 1].equals(name)) {
+                return slot - 1;
+            }
+            index = (index + 1) & mask;
+        }
+        int id = size++;
+        if (id == names.length) {
+            names = Arrays.copyOf(names, names.length << 1);
+        }
+        names[id] = name;
+        table[index] = id + 1;
+        if (size >= table.length * LOAD_FACTOR) {
+            rehash();
+        }
+        return id;
+    }
+
+    /**
+     * 获取字符串的编号
+     * @param name 字符串
+     * @return 编号，不存在返回-1
+     */
+    public synchronized int getId(String name) {
+        int index = hash(name) & mask;
+        int slot;
+        while ((slot = table[index]) != 0) {
+            if (names[slot - 1].equals(name)) {
+                return slot - 1;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 根据编号获取字符串
+     * @param id 编号
+     * @return 字符串
+     */
+    public synchronized String getName(int id) {
+        if (id < 0 || id >= size) {
+            throw new IndexOutOfBoundsException("编号[" + id + "]不存在，字典大小：" + size);
+        }
+        return names[id];
+    }
+
+    /**
+     * 字符串个数，编号的范围是[0, size)
+     * @return 字符串个数
+     */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * 扩容并重新散列
+     */
+    private void rehash() {
+        int capacity = table.length << 1;
+        table = new int[capacity];
+        mask = capacity - 1;
+        for (int id = 0; id < size; id++) {
+            int index = hash(names[id]) & mask;
+            while (table[index] != 0) {
+                index = (index + 1) & mask;
+            }
+            table[index] = id + 1;
+        }
+    }
+
+    /**
+     * String的hashCode低位分布不均，再打散一次
+     * @param name 字符串
+     * @return 哈希值
+     */
+    private static int hash(String name) {
+        int h = name.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+}
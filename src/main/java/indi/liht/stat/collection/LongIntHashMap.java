@@ -0,0 +1,314 @@
+package indi.liht.stat.collection;
+
+import java.util.Arrays;
+
+/**
+ * Usage:
+ * long->int的开放寻址哈希表（线性探测）。键和值都存放在原始类型数组里，存取不装箱、不产生临时对象。
+ * 不是线程安全的
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/06
+ **/
+public class LongIntHashMap {
+
+    /** 空槽位的标记，键为0的条目单独存放 */
+    private static final long FREE_KEY = 0L;
+
+    /** 默认初始容量 */
+    private static final int DEFAULT_CAPACITY = 16;
+
+    /** 装载因子 */
+    private static final float LOAD_FACTOR = 0.6f;
+
+    /** 键 */
+    private long[] keys;
+
+    /** 值 */
+    private int[] values;
+
+    /** 数组长度-1，用于取模 */
+    private int mask;
+
+    /** 扩容阈值 */
+    private int threshold;
+
+    /** 条目数（不含键为0的条目） */
+    private int size;
+
+    /** 是否有键为0的条目 */
+    private boolean hasFreeKey;
+
+    /** 键为0的条目的值 */
+    private int freeValue;
+
+    /**
+     * 默认构造函数
+     */
+    public LongIntHashMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * 指定预计条目数的构造函数
+     * @param expectedSize 预计条目数
+     */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = tableSizeFor((int) Math.ceil(Math.max(expectedSize, 1) / LOAD_FACTOR));
+        allocate(capacity);
+    }
+
+    /**
+     * 获取键对应的值
+     * @param key 键
+     * @param defaultValue 不存在时返回的值
+     * @return 值
+     */
+    public int getOrDefault(long key, int defaultValue) {
+        if (key == FREE_KEY) {
+            return hasFreeKey ? freeValue : defaultValue;
+        }
+        int index = indexOf(key);
+        return index >= 0 ? values[index] : defaultValue;
+    }
+
+    /**
+     * 是否包含键
+     * @param key 键
+     * @return 是否包含
+     */
+    public boolean containsKey(long key) {
+        return key == FREE_KEY ? hasFreeKey : indexOf(key) >= 0;
+    }
+
+    /**
+     * 放入键值，已存在则覆盖
+     * @param key 键
+     * @param value 值
+     */
+    public void put(long key, int value) {
+        if (key == FREE_KEY) {
+            hasFreeKey = true;
+            freeValue = value;
+            return;
+        }
+        int index = slotOf(key);
+        if (keys[index] == FREE_KEY) {
+            keys[index] = key;
+            values[index] = value;
+            afterInsert();
+        } else {
+            values[index] = value;
+        }
+    }
+
+    /**
+     * 在键原有的值上加delta，不存在则视为0
+     * @param key 键
+     * @param delta 增量
+     * @return 相加后的值
+     */
+    public int addTo(long key, int delta) {
+        if (key == FREE_KEY) {
+            if (hasFreeKey) {
+                return freeValue += delta;
+            }
+            hasFreeKey = true;
+            return freeValue = delta;
+        }
+        int index = slotOf(key);
+        if (keys[index] == FREE_KEY) {
+            keys[index] = key;
+            values[index] = delta;
+            afterInsert();
+            return delta;
+        }
+        return values[index] += delta;
+    }
+
+    /**
+     * 删除一个键。线性探测不留墓碑：把后面同一段里能前移的条目依次移到空出来的槽位
+     * @param key 键
+     * @return 是否存在
+     */
+    public boolean remove(long key) {
+        if (key == FREE_KEY) {
+            boolean existed = hasFreeKey;
+            hasFreeKey = false;
+            freeValue = 0;
+            return existed;
+        }
+        int gap = indexOf(key);
+        if (gap < 0) {
+            return false;
+        }
+        int index = gap;
+        while (true) {
+            index = (index + 1) & mask;
+            long k = keys[index];
+            if (k == FREE_KEY) {
+                break;
+            }
+            // 条目的理想槽位不在(gap, index]之间，才能移到gap
+            int home = hash(k) & mask;
+            if (((index - home) & mask) >= ((index - gap) & mask)) {
+                keys[gap] = k;
+                values[gap] = values[index];
+                gap = index;
+            }
+        }
+        keys[gap] = FREE_KEY;
+        size--;
+        return true;
+    }
+
+    /**
+     * 把另一个表的所有条目累加进来
+     * @param other 另一个表
+     */
+    public void addAll(LongIntHashMap other) {
+        if (other.hasFreeKey) {
+            addTo(FREE_KEY, other.freeValue);
+        }
+        long[] otherKeys = other.keys;
+        int[] otherValues = other.values;
+        for (int i = 0; i < otherKeys.length; i++) {
+            if (otherKeys[i] != FREE_KEY) {
+                addTo(otherKeys[i], otherValues[i]);
+            }
+        }
+    }
+
+    /**
+     * 遍历所有条目
+     * @param procedure 对每个条目执行的操作
+     */
+    public void forEach(LongIntProcedure procedure) {
+        if (hasFreeKey) {
+            procedure.apply(FREE_KEY, freeValue);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != FREE_KEY) {
+                procedure.apply(keys[i], values[i]);
+            }
+        }
+    }
+
+    /**
+     * 条目数
+     * @return 条目数
+     */
+    public int size() {
+        return hasFreeKey ? size + 1 : size;
+    }
+
+    /**
+     * 是否为空
+     * @return 是否为空
+     */
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * 清空，保留已分配的数组
+     */
+    public void clear() {
+        Arrays.fill(keys, FREE_KEY);
+        size = 0;
+        hasFreeKey = false;
+        freeValue = 0;
+    }
+
+    /**
+     * 查找键所在的槽位
+     * @param key 键（非0）
+     * @return 槽位，不存在返回-1
+     */
+    private int indexOf(long key) {
+        int index = hash(key) & mask;
+        long k;
+        while ((k = keys[index]) != FREE_KEY) {
+            if (k == key) {
+                return index;
+            }
+            index = (index + 1) & mask;
+        }
+        return -1;
+    }
+
+    /**
+     * 查找键所在的槽位，不存在则返回可以插入的空槽位
+     * @param key 键（非0）
+     * @return 槽位
+     */
+    private int slotOf(long key) {
+        int index = hash(key) & mask;
+        long k;
+        while ((k = keys[index]) != FREE_KEY && k != key) {
+            index = (index + 1) & mask;
+        }
+        return index;
+    }
+
+    /**
+     * 插入新条目后检查是否需要扩容
+     */
+    private void afterInsert() {
+        if (++size >= threshold) {
+            rehash(keys.length << 1);
+        }
+    }
+
+    /**
+     * 扩容并重新散列
+     * @param newCapacity 新容量（2的幂）
+     */
+    private void rehash(int newCapacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(newCapacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            long key = oldKeys[i];
+            if (key != FREE_KEY) {
+                int index = hash(key) & mask;
+                while (keys[index] != FREE_KEY) {
+                    index = (index + 1) & mask;
+                }
+                keys[index] = key;
+                values[index] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * 分配数组
+     * @param capacity 容量（2的幂）
+     */
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        mask = capacity - 1;
+        threshold = (int) (capacity * LOAD_FACTOR);
+    }
+
+    /**
+     * 打散键的高低位，避免打包的键集中在少数槽位
+     * @param key 键
+     * @return 哈希值
+     */
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * 不小于cap的最小的2的幂
+     * @param cap 容量
+     * @return 2的幂
+     */
+    private static int tableSizeFor(int cap) {
+        int n = Integer.highestOneBit(Math.max(cap - 1, 1)) << 1;
+        return Math.max(n, 2);
+    }
+
+}
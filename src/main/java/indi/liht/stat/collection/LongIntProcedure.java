@@ -0,0 +1,19 @@
+package indi.liht.stat.collection;
+
+/**
+ * Usage:
+ * 遍历LongIntHashMap时对每个条目执行的操作
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/06
+ **/
+@FunctionalInterface
+public interface LongIntProcedure {
+
+    /**
+     * 处理一个条目
+     * @param key 键
+     * @param value 值
+     */
+    void apply(long key, int value);
+
+}
@@ -0,0 +1,42 @@
+package indi.liht.stat.collection;
+
+/**
+ * Usage:
+ * 无序编号对的规范Key。(a, b)和(b, a)打包成同一个long：高32位为较小的编号，低32位为较大的编号，
+ * 所以一对编号只需要查一次表。编号必须非负
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/08
+ **/
+public final class PairKey {
+
+    private PairKey() {}
+
+    /**
+     * 把两个编号打包成规范Key
+     * @param a 编号a
+     * @param b 编号b
+     * @return Key
+     */
+    public static long of(int a, int b) {
+        return a <= b ? ((long) a << 32) | b : ((long) b << 32) | a;
+    }
+
+    /**
+     * 获取Key中较小的编号
+     * @param key Key
+     * @return 较小的编号
+     */
+    public static int first(long key) {
+        return (int) (key >>> 32);
+    }
+
+    /**
+     * 获取Key中较大的编号
+     * @param key Key
+     * @return 较大的编号
+     */
+    public static int second(long key) {
+        return (int) key;
+    }
+
+}
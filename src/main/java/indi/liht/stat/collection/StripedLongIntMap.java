@@ -0,0 +1,134 @@
+package indi.liht.stat.collection;
+
+/**
+ * Usage:
+ * 分段加锁的long->int累加表，用于多个线程同时往同一个汇总表里合并。
+ * 键按哈希高位分到不同的段，每段是一个LongIntHashMap和它自己的锁；
+ * addAll先在锁外把条目按段分好，再逐段加一次锁批量累加，线程之间只在同一段上短暂竞争
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/14
+ **/
+public class StripedLongIntMap {
+
+    /** 各段的表，同时也是各段的锁 */
+    private final LongIntHashMap[] stripes;
+
+    /** 段数的位数，段数为2的stripeBits次幂 */
+    private final int stripeBits;
+
+    /**
+     * 指定段数的构造函数
+     * @param concurrencyLevel 预计同时合并的线程数，段数取不小于它4倍的2的幂
+     */
+    public StripedLongIntMap(int concurrencyLevel) {
+        int stripeCount = Integer.highestOneBit(Math.max(concurrencyLevel * 4, 2) - 1) << 1;
+        this.stripeBits = Integer.numberOfTrailingZeros(stripeCount);
+        this.stripes = new LongIntHashMap[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new LongIntHashMap();
+        }
+    }
+
+    /**
+     * 在键原有的值上加delta，线程安全
+     * @param key 键
+     * @param delta 增量
+     */
+    public void addTo(long key, int delta) {
+        LongIntHashMap stripe = stripes[stripeOf(key)];
+        synchronized (stripe) {
+            stripe.addTo(key, delta);
+        }
+    }
+
+    /**
+     * 把一个表的所有条目累加进来，线程安全。每段只加一次锁
+     * @param part 要合并的表，合并期间不能被修改
+     */
+    public void addAll(LongIntHashMap part) {
+        int stripeCount = stripes.length;
+        // 先数一下每段有多少条目，再按段分好
+        int[] counts = new int[stripeCount];
+        part.forEach((key, value) -> counts[stripeOf(key)]++);
+        long[][] keys = new long[stripeCount][];
+        int[][] values = new int[stripeCount][];
+        for (int i = 0; i < stripeCount; i++) {
+            keys[i] = new long[counts[i]];
+            values[i] = new int[counts[i]];
+        }
+        int[] positions = new int[stripeCount];
+        part.forEach((key, value) -> {
+            int stripeIndex = stripeOf(key);
+            int position = positions[stripeIndex]++;
+            keys[stripeIndex][position] = key;
+            values[stripeIndex][position] = value;
+        });
+        // 各线程从不同的段开始，避免同时排队等同一把锁
+        int offset = (int) (Thread.currentThread().getId() & (stripeCount - 1));
+        for (int n = 0; n < stripeCount; n++) {
+            int stripeIndex = (n + offset) & (stripeCount - 1);
+            if (counts[stripeIndex] == 0) {
+                continue;
+            }
+            LongIntHashMap stripe = stripes[stripeIndex];
+            long[] stripeKeys = keys[stripeIndex];
+            int[] stripeValues = values[stripeIndex];
+            synchronized (stripe) {
+                for (int i = 0; i < stripeKeys.length; i++) {
+                    stripe.addTo(stripeKeys[i], stripeValues[i]);
+                }
+            }
+        }
+    }
+
+    /**
+     * 获取键对应的值，线程安全
+     * @param key 键
+     * @param defaultValue 不存在时返回的值
+     * @return 值
+     */
+    public int getOrDefault(long key, int defaultValue) {
+        LongIntHashMap stripe = stripes[stripeOf(key)];
+        synchronized (stripe) {
+            return stripe.getOrDefault(key, defaultValue);
+        }
+    }
+
+    /**
+     * 条目数
+     * @return 条目数
+     */
+    public int size() {
+        int size = 0;
+        for (LongIntHashMap stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * 把所有段合并成一个普通的表。应在所有合并完成之后调用
+     * @return 合并后的表
+     */
+    public LongIntHashMap toMap() {
+        LongIntHashMap map = new LongIntHashMap(size());
+        for (LongIntHashMap stripe : stripes) {
+            synchronized (stripe) {
+                map.addAll(stripe);
+            }
+        }
+        return map;
+    }
+
+    /**
+     * 键属于哪一段，用哈希的高位，和LongIntHashMap内部用的低位错开
+     * @param key 键
+     * @return 段下标
+     */
+    private int stripeOf(long key) {
+        return (int) ((key * 0x9E3779B97F4A7C15L) >>> (64 - stripeBits));
+    }
+
+}
@@ -8,9 +8,6 @@ package indi.liht.stat.constants;
  **/
 public class StatConsts {
 
-    /** 用于拼接Map的Key的分隔符 */
-    public static final String KEY_SEPARATOR = ",,,";
-
     /** 用于分隔配置文件子值的分隔符 */
     public static final String PROPS_VALUE_SEPARATOR = ",";
 
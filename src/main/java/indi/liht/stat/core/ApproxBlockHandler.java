@@ -0,0 +1,168 @@
+package indi.liht.stat.core;
+
+import indi.liht.stat.collection.CountMinSketch;
+import indi.liht.stat.collection.HeavyHitterTracker;
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.collection.PairKey;
+import indi.liht.stat.metrics.StatMetrics;
+import indi.liht.stat.models.MovieBlock;
+import indi.liht.stat.reader.IMovieBlockHandler;
+import indi.liht.stat.writer.TopPairCsvWriter;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Usage:
+ * 近似统计：不建公司对权重表，读取的同时把每对公司的权重累加到Count-Min草图，再用重要键跟踪器留下估计权重最大的公司对。
+ * 当前Sheet和汇总各用一个草图和一个跟踪器，一遍读完就能输出各Sheet和汇总的重要公司对，内存固定，与公司数无关。
+ * 当前Sheet的草图在Sheet开始时清空重用。在读取线程上执行，不跨线程使用
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+class ApproxBlockHandler implements IMovieBlockHandler {
+
+    /** 分工权重 */
+    private final LongIntHashMap sectionABWeight;
+
+    /** 当前Sheet的草图 */
+    private final CountMinSketch sheetSketch;
+
+    /** 当前Sheet的重要公司对 */
+    private final HeavyHitterTracker sheetTracker;
+
+    /** 汇总的草图 */
+    private final CountMinSketch allSketch;
+
+    /** 汇总的重要公司对 */
+    private final HeavyHitterTracker allTracker;
+
+    /** 输出 */
+    private final TopPairCsvWriter writer;
+
+    /** 运行指标 */
+    private final StatMetrics metrics;
+
+    /** 已经读到的Sheet */
+    private final Set<String> readSheetNames = new HashSet<>();
+
+    /** 批量处理时当前来源Excel在输出中的名字，不是批量处理时为空 */
+    private String fileName;
+
+    /** 当前Sheet计算过的电影数 */
+    private long blocks;
+
+    /** 所有Sheet的有效电影数 */
+    private int allCnt;
+
+    /**
+     * 全参构造函数
+     * @param sectionABWeight 分工权重
+     * @param sketchBytes 每个草图占用的字节数
+     * @param sketchDepth 草图的行数
+     * @param topPairs 每个结果Sheet保留的公司对数
+     * @param writer 输出
+     * @param metrics 运行指标
+     */
+    ApproxBlockHandler(LongIntHashMap sectionABWeight, long sketchBytes, int sketchDepth, int topPairs,
+                       TopPairCsvWriter writer, StatMetrics metrics) {
+        this.sectionABWeight = sectionABWeight;
+        this.sheetSketch = CountMinSketch.ofBytes(sketchBytes, sketchDepth);
+        this.sheetTracker = new HeavyHitterTracker(topPairs);
+        this.allSketch = CountMinSketch.ofBytes(sketchBytes, sketchDepth);
+        this.allTracker = new HeavyHitterTracker(topPairs);
+        this.writer = writer;
+        this.metrics = metrics;
+        metrics.size("countMinSketchBytes", sheetSketch.getBytes() + allSketch.getBytes());
+        System.out.println("近似统计：每个草图" + sheetSketch.getDepth() + "行x" + sheetSketch.getWidth()
+                + "列，每个结果Sheet保留" + topPairs + "对电影公司！");
+    }
+
+    /**
+     * 设置 批量处理时当前来源Excel在输出中的名字
+     * @param fileName 名字，不是批量处理时为空
+     */
+    void setFileName(String fileName) {
+        this.fileName = fileName;
+    }
+
+    @Override
+    public void startSheet(String sheetName) {
+        readSheetNames.add(MoviePipeline.sheetKey(fileName, sheetName));
+        metrics.sheetStarted(MoviePipeline.sheetKey(fileName, sheetName));
+        sheetSketch.clear();
+        sheetTracker.clear();
+        blocks = 0;
+    }
+
+    @Override
+    public void handleBlock(String sheetName, MovieBlock movieBlock) {
+        int multiplicity = movieBlock.getMultiplicity();
+        for (int i = 0, blockSize = movieBlock.size(); i < blockSize; i++) {
+            for (int j = i + 1; j < blockSize; j++) {
+                long weight = (long) sectionABWeight.getOrDefault(
+                        PairKey.of(movieBlock.getSectionId(i), movieBlock.getSectionId(j)), 0) * multiplicity;
+                if (weight <= 0) {
+                    // 草图的误差上限只对非负的权重成立，权重为0的公司对也不会是重要的公司对
+                    continue;
+                }
+                long key = PairKey.of(movieBlock.getMovieComId(i), movieBlock.getMovieComId(j));
+                sheetTracker.offer(key, sheetSketch.add(key, weight));
+                allTracker.offer(key, allSketch.add(key, weight));
+            }
+        }
+        blocks++;
+    }
+
+    @Override
+    public void endSheet(String sheetName, int cnt) {
+        String key = MoviePipeline.sheetKey(fileName, sheetName);
+        allCnt += cnt;
+        metrics.sheetAggregated(key, cnt, blocks, sheetTracker.size(), false);
+        System.out.println("共加载[" + cnt * 2 + "]行有效数据！");
+        this.write(key, sheetSketch, sheetTracker);
+    }
+
+    /**
+     * 所有Sheet都读完了，输出汇总
+     * @param allSheetName 汇总的结果Sheet名
+     */
+    void finish(String allSheetName) {
+        metrics.sheetStarted(allSheetName);
+        metrics.sheetAggregated(allSheetName, allCnt, 0, allTracker.size(), false);
+        this.write(allSheetName, allSketch, allTracker);
+    }
+
+    /**
+     * 是否读到了某个工作表
+     * @param sheetName 工作表名（批量处理时为“文件名/工作表名”）
+     * @return 是否读到
+     */
+    boolean isSheetRead(String sheetName) {
+        return readSheetNames.contains(sheetName);
+    }
+
+    /**
+     * 输出一个结果Sheet的重要公司对，打印误差上限
+     * @param sheetName 结果Sheet名
+     * @param sketch 草图
+     * @param tracker 重要公司对
+     */
+    private void write(String sheetName, CountMinSketch sketch, HeavyHitterTracker tracker) {
+        long start = System.nanoTime();
+        long errorBound = sketch.getErrorBound();
+        try {
+            int pairs = writer.writeSheet(sheetName, tracker, errorBound);
+            metrics.sheetWritten(sheetName, pairs, System.nanoTime() - start);
+        } catch (IOException e) {
+            metrics.error("输出[" + sheetName + "]", e);
+            e.printStackTrace();
+            return;
+        }
+        System.out.println("[" + sheetName + "]权重总和" + sketch.getTotal() + "，估计权重最多高出" + errorBound
+                + "（概率不低于" + String.format("%.4f", 1 - sketch.getFailureProbability()) + "），输出"
+                + tracker.size() + "对电影公司！");
+    }
+
+}
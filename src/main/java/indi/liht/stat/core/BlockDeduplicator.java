@@ -0,0 +1,180 @@
+package indi.liht.stat.core;
+
+import indi.liht.stat.models.MovieBlock;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Usage:
+ * 合并阵容相同的电影：系列片、剧集的各部往往是同一批公司担任同样的分工，两两计算的结果完全一样。
+ * 把每部电影的(公司, 分工)打包成“公司编号<<32|分工编号”排好序作为签名，签名相同的只留一部，记下出现的次数，
+ * 取出时每个签名只展开一次，权重乘以次数。最多同时记录window个不同的签名，记满了就取出来再重新开始。
+ * 一个对象只在一个线程上使用
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class BlockDeduplicator {
+
+    /** 最多同时记录的不同签名数 */
+    private final int window;
+
+    /** 签名及其出现次数，按第一次出现的顺序排列 */
+    private final Map<Signature, Signature> signatures = new LinkedHashMap<>();
+
+    /** 查找用的签名，内容每次覆盖，没有找到时才复制一份放进表里 */
+    private final Signature probe = new Signature(new long[16], 0);
+
+    /** 加入的电影数 */
+    private long added;
+
+    /** 取出的不同签名数 */
+    private long drained;
+
+    /**
+     * 全参构造函数
+     * @param window 最多同时记录的不同签名数
+     */
+    public BlockDeduplicator(int window) {
+        this.window = Math.max(window, 1);
+    }
+
+    /**
+     * 加入一部电影
+     * @param movieBlock 电影
+     * @return 是否已经记满，记满了要先取出再继续加入
+     */
+    public boolean add(MovieBlock movieBlock) {
+        int size = movieBlock.size();
+        if (probe.entries.length < size) {
+            probe.entries = new long[Math.max(size, probe.entries.length << 1)];
+        }
+        for (int i = 0; i < size; i++) {
+            probe.entries[i] = ((long) movieBlock.getMovieComId(i) << 32)
+                    | (movieBlock.getSectionId(i) & 0xFFFFFFFFL);
+        }
+        Arrays.sort(probe.entries, 0, size);
+        probe.rehash(size);
+        Signature signature = signatures.get(probe);
+        if (signature == null) {
+            signature = new Signature(Arrays.copyOf(probe.entries, size), size);
+            signatures.put(signature, signature);
+        }
+        signature.count++;
+        added++;
+        return signatures.size() >= window;
+    }
+
+    /**
+     * 取出记录的签名，每个签名还原成一部电影，重数为出现的次数。取出后清空
+     * @param consumer 接收每部电影
+     */
+    public void drain(Consumer<MovieBlock> consumer) {
+        for (Signature signature : signatures.keySet()) {
+            MovieBlock movieBlock = new MovieBlock(signature.length);
+            for (int i = 0; i < signature.length; i++) {
+                movieBlock.add((int) (signature.entries[i] >>> 32), (int) signature.entries[i]);
+            }
+            movieBlock.setMultiplicity(signature.count);
+            consumer.accept(movieBlock);
+        }
+        drained += signatures.size();
+        signatures.clear();
+    }
+
+    /**
+     * 获取 加入的电影数
+     * @return 电影数
+     */
+    public long getAdded() {
+        return added;
+    }
+
+    /**
+     * 获取 取出的不同签名数
+     * @return 签名数
+     */
+    public long getDrained() {
+        return drained;
+    }
+
+    /**
+     * 打印合并的效果
+     * @param sheetName 工作表名
+     */
+    public void printSummary(String sheetName) {
+        System.out.println("[" + sheetName + "]共" + added + "部电影，合并相同阵容后计算" + drained + "部！");
+    }
+
+    /**
+     * Usage:
+     * 一部电影排好序的(公司, 分工)，次数不参与比较
+     */
+    private static final class Signature {
+
+        /** “公司编号<<32|分工编号”，前length个有效 */
+        private long[] entries;
+
+        /** 有效长度 */
+        private int length;
+
+        /** 哈希值 */
+        private int hash;
+
+        /** 出现的次数 */
+        private int count;
+
+        /**
+         * 全参构造函数
+         * @param entries “公司编号<<32|分工编号”
+         * @param length 有效长度
+         */
+        Signature(long[] entries, int length) {
+            this.entries = entries;
+            this.rehash(length);
+        }
+
+        /**
+         * 内容变化后重新计算哈希值
+         * @param length 有效长度
+         */
+        void rehash(int length) {
+            this.length = length;
+            int h = 1;
+            for (int i = 0; i < length; i++) {
+                long entry = entries[i];
+                h = 31 * h + (int) (entry ^ (entry >>> 32));
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Signature)) {
+                return false;
+            }
+            Signature other = (Signature) o;
+            if (hash != other.hash || length != other.length) {
+                return false;
+            }
+            for (int i = 0; i < length; i++) {
+                if (entries[i] != other.entries[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+    }
+
+}
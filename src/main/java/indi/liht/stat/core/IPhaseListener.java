@@ -0,0 +1,26 @@
+package indi.liht.stat.core;
+
+/**
+ * Usage:
+ * 统计各阶段开始、结束的监听器，用于计时等
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/20
+ **/
+public interface IPhaseListener {
+
+    /** 什么都不做的监听器 */
+    IPhaseListener NONE = new IPhaseListener() {};
+
+    /**
+     * 某个阶段开始
+     * @param phase 阶段名
+     */
+    default void phaseStarted(String phase) {}
+
+    /**
+     * 某个阶段结束
+     * @param phase 阶段名
+     */
+    default void phaseFinished(String phase) {}
+
+}
@@ -0,0 +1,247 @@
+package indi.liht.stat.core;
+
+import indi.liht.stat.cache.PartialStore;
+import indi.liht.stat.cache.SheetFingerprint;
+import indi.liht.stat.collection.CsrMatrix;
+import indi.liht.stat.collection.IntDictionary;
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.models.MovieBlock;
+import indi.liht.stat.reader.IMovieBlockHandler;
+import org.apache.poi.util.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Usage:
+ * 增量计算。边读取边计算工作表的指纹，工作表没有变化时直接复用上次保存的权重，不再计算。
+ * 有上次结果的工作表先把电影暂存起来，每到一个中间摘要就和上次的比较，一旦不同就把暂存的电影交给流水线，
+ * 之后的电影直接交给流水线；没有上次结果的工作表直接交给流水线。
+ * 内存中最多暂存一个摘要间隔的电影：中间摘要相同时就把它们追加到临时文件，工作表没有变化时删掉，
+ * 有变化时先从临时文件读回来交给流水线。这样工作表再大，暂存也只占固定的内存
+ * 重新计算的工作表在输出时保存权重，供下次复用
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/18
+ **/
+class IncrementalBlockHandler implements IMovieBlockHandler {
+
+    /** 暂存文件的读写缓冲区大小 */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** 把电影交给流水线 */
+    private final PipelineBlockHandler delegate;
+
+    /** 各工作表上次的结果 */
+    private final PartialStore partialStore;
+
+    /** 赋值表的指纹 */
+    private final byte[] relationFingerprint;
+
+    /** 分工字典 */
+    private final IntDictionary sectionDictionary;
+
+    /** 电影公司字典 */
+    private final IntDictionary movieComDictionary;
+
+    /** 重新计算的工作表 -> 指纹，输出线程据此保存权重 */
+    private final Map<String, SheetFingerprint> computedSheets = new ConcurrentHashMap<>();
+
+    /** 当前工作表上次的结果，没有或者已经确定有变化时为空 */
+    private PartialStore.StoredPartial storedPartial;
+
+    /** 当前工作表的指纹 */
+    private SheetFingerprint fingerprint;
+
+    /** 暂存文件的目录 */
+    private final File holdDir;
+
+    /** 内存中暂存的电影（上一个中间摘要之后的） */
+    private List<MovieBlock> heldBlocks;
+
+    /** 中间摘要相同的电影暂存到的临时文件，没有时为空 */
+    private File holdFile;
+
+    /** 临时文件的输出 */
+    private DataOutputStream holdOutput;
+
+    /**
+     * 全参构造函数
+     * @param delegate 把电影交给流水线
+     * @param partialStore 各工作表上次的结果
+     * @param sectionABWeight 分工权重
+     * @param sectionDictionary 分工字典
+     * @param movieComDictionary 电影公司字典
+     * @param holdDir 暂存文件的目录
+     */
+    IncrementalBlockHandler(PipelineBlockHandler delegate, PartialStore partialStore,
+                            LongIntHashMap sectionABWeight,
+                            IntDictionary sectionDictionary, IntDictionary movieComDictionary, File holdDir) {
+        this.delegate = delegate;
+        this.holdDir = holdDir;
+        this.partialStore = partialStore;
+        this.relationFingerprint = SheetFingerprint.ofRelation(sectionABWeight, sectionDictionary);
+        this.sectionDictionary = sectionDictionary;
+        this.movieComDictionary = movieComDictionary;
+    }
+
+    @Override
+    public void startSheet(String sheetName) {
+        storedPartial = partialStore.load(sheetName);
+        fingerprint = new SheetFingerprint(relationFingerprint, sectionDictionary, movieComDictionary);
+        heldBlocks = storedPartial != null ? new ArrayList<>() : null;
+        delegate.startSheet(sheetName);
+    }
+
+    @Override
+    public void handleBlock(String sheetName, MovieBlock movieBlock) {
+        boolean checkpoint = fingerprint.add(movieBlock);
+        if (storedPartial == null) {
+            delegate.handleBlock(sheetName, movieBlock);
+            return;
+        }
+        heldBlocks.add(movieBlock);
+        if (!checkpoint) {
+            return;
+        }
+        if (Arrays.equals(fingerprint.getLastCheckpoint(),
+                storedPartial.getCheckpoint(fingerprint.getCheckpointCount() - 1))) {
+            this.hold(sheetName);
+        } else {
+            this.release(sheetName);
+        }
+    }
+
+    @Override
+    public void endSheet(String sheetName, int cnt) {
+        byte[] sheetFingerprint = fingerprint.finish(cnt);
+        if (storedPartial != null && Arrays.equals(sheetFingerprint, storedPartial.getFingerprint())) {
+            System.out.println("[" + sheetName + "]工作表没有变化，复用上次的计算结果！");
+            this.discardHoldFile();
+            delegate.endSheet(sheetName, cnt, storedPartial.toWeightMap(movieComDictionary));
+        } else {
+            if (storedPartial != null) {
+                this.release(sheetName);
+            }
+            // 必须在endSheet之前登记，输出线程可能马上就拿到这个工作表
+            computedSheets.put(sheetName, fingerprint);
+            delegate.endSheet(sheetName, cnt);
+        }
+        storedPartial = null;
+        fingerprint = null;
+        heldBlocks = null;
+    }
+
+    /**
+     * 输出一个结果Sheet之后调用：如果是重新计算的工作表，保存它的权重
+     * @param sheetName 工作表名
+     * @param movieABWeight 电影公司权重，按PairKey从小到大排列的公司对
+     */
+    void afterOutput(String sheetName, CsrMatrix.PairSource movieABWeight) {
+        SheetFingerprint sheetFingerprint = computedSheets.remove(sheetName);
+        if (sheetFingerprint == null) {
+            return;
+        }
+        try {
+            partialStore.save(sheetName, sheetFingerprint.getValue(), sheetFingerprint.getCheckpoints(),
+                    movieABWeight, movieComDictionary);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * 中间摘要相同：把内存中暂存的电影追加到临时文件。写入失败时放弃复用，直接交给流水线
+     * @param sheetName 工作表名
+     */
+    private void hold(String sheetName) {
+        try {
+            if (holdOutput == null) {
+                if (!holdDir.isDirectory() && !holdDir.mkdirs()) {
+                    throw new IOException("创建目录[" + holdDir.getPath() + "]失败！");
+                }
+                holdFile = File.createTempFile("stat-held-", ".bin", holdDir);
+                holdOutput = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(holdFile),
+                        BUFFER_SIZE));
+            }
+            for (MovieBlock movieBlock : heldBlocks) {
+                holdOutput.writeInt(movieBlock.size());
+                for (int i = 0; i < movieBlock.size(); i++) {
+                    holdOutput.writeInt(movieBlock.getMovieComId(i));
+                    holdOutput.writeInt(movieBlock.getSectionId(i));
+                }
+            }
+            heldBlocks.clear();
+        } catch (IOException e) {
+            // 写不了临时文件就不暂存了：当作工作表有变化
+            e.printStackTrace();
+            this.release(sheetName);
+        }
+    }
+
+    /**
+     * 工作表有变化：把临时文件和内存中暂存的电影交给流水线，之后不再暂存
+     * @param sheetName 工作表名
+     */
+    private void release(String sheetName) {
+        if (holdFile != null) {
+            DataInputStream dis = null;
+            try {
+                holdOutput.close();
+                holdOutput = null;
+                dis = new DataInputStream(new BufferedInputStream(new FileInputStream(holdFile), BUFFER_SIZE));
+                // 临时文件里的电影都在内存中暂存的电影之前
+                while (true) {
+                    int size;
+                    try {
+                        size = dis.readInt();
+                    } catch (EOFException e) {
+                        break;
+                    }
+                    MovieBlock movieBlock = new MovieBlock(size);
+                    for (int i = 0; i < size; i++) {
+                        movieBlock.add(dis.readInt(), dis.readInt());
+                    }
+                    delegate.handleBlock(sheetName, movieBlock);
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException("读取暂存文件[" + holdFile.getPath() + "]失败", e);
+            } finally {
+                IOUtils.closeQuietly(dis);
+                this.discardHoldFile();
+            }
+        }
+        for (MovieBlock movieBlock : heldBlocks) {
+            delegate.handleBlock(sheetName, movieBlock);
+        }
+        storedPartial = null;
+        heldBlocks = null;
+    }
+
+    /**
+     * 关闭并删除临时文件
+     */
+    private void discardHoldFile() {
+        if (holdOutput != null) {
+            IOUtils.closeQuietly(holdOutput);
+            holdOutput = null;
+        }
+        if (holdFile != null) {
+            holdFile.delete();
+            holdFile = null;
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+package indi.liht.stat.core;
+
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.models.MovieBlock;
+import indi.liht.stat.reader.IMovieBlockHandler;
+
+/**
+ * Usage:
+ * 批量统计时在读取线程上就地计算权重：读一个Sheet的线程同时累加这个Sheet，读完把累加表交给流水线合并、输出。
+ * 开启了合并相同阵容时，先合并，记满或者Sheet结束时再累加。
+ * 一个对象只处理一个Sheet，不跨线程使用
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+class InlineBlockHandler implements IMovieBlockHandler {
+
+    /** 读取、计算、输出流水线 */
+    private final MoviePipeline pipeline;
+
+    /** 所属文件 */
+    private final MoviePipeline.FileTask fileTask;
+
+    /** 分工权重 */
+    private final LongIntHashMap sectionABWeight;
+
+    /** 合并相同阵容时最多同时记录的不同阵容数，0为不合并 */
+    private final int dedupWindow;
+
+    /** 当前Sheet在流水线中的计算状态，没有开始或者已经结束时为空 */
+    private MoviePipeline.SheetTask sheetTask;
+
+    /** 当前Sheet的累加表 */
+    private LongIntHashMap movieABWeight;
+
+    /** 当前Sheet计算过的电影数 */
+    private long blocks;
+
+    /** 当前Sheet的相同阵容合并，不合并时为空 */
+    private BlockDeduplicator deduplicator;
+
+    /** 是否读到了Sheet */
+    private boolean sheetRead;
+
+    /**
+     * 全参构造函数
+     * @param pipeline 读取、计算、输出流水线
+     * @param fileTask 所属文件
+     * @param sectionABWeight 分工权重
+     * @param dedupWindow 合并相同阵容时最多同时记录的不同阵容数，0为不合并
+     */
+    InlineBlockHandler(MoviePipeline pipeline, MoviePipeline.FileTask fileTask, LongIntHashMap sectionABWeight,
+                       int dedupWindow) {
+        this.pipeline = pipeline;
+        this.fileTask = fileTask;
+        this.sectionABWeight = sectionABWeight;
+        this.dedupWindow = dedupWindow;
+    }
+
+    @Override
+    public void startSheet(String sheetName) {
+        sheetRead = true;
+        sheetTask = pipeline.openSheet(fileTask, sheetName);
+        movieABWeight = new LongIntHashMap();
+        blocks = 0;
+        deduplicator = dedupWindow > 0 ? new BlockDeduplicator(dedupWindow) : null;
+    }
+
+    @Override
+    public void handleBlock(String sheetName, MovieBlock movieBlock) {
+        if (deduplicator == null) {
+            this.aggregate(movieBlock);
+        } else if (deduplicator.add(movieBlock)) {
+            deduplicator.drain(this::aggregate);
+        }
+    }
+
+    /**
+     * 累加一部电影，超过内存预算时溢出
+     * @param movieBlock 电影
+     */
+    private void aggregate(MovieBlock movieBlock) {
+        MovieWeightAggregator.putToWeightMap(movieBlock, movieABWeight, sectionABWeight);
+        blocks++;
+        movieABWeight = pipeline.spillIfNeeded(sheetTask, movieABWeight);
+    }
+
+    @Override
+    public void endSheet(String sheetName, int cnt) {
+        if (deduplicator != null) {
+            deduplicator.drain(this::aggregate);
+            deduplicator.printSummary(sheetName);
+            deduplicator = null;
+        }
+        pipeline.completeSheet(sheetTask, cnt, blocks, movieABWeight);
+        sheetTask = null;
+        movieABWeight = null;
+    }
+
+    /**
+     * 读取结束后调用：读取出错时放弃没有结束的Sheet，所属文件的汇总照常输出
+     */
+    void finish() {
+        if (sheetTask != null) {
+            pipeline.abandonSheet(sheetTask);
+            sheetTask = null;
+            movieABWeight = null;
+            deduplicator = null;
+        }
+    }
+
+    /**
+     * 是否读到了Sheet
+     * @return 是否读到
+     */
+    boolean isSheetRead() {
+        return sheetRead;
+    }
+
+}
@@ -0,0 +1,856 @@
+package indi.liht.stat.core;
+
+import indi.liht.stat.collection.CsrMatrix;
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.collection.StripedLongIntMap;
+import indi.liht.stat.metrics.StatMetrics;
+import indi.liht.stat.models.MovieBlock;
+import indi.liht.stat.spill.SortedRun;
+import indi.liht.stat.spill.SpillStore;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Usage:
+ * 读取、计算、输出三段流水线。读取线程把电影按批放进有界的电影队列，
+ * 若干计算线程取出来计算权重，每个计算线程给每个Sheet一个自己的累加表；
+ * 一个Sheet的最后一批算完后，由算完它的线程把各计算线程的累加表在合并线程池上两两并行合并、冻结成按行存储的只读矩阵，
+ * 放进有界的结果队列，由唯一的输出线程按完成顺序输出。队列满了上游就等待，内存占用由队列大小决定。
+ * 设置了内存预算时，累加表超过预算就排好序溢出到磁盘，Sheet算完时把各段多路归并；
+ * 输出接受有序公司对时，归并出的段直接交给输出线程顺序读取，否则再读成矩阵。
+ * 汇总也不再常驻内存，每个Sheet的结果写成一段，最后归并。数据再大，累加表占用的内存也不超过预算。
+ * 批量统计多个Excel时，每个Sheet属于一个文件：一个文件的Sheet都算完后输出这个文件的汇总，再并入总汇总。
+ * 这时可以不启动计算线程，由调用方的线程池读一个Sheet就地算一个Sheet，用completeSheet交给流水线。
+ * 读取出错时调用方用abort放弃流水线：计算线程丢掉剩下的电影，输出线程不再输出，两者都退出后才返回，不会留下等待队列的线程。
+ * 计算或者合并出错的Sheet不输出、不并入汇总，所属文件和总汇总都不再输出，finish在其余结果输出完后抛出这个错误
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/15
+ **/
+public class MoviePipeline {
+
+    /** 电影队列的结束标记，每个计算线程取到一个就退出 */
+    private static final BlockBatch END_OF_BLOCKS = new BlockBatch(null, null);
+
+    /** 结果队列的结束标记 */
+    private static final SheetResult END_OF_RESULTS = new SheetResult(null, null, null, null, null, false);
+
+    /** 累加表每个条目估计占用的字节数：long键+int值，装载因子0.6，再留出扩容时新旧数组同时存在的余量 */
+    private static final long WEIGHT_MAP_ENTRY_BYTES = 40L;
+
+    /** 分工权重 */
+    private final LongIntHashMap sectionABWeight;
+
+    /** 汇总的电影公司权重，分段加锁，多个计算线程可以同时合并 */
+    private final StripedLongIntMap allMovieABWeight;
+
+    /** 读取线程 -> 计算线程 */
+    private final BlockingQueue<BlockBatch> blockQueue;
+
+    /** 计算线程 -> 输出线程 */
+    private final BlockingQueue<SheetResult> resultQueue;
+
+    /** 输出结果Sheet */
+    private final SheetWriter sheetWriter;
+
+    /** 计算线程 */
+    private final Thread[] workers;
+
+    /** 输出线程 */
+    private final Thread writer;
+
+    /** 合并各计算线程累加表的工作窃取线程池，只有一个计算线程时为空 */
+    private final ForkJoinPool mergePool;
+
+    /** 运行指标 */
+    private final StatMetrics metrics;
+
+    /** 溢出区，没有设置内存预算时为空 */
+    private SpillStore spillStore;
+
+    /** 每个累加表最多容纳的条目数，超过就溢出 */
+    private int spillThreshold = Integer.MAX_VALUE;
+
+    /** 设置了内存预算时，每个Sheet（批量统计时为每个文件的汇总）的结果写成的有序段，用于归并出汇总 */
+    private final List<SortedRun> allRuns = Collections.synchronizedList(new ArrayList<>());
+
+    /** 是否已经放弃：计算线程不再计算，输出线程不再输出 */
+    private volatile boolean aborted;
+
+    /** 是否已经停止（finish或者abort过），计算线程和输出线程都已经退出 */
+    private final AtomicBoolean stopped = new AtomicBoolean();
+
+    /** 第一个计算或者合并出错的Sheet，没有时为空；有了它总汇总就不完整了 */
+    private final AtomicReference<IllegalStateException> failure = new AtomicReference<>();
+
+    /**
+     * 全参构造函数
+     * @param sectionABWeight 分工权重
+     * @param workerCount 计算线程数，为0时不启动计算线程，所有Sheet都用completeSheet提交
+     * @param blockQueueCapacity 电影队列最多容纳的批数
+     * @param resultQueueCapacity 结果队列最多容纳的Sheet数
+     * @param sheetWriter 输出结果Sheet，只在输出线程上调用
+     * @param metrics 运行指标
+     */
+    public MoviePipeline(LongIntHashMap sectionABWeight, int workerCount,
+                         int blockQueueCapacity, int resultQueueCapacity,
+                         SheetWriter sheetWriter, StatMetrics metrics) {
+        this.sectionABWeight = sectionABWeight;
+        this.allMovieABWeight = new StripedLongIntMap(Math.max(workerCount, 1));
+        this.blockQueue = new ArrayBlockingQueue<>(Math.max(blockQueueCapacity, 1));
+        this.resultQueue = new ArrayBlockingQueue<>(Math.max(resultQueueCapacity, 1));
+        this.sheetWriter = sheetWriter;
+        this.metrics = metrics;
+        this.workers = new Thread[Math.max(workerCount, 0)];
+        for (int i = 0; i < workers.length; i++) {
+            final int workerIndex = i;
+            workers[i] = new Thread(() -> aggregateLoop(workerIndex), "Aggregate-Thread-" + i);
+        }
+        this.writer = new Thread(this::writeLoop, "Write-Thread");
+        this.mergePool = workers.length > 1 ? new ForkJoinPool(workers.length) : null;
+    }
+
+    /**
+     * 设置累加表的内存预算，超过就溢出到磁盘，应在start之前调用
+     * @param spillStore 溢出区
+     * @param memoryBudgetBytes 所有累加表合计的内存预算，字节
+     * @param tableCount 同时在累加的表数（计算线程数，或者调用方线程池的大小），平分预算
+     */
+    public void enableSpill(SpillStore spillStore, long memoryBudgetBytes, int tableCount) {
+        this.spillStore = spillStore;
+        this.spillThreshold = (int) Math.min(Integer.MAX_VALUE,
+                Math.max(memoryBudgetBytes / Math.max(tableCount, 1) / WEIGHT_MAP_ENTRY_BYTES, 64));
+    }
+
+    /**
+     * 启动计算线程和输出线程
+     */
+    public void start() {
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        writer.start();
+    }
+
+    /**
+     * 开始一个Sheet
+     * @param sheetName Sheet名，也是结果Sheet名
+     * @return Sheet的计算状态，之后的submit和closeSheet都要用它
+     */
+    public SheetTask openSheet(String sheetName) {
+        return this.openSheet(null, sheetName);
+    }
+
+    /**
+     * 开始某个文件中的一个Sheet
+     * @param fileTask 所属文件，为空时直接并入总汇总
+     * @param sheetName Sheet名，也是结果Sheet名
+     * @return Sheet的计算状态，之后的submit和closeSheet都要用它
+     */
+    public SheetTask openSheet(FileTask fileTask, String sheetName) {
+        if (fileTask != null) {
+            fileTask.pending.incrementAndGet();
+        }
+        SheetTask sheetTask = new SheetTask(fileTask, sheetName, Math.max(workers.length, 1));
+        metrics.sheetStarted(sheetTask.metricsName);
+        return sheetTask;
+    }
+
+    /**
+     * 开始一个文件：它的Sheet都算完、并且closeFile之后，输出这个文件的汇总
+     * @param fileName 文件名，用于区分各文件的输出
+     * @param totalSheetName 文件汇总的Sheet名
+     * @return 文件的计算状态
+     */
+    public FileTask openFile(String fileName, String totalSheetName) {
+        return new FileTask(fileName, totalSheetName, Math.max(workers.length, 1));
+    }
+
+    /**
+     * 一个文件的Sheet已经全部openSheet过了
+     * @param fileTask 文件的计算状态
+     */
+    public void closeFile(FileTask fileTask) {
+        // 抵消openFile时的计数，如果各Sheet已经算完，就在这里完成
+        if (fileTask.pending.decrementAndGet() == 0) {
+            completeFile(fileTask);
+        }
+    }
+
+    /**
+     * 提交一批电影，电影队列满了就等待
+     * @param sheetTask Sheet的计算状态
+     * @param movieBlocks 一批电影
+     */
+    public void submit(SheetTask sheetTask, List<MovieBlock> movieBlocks) {
+        sheetTask.blocks += movieBlocks.size();
+        sheetTask.pending.incrementAndGet();
+        put(blockQueue, new BlockBatch(sheetTask, movieBlocks));
+    }
+
+    /**
+     * 一个Sheet的电影已经全部提交
+     * @param sheetTask Sheet的计算状态
+     * @param cnt Sheet的有效电影数
+     */
+    public void closeSheet(SheetTask sheetTask, int cnt) {
+        this.closeSheet(sheetTask, cnt, null);
+    }
+
+    /**
+     * 一个Sheet的电影已经全部提交，并带上一份已经算好的权重
+     * @param sheetTask Sheet的计算状态
+     * @param cnt Sheet的有效电影数
+     * @param reusedMovieABWeight 已经算好的电影公司权重，与提交的电影的权重相加；没有时为空
+     */
+    public void closeSheet(SheetTask sheetTask, int cnt, LongIntHashMap reusedMovieABWeight) {
+        sheetTask.cnt = cnt;
+        sheetTask.reusedMovieABWeight = reusedMovieABWeight;
+        // 抵消openSheet时的计数，如果各批已经算完，就在这里完成
+        if (sheetTask.pending.decrementAndGet() == 0) {
+            complete(sheetTask);
+        }
+    }
+
+    /**
+     * 在调用方的线程上算好了一个Sheet：交给流水线合并、输出
+     * @param sheetTask Sheet的计算状态，不能再用submit提交过电影
+     * @param cnt Sheet的有效电影数
+     * @param blocks 计算过的电影数
+     * @param movieABWeight 算好的电影公司权重，之后归流水线所有
+     */
+    public void completeSheet(SheetTask sheetTask, int cnt, long blocks, LongIntHashMap movieABWeight) {
+        sheetTask.blocks = blocks;
+        sheetTask.workerWeights[0] = movieABWeight;
+        this.closeSheet(sheetTask, cnt);
+    }
+
+    /**
+     * 读取出错、没有完成的Sheet：不输出，也不并入汇总，所属文件的汇总照常输出
+     * @param sheetTask Sheet的计算状态，没有用submit提交过电影
+     */
+    public void abandonSheet(SheetTask sheetTask) {
+        deleteRuns(sheetTask.runs);
+        FileTask fileTask = sheetTask.fileTask;
+        if (fileTask != null && fileTask.pending.decrementAndGet() == 0) {
+            completeFile(fileTask);
+        }
+    }
+
+    /**
+     * 在调用方的线程上累加时，累加表超过预算就溢出到磁盘
+     * @param sheetTask Sheet的计算状态
+     * @param movieABWeight 累加表
+     * @return 之后继续累加的表：没有溢出时就是传入的表，溢出了是一张新表
+     */
+    public LongIntHashMap spillIfNeeded(SheetTask sheetTask, LongIntHashMap movieABWeight) {
+        if (movieABWeight.size() <= spillThreshold) {
+            return movieABWeight;
+        }
+        sheetTask.runs.add(spillStore.spill(movieABWeight));
+        return new LongIntHashMap();
+    }
+
+    /**
+     * 等所有Sheet算完，输出汇总的Sheet，再等输出线程结束
+     * @param allSheetName 汇总的Sheet名
+     * @throws IllegalStateException 有Sheet计算或者合并出错，汇总不完整，没有输出
+     */
+    public void finish(String allSheetName) {
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            this.stopWorkers();
+            if (spillStore != null) {
+                metrics.size("spilledRuns", spillStore.getRunCount());
+                metrics.size("spilledBytes", spillStore.getWrittenBytes());
+            }
+            if (failure.get() == null) {
+                SheetResult allResult = spillStore != null
+                        ? this.resultOf(null, allSheetName, allSheetName, this.mergeRuns(allRuns), false)
+                        : new SheetResult(null, allSheetName, allSheetName,
+                        CsrMatrix.of(allMovieABWeight.toMap(), 0), null, false);
+                metrics.size("allMovieABWeight", allResult.pairCount);
+                resultQueue.put(allResult);
+            } else {
+                deleteRuns(allRuns);
+            }
+            resultQueue.put(END_OF_RESULTS);
+            writer.join();
+        } catch (InterruptedException e) {
+            metrics.error("等待流水线结束", e);
+            e.printStackTrace();
+        } finally {
+            if (mergePool != null) {
+                mergePool.shutdown();
+            }
+        }
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    /**
+     * 放弃流水线：读取出错时调用。还没算的电影直接丢掉，没算完的Sheet和汇总都不输出，
+     * 等计算线程和输出线程都退出后返回。已经finish或者abort过时什么也不做
+     * @param cause 出错的原因
+     */
+    public void abort(Throwable cause) {
+        if (!stopped.compareAndSet(false, true)) {
+            return;
+        }
+        aborted = true;
+        metrics.error("放弃流水线", cause);
+        // 读取线程已经不再提交，清空之后结束标记一定放得进去
+        blockQueue.clear();
+        try {
+            this.stopWorkers();
+            resultQueue.put(END_OF_RESULTS);
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            metrics.error("等待流水线结束", e);
+            e.printStackTrace();
+        } finally {
+            if (mergePool != null) {
+                mergePool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * 给每个计算线程一个结束标记，等它们算完剩下的电影后退出
+     * @throws InterruptedException 等待时被中断
+     */
+    private void stopWorkers() throws InterruptedException {
+        for (int i = 0; i < workers.length; i++) {
+            blockQueue.put(END_OF_BLOCKS);
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+    }
+
+    /**
+     * 计算线程：取一批电影，累加到本线程在该Sheet上的累加表
+     * @param workerIndex 计算线程下标
+     */
+    private void aggregateLoop(int workerIndex) {
+        while (true) {
+            BlockBatch batch = take(blockQueue);
+            if (batch == END_OF_BLOCKS) {
+                return;
+            }
+            SheetTask sheetTask = batch.sheetTask;
+            try {
+                if (aborted || sheetTask.failed) {
+                    continue;
+                }
+                LongIntHashMap movieABWeight = sheetTask.workerWeights[workerIndex];
+                if (movieABWeight == null) {
+                    movieABWeight = new LongIntHashMap();
+                    sheetTask.workerWeights[workerIndex] = movieABWeight;
+                }
+                for (MovieBlock movieBlock : batch.movieBlocks) {
+                    MovieWeightAggregator.putToWeightMap(movieBlock, movieABWeight, sectionABWeight);
+                }
+                // 超过预算就排好序写到磁盘，换一张新表，旧表连同数组一起回收
+                if (movieABWeight.size() > spillThreshold) {
+                    sheetTask.runs.add(spillStore.spill(movieABWeight));
+                    sheetTask.workerWeights[workerIndex] = null;
+                }
+            } catch (Throwable e) {
+                // 包括Error：计算线程不能退出，否则读取线程和finish会一直等待电影队列。
+                // 少算了一批的Sheet不能输出，剩下的批也不用再算
+                sheetTask.failed = true;
+                this.fail("计算[" + sheetTask.metricsName + "]", e);
+            } finally {
+                if (sheetTask.pending.decrementAndGet() == 0) {
+                    complete(sheetTask);
+                }
+            }
+        }
+    }
+
+    /**
+     * 输出线程：按完成顺序输出结果Sheet
+     */
+    private void writeLoop() {
+        while (true) {
+            SheetResult result = take(resultQueue);
+            if (result == END_OF_RESULTS) {
+                return;
+            }
+            long start = System.nanoTime();
+            try {
+                // 出错的文件没有汇总，只带着文件结束的标记
+                if (aborted || (result.movieABWeight == null && result.sortedPairs == null)) {
+                    continue;
+                }
+                if (result.sortedPairs != null) {
+                    sheetWriter.writeSorted(result.fileName, result.sheetName, result.sortedPairs::forEach);
+                } else {
+                    sheetWriter.write(result.fileName, result.sheetName, result.movieABWeight);
+                }
+            } catch (Throwable e) {
+                // 包括Error（比如POI内存不足）：输出线程不能退出，否则结果队列满了之后上游会一直等待
+                metrics.error("输出[" + result.metricsName + "]", e);
+                e.printStackTrace();
+                continue;
+            } finally {
+                if (result.sortedPairs != null) {
+                    result.sortedPairs.delete();
+                }
+                if (result.fileFinished) {
+                    sheetWriter.fileFinished(result.fileName);
+                }
+            }
+            metrics.sheetWritten(result.metricsName, result.pairCount, System.nanoTime() - start);
+            System.out.println("[" + Thread.currentThread().getName() + "]输出[" + result.metricsName + "]完成！");
+        }
+    }
+
+    /**
+     * 一个Sheet的所有批都算完了：合并各计算线程的累加表，并入汇总，冻结成按行存储的矩阵交给输出线程。
+     * 散列表在这里就丢掉了，结果队列里排队的只有紧凑的矩阵。
+     * 计数归零之后不会再有线程写这个Sheet的累加表
+     * @param sheetTask Sheet的计算状态
+     */
+    private void complete(SheetTask sheetTask) {
+        try {
+            this.completeSheet(sheetTask);
+        } finally {
+            // 出错的Sheet也算完成，文件的汇总照常输出
+            FileTask fileTask = sheetTask.fileTask;
+            if (fileTask != null && fileTask.pending.decrementAndGet() == 0) {
+                completeFile(fileTask);
+            }
+        }
+    }
+
+    /**
+     * 合并一个Sheet并交给输出线程
+     * @param sheetTask Sheet的计算状态
+     */
+    private void completeSheet(SheetTask sheetTask) {
+        FileTask fileTask = sheetTask.fileTask;
+        if (aborted || sheetTask.failed) {
+            deleteRuns(sheetTask.runs);
+            if (fileTask != null) {
+                fileTask.failed = true;
+            }
+            return;
+        }
+        boolean reused = sheetTask.reusedMovieABWeight != null;
+        String fileName = fileTask != null ? fileTask.fileName : null;
+        SheetResult sheetResult;
+        try {
+            if (sheetTask.runs.isEmpty()) {
+                List<LongIntHashMap> movieABWeights = new ArrayList<>(sheetTask.workerWeights.length + 1);
+                if (sheetTask.reusedMovieABWeight != null) {
+                    movieABWeights.add(sheetTask.reusedMovieABWeight);
+                }
+                for (LongIntHashMap movieABWeight : sheetTask.workerWeights) {
+                    if (movieABWeight != null) {
+                        movieABWeights.add(movieABWeight);
+                    }
+                }
+                // 两个以上的表才用到线程池，此时一定有多个计算线程
+                LongIntHashMap sheetMovieABWeight = MovieWeightAggregator.mergeAll(mergePool, movieABWeights);
+                if (spillStore == null) {
+                    (fileTask != null ? fileTask.movieABWeight : allMovieABWeight).addAll(sheetMovieABWeight);
+                }
+                CsrMatrix sheetMatrix = CsrMatrix.of(sheetMovieABWeight, 0);
+                if (spillStore != null) {
+                    (fileTask != null ? fileTask.runs : allRuns).add(spillStore.spill(sheetMatrix));
+                }
+                sheetResult = new SheetResult(fileName, sheetTask.sheetName, sheetTask.metricsName, sheetMatrix,
+                        null, false);
+            } else {
+                // 已经有溢出的段：剩下的累加表也写成段，一起归并
+                for (LongIntHashMap movieABWeight : sheetTask.workerWeights) {
+                    if (movieABWeight != null && !movieABWeight.isEmpty()) {
+                        sheetTask.runs.add(spillStore.spill(movieABWeight));
+                    }
+                }
+                if (sheetTask.reusedMovieABWeight != null) {
+                    sheetTask.runs.add(spillStore.spill(sheetTask.reusedMovieABWeight));
+                }
+                Arrays.fill(sheetTask.workerWeights, null);
+                sheetTask.reusedMovieABWeight = null;
+                SortedRun sheetRun = this.mergeRuns(sheetTask.runs);
+                // 归并出的段已经是汇总要的格式，复制一份并入汇总，原来的交给输出
+                (fileTask != null ? fileTask.runs : allRuns).add(spillStore.copy(sheetRun));
+                sheetResult = this.resultOf(fileName, sheetTask.sheetName, sheetTask.metricsName, sheetRun, false);
+            }
+        } catch (Throwable e) {
+            // 可能已经并入了一部分，所属文件的汇总也不完整了
+            deleteRuns(sheetTask.runs);
+            if (fileTask != null) {
+                fileTask.failed = true;
+            }
+            this.fail("合并[" + sheetTask.metricsName + "]", e);
+            return;
+        }
+        metrics.sheetAggregated(sheetTask.metricsName, sheetTask.cnt, sheetTask.blocks,
+                sheetResult.pairCount, reused);
+        System.out.println("共加载[" + sheetTask.cnt * 2 + "]行有效数据！");
+        put(resultQueue, sheetResult);
+    }
+
+    /**
+     * 一个文件的Sheet都算完了：汇总交给输出线程，并入总汇总。
+     * 文件的汇总排在它所有Sheet的后面，输出线程收到它就可以结束这个文件的输出；
+     * 有Sheet出错时汇总不完整，只交给输出线程一个文件结束的标记
+     * @param fileTask 文件的计算状态
+     */
+    private void completeFile(FileTask fileTask) {
+        String metricsName = sheetKey(fileTask.fileName, fileTask.totalSheetName);
+        SheetResult fileEnd = new SheetResult(fileTask.fileName, fileTask.totalSheetName, metricsName,
+                null, null, true);
+        if (fileTask.failed) {
+            deleteRuns(fileTask.runs);
+            put(resultQueue, fileEnd);
+            return;
+        }
+        SheetResult fileResult;
+        try {
+            if (spillStore != null) {
+                SortedRun fileRun = this.mergeRuns(fileTask.runs);
+                allRuns.add(spillStore.copy(fileRun));
+                fileResult = this.resultOf(fileTask.fileName, fileTask.totalSheetName, metricsName, fileRun, true);
+            } else {
+                LongIntHashMap fileMovieABWeight = fileTask.movieABWeight.toMap();
+                allMovieABWeight.addAll(fileMovieABWeight);
+                fileResult = new SheetResult(fileTask.fileName, fileTask.totalSheetName, metricsName,
+                        CsrMatrix.of(fileMovieABWeight, 0), null, true);
+            }
+        } catch (Throwable e) {
+            deleteRuns(fileTask.runs);
+            this.fail("合并[" + metricsName + "]", e);
+            put(resultQueue, fileEnd);
+            return;
+        }
+        metrics.sheetAggregated(metricsName, 0, 0, fileResult.pairCount, false);
+        put(resultQueue, fileResult);
+    }
+
+    /**
+     * 记下一个计算或者合并出错的Sheet，finish时抛出第一个
+     * @param action 出错的操作，比如“计算[例子]”
+     * @param cause 错误
+     */
+    private void fail(String action, Throwable cause) {
+        metrics.error(action, cause);
+        cause.printStackTrace();
+        failure.compareAndSet(null, new IllegalStateException(action + "失败，汇总不完整，不再输出汇总！", cause));
+    }
+
+    /**
+     * 删除没有用上的有序段
+     * @param runs 有序段，删除后清空
+     */
+    private static void deleteRuns(List<SortedRun> runs) {
+        synchronized (runs) {
+            for (SortedRun run : runs) {
+                run.delete();
+            }
+            runs.clear();
+        }
+    }
+
+    /**
+     * 运行指标中Sheet的名字：批量统计时在Sheet名前加上文件名，不同文件的同名Sheet分开统计
+     * @param fileName 文件名，不属于任何文件时为空
+     * @param sheetName Sheet名
+     * @return 运行指标中的名字
+     */
+    static String sheetKey(String fileName, String sheetName) {
+        return fileName != null ? fileName + "/" + sheetName : sheetName;
+    }
+
+    /**
+     * 把若干有序段归并成一段
+     * @param runs 有序段，归并后清空
+     * @return 归并出的段
+     */
+    private SortedRun mergeRuns(List<SortedRun> runs) {
+        synchronized (runs) {
+            SortedRun merged = spillStore.merge(runs);
+            runs.clear();
+            return merged;
+        }
+    }
+
+    /**
+     * 由归并出的段生成结果Sheet：输出接受有序公司对时直接交给输出线程读取，输出完删除；
+     * 否则读成矩阵，段随即删除
+     * @param fileName 所属文件，没有时为空
+     * @param sheetName Sheet名
+     * @param metricsName 运行指标中的名字
+     * @param merged 归并出的段
+     * @param fileFinished 是否是所属文件的最后一个结果Sheet
+     * @return 结果Sheet
+     */
+    private SheetResult resultOf(String fileName, String sheetName, String metricsName, SortedRun merged,
+                                 boolean fileFinished) {
+        if (sheetWriter.isSortedPairsAccepted(fileName)) {
+            return new SheetResult(fileName, sheetName, metricsName, null, merged, fileFinished);
+        }
+        try {
+            return new SheetResult(fileName, sheetName, metricsName, CsrMatrix.ofSortedPairs(merged::forEach), null,
+                    fileFinished);
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取溢出文件失败", e);
+        } finally {
+            merged.delete();
+        }
+    }
+
+    /**
+     * 放入队列，满了就等待
+     * @param queue 队列
+     * @param element 元素
+     * @param <E> 元素类型
+     */
+    private static <E> void put(BlockingQueue<E> queue, E element) {
+        try {
+            queue.put(element);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待队列时被中断", e);
+        }
+    }
+
+    /**
+     * 从队列取出，空了就等待
+     * @param queue 队列
+     * @param <E> 元素类型
+     * @return 元素
+     */
+    private static <E> E take(BlockingQueue<E> queue) {
+        try {
+            return queue.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("等待队列时被中断", e);
+        }
+    }
+
+    /**
+     * Usage:
+     * 一个Sheet在流水线中的计算状态
+     */
+    public static class SheetTask {
+
+        /** 所属文件，没有时为空 */
+        private final FileTask fileTask;
+
+        /** Sheet名 */
+        private final String sheetName;
+
+        /** 运行指标中的名字 */
+        private final String metricsName;
+
+        /** 每个计算线程一个累加表，只由对应的计算线程写 */
+        private final LongIntHashMap[] workerWeights;
+
+        /** 交给计算线程的电影数，只由读取线程写 */
+        private long blocks;
+
+        /** 未算完的批数，再加上未关闭的1 */
+        private final AtomicInteger pending = new AtomicInteger(1);
+
+        /** 有效电影数 */
+        private volatile int cnt;
+
+        /** 已经算好的电影公司权重，没有时为空 */
+        private volatile LongIntHashMap reusedMovieABWeight;
+
+        /** 溢出到磁盘的有序段，多个计算线程都会添加 */
+        private final List<SortedRun> runs = Collections.synchronizedList(new ArrayList<>());
+
+        /** 是否有一批计算出错 */
+        private volatile boolean failed;
+
+        /**
+         * 全参构造函数
+         * @param fileTask 所属文件，没有时为空
+         * @param sheetName Sheet名
+         * @param workerCount 计算线程数
+         */
+        SheetTask(FileTask fileTask, String sheetName, int workerCount) {
+            this.fileTask = fileTask;
+            this.sheetName = sheetName;
+            this.metricsName = sheetKey(fileTask != null ? fileTask.fileName : null, sheetName);
+            this.workerWeights = new LongIntHashMap[workerCount];
+        }
+
+    }
+
+    /**
+     * Usage:
+     * 批量统计时一个文件在流水线中的计算状态
+     */
+    public static class FileTask {
+
+        /** 文件名 */
+        private final String fileName;
+
+        /** 文件汇总的Sheet名 */
+        private final String totalSheetName;
+
+        /** 未算完的Sheet数，再加上未关闭的1 */
+        private final AtomicInteger pending = new AtomicInteger(1);
+
+        /** 文件的汇总，没有设置内存预算时使用 */
+        private final StripedLongIntMap movieABWeight;
+
+        /** 设置了内存预算时，各Sheet的结果写成的有序段 */
+        private final List<SortedRun> runs = Collections.synchronizedList(new ArrayList<>());
+
+        /** 是否有Sheet计算或者合并出错，出错时不输出文件的汇总 */
+        private volatile boolean failed;
+
+        /**
+         * 全参构造函数
+         * @param fileName 文件名
+         * @param totalSheetName 文件汇总的Sheet名
+         * @param concurrencyLevel 预计同时合并的线程数
+         */
+        FileTask(String fileName, String totalSheetName, int concurrencyLevel) {
+            this.fileName = fileName;
+            this.totalSheetName = totalSheetName;
+            this.movieABWeight = new StripedLongIntMap(concurrencyLevel);
+        }
+
+    }
+
+    /**
+     * Usage:
+     * 电影队列中的一批电影
+     */
+    private static class BlockBatch {
+
+        /** 所属Sheet */
+        private final SheetTask sheetTask;
+
+        /** 电影 */
+        private final List<MovieBlock> movieBlocks;
+
+        /**
+         * 全参构造函数
+         * @param sheetTask 所属Sheet
+         * @param movieBlocks 电影
+         */
+        BlockBatch(SheetTask sheetTask, List<MovieBlock> movieBlocks) {
+            this.sheetTask = sheetTask;
+            this.movieBlocks = movieBlocks;
+        }
+
+    }
+
+    /**
+     * Usage:
+     * 结果队列中的一个结果Sheet
+     */
+    private static class SheetResult {
+
+        /** 所属文件，没有时为空 */
+        private final String fileName;
+
+        /** Sheet名 */
+        private final String sheetName;
+
+        /** 运行指标中的名字 */
+        private final String metricsName;
+
+        /** 电影公司权重，以有序段输出时为空；两者都为空时不输出，只是文件结束的标记 */
+        private final CsrMatrix movieABWeight;
+
+        /** 归并出的有序公司对，以矩阵输出时为空 */
+        private final SortedRun sortedPairs;
+
+        /** 公司对数 */
+        private final int pairCount;
+
+        /** 是否是所属文件的最后一个结果Sheet */
+        private final boolean fileFinished;
+
+        /**
+         * 全参构造函数
+         * @param fileName 所属文件，没有时为空
+         * @param sheetName Sheet名
+         * @param metricsName 运行指标中的名字
+         * @param movieABWeight 电影公司权重，以有序段输出时为空
+         * @param sortedPairs 归并出的有序公司对，以矩阵输出时为空
+         * @param fileFinished 是否是所属文件的最后一个结果Sheet
+         */
+        SheetResult(String fileName, String sheetName, String metricsName, CsrMatrix movieABWeight,
+                    SortedRun sortedPairs, boolean fileFinished) {
+            this.fileName = fileName;
+            this.sheetName = sheetName;
+            this.metricsName = metricsName;
+            this.movieABWeight = movieABWeight;
+            this.sortedPairs = sortedPairs;
+            this.pairCount = movieABWeight != null ? movieABWeight.getPairCount()
+                    : sortedPairs != null ? (int) sortedPairs.getCount() : 0;
+            this.fileFinished = fileFinished;
+        }
+
+    }
+
+    /**
+     * Usage:
+     * 输出结果Sheet，只在输出线程上调用
+     */
+    @FunctionalInterface
+    public interface SheetWriter {
+
+        /**
+         * 输出一个结果Sheet
+         * @param fileName 所属文件，不属于任何文件（单个Excel的Sheet和总汇总）时为空
+         * @param sheetName Sheet名
+         * @param movieABWeight 电影公司权重
+         */
+        void write(String fileName, String sheetName, CsrMatrix movieABWeight);
+
+        /**
+         * 是否直接输出溢出归并出的有序公司对。接受时，设置了内存预算的结果Sheet不再读成矩阵，改用writeSorted输出
+         * @param fileName 所属文件，不属于任何文件时为空
+         * @return 是否接受
+         */
+        default boolean isSortedPairsAccepted(String fileName) {
+            return false;
+        }
+
+        /**
+         * 输出一个结果Sheet，只在isSortedPairsAccepted为true时调用
+         * @param fileName 所属文件，不属于任何文件（单个Excel的Sheet和总汇总）时为空
+         * @param sheetName Sheet名
+         * @param sortedPairs 按PairKey从小到大排列的公司对，可以读多遍
+         */
+        default void writeSorted(String fileName, String sheetName, CsrMatrix.PairSource sortedPairs) {
+            throw new UnsupportedOperationException("不接受有序公司对");
+        }
+
+        /**
+         * 某个文件的结果Sheet都输出完了（最后一个是文件的汇总）
+         * @param fileName 文件名
+         */
+        default void fileFinished(String fileName) {}
+
+    }
+
+}
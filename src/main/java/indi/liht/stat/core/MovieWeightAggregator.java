@@ -0,0 +1,122 @@
+package indi.liht.stat.core;
+
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.collection.PairKey;
+import indi.liht.stat.models.MovieBlock;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Usage:
+ * 电影公司权重的计算，以及权重表的合并。由流水线的计算线程调用。
+ * 多个权重表在ForkJoinPool上两两合并，合并本身是并行的树形归约
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/12
+ **/
+public class MovieWeightAggregator {
+
+    private MovieWeightAggregator() {}
+
+    /**
+     * 计算电影公司权重，合并过的电影按重数倍加
+     * @param movieBlock 一部电影的电影公司与其分工
+     * @param movieABWeight 返回的电影公司权重
+     * @param sectionABWeight 分工权重
+     */
+    public static void putToWeightMap(MovieBlock movieBlock,
+                                      LongIntHashMap movieABWeight,
+                                      LongIntHashMap sectionABWeight) {
+        int multiplicity = movieBlock.getMultiplicity();
+        for (int i = 0, blockSize = movieBlock.size(); i < blockSize; i++) {
+            for (int j = i + 1; j < blockSize; j++) {
+                // 根据i和j两个电影公司的分工，确定分工权重
+                int weight = sectionABWeight.getOrDefault(
+                        PairKey.of(movieBlock.getSectionId(i), movieBlock.getSectionId(j)), 0) * multiplicity;
+                // 加上上面计算的分工权重，不存在则视为0
+                movieABWeight.addTo(PairKey.of(movieBlock.getMovieComId(i), movieBlock.getMovieComId(j)), weight);
+            }
+        }
+    }
+
+    /**
+     * 合并两个权重表，把小的合并到大的里面
+     * @param left 权重表
+     * @param right 权重表
+     * @return 合并后的权重表（left或right之一）
+     */
+    static LongIntHashMap merge(LongIntHashMap left, LongIntHashMap right) {
+        if (left.size() < right.size()) {
+            right.addAll(left);
+            return right;
+        }
+        left.addAll(right);
+        return left;
+    }
+
+    /**
+     * 合并若干权重表：超过两个时在线程池上两两并行合并
+     * @param pool 工作窃取线程池
+     * @param movieABWeights 权重表，合并后其中的表不能再使用
+     * @return 合并后的权重表（其中之一），没有时为新的空表
+     */
+    static LongIntHashMap mergeAll(ForkJoinPool pool, List<LongIntHashMap> movieABWeights) {
+        switch (movieABWeights.size()) {
+            case 0:
+                return new LongIntHashMap();
+            case 1:
+                return movieABWeights.get(0);
+            case 2:
+                return merge(movieABWeights.get(0), movieABWeights.get(1));
+            default:
+                return pool.invoke(new MergeTask(movieABWeights, 0, movieABWeights.size()));
+        }
+    }
+
+    /**
+     * Usage:
+     * 合并[from, to)这一段权重表，多于两个就对半拆开，分别合并后再合并
+     */
+    private static class MergeTask extends RecursiveTask<LongIntHashMap> {
+
+        /** 权重表 */
+        private final List<LongIntHashMap> movieABWeights;
+
+        /** 起始下标（含） */
+        private final int from;
+
+        /** 结束下标（不含） */
+        private final int to;
+
+        /**
+         * 全参构造函数
+         * @param movieABWeights 权重表
+         * @param from 起始下标（含）
+         * @param to 结束下标（不含）
+         */
+        MergeTask(List<LongIntHashMap> movieABWeights, int from, int to) {
+            this.movieABWeights = movieABWeights;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected LongIntHashMap compute() {
+            if (to - from == 1) {
+                return movieABWeights.get(from);
+            }
+            if (to - from == 2) {
+                return merge(movieABWeights.get(from), movieABWeights.get(from + 1));
+            }
+            int middle = (from + to) >>> 1;
+            MergeTask left = new MergeTask(movieABWeights, from, middle);
+            MergeTask right = new MergeTask(movieABWeights, middle, to);
+            left.fork();
+            LongIntHashMap rightResult = right.compute();
+            return merge(left.join(), rightResult);
+        }
+
+    }
+
+}
@@ -0,0 +1,118 @@
+package indi.liht.stat.core;
+
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.models.MovieBlock;
+import indi.liht.stat.reader.IMovieBlockHandler;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Usage:
+ * 把电影按批提交给流水线，读取和计算同时进行。开启了合并相同阵容时，先在读取线程上合并，
+ * 记满或者Sheet结束时再把合并后的电影提交
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/17
+ **/
+class PipelineBlockHandler implements IMovieBlockHandler {
+
+    /** 读取、计算、输出流水线 */
+    private final MoviePipeline pipeline;
+
+    /** 每批的电影数 */
+    private final int batchSize;
+
+    /** 合并相同阵容时最多同时记录的不同阵容数，0为不合并 */
+    private final int dedupWindow;
+
+    /** 已经读到的Sheet */
+    private final Set<String> readSheetNames = new HashSet<>();
+
+    /** 当前Sheet在流水线中的计算状态 */
+    private MoviePipeline.SheetTask sheetTask;
+
+    /** 当前批的电影 */
+    private List<MovieBlock> movieBlocks;
+
+    /** 当前Sheet的相同阵容合并，不合并时为空 */
+    private BlockDeduplicator deduplicator;
+
+    /**
+     * 全参构造函数
+     * @param pipeline 读取、计算、输出流水线
+     * @param batchSize 每批的电影数
+     * @param dedupWindow 合并相同阵容时最多同时记录的不同阵容数，0为不合并
+     */
+    PipelineBlockHandler(MoviePipeline pipeline, int batchSize, int dedupWindow) {
+        this.pipeline = pipeline;
+        this.batchSize = Math.max(batchSize, 1);
+        this.dedupWindow = dedupWindow;
+    }
+
+    @Override
+    public void startSheet(String sheetName) {
+        readSheetNames.add(sheetName);
+        sheetTask = pipeline.openSheet(sheetName);
+        movieBlocks = new ArrayList<>(batchSize);
+        deduplicator = dedupWindow > 0 ? new BlockDeduplicator(dedupWindow) : null;
+    }
+
+    @Override
+    public void handleBlock(String sheetName, MovieBlock movieBlock) {
+        if (deduplicator == null) {
+            this.addToBatch(movieBlock);
+        } else if (deduplicator.add(movieBlock)) {
+            deduplicator.drain(this::addToBatch);
+        }
+    }
+
+    /**
+     * 加入当前批，攒够一批就提交
+     * @param movieBlock 电影
+     */
+    private void addToBatch(MovieBlock movieBlock) {
+        movieBlocks.add(movieBlock);
+        if (movieBlocks.size() >= batchSize) {
+            // 电影队列满了会在这里等待
+            pipeline.submit(sheetTask, movieBlocks);
+            movieBlocks = new ArrayList<>(batchSize);
+        }
+    }
+
+    @Override
+    public void endSheet(String sheetName, int cnt) {
+        this.endSheet(sheetName, cnt, null);
+    }
+
+    /**
+     * 某个工作表结束
+     * @param sheetName 工作表名
+     * @param cnt 工作表的有效电影数
+     * @param reusedMovieABWeight 复用的电影公司权重，与提交的电影的权重相加；没有时为空
+     */
+    void endSheet(String sheetName, int cnt, LongIntHashMap reusedMovieABWeight) {
+        if (deduplicator != null) {
+            deduplicator.drain(this::addToBatch);
+            deduplicator.printSummary(sheetName);
+            deduplicator = null;
+        }
+        if (!movieBlocks.isEmpty()) {
+            pipeline.submit(sheetTask, movieBlocks);
+        }
+        pipeline.closeSheet(sheetTask, cnt, reusedMovieABWeight);
+        sheetTask = null;
+        movieBlocks = null;
+    }
+
+    /**
+     * 是否读到了某个工作表
+     * @param sheetName 工作表名
+     * @return 是否读到
+     */
+    boolean isSheetRead(String sheetName) {
+        return readSheetNames.contains(sheetName);
+    }
+
+}
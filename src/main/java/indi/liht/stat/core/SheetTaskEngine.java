@@ -0,0 +1,301 @@
+package indi.liht.stat.core;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Usage:
+ * 批量统计的任务执行引擎：任务在固定大小的线程池中执行，每个任务对应一个CompletableFuture。
+ * 任务出错（包括Error）时Future异常结束，不会让等待的线程一直等下去；设置了超时的任务，开始执行后超时就直接以
+ * TimeoutException结束；开启快速失败时，一个任务失败就取消其余所有的任务。
+ * 取消是协作式的：任务的Future提前结束就算被取消，任务在读取的每一行检查一次，发现被取消就抛出CancellationException。
+ * await等所有Future结束，再给还没停下的任务一段宽限时间，最后汇总所有失败的任务
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class SheetTaskEngine {
+
+    /** 等所有Future结束之后，等还在执行的任务停下的宽限时间，毫秒 */
+    private static final long STOP_GRACE_MILLIS = 10000L;
+
+    /** 线程池 */
+    private final ExecutorService executor;
+
+    /** 超时计时器，不限时间时为空 */
+    private final ScheduledExecutorService timer;
+
+    /** 每个任务的超时时间，毫秒，0为不限 */
+    private final long taskTimeoutMillis;
+
+    /** 是否快速失败：一个任务失败就取消其余所有的任务 */
+    private final boolean failFast;
+
+    /** 已经提交的任务，按提交顺序排列 */
+    private final List<Task> tasks = new CopyOnWriteArrayList<>();
+
+    /** 取消所有任务的原因，没有取消时为空 */
+    private volatile String cancelReason;
+
+    /**
+     * 全参构造函数
+     * @param threadNamePrefix 线程名前缀
+     * @param parallelism 线程数
+     * @param taskTimeoutMillis 每个任务的超时时间，毫秒，0为不限
+     * @param failFast 是否快速失败：一个任务失败就取消其余所有的任务
+     */
+    public SheetTaskEngine(String threadNamePrefix, int parallelism, long taskTimeoutMillis, boolean failFast) {
+        AtomicInteger threadCount = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(Math.max(parallelism, 1), runnable -> {
+            // 守护线程：宽限时间之后仍然停不下来的任务不会挡住程序退出
+            Thread thread = new Thread(runnable, threadNamePrefix + threadCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.timer = taskTimeoutMillis > 0 ? Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "Timeout-Thread");
+            thread.setDaemon(true);
+            return thread;
+        }) : null;
+        this.taskTimeoutMillis = taskTimeoutMillis;
+        this.failFast = failFast;
+    }
+
+    /**
+     * 提交一个任务
+     * @param name 任务名，用于汇总失败
+     * @param body 任务内容，参数为任务本身，用于检查是否被取消
+     * @return 任务的Future，任务结束、失败、超时或者被取消时结束
+     */
+    public CompletableFuture<Void> submit(String name, Consumer<Task> body) {
+        Task task = new Task(name);
+        tasks.add(task);
+        if (cancelReason != null) {
+            // 已经取消过了，之后提交的任务也直接取消
+            task.cancel(cancelReason);
+        }
+        if (failFast) {
+            task.future.whenComplete((result, e) -> {
+                if (e != null && !(unwrap(e) instanceof CancellationException)) {
+                    this.cancelAll("[" + name + "]失败");
+                }
+            });
+        }
+        try {
+            executor.execute(() -> this.run(task, body));
+        } catch (RejectedExecutionException e) {
+            task.future.completeExceptionally(e);
+        }
+        return task.future;
+    }
+
+    /**
+     * 取消所有没有结束的任务
+     * @param reason 取消的原因
+     */
+    public void cancelAll(String reason) {
+        if (cancelReason == null) {
+            cancelReason = reason;
+        }
+        for (Task task : tasks) {
+            task.cancel(reason);
+        }
+    }
+
+    /**
+     * 等所有任务结束，关闭线程池，汇总失败的任务
+     * @return 失败、超时或者被取消的任务，按提交顺序排列
+     */
+    public List<Failure> await() {
+        List<Failure> failures = new ArrayList<>();
+        try {
+            CompletableFuture.allOf(tasks.stream().map(task -> task.future)
+                    .toArray(CompletableFuture[]::new)).exceptionally(e -> null).get();
+            // Future结束了任务不一定停下了：超时和取消的任务要到下一行才发现，等它们把状态交还给流水线
+            executor.shutdown();
+            if (!executor.awaitTermination(STOP_GRACE_MILLIS, TimeUnit.MILLISECONDS)) {
+                System.out.println("仍有任务在" + STOP_GRACE_MILLIS + "ms内没有停下，不再等待！");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            this.cancelAll("等待时被中断");
+        } catch (ExecutionException e) {
+            // exceptionally之后不会出现
+            throw new IllegalStateException(e);
+        } finally {
+            executor.shutdownNow();
+            if (timer != null) {
+                timer.shutdownNow();
+            }
+        }
+        for (Task task : tasks) {
+            if (task.future.isCompletedExceptionally()) {
+                try {
+                    task.future.getNow(null);
+                } catch (CompletionException | CancellationException e) {
+                    failures.add(new Failure(task.name, unwrap(e)));
+                }
+            }
+        }
+        return failures;
+    }
+
+    /**
+     * 在线程池中执行一个任务
+     * @param task 任务
+     * @param body 任务内容
+     */
+    private void run(Task task, Consumer<Task> body) {
+        ScheduledFuture<?> timeout = null;
+        if (timer != null && !task.future.isDone()) {
+            timeout = timer.schedule(() -> task.future.completeExceptionally(new TimeoutException(
+                    "[" + task.name + "]超过" + taskTimeoutMillis + "ms没有完成")),
+                    taskTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        try {
+            // 已经被取消的任务也执行，由任务自己检查，这样它在finally中的收尾工作照常进行
+            body.accept(task);
+            task.future.complete(null);
+        } catch (Throwable e) {
+            task.future.completeExceptionally(e);
+        } finally {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * 去掉CompletableFuture包装的异常
+     * @param e 异常
+     * @return 原始异常
+     */
+    private static Throwable unwrap(Throwable e) {
+        return e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+    }
+
+    /**
+     * Usage:
+     * 一个任务
+     */
+    public static class Task {
+
+        /** 任务名 */
+        private final String name;
+
+        /** 任务的Future */
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        /**
+         * 全参构造函数
+         * @param name 任务名
+         */
+        Task(String name) {
+            this.name = name;
+        }
+
+        /**
+         * 获取 任务名
+         * @return 任务名
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 取消，已经结束时什么也不做
+         * @param reason 取消的原因
+         */
+        void cancel(String reason) {
+            future.completeExceptionally(new CancellationException("因" + reason + "取消[" + name + "]"));
+        }
+
+        /**
+         * 是否已经被取消（超时、其他任务失败或者等待被中断），任务内容执行完之前Future就结束了
+         * @return 是否被取消
+         */
+        public boolean isCancelled() {
+            return future.isDone();
+        }
+
+        /**
+         * 被取消了就抛出CancellationException，停止执行
+         */
+        public void checkCancelled() {
+            if (future.isDone()) {
+                throw new CancellationException("[" + name + "]已取消");
+            }
+        }
+
+    }
+
+    /**
+     * Usage:
+     * 一个失败的任务
+     */
+    public static class Failure {
+
+        /** 任务名 */
+        private final String name;
+
+        /** 原因 */
+        private final Throwable cause;
+
+        /**
+         * 全参构造函数
+         * @param name 任务名
+         * @param cause 原因
+         */
+        Failure(String name, Throwable cause) {
+            this.name = name;
+            this.cause = cause;
+        }
+
+        /**
+         * 获取 任务名
+         * @return 任务名
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 获取 原因
+         * @return 原因
+         */
+        public Throwable getCause() {
+            return cause;
+        }
+
+        /**
+         * 是否是超时
+         * @return 是否超时
+         */
+        public boolean isTimedOut() {
+            return cause instanceof TimeoutException;
+        }
+
+        /**
+         * 是否是被取消（因为其他任务失败）
+         * @return 是否被取消
+         */
+        public boolean isCancelled() {
+            return cause instanceof CancellationException;
+        }
+
+    }
+
+}
@@ -1,27 +1,45 @@
 package indi.liht.stat.core;
 
+import indi.liht.stat.cache.InputCache;
+import indi.liht.stat.cache.PartialStore;
+import indi.liht.stat.collection.CsrMatrix;
+import indi.liht.stat.collection.IntDictionary;
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.collection.PairKey;
 import indi.liht.stat.constants.StatConsts;
-import indi.liht.stat.models.MovieComSection;
+import indi.liht.stat.metrics.StatMetrics;
+import indi.liht.stat.metrics.StatMetricsExporter;
+import indi.liht.stat.models.MovieBlock;
+import indi.liht.stat.query.PairIndex;
+import indi.liht.stat.query.PairQueryServer;
+import indi.liht.stat.reader.IMovieBlockHandler;
+import indi.liht.stat.reader.IRowHandler;
+import indi.liht.stat.reader.ISheetReader;
+import indi.liht.stat.reader.SheetRow;
+import indi.liht.stat.spill.SpillStore;
 import indi.liht.stat.utils.DateUtils;
 import indi.liht.stat.utils.PoiUtils;
+import indi.liht.stat.writer.CsvResultWriter;
+import indi.liht.stat.writer.IResultWriter;
+import indi.liht.stat.writer.OoxmlResultWriter;
+import indi.liht.stat.writer.TopPairCsvWriter;
+import indi.liht.stat.writer.WorkbookResultWriter;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.poi.hssf.usermodel.HSSFRow;
-import org.apache.poi.hssf.usermodel.HSSFSheet;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.util.IOUtils;
-import org.apache.poi.xssf.usermodel.XSSFRow;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import java.io.*;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
-import java.util.concurrent.*;
-import java.util.concurrent.locks.Lock;
-import java.util.concurrent.locks.ReentrantLock;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
 
 /**
  * Usage:
@@ -31,42 +49,178 @@ import java.util.concurrent.locks.ReentrantLock;
  **/
 public class StatMovie implements IStat {
 
+    /** 默认的资源文件路径：class所在目录，打包成jar后为jar所在目录 */
+    private static final String DEFAULT_RESOURCE_ROOT_PATH = defaultResourceRootPath();
+
+    /** 输入缓存文件，相对于资源文件路径 */
+    private static final String INPUT_CACHE_PATH = "conf/cache/stat-movie-input.cache";
+
+    /** 各工作表上次的计算结果的存放目录，相对于资源文件路径 */
+    private static final String PARTIAL_STORE_PATH = "conf/cache/partials";
+
     /** 资源文件路径 */
-    private static String RESOURCE_ROOT_PATH =
-            StatMovie.class.getProtectionDomain().getCodeSource().getLocation().getPath();
+    private final String resourceRootPath;
 
     /** Excel文件路径 */
-    private static String EXCEL_ROOT_PATH;
+    private final String excelRootPath;
 
     /** stat.properties配置文件 */
     private Properties properties = new Properties();
 
-    static {
+    /** 阶段监听器 */
+    private IPhaseListener phaseListener = IPhaseListener.NONE;
+
+    /** 本次统计的运行指标 */
+    private StatMetrics metrics;
+
+    /** 运行摘要的输出路径，不输出时为空 */
+    private String summaryPath;
+
+    /** 每个电影公司最多输出的合作公司数，不大于0表示不限 */
+    private int outputTopK;
+
+    /** 输出的最小权重，为空表示不限 */
+    private Integer outputMinWeight;
+
+    /** 查询服务，第一次统计时按配置启动，之后一直运行 */
+    private PairQueryServer queryServer;
+
+    /** 输出文件的后缀 */
+    private String outputFileSuffix;
+
+    /** 统计结果输出 */
+    private IResultWriter resultWriter;
+
+    /** 电影公司字典 */
+    private IntDictionary movieComDictionary;
+
+    /** 分工字典 */
+    private IntDictionary sectionDictionary;
+
+    /**
+     * 构造函数，读取默认资源文件路径下的配置文件和Excel文件
+     */
+    public StatMovie() {
+        this(DEFAULT_RESOURCE_ROOT_PATH);
+    }
+
+    /**
+     * 指定资源文件路径的构造函数
+     * @param resourceRootPath 资源文件路径，以/结尾，其下为conf/stat.properties和conf/excel
+     */
+    public StatMovie(String resourceRootPath) {
+        this.resourceRootPath = resourceRootPath;
+        this.excelRootPath = resourceRootPath + "conf/excel/";
+    }
+
+    /**
+     * 默认的资源文件路径
+     * @return 资源文件路径
+     */
+    private static String defaultResourceRootPath() {
+        String path = StatMovie.class.getProtectionDomain().getCodeSource().getLocation().getPath();
         // 打包成jar后，读取外层同级的配置文件和Excel文件
-        if (RESOURCE_ROOT_PATH.toLowerCase().endsWith(".jar")) {
-            int lastIndex = RESOURCE_ROOT_PATH.lastIndexOf("/");
-            RESOURCE_ROOT_PATH = RESOURCE_ROOT_PATH.substring(0, lastIndex) + "/";
+        if (path.toLowerCase().endsWith(".jar")) {
+            path = path.substring(0, path.lastIndexOf("/")) + "/";
         }
-        EXCEL_ROOT_PATH = RESOURCE_ROOT_PATH + "conf/excel/";
+        return path;
+    }
+
+    /**
+     * 获取 资源文件路径
+     * @return 资源文件路径，以/结尾
+     */
+    public String getResourceRootPath() {
+        return resourceRootPath;
     }
 
-    /** 要写入的工作表 */
-    private Workbook workbookToWrite;
+    /**
+     * 查询服务是否在运行
+     * @return 是否在运行
+     */
+    public boolean isQueryServing() {
+        return queryServer != null;
+    }
 
-    /** 用于createSheet时的锁 */
-    private Lock lock = new ReentrantLock();
+    /**
+     * 设置 阶段监听器
+     * @param phaseListener 阶段监听器
+     */
+    public void setPhaseListener(IPhaseListener phaseListener) {
+        this.phaseListener = phaseListener != null ? phaseListener : IPhaseListener.NONE;
+    }
 
     /**
-     * 构造函数
+     * 获取 最近一次统计的运行指标
+     * @return 运行指标，还没有统计过时为空
      */
-    public StatMovie() {}
+    public StatMetrics getMetrics() {
+        return metrics;
+    }
 
     /**
      * 主方法
      */
     public void stat() {
-        this.loadProps();
-        this.handleData();
+        movieComDictionary = new IntDictionary();
+        sectionDictionary = new IntDictionary();
+        properties = new Properties();
+        metrics = new StatMetrics();
+        summaryPath = null;
+        StatMetricsExporter.publish(metrics);
+        try {
+            this.startPhase("stat");
+            this.startPhase("loadProps");
+            this.loadProps();
+            this.finishPhase("loadProps");
+            this.startPhase("handleData");
+            this.handleData();
+            this.finishPhase("handleData");
+            this.finishPhase("stat");
+        } finally {
+            // 出错时没有结束的阶段在摘要中标记为未完成
+            metrics.finish();
+            this.writeSummary();
+        }
+    }
+
+    /**
+     * 某个阶段开始：记录运行指标，通知阶段监听器
+     * @param phase 阶段名
+     */
+    private void startPhase(String phase) {
+        metrics.phaseStarted(phase);
+        phaseListener.phaseStarted(phase);
+    }
+
+    /**
+     * 某个阶段结束：记录运行指标，通知阶段监听器
+     * @param phase 阶段名
+     */
+    private void finishPhase(String phase) {
+        metrics.phaseFinished(phase);
+        phaseListener.phaseFinished(phase);
+    }
+
+    /**
+     * 把运行摘要写到输出文件旁边
+     */
+    private void writeSummary() {
+        if (summaryPath == null) {
+            return;
+        }
+        Writer writer = null;
+        try {
+            writer = new OutputStreamWriter(new FileOutputStream(summaryPath), StandardCharsets.UTF_8);
+            writer.write(metrics.toJson());
+            writer.write('\n');
+            writer.flush();
+            System.out.println("完成写入[" + summaryPath + "]运行摘要！");
+        } catch (IOException e) {
+            e.printStackTrace();
+        } finally {
+            IOUtils.closeQuietly(writer);
+        }
     }
 
     /**
@@ -75,12 +229,13 @@ public class StatMovie implements IStat {
     private void loadProps() {
         InputStream is = null;
         Reader isr = null;
-        String propsFilePath = RESOURCE_ROOT_PATH + "conf/stat.properties";
+        String propsFilePath = resourceRootPath + "conf/stat.properties";
         try {
             is = new FileInputStream(propsFilePath);
             isr = new InputStreamReader(is, StandardCharsets.UTF_8);
             properties.load(isr);
         } catch (IOException e) {
+            metrics.error("加载[" + propsFilePath + "]", e);
             e.printStackTrace();
         } finally {
             IOUtils.closeQuietly(is);
@@ -90,220 +245,750 @@ public class StatMovie implements IStat {
     }
 
     /**
-     * 处理赋值Excel数据，然后进入下一环节
+     * 处理赋值Excel数据，然后进入下一环节。输入文件没有变化时，直接使用输入缓存
      */
     private void handleData() {
-        Sheet[] relationDataSheet = PoiUtils.getSheetsFromPath(EXCEL_ROOT_PATH
-                        + properties.getProperty("stat.movie.relation-data.file-name").trim(),
-                properties.getProperty("stat.movie.relation-data.sheet-name").trim());
-        if (Optional.ofNullable(relationDataSheet).isPresent()
-                && Optional.ofNullable(relationDataSheet[0]).isPresent()) {
-            // A+B->weight
-            Map<String, Integer> sectionABWeight = new HashMap<>();
-            int cnt = 0;
-            int rowCount = relationDataSheet[0].getLastRowNum() - relationDataSheet[0].getFirstRowNum() + 1;
-            for (int rowNum = 1; rowNum < rowCount; rowNum++) {
-                Row row = relationDataSheet[0].getRow(rowNum);
-                String sectionA = String.valueOf(PoiUtils.getCellValueFromRow(row, 0));
-                String sectionB = String.valueOf(PoiUtils.getCellValueFromRow(row, 1));
-                int weight = Double.valueOf(Optional.ofNullable(
-                        String.valueOf(PoiUtils.getCellValueFromRow(row, 2))).orElse("0"))
-                        .intValue();
-                if (StringUtils.isNotEmpty(sectionA) && StringUtils.isNotEmpty(sectionB)) {
-                    String key = sectionA + StatConsts.KEY_SEPARATOR + sectionB;
-                    sectionABWeight.put(key, weight);
-                    cnt++;
-                }
+        String relationDataPath = excelRootPath
+                + properties.getProperty("stat.movie.relation-data.file-name").trim();
+        String relationDataSheetName = properties.getProperty("stat.movie.relation-data.sheet-name").trim();
+        // 多个Sheet名字，split分割后，用数组存起来
+        String[] sourceDataSheetNames =
+                properties.getProperty("stat.movie.main-data.sheet-names").trim()
+                        .split(StatConsts.PROPS_VALUE_SEPARATOR);
+        String sourceDataFileName = properties.getProperty("stat.movie.main-data.file-name").trim();
+        String sourceDataPath = excelRootPath + sourceDataFileName;
+        // 配置的是目录或者通配符时批量处理，不使用输入缓存和增量计算
+        List<File> sourceFiles = this.listSourceFiles(sourceDataFileName, new File(relationDataPath));
+        if (sourceFiles != null && sourceFiles.isEmpty()) {
+            System.out.println("没有找到来源Excel[" + sourceDataFileName + "]！请检查stat.movie.main-data.file-name");
+            return;
+        }
+
+        InputCache inputCache = null;
+        if (sourceFiles == null
+                && Boolean.parseBoolean(properties.getProperty("stat.movie.input-data.cache", "true").trim())) {
+            inputCache = new InputCache(new File(resourceRootPath + INPUT_CACHE_PATH),
+                    new File(relationDataPath), relationDataSheetName,
+                    new File(sourceDataPath), sourceDataSheetNames);
+            this.startPhase("loadInputCache");
+            InputCache.CachedInput cachedInput = inputCache.load(sectionDictionary, movieComDictionary);
+            this.finishPhase("loadInputCache");
+            if (cachedInput != null) {
+                System.out.println("输入Excel没有变化，加载[" + INPUT_CACHE_PATH + "]输入缓存完成！");
+                System.out.println("共加载[" + cachedInput.getRelationCnt() + "]行有效数据！");
+                metrics.size("sectionABWeight", cachedInput.getSectionABWeight().size());
+                this.handleSourceData(cachedInput.getSectionABWeight(), sourceDataSheetNames, cachedInput::replay);
+                return;
+            }
+        }
+
+        // A+B->weight
+        RelationRowHandler relationRowHandler = new RelationRowHandler(sectionDictionary);
+        this.startPhase("readRelation");
+        boolean relationRead = this.readSheetsQuietly(relationDataPath, relationRowHandler, relationDataSheetName);
+        this.finishPhase("readRelation");
+        if (relationRead && relationRowHandler.loaded) {
+            System.out.println("共加载[" + relationRowHandler.cnt + "]行有效数据！");
+            metrics.size("sectionABWeight", relationRowHandler.sectionABWeight.size());
+            if (sourceFiles != null) {
+                this.handleBatchSourceData(relationRowHandler.sectionABWeight, sourceFiles, sourceDataSheetNames);
+                return;
             }
-            System.out.println("共加载[" + cnt + "]行有效数据！");
-            // 处理主数据来源Excel数据
-            this.handleSourceData(sectionABWeight);
+            // 处理主数据来源Excel数据，同时写入输入缓存
+            final InputCache cache = inputCache;
+            this.handleSourceData(relationRowHandler.sectionABWeight, sourceDataSheetNames,
+                    blockHandler -> this.readSourceData(sourceDataPath, sourceDataSheetNames, blockHandler,
+                            cache, relationRowHandler.sectionABWeight, relationRowHandler.cnt));
         } else {
             System.out.println("加载赋值Excel数据失败！请检查stat.movie.relation-data的相关配置项！");
         }
     }
 
     /**
-     * 处理来源Excel数据
+     * 处理来源数据
      * @param sectionABWeight 赋值的分工权重
+     * @param sourceDataSheetNames 来源工作表名
+     * @param source 把来源工作表的电影推给传入的电影处理器（解析Excel，或者回放输入缓存）
      */
-    private void handleSourceData(Map<String, Integer> sectionABWeight) {
-        // 多个Sheet名字，split分割后，用数组存起来
-        String[] sourceDataSheetNames =
-                properties.getProperty("stat.movie.main-data.sheet-names").trim()
-                        .split(StatConsts.PROPS_VALUE_SEPARATOR);
-        // 多个Sheet，也是用数组存起来
-        Sheet[] sourceDataSheet = PoiUtils.getSheetsFromPath(
-                EXCEL_ROOT_PATH + properties.getProperty("stat.movie.main-data.file-name").trim(),
-                sourceDataSheetNames);
+    private void handleSourceData(LongIntHashMap sectionABWeight, String[] sourceDataSheetNames,
+                                  Consumer<IMovieBlockHandler> source) {
+        if (this.isApproximate()) {
+            this.handleApproxSourceData(sectionABWeight, Arrays.asList(sourceDataSheetNames), source::accept);
+            return;
+        }
+        this.prepareOutput();
+        // 增量计算时，重新计算的工作表输出后保存权重
+        IncrementalBlockHandler[] incremental = new IncrementalBlockHandler[1];
+        // 开启查询服务时，每个结果Sheet输出后加入索引
+        PairIndex pairIndex = this.createPairIndex();
+        // 读取、计算、输出三段流水线，各段之间用有界队列连接
+        int parallelism = this.getParallelism();
+        MoviePipeline pipeline = new MoviePipeline(sectionABWeight, parallelism,
+                Integer.parseInt(properties.getProperty("stat.movie.pipeline.block-queue-capacity", "16").trim()),
+                Integer.parseInt(properties.getProperty("stat.movie.pipeline.result-queue-capacity", "2").trim()),
+                new MoviePipeline.SheetWriter() {
+                    @Override
+                    public void write(String fileName, String sheetName, CsrMatrix movieABWeight) {
+                        handleOutputData(resultWriter, movieABWeight, sheetName);
+                        if (incremental[0] != null) {
+                            incremental[0].afterOutput(sheetName, movieABWeight::forEachPair);
+                        }
+                        if (pairIndex != null) {
+                            pairIndex.put(sheetName, movieABWeight);
+                        }
+                    }
 
-        // 生成文件名，然后根据Excel文件类型构造对应的Workbook
-        String outputFileName = "stat-movie-"
-                + DateUtils.getStrFromDate(new Date(), DateUtils.yyyyMMddHHmmss);
-        String outputFileSuffix = properties.getProperty("stat.movie.output-data.suffix")
-                .trim().toLowerCase();
-        switch (outputFileSuffix) {
-            case "xls":
-                workbookToWrite = new HSSFWorkbook();
-                outputFileName += ".xls";
-                break;
-            default:
-                workbookToWrite = new XSSFWorkbook();
-                outputFileName += ".xlsx";
-        }
-
-        // 用于存放汇总的电影公司权重
-        Map<String, Integer> allMovieABWeight = new ConcurrentHashMap<>();
-        // Sheet的数量
-        int sheetSize = sourceDataSheetNames.length;
-        // 固定大小线程池
-        ExecutorService threadPool = Executors.newFixedThreadPool(sheetSize);
-        // CountDownLatch
-        final CountDownLatch latch = new CountDownLatch(sheetSize);
-        for (int i = 0; i < sheetSize; i++) {
-            if (Optional.ofNullable(sourceDataSheet).isPresent()
-                    && Optional.ofNullable(sourceDataSheet[i]).isPresent()) {
-
-                // 多线程，一个Sheet一个线程去解析，并且生成结果Sheet。结果Sheet名跟源Sheet名一样
-                final int _i = i;
-                threadPool.submit(() -> {
-                    Thread.currentThread().setName(sourceDataSheetNames[_i] +"-Thread");
-                    // A||B->weight
-                    Map<String, Integer> movieABWeight = new HashMap<>();
-                    int cnt = 0;
-                    int rowCount = sourceDataSheet[_i].getLastRowNum()
-                            - sourceDataSheet[_i].getFirstRowNum();
-                    for (int rowNum = 0; rowNum < rowCount + 1; rowNum++) {
-                        // 存放电影公司与其分工
-                        List<MovieComSection> movieComSectionList = new LinkedList<>();
-                        if (isUselessRow(rowNum)) {
-                            continue;
+                    @Override
+                    public boolean isSortedPairsAccepted(String fileName) {
+                        return canWriteSortedPairs(pairIndex);
+                    }
+
+                    @Override
+                    public void writeSorted(String fileName, String sheetName, CsrMatrix.PairSource sortedPairs) {
+                        handleSortedOutputData((CsvResultWriter) resultWriter, sortedPairs, sheetName);
+                        if (incremental[0] != null) {
+                            incremental[0].afterOutput(sheetName, sortedPairs);
                         }
-                        boolean useful = false;
-                        Row row = sourceDataSheet[_i].getRow(rowNum);
-                        int cellNum = row.getLastCellNum() - row.getFirstCellNum();
-                        for (int columnNum = 0; columnNum < cellNum; columnNum++) {
-                            String section = String.valueOf(PoiUtils.getCellValueFromRow(row, columnNum));
-                            String movieCom = String.valueOf(
-                                    PoiUtils.getCellValueFromRow(sourceDataSheet[_i].getRow(rowNum + 1), columnNum));
-                            if (StringUtils.isNotEmpty(section) && StringUtils.isNotEmpty(movieCom)) {
-                                movieComSectionList.add(new MovieComSection(movieCom, section));
-                                if (!useful) {
-                                    useful = true;
-                                }
-                            }
+                    }
+                }, metrics);
+        // 设置了内存预算时，累加表超过预算就溢出到临时文件
+        SpillStore spillStore = this.createSpillStore();
+        if (spillStore != null) {
+            pipeline.enableSpill(spillStore, this.getMemoryBudgetBytes(), parallelism);
+        }
+        // 每攒够一批电影就交给计算线程。结果Sheet名跟源Sheet名一样
+        PipelineBlockHandler pipelineBlockHandler = new PipelineBlockHandler(pipeline, Integer.parseInt(
+                properties.getProperty("stat.movie.aggregate.batch-size", "256").trim()), this.getDedupWindow());
+        IMovieBlockHandler blockHandler = pipelineBlockHandler;
+        if (Boolean.parseBoolean(properties.getProperty("stat.movie.aggregate.incremental", "true").trim())) {
+            incremental[0] = new IncrementalBlockHandler(pipelineBlockHandler,
+                    new PartialStore(new File(resourceRootPath + PARTIAL_STORE_PATH), this.getPartialSettings()),
+                    sectionABWeight, sectionDictionary, movieComDictionary, this.getSpillDir());
+            blockHandler = incremental[0];
+        }
+        pipeline.start();
+        try {
+            // 读取的同时计算、输出，读完之后还要等流水线中剩下的工作。
+            // 读取也交给任务引擎执行，出错（包括Error）时这里照样能收到，放弃流水线后再抛出
+            this.startPhase("readSource");
+            SheetTaskEngine engine = new SheetTaskEngine("Read-Thread-", 1, 0L, true);
+            IMovieBlockHandler readHandler = blockHandler;
+            engine.submit("来源Excel", task -> source.accept(readHandler));
+            List<SheetTaskEngine.Failure> failures = engine.await();
+            if (!failures.isEmpty()) {
+                throw new IllegalStateException("读取来源Excel失败，不再输出！", failures.get(0).getCause());
+            }
+            this.finishPhase("readSource");
+            for (String sheetName : sourceDataSheetNames) {
+                if (!pipelineBlockHandler.isSheetRead(sheetName)) {
+                    System.out.println("加载来源Excel数据[" + sheetName
+                            + "]失败！请检查stat.movie.main-data的相关配置项");
+                }
+            }
+            this.finishSourceData(pipeline, pairIndex);
+        } catch (RuntimeException | Error e) {
+            pipeline.abort(e);
+            throw e;
+        } finally {
+            if (spillStore != null) {
+                spillStore.close();
+            }
+        }
+    }
+
+    /**
+     * 批量处理多个来源Excel：每个(文件, 工作表)是一个任务，放进大小为stat.movie.aggregate.parallelism的线程池，
+     * 读一个工作表的线程同时计算它的权重。每个文件输出一个结果文件（各工作表和这个文件的All），
+     * 另外输出一个只有All的总汇总。线程数只取决于配置的并行度，与文件数、工作表数无关
+     * @param sectionABWeight 赋值的分工权重
+     * @param sourceFiles 来源Excel
+     * @param sourceDataSheetNames 每个来源Excel中要统计的工作表名
+     */
+    private void handleBatchSourceData(LongIntHashMap sectionABWeight, List<File> sourceFiles,
+                                       String[] sourceDataSheetNames) {
+        Map<File, String> fileNames = uniqueFileNames(sourceFiles);
+        if (this.isApproximate()) {
+            // 近似统计一遍读完所有文件，依次读取
+            List<String> sheetKeys = new ArrayList<>();
+            for (File sourceFile : sourceFiles) {
+                for (String sheetName : sourceDataSheetNames) {
+                    sheetKeys.add(MoviePipeline.sheetKey(fileNames.get(sourceFile), sheetName));
+                }
+            }
+            this.handleApproxSourceData(sectionABWeight, sheetKeys, blockHandler -> {
+                for (File sourceFile : sourceFiles) {
+                    String fileName = fileNames.get(sourceFile);
+                    blockHandler.setFileName(fileName);
+                    this.readSheetsQuietly(sourceFile.getPath(),
+                            new SourceRowHandler(blockHandler, fileName, null), sourceDataSheetNames);
+                }
+            });
+            System.out.println("共加载[" + sourceFiles.size() + "]个来源Excel！");
+            return;
+        }
+        String outputPath = this.prepareOutput();
+        PairIndex pairIndex = this.createPairIndex();
+        // 各文件的输出只在输出线程上访问；一个文件的All是它的最后一个结果Sheet，输出完就保存
+        Map<String, IResultWriter> fileWriters = new HashMap<>();
+        MoviePipeline pipeline = new MoviePipeline(sectionABWeight, 0, 1,
+                Integer.parseInt(properties.getProperty("stat.movie.pipeline.result-queue-capacity", "2").trim()),
+                new MoviePipeline.SheetWriter() {
+                    @Override
+                    public void write(String fileName, String sheetName, CsrMatrix movieABWeight) {
+                        handleOutputData(this.writerOf(fileName), movieABWeight, sheetName);
+                        if (pairIndex != null) {
+                            pairIndex.put(MoviePipeline.sheetKey(fileName, sheetName), movieABWeight);
                         }
-                        if (useful) {
-                            cnt++;
+                    }
+
+                    @Override
+                    public boolean isSortedPairsAccepted(String fileName) {
+                        return canWriteSortedPairs(pairIndex);
+                    }
+
+                    @Override
+                    public void writeSorted(String fileName, String sheetName, CsrMatrix.PairSource sortedPairs) {
+                        handleSortedOutputData((CsvResultWriter) this.writerOf(fileName), sortedPairs, sheetName);
+                    }
+
+                    @Override
+                    public void fileFinished(String fileName) {
+                        closeResultWriter(fileWriters.remove(fileName));
+                    }
+
+                    /**
+                     * 获取 某个文件的输出，第一次用到时创建
+                     * @param fileName 文件名，为空时是总汇总的输出
+                     * @return 输出
+                     */
+                    private IResultWriter writerOf(String fileName) {
+                        return fileName == null ? resultWriter : fileWriters.computeIfAbsent(
+                                fileName, name -> createResultWriter(outputPath + "-" + name, outputFileSuffix));
+                    }
+                }, metrics);
+        int parallelism = this.getParallelism();
+        SpillStore spillStore = this.createSpillStore();
+        if (spillStore != null) {
+            pipeline.enableSpill(spillStore, this.getMemoryBudgetBytes(), parallelism);
+        }
+        pipeline.start();
+        try {
+            this.readBatchSourceData(pipeline, sectionABWeight, sourceFiles, fileNames, sourceDataSheetNames);
+            this.finishSourceData(pipeline, pairIndex);
+            // 输出某个文件出错时可能没有收到它的All，剩下的输出也要保存
+            for (IResultWriter writer : fileWriters.values()) {
+                this.closeResultWriter(writer);
+            }
+        } catch (RuntimeException | Error e) {
+            pipeline.abort(e);
+            throw e;
+        } finally {
+            if (spillStore != null) {
+                spillStore.close();
+            }
+        }
+    }
+
+    /**
+     * 批量处理时读取所有(文件, 工作表)：每个是任务引擎中的一个任务，读一个工作表的线程同时计算它的权重
+     * @param pipeline 流水线
+     * @param sectionABWeight 赋值的分工权重
+     * @param sourceFiles 来源Excel
+     * @param fileNames 来源Excel -> 在输出中的名字
+     * @param sourceDataSheetNames 每个来源Excel中要统计的工作表名
+     */
+    private void readBatchSourceData(MoviePipeline pipeline, LongIntHashMap sectionABWeight,
+                                     List<File> sourceFiles, Map<File, String> fileNames,
+                                     String[] sourceDataSheetNames) {
+        this.startPhase("readSource");
+        SheetTaskEngine engine = new SheetTaskEngine("Batch-Thread-", this.getParallelism(),
+                (long) (Double.parseDouble(properties.getProperty(
+                        "stat.movie.batch.task-timeout-seconds", "0").trim()) * 1000),
+                Boolean.parseBoolean(properties.getProperty("stat.movie.batch.fail-fast", "true").trim()));
+        for (File sourceFile : sourceFiles) {
+            String fileName = fileNames.get(sourceFile);
+            MoviePipeline.FileTask fileTask = pipeline.openFile(fileName, "All");
+            // 这个文件的最后一个任务结束时关闭文件，之后它的汇总才会输出
+            AtomicInteger remaining = new AtomicInteger(sourceDataSheetNames.length);
+            for (String sheetName : sourceDataSheetNames) {
+                engine.submit(MoviePipeline.sheetKey(fileName, sheetName), task -> {
+                    try {
+                        this.readSourceUnit(sourceFile, fileName, sheetName, fileTask, pipeline,
+                                sectionABWeight, task);
+                    } finally {
+                        if (remaining.decrementAndGet() == 0) {
+                            pipeline.closeFile(fileTask);
                         }
-                        // 根据movieComSectionList和sectionABWeight计算权重
-                        putToWeightMap(movieComSectionList, movieABWeight, sectionABWeight);
                     }
-                    // 合并单个权重到汇总权重
-                    putPartToAll(movieABWeight, allMovieABWeight);
-                    System.out.println("共加载[" + cnt * 2 + "]行有效数据！");
-                    // 用计算后的结果，生成结果Sheet
-                    handleOutputData(movieABWeight, sourceDataSheetNames[_i], outputFileSuffix);
-                    // CountDownLatch倒数
-                    latch.countDown();
-                    System.out.println("[" + Thread.currentThread().getName() + "]线程执行完成！");
                 });
+            }
+        }
+        this.reportFailures(engine.await());
+        this.finishPhase("readSource");
+        System.out.println("共加载[" + sourceFiles.size() + "]个来源Excel！");
+    }
 
-            } else {
-                System.out.println("加载来源Excel数据失败！请检查stat.movie.main-data的相关配置项");
+    /**
+     * 近似统计：一遍读取所有电影，输出各Sheet和汇总估计权重最大的公司对，不建公司对权重表
+     * @param sectionABWeight 赋值的分工权重
+     * @param sheetKeys 应该读到的工作表（批量处理时为“文件名/工作表名”）
+     * @param source 把来源工作表的电影推给传入的近似统计
+     */
+    private void handleApproxSourceData(LongIntHashMap sectionABWeight, List<String> sheetKeys,
+                                        Consumer<ApproxBlockHandler> source) {
+        String outputPath = this.prepareOutput() + ".top-pairs.csv";
+        TopPairCsvWriter writer;
+        try {
+            writer = new TopPairCsvWriter(outputPath, movieComDictionary);
+        } catch (IOException e) {
+            metrics.error("创建[" + outputPath + "]", e);
+            e.printStackTrace();
+            return;
+        }
+        // 当前Sheet和汇总各一个草图，平分内存
+        long sketchBytes = (long) (Double.parseDouble(
+                properties.getProperty("stat.movie.approx.memory-mb", "64").trim()) * 1024 * 1024 / 2);
+        ApproxBlockHandler blockHandler = new ApproxBlockHandler(sectionABWeight, sketchBytes,
+                Integer.parseInt(properties.getProperty("stat.movie.approx.depth", "4").trim()),
+                Integer.parseInt(properties.getProperty("stat.movie.approx.top-pairs", "1000").trim()),
+                writer, metrics);
+        this.startPhase("readSource");
+        source.accept(blockHandler);
+        this.finishPhase("readSource");
+        for (String sheetKey : sheetKeys) {
+            if (!blockHandler.isSheetRead(sheetKey)) {
+                System.out.println("加载来源Excel数据[" + sheetKey
+                        + "]失败！请检查stat.movie.main-data的相关配置项");
             }
         }
-        // 等待所有Sheet完成，才能生成汇总的Sheet
+        metrics.size("sectionDictionary", sectionDictionary.size());
+        metrics.size("movieComDictionary", movieComDictionary.size());
+
+        this.startPhase("writeFile");
+        blockHandler.finish("All");
+        try {
+            writer.close();
+            System.out.println("完成写入[" + outputPath + "]近似统计结果！");
+        } catch (IOException e) {
+            metrics.error("保存[" + outputPath + "]", e);
+            e.printStackTrace();
+        }
+        this.finishPhase("writeFile");
+    }
+
+    /**
+     * 批量处理中的一个任务：读取一个来源Excel中的一个工作表，同时计算权重
+     * @param sourceFile 来源Excel
+     * @param fileName 来源Excel在输出中的名字
+     * @param sheetName 工作表名
+     * @param fileTask 来源Excel在流水线中的计算状态
+     * @param pipeline 流水线
+     * @param sectionABWeight 赋值的分工权重
+     * @param task 所在的任务
+     * @throws UncheckedIOException 无法读取来源Excel
+     */
+    private void readSourceUnit(File sourceFile, String fileName, String sheetName,
+                                MoviePipeline.FileTask fileTask, MoviePipeline pipeline,
+                                LongIntHashMap sectionABWeight, SheetTaskEngine.Task task) {
+        // 排队时已经被取消的任务不再打开Excel
+        task.checkCancelled();
+        InlineBlockHandler blockHandler = new InlineBlockHandler(pipeline, fileTask, sectionABWeight,
+                this.getDedupWindow());
+        try {
+            this.readSheets(sourceFile.getPath(), new SourceRowHandler(blockHandler, fileName, task), sheetName);
+        } catch (IOException e) {
+            throw new UncheckedIOException("读取[" + sourceFile.getPath() + "]失败", e);
+        } finally {
+            // 出错、超时或者被取消时放弃没有读完的Sheet，所属文件的汇总照常输出
+            blockHandler.finish();
+        }
+        if (!blockHandler.isSheetRead()) {
+            System.out.println("加载来源Excel数据[" + MoviePipeline.sheetKey(fileName, sheetName)
+                    + "]失败！请检查stat.movie.main-data的相关配置项");
+        }
+    }
+
+    /**
+     * 汇总批量处理中失败的任务：失败和超时的计入运行指标，因此被取消的只计数
+     * @param failures 失败、超时或者被取消的任务
+     */
+    private void reportFailures(List<SheetTaskEngine.Failure> failures) {
+        int cancelled = 0;
+        for (SheetTaskEngine.Failure failure : failures) {
+            if (failure.isCancelled()) {
+                cancelled++;
+                continue;
+            }
+            metrics.error((failure.isTimedOut() ? "超时[" : "读取[") + failure.getName() + "]", failure.getCause());
+            if (!failure.isTimedOut()) {
+                failure.getCause().printStackTrace();
+            }
+            System.out.println("[" + failure.getName() + "]" + (failure.isTimedOut() ? "超时" : "失败")
+                    + "：" + failure.getCause());
+        }
+        if (!failures.isEmpty()) {
+            System.out.println("共" + (failures.size() - cancelled) + "个任务失败或者超时，" + cancelled
+                    + "个任务被取消，结果中缺少这些工作表！");
+        }
+    }
+
+    /**
+     * 生成输出文件名，读取输出相关的配置，构造汇总的输出
+     * @return 输出文件的完整路径（不含后缀）
+     */
+    private String prepareOutput() {
+        // 生成文件名，然后根据Excel文件类型构造对应的输出
+        String outputFileName = "stat-movie-"
+                + DateUtils.getStrFromDate(new Date(), DateUtils.yyyyMMddHHmmss);
+        outputFileSuffix = properties.getProperty("stat.movie.output-data.suffix")
+                .trim().toLowerCase();
+        outputTopK = Integer.parseInt(properties.getProperty("stat.movie.output-data.top-k", "0").trim());
+        String minWeight = properties.getProperty("stat.movie.output-data.min-weight", "").trim();
+        outputMinWeight = StringUtils.isNotEmpty(minWeight) ? Integer.valueOf(minWeight) : null;
+        // 近似统计只输出重要公司对，不生成矩阵
+        resultWriter = this.isApproximate()
+                ? null : this.createResultWriter(resourceRootPath + outputFileName, outputFileSuffix);
+        if (Boolean.parseBoolean(properties.getProperty("stat.movie.metrics.summary", "true").trim())) {
+            summaryPath = resourceRootPath + outputFileName + ".metrics.json";
+        }
+        return resourceRootPath + outputFileName;
+    }
+
+    /**
+     * 开启查询服务时构造索引
+     * @return 索引，不开启时为空
+     */
+    private PairIndex createPairIndex() {
+        return Boolean.parseBoolean(properties.getProperty("stat.movie.query.enabled", "false").trim())
+                ? new PairIndex(movieComDictionary) : null;
+    }
+
+    /**
+     * 计算的并行度
+     * @return 线程数，默认为CPU核数
+     */
+    private int getParallelism() {
+        return Integer.parseInt(properties.getProperty("stat.movie.aggregate.parallelism",
+                String.valueOf(Runtime.getRuntime().availableProcessors())).trim());
+    }
+
+    /**
+     * 是否近似统计
+     * @return 是否近似统计
+     */
+    private boolean isApproximate() {
+        return Boolean.parseBoolean(properties.getProperty("stat.movie.approx.enabled", "false").trim());
+    }
+
+    /**
+     * 合并相同阵容时最多同时记录的不同阵容数
+     * @return 阵容数，不合并时为0
+     */
+    private int getDedupWindow() {
+        return Math.max(Integer.parseInt(
+                properties.getProperty("stat.movie.aggregate.dedup-window", "0").trim()), 0);
+    }
+
+    /**
+     * 影响输出结果的计算配置：去重、近似统计和公司对的筛选。存进各工作表保存的权重，变了就不再复用
+     * @return 计算配置，prepareOutput之后才完整
+     */
+    private String getPartialSettings() {
+        return "dedup-window=" + this.getDedupWindow() + ";approx=" + this.isApproximate()
+                + ";top-k=" + outputTopK + ";min-weight=" + outputMinWeight;
+    }
+
+    /**
+     * 累加权重的内存预算
+     * @return 字节数，不限制时为0
+     */
+    private long getMemoryBudgetBytes() {
+        double memoryBudgetMb = Double.parseDouble(
+                properties.getProperty("stat.movie.aggregate.memory-budget-mb", "0").trim());
+        return memoryBudgetMb > 0 ? (long) (memoryBudgetMb * 1024 * 1024) : 0L;
+    }
+
+    /**
+     * 设置了内存预算时构造溢出区
+     * @return 溢出区，不限制内存时为空
+     */
+    private SpillStore createSpillStore() {
+        if (this.getMemoryBudgetBytes() <= 0) {
+            return null;
+        }
+        return new SpillStore(this.getSpillDir());
+    }
+
+    /**
+     * 临时文件的目录
+     * @return 配置的目录，没有配置时为系统临时目录
+     */
+    private File getSpillDir() {
+        String spillDir = properties.getProperty("stat.movie.aggregate.spill-dir", "").trim();
+        return new File(StringUtils.isNotEmpty(spillDir) ? spillDir : System.getProperty("java.io.tmpdir"));
+    }
+
+    /**
+     * 等流水线结束，发布索引，保存汇总的输出
+     * @param pipeline 流水线
+     * @param pairIndex 索引，没有时为空
+     */
+    private void finishSourceData(MoviePipeline pipeline, PairIndex pairIndex) {
+        // 等待所有Sheet算完并输出，再输出汇总的Sheet
+        System.out.println("等待计算和输出线程执行完毕……");
+        this.startPhase("drainPipeline");
+        pipeline.finish("All");
+        this.finishPhase("drainPipeline");
+        metrics.size("sectionDictionary", sectionDictionary.size());
+        metrics.size("movieComDictionary", movieComDictionary.size());
+        if (pairIndex != null) {
+            this.publishPairIndex(pairIndex);
+        }
+
+        // 保存输出文件
+        this.startPhase("writeFile");
+        this.closeResultWriter(resultWriter);
+        this.finishPhase("writeFile");
+    }
+
+    /**
+     * 保存一个输出文件
+     * @param writer 输出，为空时什么也不做
+     */
+    private void closeResultWriter(IResultWriter writer) {
+        if (writer == null) {
+            return;
+        }
         try {
-            System.out.println("等待" + sheetSize + "个子线程执行完毕……");
-            latch.await();
-        } catch (InterruptedException e) {
+            writer.close();
+        } catch (IOException e) {
+            metrics.error("保存[" + writer.getOutputPath() + "]", e);
             e.printStackTrace();
         }
-        // shutdown线程池
-        threadPool.shutdown();
+    }
 
-        // 汇总
-        this.handleOutputData(allMovieABWeight, "All", outputFileSuffix);
+    /**
+     * 各来源Excel在输出中的名字：去掉后缀的文件名，重名时加上序号
+     * @param sourceFiles 来源Excel
+     * @return 来源Excel -> 名字
+     */
+    private static Map<File, String> uniqueFileNames(List<File> sourceFiles) {
+        Map<File, String> fileNames = new HashMap<>();
+        Set<String> usedNames = new HashSet<>();
+        for (File sourceFile : sourceFiles) {
+            String name = sourceFile.getName();
+            int index = name.lastIndexOf('.');
+            String baseName = index > 0 ? name.substring(0, index) : name;
+            String fileName = baseName;
+            for (int n = 2; !usedNames.add(fileName); n++) {
+                fileName = baseName + "-" + n;
+            }
+            fileNames.put(sourceFile, fileName);
+        }
+        return fileNames;
+    }
 
-        // 保存Workbook工作表
-        OutputStream os = null;
+    /**
+     * 解析来源Excel的配置：目录表示其中（包括子目录）所有的Excel，含有*、?、[或者{时按glob匹配相对于conf/excel的路径，
+     * 如 月报-*.xlsx、2018/*.xlsx，其余的是单个文件
+     * @param sourceDataFileName stat.movie.main-data.file-name
+     * @param relationDataFile 赋值Excel，和来源Excel放在一起时排除掉
+     * @return 按路径排序的来源Excel；是单个文件时返回null
+     */
+    private List<File> listSourceFiles(String sourceDataFileName, File relationDataFile) {
+        File excelRoot = new File(excelRootPath);
+        File file = new File(excelRoot, sourceDataFileName);
+        PathMatcher matcher;
+        if (file.isDirectory()) {
+            matcher = FileSystems.getDefault().getPathMatcher("glob:**.{xls,xlsx,XLS,XLSX}");
+        } else if (StringUtils.containsAny(sourceDataFileName, '*', '?', '[', '{')) {
+            file = excelRoot;
+            matcher = FileSystems.getDefault().getPathMatcher("glob:" + sourceDataFileName);
+        } else {
+            return null;
+        }
+        Path root = file.toPath();
+        Path relationDataPath = relationDataFile.toPath().toAbsolutePath().normalize();
+        List<File> sourceFiles = new ArrayList<>();
+        Stream<Path> paths = null;
         try {
-            os = new FileOutputStream(RESOURCE_ROOT_PATH + outputFileName);
-            workbookToWrite.write(os);
+            paths = Files.walk(root);
+            paths.filter(Files::isRegularFile)
+                    .filter(path -> matcher.matches(root.relativize(path)))
+                    .filter(path -> !path.toAbsolutePath().normalize().equals(relationDataPath))
+                    // Excel和WPS打开文件时留下的锁文件
+                    .filter(path -> !path.getFileName().toString().startsWith("~$")
+                            && !path.getFileName().toString().startsWith(".~lock."))
+                    .sorted()
+                    .forEach(path -> sourceFiles.add(path.toFile()));
         } catch (IOException e) {
+            metrics.error("查找来源Excel[" + sourceDataFileName + "]", e);
             e.printStackTrace();
         } finally {
-            IOUtils.closeQuietly(os);
+            if (paths != null) {
+                paths.close();
+            }
         }
+        return sourceFiles;
     }
 
     /**
-     * 把单个Sheet的电影公司权重，合并到总的权重中去
-     * @param movieABWeight 个Sheet的电影公司权重
-     * @param allMovieABWeight 总的权重
+     * 把本次的索引交给查询服务，服务还没启动时先启动
+     * @param pairIndex 索引
      */
-    private void putPartToAll(Map<String, Integer> movieABWeight,
-                              Map<String, Integer> allMovieABWeight) {
-        for (Map.Entry<String, Integer> entry : movieABWeight.entrySet()) {
-            String originalKey = entry.getKey();
-            int weight = entry.getValue();
-            if (allMovieABWeight.containsKey(originalKey)) {
-                allMovieABWeight.put(originalKey, weight + allMovieABWeight.get(originalKey));
+    private void publishPairIndex(PairIndex pairIndex) {
+        if (queryServer == null) {
+            int port = Integer.parseInt(properties.getProperty("stat.movie.query.port", "8765").trim());
+            try {
+                queryServer = new PairQueryServer(port);
+                queryServer.start();
+            } catch (IOException e) {
+                metrics.error("启动查询服务", e);
+                e.printStackTrace();
+                queryServer = null;
+                return;
+            }
+            System.out.println("查询服务已启动：http://127.0.0.1:" + queryServer.getPort() + "/top?company=公司名&n=10");
+        }
+        queryServer.setIndex(pairIndex);
+    }
+
+    /**
+     * 流式逐行读取来源Excel，整理出的电影先写入输入缓存，再交给电影处理器
+     * @param sourceDataPath 来源Excel完整路径
+     * @param sourceDataSheetNames 来源工作表名
+     * @param blockHandler 电影处理器
+     * @param inputCache 输入缓存，不缓存时为空
+     * @param sectionABWeight 赋值的分工权重
+     * @param relationCnt 赋值表的有效行数
+     */
+    private void readSourceData(String sourceDataPath, String[] sourceDataSheetNames,
+                                IMovieBlockHandler blockHandler, InputCache inputCache,
+                                LongIntHashMap sectionABWeight, int relationCnt) {
+        InputCache.Recorder recorder = null;
+        if (inputCache != null) {
+            try {
+                recorder = inputCache.record(sectionABWeight, relationCnt, blockHandler);
+            } catch (IOException e) {
+                metrics.error("写入输入缓存", e);
+                e.printStackTrace();
+            }
+        }
+        if (recorder == null) {
+            this.readSheetsQuietly(sourceDataPath, new SourceRowHandler(blockHandler), sourceDataSheetNames);
+            return;
+        }
+        boolean read = false;
+        try {
+            read = this.readSheetsQuietly(sourceDataPath, new SourceRowHandler(recorder), sourceDataSheetNames);
+        } finally {
+            // 读取中途抛出异常时也删掉写了一半的缓存
+            if (read) {
+                recorder.commit(sectionDictionary, movieComDictionary);
             } else {
-                String[] keyPart = originalKey.split(StatConsts.KEY_SEPARATOR);
-                String newKey = keyPart[1] + StatConsts.KEY_SEPARATOR + keyPart[0];
-                if (allMovieABWeight.containsKey(newKey)) {
-                    allMovieABWeight.put(newKey, weight + allMovieABWeight.get(newKey));
-                } else {
-                    allMovieABWeight.put(newKey, weight);
-                }
+                recorder.abort();
             }
         }
     }
 
     /**
-     * 计算电影公司权重
-     * @param movieComSectionList 电影公司与其分工
-     * @param movieABWeight 返回的电影公司权重
-     * @param sectionABWeight 分工权重
-     */
-    private void putToWeightMap(List<MovieComSection> movieComSectionList,
-                                Map<String, Integer> movieABWeight,
-                                Map<String, Integer> sectionABWeight) {
-        for (int i = 0, listSize = movieComSectionList.size(); i < listSize; i++) {
-            for (int j = i + 1; j < listSize; j++) {
-                // 根据i和j两个电影公司的分工，确定分工权重
-                int weight;
-                String weightKey = movieComSectionList.get(i).getSection()
-                        + StatConsts.KEY_SEPARATOR
-                        + movieComSectionList.get(j).getSection();
-                if (!sectionABWeight.containsKey(weightKey)) {
-                    weightKey = movieComSectionList.get(j).getSection()
-                            + StatConsts.KEY_SEPARATOR
-                            + movieComSectionList.get(i).getSection();
-                    weight = sectionABWeight.getOrDefault(weightKey, 0);
-                } else {
-                    weight = sectionABWeight.get(weightKey);
+     * 根据后缀构造统计结果输出
+     * @param outputFilePath 输出文件路径（不含后缀）
+     * @param outputFileSuffix 输出后缀
+     * @return 统计结果输出
+     */
+    private IResultWriter createResultWriter(String outputFilePath, String outputFileSuffix) {
+        switch (outputFileSuffix) {
+            case "csv":
+                // 输出到同名目录，每个Sheet一个边列表文件
+                return new CsvResultWriter(outputFilePath, movieComDictionary);
+            case "xls":
+                return new WorkbookResultWriter(new HSSFWorkbook(), outputFilePath + ".xls",
+                        "xls", movieComDictionary, this.isOutputFiltered());
+            default:
+                String xlsxWriter = properties.getProperty("stat.movie.output-data.xlsx-writer", "xssf")
+                        .trim().toLowerCase();
+                if ("parallel".equals(xlsxWriter)) {
+                    // 各Sheet在线程池中同时生成worksheet XML，最后拼成xlsx
+                    return new OoxmlResultWriter(outputFilePath + ".xlsx", movieComDictionary,
+                            this.isOutputFiltered(), this.getParallelism());
                 }
-                // 加上上面计算的分工权重。需要判断是否已经存在，存在则累加权重
-                String originalMovieKey = movieComSectionList.get(i).getMovieCom()
-                        + StatConsts.KEY_SEPARATOR
-                        + movieComSectionList.get(j).getMovieCom();
-                if (!movieABWeight.containsKey(originalMovieKey)) {
-                    String newMovieKey = movieComSectionList.get(j).getMovieCom()
-                            + StatConsts.KEY_SEPARATOR
-                            + movieComSectionList.get(i).getMovieCom();
-                    if (!movieABWeight.containsKey(newMovieKey)) {
-                        movieABWeight.put(newMovieKey, weight);
-                    } else {
-                        movieABWeight.put(newMovieKey, movieABWeight.get(newMovieKey) + weight);
-                    }
-                } else {
-                    movieABWeight.put(originalMovieKey, movieABWeight.get(originalMovieKey) + weight);
+                if ("sxssf".equals(xlsxWriter)) {
+                    // 内存中只保留rowAccessWindow行，其余的行刷到（压缩的）临时文件
+                    int rowAccessWindow = Integer.parseInt(properties.getProperty(
+                            "stat.movie.output-data.sxssf.row-access-window", "100").trim());
+                    SXSSFWorkbook workbook = new SXSSFWorkbook(rowAccessWindow);
+                    workbook.setCompressTempFiles(Boolean.parseBoolean(properties.getProperty(
+                            "stat.movie.output-data.sxssf.compress-temp-files", "true").trim()));
+                    return new WorkbookResultWriter(workbook, outputFilePath + ".xlsx",
+                            "xlsx", movieComDictionary, this.isOutputFiltered());
+                }
+                return new WorkbookResultWriter(new XSSFWorkbook(), outputFilePath + ".xlsx",
+                        "xlsx", movieComDictionary, this.isOutputFiltered());
+        }
+    }
+
+    /**
+     * 打开Excel，逐行读取指定的工作表。出错时记录下来，不抛出
+     * @param excelFilePath Excel完整路径
+     * @param handler 行处理器
+     * @param sheetNames 工作表名
+     * @return 是否读取成功
+     */
+    private boolean readSheetsQuietly(String excelFilePath, IRowHandler handler, String... sheetNames) {
+        try {
+            return this.readSheets(excelFilePath, handler, sheetNames);
+        } catch (IOException e) {
+            metrics.error("读取[" + excelFilePath + "]", e);
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * 打开Excel，逐行读取指定的工作表
+     * @param excelFilePath Excel完整路径
+     * @param handler 行处理器
+     * @param sheetNames 工作表名
+     * @return 是否读取成功，不是Excel时为false
+     * @throws IOException 读取失败
+     */
+    private boolean readSheets(String excelFilePath, IRowHandler handler, String... sheetNames) throws IOException {
+        boolean streaming = Boolean.parseBoolean(
+                properties.getProperty("stat.movie.input-data.streaming", "true").trim());
+        ISheetReader reader = null;
+        try {
+            reader = PoiUtils.getSheetReaderFromPath(excelFilePath, streaming);
+            if (reader == null) {
+                return false;
+            }
+            reader.read(handler, sheetNames);
+        } finally {
+            IOUtils.closeQuietly(reader);
+        }
+        System.out.println("加载[" + excelFilePath + "]的" + Arrays.toString(sheetNames) + "工作表完成！");
+        return true;
+    }
+
+    /**
+     * 根据分工行和紧接着的电影公司行，整理出电影公司与其分工
+     * @param sectionIds 分工行各列的分工编号
+     * @param movieComRow 电影公司行
+     * @param movieBlock 返回的电影公司与其分工
+     * @return 是否有有效数据
+     */
+    private boolean collectMovieBlock(int[] sectionIds, SheetRow movieComRow, MovieBlock movieBlock) {
+        boolean useful = false;
+        for (int columnNum = 0; columnNum < sectionIds.length; columnNum++) {
+            int sectionId = sectionIds[columnNum];
+            if (sectionId >= 0 && !movieComRow.isBlank(columnNum)) {
+                movieBlock.add(movieComDictionary.intern(movieComRow.getString(columnNum)), sectionId);
+                if (!useful) {
+                    useful = true;
                 }
             }
         }
+        return useful;
     }
 
     /**
@@ -316,143 +1001,222 @@ public class StatMovie implements IStat {
         return (rowNum + 1) % 4 != 3;
     }
 
+    /**
+     * 是否筛选输出的公司对。筛选时矩阵稀疏输出，没有保留的单元格留空
+     * @return 是否筛选
+     */
+    private boolean isOutputFiltered() {
+        return outputTopK > 0 || outputMinWeight != null;
+    }
+
     /**
      * 输出结果到新的Sheet
+     * @param writer 输出
      * @param movieABWeight 电影公司权重
      * @param sheetName 输出的Sheet名
-     * @param outputFileSuffix 输出Excel后缀
-     */
-    private void handleOutputData(Map<String, Integer> movieABWeight,
-                                  String sheetName, String outputFileSuffix) {
-        // 用于辅助movieComList去重
-        Set<String> movieComSet = new HashSet<>();
-        // 用于生成第一行和第一列
-        List<String> movieComList = new LinkedList<>();
-        for (String key : movieABWeight.keySet()) {
-            String[] keyParts = key.split(StatConsts.KEY_SEPARATOR);
-            String movieComA = keyParts[0];
-            String movieComB = keyParts[1];
-            if (!movieComSet.contains(movieComA)) {
-                movieComSet.add(movieComA);
-                movieComList.add(movieComA);
-            }
-            if (!movieComSet.contains(movieComB)) {
-                movieComSet.add(movieComB);
-                movieComList.add(movieComB);
+     */
+    private void handleOutputData(IResultWriter writer, CsrMatrix movieABWeight, String sheetName) {
+        // 只输出每个公司的前K个合作公司和达到最小权重的公司对，行列也只保留剩下的公司
+        if (this.isOutputFiltered()) {
+            movieABWeight = TopPartnerSelector.select(movieABWeight, outputTopK,
+                    outputMinWeight != null ? outputMinWeight : Integer.MIN_VALUE);
+        }
+        // 用于生成第一行和第一列：不为空的行，按电影公司第一次出现的顺序排列。矩阵只存上三角，一对公司的两边都算不为空
+        boolean[] used = new boolean[movieABWeight.getRowCount()];
+        movieABWeight.forEachPair((key, weight) -> {
+            used[PairKey.first(key)] = true;
+            used[PairKey.second(key)] = true;
+        });
+        int movieComCount = 0;
+        int[] movieComList = new int[used.length];
+        for (int movieComId = 0; movieComId < used.length; movieComId++) {
+            if (used[movieComId]) {
+                movieComList[movieComCount++] = movieComId;
             }
         }
+        movieComList = Arrays.copyOf(movieComList, movieComCount);
 
-        // 根据后缀区分要Excel写入类型
-        switch (outputFileSuffix) {
-            case "xls":
-                this.writeToHSSFSheet(sheetName, movieABWeight, movieComList);
-                break;
-            default:
-                this.writeToXSSFSheet(sheetName, movieABWeight, movieComList);
+        try {
+            writer.writeSheet(sheetName, movieABWeight, movieComList);
+        } catch (IOException e) {
+            metrics.error("输出[" + sheetName + "]", e);
+            e.printStackTrace();
         }
+    }
 
+    /**
+     * 溢出归并出的有序公司对能否直接输出：只有csv输出逐对写出，不筛选、不建查询索引时用不到矩阵
+     * @param pairIndex 查询索引，没有开启查询服务时为空
+     * @return 能否直接输出
+     */
+    private boolean canWriteSortedPairs(PairIndex pairIndex) {
+        return "csv".equals(outputFileSuffix) && pairIndex == null && !this.isOutputFiltered();
     }
 
     /**
-     * 输出到xls后缀的Excel中
+     * 把溢出归并出的有序公司对直接输出到新的csv文件，不读成矩阵
+     * @param writer 输出
+     * @param sortedPairs 按PairKey从小到大排列的公司对
      * @param sheetName 输出的Sheet名
-     * @param movieABWeight 电影公司权重
-     * @param movieComList 涉及到的所有电影公司列表
      */
-    private void writeToHSSFSheet(String sheetName,
-                              Map<String, Integer> movieABWeight,
-                              List<String> movieComList) {
-        HSSFSheet sheet;
-        lock.lock();
+    private void handleSortedOutputData(CsvResultWriter writer, CsrMatrix.PairSource sortedPairs, String sheetName) {
         try {
-            sheet = (HSSFSheet) workbookToWrite.createSheet(sheetName);
-        } finally {
-            lock.unlock();
+            writer.writeSortedPairs(sheetName, sortedPairs);
+        } catch (IOException e) {
+            metrics.error("输出[" + sheetName + "]", e);
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Usage:
+     * 赋值表的行处理器，第一行为表头，之后每行为：分工A，分工B，权重
+     */
+    private static class RelationRowHandler implements IRowHandler {
+
+        /** 分工字典 */
+        private final IntDictionary sectionDictionary;
+
+        /** A+B->weight */
+        private final LongIntHashMap sectionABWeight = new LongIntHashMap();
+
+        /** 有效行数 */
+        private int cnt;
+
+        /** 是否读到了赋值工作表 */
+        private boolean loaded;
+
+        /**
+         * 全参构造函数
+         * @param sectionDictionary 分工字典
+         */
+        RelationRowHandler(IntDictionary sectionDictionary) {
+            this.sectionDictionary = sectionDictionary;
         }
 
-        // 写入第一行
-        HSSFRow firstRow = sheet.createRow(0);
-        // 第一行第一列空白
-        firstRow.createCell(0).setCellValue("");
-        for (int i = 0, listSize = movieComList.size(); i < listSize; i++) {
-            firstRow.createCell(i + 1).setCellValue(movieComList.get(i));
+        @Override
+        public void startSheet(String sheetName) {
+            loaded = true;
         }
 
-        // 写入第二行开始的行
-        for (int i = 0, listSize = movieComList.size(); i < listSize; i++) {
-            // 每行第一列写入公司名
-            HSSFRow row = sheet.createRow(i + 1);
-            row.createCell(0).setCellValue(movieComList.get(i));
-            this.writeWeightToCell(i, listSize, row, movieABWeight, movieComList);
+        @Override
+        public void handleRow(String sheetName, SheetRow row) {
+            if (row.getRowNum() < 1) {
+                return;
+            }
+            if (!row.isBlank(0) && !row.isBlank(1)) {
+                // A+B和B+A是同一个Key，重复配置时以后面的行为准；权重为空时按0算
+                long key = PairKey.of(sectionDictionary.intern(row.getString(0)),
+                        sectionDictionary.intern(row.getString(1)));
+                sectionABWeight.put(key, row.getInt(2));
+                cnt++;
+            }
         }
-        System.out.println("完成写入[" + sheetName + "]工作簿[类型：xls]，共"
-                + (movieComList.size() + 1) + "行！");
+
     }
 
     /**
-     * 输出到xlsx后缀的Excel中
-     * @param sheetName 输出的Sheet名
-     * @param movieABWeight 电影公司权重
-     * @param movieComList 涉及到的所有电影公司列表
+     * Usage:
+     * 来源工作表的行处理器。每4行为一部电影，第3行是分工，第4行是对应的电影公司。
+     * 整理出的电影交给电影处理器
      */
-    private void writeToXSSFSheet(String sheetName,
-                              Map<String, Integer> movieABWeight,
-                              List<String> movieComList) {
-        XSSFSheet sheet;
-        lock.lock();
-        try {
-            sheet = (XSSFSheet) workbookToWrite.createSheet(sheetName);
-        } finally {
-            lock.unlock();
+    private class SourceRowHandler implements IRowHandler {
+
+        /** 电影处理器 */
+        private final IMovieBlockHandler blockHandler;
+
+        /** 来源Excel在输出中的名字，不是批量处理时为空 */
+        private final String fileName;
+
+        /** 批量处理时所在的任务，用于检查是否被取消；不是批量处理时为空 */
+        private final SheetTaskEngine.Task task;
+
+        /** 当前Sheet的有效电影数 */
+        private int cnt;
+
+        /** 等待电影公司行的分工行（分工编号，空单元格为-1），没有时为空 */
+        private int[] pendingSectionIds;
+
+        /** 分工行的行号 */
+        private int pendingRowNum;
+
+        /** 当前Sheet读到的行数 */
+        private long rows;
+
+        /** 当前Sheet开始读取的时间，纳秒 */
+        private long startNanos;
+
+        /**
+         * 构造函数
+         * @param blockHandler 电影处理器
+         */
+        SourceRowHandler(IMovieBlockHandler blockHandler) {
+            this(blockHandler, null, null);
         }
 
-        // 写入第一行
-        XSSFRow firstRow = sheet.createRow(0);
-        // 第一行第一列空白
-        firstRow.createCell(0).setCellValue("");
-        for (int i = 0, listSize = movieComList.size(); i < listSize; i++) {
-            firstRow.createCell(i + 1).setCellValue(movieComList.get(i));
+        /**
+         * 全参构造函数
+         * @param blockHandler 电影处理器
+         * @param fileName 批量处理时来源Excel在输出中的名字，用于区分运行指标；不是批量处理时为空
+         * @param task 批量处理时所在的任务，被取消（超时或者其他任务失败）时停止读取；不是批量处理时为空
+         */
+        SourceRowHandler(IMovieBlockHandler blockHandler, String fileName, SheetTaskEngine.Task task) {
+            this.blockHandler = blockHandler;
+            this.fileName = fileName;
+            this.task = task;
         }
 
-        // 写入第二行开始的行
-        for (int i = 0, listSize = movieComList.size(); i < listSize; i++) {
-            // 每行第一列写入公司名
-            XSSFRow row = sheet.createRow(i + 1);
-            row.createCell(0).setCellValue(movieComList.get(i));
-            this.writeWeightToCell(i, listSize, row, movieABWeight, movieComList);
+        @Override
+        public void startSheet(String sheetName) {
+            cnt = 0;
+            pendingSectionIds = null;
+            rows = 0;
+            startNanos = System.nanoTime();
+            blockHandler.startSheet(sheetName);
         }
-        System.out.println("完成写入[" + sheetName + "]工作簿[类型：xlsx]，共"
-                + (movieComList.size() + 1) + "行！");
-    }
 
-    /**
-     * 把权重写入
-     * @param i 行数
-     * @param listSize 公司列表数量
-     * @param row 当前行
-     * @param movieABWeight 电影公司权重
-     * @param movieComList 涉及到的所有电影公司列表
-     */
-    private void writeWeightToCell(int i, int listSize, Row row,
-                                   Map<String, Integer> movieABWeight,
-                                   List<String> movieComList) {
-        for (int j = 0; j < listSize; j++) {
-            if (i == j) {
-                row.createCell(j + 1).setCellValue(0);
+        @Override
+        public void handleRow(String sheetName, SheetRow row) {
+            if (task != null) {
+                task.checkCancelled();
             }
-            String key = movieComList.get(i)
-                    + StatConsts.KEY_SEPARATOR
-                    + movieComList.get(j);
-            if (movieABWeight.containsKey(key)) {
-                row.createCell(j + 1).setCellValue(movieABWeight.get(key));
-            } else {
-                // 把分隔符两边对调作为新的Key再去Map查
-                key = movieComList.get(j)
-                        + StatConsts.KEY_SEPARATOR
-                        + movieComList.get(i);
-                row.createCell(j + 1).setCellValue(movieABWeight.getOrDefault(key, 0));
+            rows++;
+            int rowNum = row.getRowNum();
+            if (pendingSectionIds != null) {
+                if (rowNum == pendingRowNum + 1) {
+                    // 存放电影公司与其分工
+                    MovieBlock movieBlock = new MovieBlock(pendingSectionIds.length);
+                    if (collectMovieBlock(pendingSectionIds, row, movieBlock)) {
+                        cnt++;
+                    }
+                    if (movieBlock.size() > 1) {
+                        blockHandler.handleBlock(sheetName, movieBlock);
+                    }
+                    pendingSectionIds = null;
+                    return;
+                }
+                // 分工行后面没有电影公司行，丢弃
+                pendingSectionIds = null;
+            }
+            if (isUselessRow(rowNum)) {
+                return;
             }
+            int cellNum = row.getLastCellNum() - row.getFirstCellNum();
+            pendingSectionIds = new int[cellNum];
+            for (int columnNum = 0; columnNum < cellNum; columnNum++) {
+                pendingSectionIds[columnNum] = row.isBlank(columnNum)
+                        ? -1 : sectionDictionary.intern(row.getString(columnNum));
+            }
+            pendingRowNum = rowNum;
+        }
+
+        @Override
+        public void endSheet(String sheetName) {
+            pendingSectionIds = null;
+            metrics.sheetRead(MoviePipeline.sheetKey(fileName, sheetName), rows, System.nanoTime() - startNanos);
+            blockHandler.endSheet(sheetName, cnt);
         }
+
     }
 
 }
@@ -0,0 +1,190 @@
+package indi.liht.stat.core;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Usage:
+ * 常驻监听模式：先统计一次，然后监听conf/stat.properties和conf/excel下（包括子目录）的文件，有变化就重新统计。
+ * JVM、POI的类和JIT都是热的，输入缓存和增量计算照常生效，保存Excel之后几秒内就能看到新结果。
+ * 保存一个Excel往往会连续触发多个事件（临时文件、改名、修改），最后一个事件之后安静debounceMillis毫秒才开始统计；
+ * 统计期间的变化在统计结束后再触发一次
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/22
+ **/
+public class StatWatcher {
+
+    /** 默认的防抖时间，毫秒 */
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 1000L;
+
+    /** 配置文件名 */
+    private static final String PROPS_FILE_NAME = "stat.properties";
+
+    /** 统计 */
+    private final StatMovie statMovie;
+
+    /** 防抖时间，毫秒 */
+    private final long debounceMillis;
+
+    /** conf目录 */
+    private final Path confDir;
+
+    /** conf/excel目录 */
+    private final Path excelDir;
+
+    /**
+     * 全参构造函数
+     * @param statMovie 统计
+     * @param debounceMillis 防抖时间，毫秒
+     */
+    public StatWatcher(StatMovie statMovie, long debounceMillis) {
+        this.statMovie = statMovie;
+        this.debounceMillis = debounceMillis;
+        this.confDir = Paths.get(statMovie.getResourceRootPath(), "conf").toAbsolutePath().normalize();
+        this.excelDir = confDir.resolve("excel");
+    }
+
+    /**
+     * 统计一次，然后一直监听、重新统计，直到线程被中断
+     * @throws IOException 无法监听目录
+     */
+    public void watch() throws IOException {
+        WatchService watchService = FileSystems.getDefault().newWatchService();
+        try {
+            // 先注册再统计，统计期间的修改也不会漏掉
+            register(watchService, confDir);
+            this.registerTree(watchService, excelDir);
+            this.runStat();
+            while (!Thread.currentThread().isInterrupted()) {
+                System.out.println("监听[" + confDir + "]中，修改配置文件或者Excel后自动重新统计……");
+                // 等第一个相关的事件，再等到安静debounceMillis毫秒
+                WatchKey key = watchService.take();
+                boolean changed = this.drain(watchService, key);
+                while (true) {
+                    key = watchService.poll(debounceMillis, TimeUnit.MILLISECONDS);
+                    if (key == null) {
+                        break;
+                    }
+                    changed |= this.drain(watchService, key);
+                }
+                if (changed) {
+                    this.runStat();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            watchService.close();
+        }
+    }
+
+    /**
+     * 监听一个目录的新建、修改和删除
+     * @param watchService 监听服务
+     * @param dir 目录
+     * @throws IOException 无法监听目录
+     */
+    private static void register(WatchService watchService, Path dir) throws IOException {
+        dir.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+    }
+
+    /**
+     * 监听一个目录和它所有的子目录，批量模式下来源Excel可以放在子目录里
+     * @param watchService 监听服务
+     * @param root 根目录
+     * @throws IOException 无法监听目录
+     */
+    private void registerTree(final WatchService watchService, Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                register(watchService, dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * 监听新建的目录（包括其中的子目录）。目录可能刚建好就被删除或者改名，出错只提示
+     * @param watchService 监听服务
+     * @param dir 目录
+     */
+    private void registerQuietly(WatchService watchService, Path dir) {
+        try {
+            this.registerTree(watchService, dir);
+        } catch (IOException e) {
+            System.out.println("无法监听[" + dir + "]：" + e.getMessage());
+        }
+    }
+
+    /**
+     * 统计一次。出错不退出，等下一次修改；
+     * 出错时StatMovie已经放弃了流水线，计算、输出线程都已结束，不会随着重新统计越积越多
+     */
+    private void runStat() {
+        long start = System.nanoTime();
+        try {
+            statMovie.stat();
+            System.out.println("统计完成，耗时" + (System.nanoTime() - start) / 1000000 + "ms！");
+        } catch (RuntimeException | Error e) {
+            e.printStackTrace();
+            System.out.println("统计失败，请检查配置文件和Excel，修改后会自动重新统计！");
+        }
+    }
+
+    /**
+     * 取出一个WatchKey上的事件并重置它
+     * @param watchService 监听服务，用来注册新建的子目录
+     * @param key WatchKey
+     * @return 是否有相关的修改
+     */
+    private boolean drain(WatchService watchService, WatchKey key) {
+        boolean changed = false;
+        Path dir = (Path) key.watchable();
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                changed = true;
+                continue;
+            }
+            String fileName = ((Path) event.context()).getFileName().toString();
+            Path path = dir.resolve(fileName);
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && !confDir.equals(dir)
+                    && Files.isDirectory(path)) {
+                // 新建的批量子目录也要监听，其中已经有的文件算作变化
+                this.registerQuietly(watchService, path);
+            }
+            if (this.isRelevant(dir, fileName)) {
+                System.out.println("[" + path + "]有变化");
+                changed = true;
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    /**
+     * 是否是影响统计的文件：conf下只有配置文件，conf/excel及其子目录下除了Excel和WPS的锁文件都算
+     * @param dir 所在目录
+     * @param fileName 文件名
+     * @return 是否相关
+     */
+    private boolean isRelevant(Path dir, String fileName) {
+        if (confDir.equals(dir)) {
+            return PROPS_FILE_NAME.equals(fileName);
+        }
+        return !fileName.startsWith("~$") && !fileName.startsWith(".~lock.");
+    }
+
+}
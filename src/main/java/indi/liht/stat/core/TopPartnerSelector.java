@@ -0,0 +1,116 @@
+package indi.liht.stat.core;
+
+import indi.liht.stat.collection.CsrMatrix;
+
+/**
+ * Usage:
+ * 只保留每个电影公司权重最高的K个合作公司，以及权重不低于阈值的公司对。
+ * 矩阵只存上三角，逐行用一个容量为K的小顶堆扫一遍整行（含镜像的下三角），复杂度O(公司对数×logK)，堆在各行之间复用。
+ * 一对公司只要在任意一边的前K名里就保留，每对公司只存一个元素，输出的矩阵仍然对称。
+ * 权重相同时编号小（先出现）的公司优先，结果是确定的
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/21
+ **/
+public class TopPartnerSelector {
+
+    private TopPartnerSelector() {}
+
+    /**
+     * 筛选公司对
+     * @param movieABWeight 电影公司权重
+     * @param topK 每个公司最多保留的合作公司数，不大于0表示不限
+     * @param minWeight 最小权重，低于它的公司对不保留
+     * @return 保留下来的电影公司权重
+     */
+    public static CsrMatrix select(CsrMatrix movieABWeight, int topK, int minWeight) {
+        boolean[] keep = new boolean[movieABWeight.getPairCount()];
+        if (topK <= 0) {
+            for (int i = 0; i < keep.length; i++) {
+                keep[i] = movieABWeight.weight(i) >= minWeight;
+            }
+            return movieABWeight.retain(keep);
+        }
+
+        long[] heap = new long[topK];
+        for (int row = 0, rows = movieABWeight.getRowCount(); row < rows; row++) {
+            int size = 0;
+            for (int k = 0, count = movieABWeight.getPartnerCount(row); k < count; k++) {
+                int weight = movieABWeight.weight(movieABWeight.entryOf(row, k));
+                if (weight >= minWeight) {
+                    size = offer(heap, size, entryOf(k, weight));
+                }
+            }
+            // 前K名保留，对称的一边是同一个元素
+            for (int h = 0; h < size; h++) {
+                keep[movieABWeight.entryOf(row, indexOf(heap[h]))] = true;
+            }
+        }
+        return movieABWeight.retain(keep);
+    }
+
+    /**
+     * 把一个元素放进堆：堆没满直接放，满了只替换掉比它差的堆顶
+     * @param heap 堆，容量为K
+     * @param size 堆的当前大小
+     * @param entry 元素
+     * @return 堆的新大小
+     */
+    private static int offer(long[] heap, int size, long entry) {
+        if (size < heap.length) {
+            // 上浮
+            int i = size;
+            while (i > 0) {
+                int parent = (i - 1) >>> 1;
+                if (heap[parent] <= entry) {
+                    break;
+                }
+                heap[i] = heap[parent];
+                i = parent;
+            }
+            heap[i] = entry;
+            return size + 1;
+        }
+        if (entry <= heap[0]) {
+            return size;
+        }
+        // 替换堆顶后下沉
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1] < heap[child]) {
+                child++;
+            }
+            if (entry <= heap[child]) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = entry;
+        return size;
+    }
+
+    /**
+     * 堆中的元素：高32位为权重，低32位为Integer.MAX_VALUE-整行中的位置。
+     * 整行中的位置和合作公司编号的顺序一致，按long比较就是先比权重，权重相同时编号小的大
+     * @param index 整行中的位置
+     * @param weight 权重
+     * @return 元素
+     */
+    private static long entryOf(int index, int weight) {
+        return ((long) weight << 32) | (Integer.MAX_VALUE - index);
+    }
+
+    /**
+     * 堆中元素对应的整行中的位置
+     * @param entry 堆中的元素
+     * @return 整行中的位置
+     */
+    private static int indexOf(long entry) {
+        return Integer.MAX_VALUE - (int) entry;
+    }
+
+}
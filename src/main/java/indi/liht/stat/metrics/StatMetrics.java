@@ -0,0 +1,553 @@
+package indi.liht.stat.metrics;
+
+import indi.liht.stat.utils.DateUtils;
+import indi.liht.stat.utils.JsonBuilder;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Usage:
+ * 一次统计的运行指标：各阶段的耗时、堆内存峰值、GC耗时，各Sheet读取、计算、输出的数量和速度，
+ * 主要数据结构的大小，以及出错的地方。
+ * 阶段可以嵌套。阶段开始时先把当前的堆内存峰值记到进行中的阶段上，再重置各堆内存区的峰值，
+ * 所以每个阶段的峰值只包含它自己运行期间，外层阶段的峰值是内层各阶段峰值的最大值。
+ * 各堆内存区的峰值不一定同时出现，相加得到的是上界。
+ * 阶段由主线程记录，Sheet的指标由读取、计算、输出线程记录，所有方法都加锁，调用频率很低
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/21
+ **/
+public class StatMetrics {
+
+    /** 开始时间 */
+    private final Date startTime = new Date();
+
+    /** 堆内存区 */
+    private final List<MemoryPoolMXBean> heapPools = new ArrayList<>();
+
+    /** 阶段，按开始顺序 */
+    private final List<Phase> phases = new ArrayList<>();
+
+    /** 进行中的阶段 */
+    private final List<Phase> runningPhases = new ArrayList<>();
+
+    /** Sheet名 -> Sheet的指标，按开始顺序 */
+    private final Map<String, Sheet> sheets = new LinkedHashMap<>();
+
+    /** 数据结构名 -> 大小 */
+    private final Map<String, Long> sizes = new LinkedHashMap<>();
+
+    /** 出错的地方和异常 */
+    private final List<String> errors = new ArrayList<>();
+
+    /** 整次运行的堆内存峰值 */
+    private long heapHighWaterBytes;
+
+    /** 是否已经结束 */
+    private boolean finished;
+
+    /**
+     * 构造函数
+     */
+    public StatMetrics() {
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                heapPools.add(pool);
+            }
+        }
+    }
+
+    /**
+     * 某个阶段开始
+     * @param name 阶段名
+     */
+    public synchronized void phaseStarted(String name) {
+        this.foldHeapPeak();
+        for (MemoryPoolMXBean pool : heapPools) {
+            pool.resetPeakUsage();
+        }
+        Phase phase = new Phase(name, runningPhases.size());
+        phase.startNanos = System.nanoTime();
+        phase.startGcMillis = gcMillis();
+        phase.startGcCount = gcCount();
+        phases.add(phase);
+        runningPhases.add(phase);
+    }
+
+    /**
+     * 某个阶段结束。没有开始过的阶段忽略
+     * @param name 阶段名
+     */
+    public synchronized void phaseFinished(String name) {
+        for (int i = runningPhases.size() - 1; i >= 0; i--) {
+            Phase phase = runningPhases.get(i);
+            if (phase.name.equals(name)) {
+                this.foldHeapPeak();
+                phase.durationMillis = (System.nanoTime() - phase.startNanos) / 1000000;
+                phase.gcMillis = gcMillis() - phase.startGcMillis;
+                phase.gcCount = gcCount() - phase.startGcCount;
+                phase.finished = true;
+                runningPhases.remove(i);
+                return;
+            }
+        }
+    }
+
+    /**
+     * 开始读取或者计算某个Sheet
+     * @param sheetName Sheet名
+     */
+    public synchronized void sheetStarted(String sheetName) {
+        this.sheet(sheetName).startNanos = System.nanoTime();
+    }
+
+    /**
+     * 某个Sheet读取完成
+     * @param sheetName Sheet名
+     * @param rows 读到的行数
+     * @param readNanos 读取耗时，纳秒
+     */
+    public synchronized void sheetRead(String sheetName, long rows, long readNanos) {
+        Sheet sheet = this.sheet(sheetName);
+        sheet.rowsRead += rows;
+        sheet.readNanos += readNanos;
+    }
+
+    /**
+     * 某个Sheet计算完成
+     * @param sheetName Sheet名
+     * @param movies 有效电影数
+     * @param blocks 交给计算线程的电影数
+     * @param pairs 公司对数
+     * @param reused 是否复用了上次的计算结果
+     */
+    public synchronized void sheetAggregated(String sheetName, int movies, long blocks, int pairs, boolean reused) {
+        Sheet sheet = this.sheet(sheetName);
+        sheet.movies = movies;
+        sheet.blocks = blocks;
+        sheet.pairs = pairs;
+        sheet.reused = reused;
+        if (sheet.startNanos != 0) {
+            sheet.aggregateNanos = System.nanoTime() - sheet.startNanos;
+        }
+    }
+
+    /**
+     * 某个结果Sheet输出完成
+     * @param sheetName Sheet名
+     * @param pairs 公司对数
+     * @param outputNanos 输出耗时，纳秒
+     */
+    public synchronized void sheetWritten(String sheetName, int pairs, long outputNanos) {
+        Sheet sheet = this.sheet(sheetName);
+        sheet.pairs = pairs;
+        sheet.pairsWritten = pairs;
+        sheet.outputNanos = outputNanos;
+    }
+
+    /**
+     * 记录某个数据结构的大小
+     * @param name 数据结构名
+     * @param size 大小
+     */
+    public synchronized void size(String name, long size) {
+        sizes.put(name, size);
+    }
+
+    /**
+     * 记录出错的地方
+     * @param where 出错的地方
+     * @param e 异常
+     */
+    public synchronized void error(String where, Throwable e) {
+        errors.add(where + "：" + e);
+    }
+
+    /**
+     * 整次运行结束
+     */
+    public synchronized void finish() {
+        this.foldHeapPeak();
+        finished = true;
+    }
+
+    /**
+     * 获取 阶段，按开始顺序
+     * @return 阶段的副本
+     */
+    public synchronized List<Phase> getPhases() {
+        List<Phase> copy = new ArrayList<>(phases.size());
+        for (Phase phase : phases) {
+            copy.add(phase.copy());
+        }
+        return copy;
+    }
+
+    /**
+     * 获取 进行中的最内层阶段
+     * @return 阶段名，没有时为空
+     */
+    public synchronized String getCurrentPhase() {
+        return runningPhases.isEmpty() ? null : runningPhases.get(runningPhases.size() - 1).name;
+    }
+
+    /**
+     * 获取 是否已经结束
+     * @return 是否已经结束
+     */
+    public synchronized boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * 获取 各Sheet读到的行数之和
+     * @return 行数
+     */
+    public synchronized long getRowsRead() {
+        long rows = 0;
+        for (Sheet sheet : sheets.values()) {
+            rows += sheet.rowsRead;
+        }
+        return rows;
+    }
+
+    /**
+     * 获取 各Sheet交给计算线程的电影数之和
+     * @return 电影数
+     */
+    public synchronized long getBlocksAggregated() {
+        long blocks = 0;
+        for (Sheet sheet : sheets.values()) {
+            blocks += sheet.blocks;
+        }
+        return blocks;
+    }
+
+    /**
+     * 获取 各结果Sheet输出的公司对数之和
+     * @return 公司对数
+     */
+    public synchronized long getPairsWritten() {
+        long pairs = 0;
+        for (Sheet sheet : sheets.values()) {
+            pairs += sheet.pairsWritten;
+        }
+        return pairs;
+    }
+
+    /**
+     * 获取 数据结构的大小
+     * @return 数据结构名 -> 大小的副本
+     */
+    public synchronized Map<String, Long> getSizes() {
+        return new LinkedHashMap<>(sizes);
+    }
+
+    /**
+     * 获取 出错的地方
+     * @return 出错的地方的副本
+     */
+    public synchronized List<String> getErrors() {
+        return new ArrayList<>(errors);
+    }
+
+    /**
+     * 获取 整次运行到目前为止的堆内存峰值
+     * @return 字节
+     */
+    public synchronized long getHeapHighWaterBytes() {
+        this.foldHeapPeak();
+        return heapHighWaterBytes;
+    }
+
+    /**
+     * 生成JSON格式的运行摘要
+     * @return JSON
+     */
+    public synchronized String toJson() {
+        this.foldHeapPeak();
+        JsonBuilder json = new JsonBuilder();
+        json.beginObject()
+                .field("startTime", DateUtils.getStrFromDate(startTime, DateUtils.yyyyMMddHHmmss))
+                .field("finished", finished)
+                .field("heapHighWaterBytes", heapHighWaterBytes)
+                .field("rowsRead", this.getRowsRead())
+                .field("blocksAggregated", this.getBlocksAggregated())
+                .field("pairsWritten", this.getPairsWritten());
+        json.name("phases").beginArray();
+        for (Phase phase : phases) {
+            json.beginObject()
+                    .field("name", phase.name)
+                    .field("depth", phase.depth)
+                    .field("finished", phase.finished)
+                    .field("durationMillis", phase.durationMillis)
+                    .field("heapHighWaterBytes", phase.heapHighWaterBytes)
+                    .field("gcMillis", phase.gcMillis)
+                    .field("gcCount", phase.gcCount)
+                    .endObject();
+        }
+        json.endArray();
+        json.name("sheets").beginArray();
+        for (Sheet sheet : sheets.values()) {
+            json.beginObject()
+                    .field("name", sheet.name)
+                    .field("reused", sheet.reused)
+                    .field("rowsRead", sheet.rowsRead)
+                    .field("movies", sheet.movies)
+                    .field("blocks", sheet.blocks)
+                    .field("pairs", sheet.pairs)
+                    .field("readMillis", sheet.readNanos / 1000000)
+                    .field("aggregateMillis", sheet.aggregateNanos / 1000000)
+                    .field("outputMillis", sheet.outputNanos / 1000000)
+                    .field("rowsPerSecond", perSecond(sheet.rowsRead, sheet.readNanos))
+                    .field("blocksPerSecond", perSecond(sheet.blocks, sheet.aggregateNanos))
+                    .field("pairsPerSecond", perSecond(sheet.pairsWritten, sheet.outputNanos))
+                    .endObject();
+        }
+        json.endArray();
+        json.name("sizes").beginObject();
+        for (Map.Entry<String, Long> entry : sizes.entrySet()) {
+            json.field(entry.getKey(), entry.getValue());
+        }
+        json.endObject();
+        json.name("errors").beginArray();
+        for (String error : errors) {
+            json.value(error);
+        }
+        json.endArray();
+        return json.endObject().toString();
+    }
+
+    /**
+     * 取出或者新建Sheet的指标
+     * @param sheetName Sheet名
+     * @return Sheet的指标
+     */
+    private Sheet sheet(String sheetName) {
+        return sheets.computeIfAbsent(sheetName, Sheet::new);
+    }
+
+    /**
+     * 把各堆内存区的峰值之和记到进行中的阶段和整次运行上
+     */
+    private void foldHeapPeak() {
+        long peak = 0;
+        for (MemoryPoolMXBean pool : heapPools) {
+            peak += pool.getPeakUsage().getUsed();
+        }
+        for (Phase phase : runningPhases) {
+            phase.heapHighWaterBytes = Math.max(phase.heapHighWaterBytes, peak);
+        }
+        heapHighWaterBytes = Math.max(heapHighWaterBytes, peak);
+    }
+
+    /**
+     * 每秒的数量
+     * @param count 数量
+     * @param nanos 耗时，纳秒
+     * @return 每秒的数量，耗时为0时为0
+     */
+    private static long perSecond(long count, long nanos) {
+        return nanos > 0 ? (long) (count * 1e9 / nanos) : 0;
+    }
+
+    /**
+     * 所有收集器累计的GC耗时
+     * @return 毫秒
+     */
+    private static long gcMillis() {
+        long millis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            millis += Math.max(gc.getCollectionTime(), 0);
+        }
+        return millis;
+    }
+
+    /**
+     * 所有收集器累计的GC次数
+     * @return 次数
+     */
+    private static long gcCount() {
+        long count = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            count += Math.max(gc.getCollectionCount(), 0);
+        }
+        return count;
+    }
+
+    /**
+     * Usage:
+     * 一个阶段的指标
+     */
+    public static class Phase {
+
+        /** 阶段名 */
+        private final String name;
+
+        /** 嵌套深度，最外层为0 */
+        private final int depth;
+
+        /** 开始时间，纳秒 */
+        private long startNanos;
+
+        /** 开始时累计的GC耗时 */
+        private long startGcMillis;
+
+        /** 开始时累计的GC次数 */
+        private long startGcCount;
+
+        /** 是否已经结束 */
+        private boolean finished;
+
+        /** 耗时，毫秒 */
+        private long durationMillis;
+
+        /** 堆内存峰值，字节 */
+        private long heapHighWaterBytes;
+
+        /** GC耗时，毫秒 */
+        private long gcMillis;
+
+        /** GC次数 */
+        private long gcCount;
+
+        /**
+         * 全参构造函数
+         * @param name 阶段名
+         * @param depth 嵌套深度
+         */
+        Phase(String name, int depth) {
+            this.name = name;
+            this.depth = depth;
+        }
+
+        /**
+         * 复制一份
+         * @return 副本
+         */
+        private Phase copy() {
+            Phase copy = new Phase(name, depth);
+            copy.startNanos = startNanos;
+            copy.finished = finished;
+            copy.durationMillis = finished ? durationMillis : (System.nanoTime() - startNanos) / 1000000;
+            copy.heapHighWaterBytes = heapHighWaterBytes;
+            copy.gcMillis = gcMillis;
+            copy.gcCount = gcCount;
+            return copy;
+        }
+
+        /**
+         * 获取 阶段名
+         * @return 阶段名
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * 获取 嵌套深度
+         * @return 嵌套深度，最外层为0
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * 获取 是否已经结束
+         * @return 是否已经结束
+         */
+        public boolean isFinished() {
+            return finished;
+        }
+
+        /**
+         * 获取 耗时
+         * @return 耗时，毫秒
+         */
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        /**
+         * 获取 堆内存峰值
+         * @return 堆内存峰值，字节
+         */
+        public long getHeapHighWaterBytes() {
+            return heapHighWaterBytes;
+        }
+
+        /**
+         * 获取 GC耗时
+         * @return GC耗时，毫秒
+         */
+        public long getGcMillis() {
+            return gcMillis;
+        }
+
+        /**
+         * 获取 GC次数
+         * @return GC次数
+         */
+        public long getGcCount() {
+            return gcCount;
+        }
+
+    }
+
+    /**
+     * Usage:
+     * 一个Sheet的指标
+     */
+    private static class Sheet {
+
+        /** Sheet名 */
+        private final String name;
+
+        /** 开始计算的时间，纳秒 */
+        private long startNanos;
+
+        /** 读到的行数 */
+        private long rowsRead;
+
+        /** 读取耗时，纳秒 */
+        private long readNanos;
+
+        /** 有效电影数 */
+        private int movies;
+
+        /** 交给计算线程的电影数 */
+        private long blocks;
+
+        /** 公司对数 */
+        private int pairs;
+
+        /** 输出的公司对数 */
+        private int pairsWritten;
+
+        /** 是否复用了上次的计算结果 */
+        private boolean reused;
+
+        /** 从开始读取到计算完成的耗时，纳秒 */
+        private long aggregateNanos;
+
+        /** 输出耗时，纳秒 */
+        private long outputNanos;
+
+        /**
+         * 全参构造函数
+         * @param name Sheet名
+         */
+        Sheet(String name) {
+            this.name = name;
+        }
+
+    }
+
+}
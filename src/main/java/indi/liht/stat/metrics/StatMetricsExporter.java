@@ -0,0 +1,132 @@
+package indi.liht.stat.metrics;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Usage:
+ * 把最近一次统计的运行指标注册到JMX。第一次publish时注册，之后只替换指向的运行指标
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/21
+ **/
+public final class StatMetricsExporter implements StatMetricsMXBean {
+
+    /** JMX名字 */
+    public static final String OBJECT_NAME = "indi.liht.stat:type=StatMetrics";
+
+    /** 唯一实例 */
+    private static final StatMetricsExporter INSTANCE = new StatMetricsExporter();
+
+    /** 是否已经注册 */
+    private static boolean registered;
+
+    /** 最近一次统计的运行指标 */
+    private volatile StatMetrics metrics;
+
+    private StatMetricsExporter() {}
+
+    /**
+     * 发布一次统计的运行指标
+     * @param metrics 运行指标
+     */
+    public static synchronized void publish(StatMetrics metrics) {
+        INSTANCE.metrics = metrics;
+        if (registered) {
+            return;
+        }
+        try {
+            ObjectName objectName = new ObjectName(OBJECT_NAME);
+            if (!ManagementFactory.getPlatformMBeanServer().isRegistered(objectName)) {
+                ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, objectName);
+            }
+            registered = true;
+        } catch (JMException e) {
+            // 注册失败不影响统计
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public boolean isRunning() {
+        StatMetrics m = metrics;
+        return m != null && !m.isFinished();
+    }
+
+    @Override
+    public String getCurrentPhase() {
+        StatMetrics m = metrics;
+        return m != null ? m.getCurrentPhase() : null;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseDurationMillis() {
+        Map<String, Long> durations = new LinkedHashMap<>();
+        StatMetrics m = metrics;
+        if (m != null) {
+            for (StatMetrics.Phase phase : m.getPhases()) {
+                durations.merge(phase.getName(), phase.getDurationMillis(), Long::sum);
+            }
+        }
+        return durations;
+    }
+
+    @Override
+    public Map<String, Long> getPhaseHeapHighWaterBytes() {
+        Map<String, Long> peaks = new LinkedHashMap<>();
+        StatMetrics m = metrics;
+        if (m != null) {
+            for (StatMetrics.Phase phase : m.getPhases()) {
+                peaks.merge(phase.getName(), phase.getHeapHighWaterBytes(), Math::max);
+            }
+        }
+        return peaks;
+    }
+
+    @Override
+    public long getRowsRead() {
+        StatMetrics m = metrics;
+        return m != null ? m.getRowsRead() : 0;
+    }
+
+    @Override
+    public long getBlocksAggregated() {
+        StatMetrics m = metrics;
+        return m != null ? m.getBlocksAggregated() : 0;
+    }
+
+    @Override
+    public long getPairsWritten() {
+        StatMetrics m = metrics;
+        return m != null ? m.getPairsWritten() : 0;
+    }
+
+    @Override
+    public Map<String, Long> getSizes() {
+        StatMetrics m = metrics;
+        return m != null ? m.getSizes() : Collections.emptyMap();
+    }
+
+    @Override
+    public long getHeapHighWaterBytes() {
+        StatMetrics m = metrics;
+        return m != null ? m.getHeapHighWaterBytes() : 0;
+    }
+
+    @Override
+    public List<String> getErrors() {
+        StatMetrics m = metrics;
+        return m != null ? m.getErrors() : Collections.emptyList();
+    }
+
+    @Override
+    public String getSummaryJson() {
+        StatMetrics m = metrics;
+        return m != null ? m.toJson() : null;
+    }
+
+}
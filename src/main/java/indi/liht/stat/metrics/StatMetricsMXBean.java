@@ -0,0 +1,80 @@
+package indi.liht.stat.metrics;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Usage:
+ * 通过JMX查看最近一次（或正在进行的）统计的运行指标，ObjectName为indi.liht.stat:type=StatMetrics
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/21
+ **/
+public interface StatMetricsMXBean {
+
+    /**
+     * 是否正在统计
+     * @return 是否正在统计
+     */
+    boolean isRunning();
+
+    /**
+     * 进行中的最内层阶段
+     * @return 阶段名，没有时为空
+     */
+    String getCurrentPhase();
+
+    /**
+     * 各阶段的耗时，进行中的阶段为到目前为止的耗时
+     * @return 阶段名 -> 毫秒
+     */
+    Map<String, Long> getPhaseDurationMillis();
+
+    /**
+     * 各阶段的堆内存峰值
+     * @return 阶段名 -> 字节
+     */
+    Map<String, Long> getPhaseHeapHighWaterBytes();
+
+    /**
+     * 读到的行数
+     * @return 行数
+     */
+    long getRowsRead();
+
+    /**
+     * 交给计算线程的电影数
+     * @return 电影数
+     */
+    long getBlocksAggregated();
+
+    /**
+     * 输出的公司对数
+     * @return 公司对数
+     */
+    long getPairsWritten();
+
+    /**
+     * 主要数据结构的大小
+     * @return 数据结构名 -> 大小
+     */
+    Map<String, Long> getSizes();
+
+    /**
+     * 整次运行的堆内存峰值
+     * @return 字节
+     */
+    long getHeapHighWaterBytes();
+
+    /**
+     * 出错的地方
+     * @return 出错的地方和异常
+     */
+    List<String> getErrors();
+
+    /**
+     * JSON格式的运行摘要
+     * @return JSON
+     */
+    String getSummaryJson();
+
+}
@@ -0,0 +1,99 @@
+package indi.liht.stat.models;
+
+import java.util.Arrays;
+
+/**
+ * Usage:
+ * 一部电影的所有电影公司+负责的部分，公司和分工都已换成字典编号
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/06
+ **/
+public class MovieBlock {
+
+    /** 电影公司编号 */
+    private int[] movieComIds;
+
+    /** 分工编号，与movieComIds一一对应 */
+    private int[] sectionIds;
+
+    /** 电影公司+分工的个数 */
+    private int size;
+
+    /** 重数：阵容相同的电影合并成一部时为合并的部数，权重按它倍加 */
+    private int multiplicity = 1;
+
+    /**
+     * 指定初始容量的构造函数
+     * @param capacity 初始容量
+     */
+    public MovieBlock(int capacity) {
+        this.movieComIds = new int[Math.max(capacity, 1)];
+        this.sectionIds = new int[Math.max(capacity, 1)];
+    }
+
+    /**
+     * 添加一个电影公司+分工
+     * @param movieComId 电影公司编号
+     * @param sectionId 分工编号
+     */
+    public void add(int movieComId, int sectionId) {
+        if (size == movieComIds.length) {
+            movieComIds = Arrays.copyOf(movieComIds, size << 1);
+            sectionIds = Arrays.copyOf(sectionIds, size << 1);
+        }
+        movieComIds[size] = movieComId;
+        sectionIds[size] = sectionId;
+        size++;
+    }
+
+    /**
+     * 获取 第i个电影公司编号
+     * @param i 下标
+     * @return 电影公司编号
+     */
+    public int getMovieComId(int i) {
+        return movieComIds[i];
+    }
+
+    /**
+     * 获取 第i个分工编号
+     * @param i 下标
+     * @return 分工编号
+     */
+    public int getSectionId(int i) {
+        return sectionIds[i];
+    }
+
+    /**
+     * 获取 电影公司+分工的个数
+     * @return 个数
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * 获取 重数
+     * @return 重数
+     */
+    public int getMultiplicity() {
+        return multiplicity;
+    }
+
+    /**
+     * 设置 重数
+     * @param multiplicity 重数
+     */
+    public void setMultiplicity(int multiplicity) {
+        this.multiplicity = multiplicity;
+    }
+
+    @Override
+    public String toString() {
+        return "MovieBlock{" +
+                "movieComIds=" + Arrays.toString(Arrays.copyOf(movieComIds, size)) +
+                ", sectionIds=" + Arrays.toString(Arrays.copyOf(sectionIds, size)) +
+                ", multiplicity=" + multiplicity +
+                '}';
+    }
+}
@@ -0,0 +1,175 @@
+package indi.liht.stat.query;
+
+import indi.liht.stat.collection.CsrMatrix;
+import indi.liht.stat.collection.IntDictionary;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Usage:
+ * 一次统计结果的邻接索引：每个结果Sheet（包括All）一个CSR矩阵，每个公司一行，合作公司按编号排列。
+ * 查两个公司的权重是行内二分查找，查一个公司的合作公司是顺序读一行，不需要生成或者打开整个矩阵。
+ * 统计过程中由输出线程逐个Sheet加入，统计结束后只读
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/22
+ **/
+public class PairIndex {
+
+    /** 电影公司字典 */
+    private final IntDictionary movieComDictionary;
+
+    /** Sheet名 -> 矩阵，按输出顺序 */
+    private final Map<String, CsrMatrix> sheets = new LinkedHashMap<>();
+
+    /**
+     * 全参构造函数
+     * @param movieComDictionary 电影公司字典
+     */
+    public PairIndex(IntDictionary movieComDictionary) {
+        this.movieComDictionary = movieComDictionary;
+    }
+
+    /**
+     * 加入一个结果Sheet
+     * @param sheetName Sheet名
+     * @param matrix 矩阵
+     */
+    public synchronized void put(String sheetName, CsrMatrix matrix) {
+        sheets.put(sheetName, matrix);
+    }
+
+    /**
+     * 获取 所有Sheet名
+     * @return Sheet名，按输出顺序
+     */
+    public synchronized List<String> getSheetNames() {
+        return new ArrayList<>(sheets.keySet());
+    }
+
+    /**
+     * 获取 某个Sheet的矩阵
+     * @param sheetName Sheet名
+     * @return 矩阵，不存在时为空
+     */
+    public synchronized CsrMatrix getMatrix(String sheetName) {
+        return sheets.get(sheetName);
+    }
+
+    /**
+     * 获取 公司编号
+     * @param movieCom 公司名
+     * @return 编号，不存在返回-1
+     */
+    public int getId(String movieCom) {
+        return movieComDictionary.getId(movieCom);
+    }
+
+    /**
+     * 获取 公司名
+     * @param id 编号
+     * @return 公司名
+     */
+    public String getName(int id) {
+        return movieComDictionary.getName(id);
+    }
+
+    /**
+     * 某个公司的所有合作公司，按公司第一次出现的顺序
+     * @param matrix 矩阵
+     * @param id 公司编号
+     * @return 合作公司
+     */
+    public List<Partner> partners(CsrMatrix matrix, int id) {
+        List<Partner> partners = new ArrayList<>(matrix.getPartnerCount(id));
+        CsrMatrix.PartnerCursor cursor = matrix.partners(id);
+        while (cursor.next()) {
+            partners.add(new Partner(cursor.partner(), cursor.weight()));
+        }
+        return partners;
+    }
+
+    /**
+     * 某个公司权重最高的n个合作公司，用容量为n的小顶堆扫一遍这一行
+     * @param matrix 矩阵
+     * @param id 公司编号
+     * @param n 个数
+     * @return 合作公司，权重从高到低；权重相同时编号小的在前
+     */
+    public List<Partner> top(CsrMatrix matrix, int id, int n) {
+        if (n <= 0) {
+            return new ArrayList<>();
+        }
+        PriorityQueue<Partner> heap = new PriorityQueue<>(n + 1, PairIndex::compareWorst);
+        CsrMatrix.PartnerCursor cursor = matrix.partners(id);
+        while (cursor.next()) {
+            Partner partner = new Partner(cursor.partner(), cursor.weight());
+            if (heap.size() < n) {
+                heap.add(partner);
+            } else if (compareWorst(partner, heap.peek()) > 0) {
+                heap.poll();
+                heap.add(partner);
+            }
+        }
+        List<Partner> top = new ArrayList<>(heap);
+        top.sort((x, y) -> compareWorst(y, x));
+        return top;
+    }
+
+    /**
+     * 比较两个合作公司，差的在前：权重低的差，权重相同时编号大的差
+     * @param x 合作公司
+     * @param y 合作公司
+     * @return 比较结果
+     */
+    private static int compareWorst(Partner x, Partner y) {
+        if (x.weight != y.weight) {
+            return Integer.compare(x.weight, y.weight);
+        }
+        return Integer.compare(y.id, x.id);
+    }
+
+    /**
+     * Usage:
+     * 一个合作公司
+     */
+    public static class Partner {
+
+        /** 公司编号 */
+        private final int id;
+
+        /** 权重 */
+        private final int weight;
+
+        /**
+         * 全参构造函数
+         * @param id 公司编号
+         * @param weight 权重
+         */
+        Partner(int id, int weight) {
+            this.id = id;
+            this.weight = weight;
+        }
+
+        /**
+         * 获取 公司编号
+         * @return 公司编号
+         */
+        public int getId() {
+            return id;
+        }
+
+        /**
+         * 获取 权重
+         * @return 权重
+         */
+        public int getWeight() {
+            return weight;
+        }
+
+    }
+
+}
@@ -0,0 +1,298 @@
+package indi.liht.stat.query;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+import indi.liht.stat.collection.CsrMatrix;
+import indi.liht.stat.utils.JsonBuilder;
+import org.apache.poi.util.IOUtils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Usage:
+ * 本机的HTTP查询服务，只监听127.0.0.1，响应为UTF-8的JSON。sheet参数省略时查All：
+ * GET /sheets 所有结果Sheet名；
+ * GET /partners?company=X 公司X的所有合作公司和权重；
+ * GET /weight?a=X&amp;b=Y 公司X和Y的权重；
+ * GET /top?company=X&amp;n=10 公司X权重最高的n个合作公司。
+ * 每次统计结束后换成新的索引，查询的总是最近一次完整的结果
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/22
+ **/
+public class PairQueryServer {
+
+    /** 默认查询的Sheet */
+    private static final String DEFAULT_SHEET_NAME = "All";
+
+    /** top默认的个数 */
+    private static final int DEFAULT_TOP_N = 10;
+
+    /** HTTP服务 */
+    private final HttpServer server;
+
+    /** 最近一次统计结果的索引，还没有时为空 */
+    private volatile PairIndex index;
+
+    /**
+     * 构造函数，绑定端口
+     * @param port 端口
+     * @throws IOException 绑定失败
+     */
+    public PairQueryServer(int port) throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 0);
+        server.createContext("/sheets", new JsonHandler() {
+            @Override
+            void handle(Map<String, String> params, PairIndex index, JsonBuilder json) {
+                json.beginObject().name("sheets").beginArray();
+                for (String sheetName : index.getSheetNames()) {
+                    json.value(sheetName);
+                }
+                json.endArray().endObject();
+            }
+        });
+        server.createContext("/partners", new JsonHandler() {
+            @Override
+            void handle(Map<String, String> params, PairIndex index, JsonBuilder json) {
+                CsrMatrix matrix = matrixOf(params, index);
+                int id = idOf(params, "company", index);
+                writePartners(json, params, index, index.partners(matrix, id));
+            }
+        });
+        server.createContext("/top", new JsonHandler() {
+            @Override
+            void handle(Map<String, String> params, PairIndex index, JsonBuilder json) {
+                CsrMatrix matrix = matrixOf(params, index);
+                int id = idOf(params, "company", index);
+                int n = params.containsKey("n") ? parseInt(params.get("n"), "n") : DEFAULT_TOP_N;
+                writePartners(json, params, index, index.top(matrix, id, n));
+            }
+        });
+        server.createContext("/weight", new JsonHandler() {
+            @Override
+            void handle(Map<String, String> params, PairIndex index, JsonBuilder json) {
+                CsrMatrix matrix = matrixOf(params, index);
+                int a = idOf(params, "a", index);
+                int b = idOf(params, "b", index);
+                json.beginObject()
+                        .field("sheet", sheetOf(params))
+                        .field("a", params.get("a"))
+                        .field("b", params.get("b"))
+                        .field("weight", matrix.get(a, b, 0))
+                        .endObject();
+            }
+        });
+    }
+
+    /**
+     * 开始服务
+     */
+    public void start() {
+        server.start();
+    }
+
+    /**
+     * 停止服务
+     */
+    public void stop() {
+        server.stop(0);
+    }
+
+    /**
+     * 获取 端口
+     * @return 端口
+     */
+    public int getPort() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * 设置 最近一次统计结果的索引
+     * @param index 索引
+     */
+    public void setIndex(PairIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * 写入合作公司列表
+     * @param json JSON
+     * @param params 参数
+     * @param index 索引
+     * @param partners 合作公司
+     */
+    private static void writePartners(JsonBuilder json, Map<String, String> params, PairIndex index,
+                                      List<PairIndex.Partner> partners) {
+        json.beginObject()
+                .field("sheet", sheetOf(params))
+                .field("company", params.get("company"))
+                .name("partners").beginArray();
+        for (PairIndex.Partner partner : partners) {
+            json.beginObject()
+                    .field("company", index.getName(partner.getId()))
+                    .field("weight", partner.getWeight())
+                    .endObject();
+        }
+        json.endArray().endObject();
+    }
+
+    /**
+     * 参数中的Sheet名
+     * @param params 参数
+     * @return Sheet名，省略时为All
+     */
+    private static String sheetOf(Map<String, String> params) {
+        return params.containsKey("sheet") ? params.get("sheet") : DEFAULT_SHEET_NAME;
+    }
+
+    /**
+     * 参数中的Sheet对应的矩阵
+     * @param params 参数
+     * @param index 索引
+     * @return 矩阵
+     */
+    private static CsrMatrix matrixOf(Map<String, String> params, PairIndex index) {
+        CsrMatrix matrix = index.getMatrix(sheetOf(params));
+        if (matrix == null) {
+            throw new QueryException(404, "Sheet[" + sheetOf(params) + "]不存在！");
+        }
+        return matrix;
+    }
+
+    /**
+     * 参数中的公司对应的编号
+     * @param params 参数
+     * @param name 参数名
+     * @param index 索引
+     * @return 编号
+     */
+    private static int idOf(Map<String, String> params, String name, PairIndex index) {
+        String movieCom = params.get(name);
+        if (movieCom == null) {
+            throw new QueryException(400, "缺少参数[" + name + "]！");
+        }
+        int id = index.getId(movieCom);
+        if (id < 0) {
+            throw new QueryException(404, "电影公司[" + movieCom + "]不存在！");
+        }
+        return id;
+    }
+
+    /**
+     * 解析整数参数
+     * @param value 参数值
+     * @param name 参数名
+     * @return 整数
+     */
+    private static int parseInt(String value, String name) {
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new QueryException(400, "参数[" + name + "]不是整数：" + value);
+        }
+    }
+
+    /**
+     * 解析URL中的查询参数
+     * @param rawQuery 未解码的查询字符串
+     * @return 参数名 -> 参数值
+     */
+    private static Map<String, String> parseQuery(String rawQuery) {
+        Map<String, String> params = new HashMap<>();
+        if (rawQuery == null) {
+            return params;
+        }
+        try {
+            for (String pair : rawQuery.split("&")) {
+                int index = pair.indexOf('=');
+                if (index > 0) {
+                    params.put(URLDecoder.decode(pair.substring(0, index), "UTF-8"),
+                            URLDecoder.decode(pair.substring(index + 1), "UTF-8"));
+                }
+            }
+        } catch (UnsupportedEncodingException | IllegalArgumentException e) {
+            throw new QueryException(400, "无法解析查询参数：" + rawQuery);
+        }
+        return params;
+    }
+
+    /**
+     * Usage:
+     * 返回JSON的处理器：解析参数，出错时返回带error的JSON和对应的状态码
+     */
+    private abstract class JsonHandler implements HttpHandler {
+
+        @Override
+        public void handle(HttpExchange exchange) throws IOException {
+            int status = 200;
+            JsonBuilder json = new JsonBuilder();
+            try {
+                PairIndex current = index;
+                if (!"GET".equals(exchange.getRequestMethod())) {
+                    throw new QueryException(405, "只支持GET！");
+                }
+                if (current == null) {
+                    throw new QueryException(503, "统计还没有完成！");
+                }
+                this.handle(parseQuery(exchange.getRequestURI().getRawQuery()), current, json);
+            } catch (QueryException e) {
+                status = e.status;
+                json = new JsonBuilder().beginObject().field("error", e.getMessage()).endObject();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                status = 500;
+                json = new JsonBuilder().beginObject().field("error", String.valueOf(e)).endObject();
+            }
+            byte[] body = json.toString().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+            exchange.sendResponseHeaders(status, body.length);
+            OutputStream os = null;
+            try {
+                os = exchange.getResponseBody();
+                os.write(body);
+            } finally {
+                IOUtils.closeQuietly(os);
+                exchange.close();
+            }
+        }
+
+        /**
+         * 处理一个查询
+         * @param params 参数
+         * @param index 索引
+         * @param json 写入响应
+         */
+        abstract void handle(Map<String, String> params, PairIndex index, JsonBuilder json);
+
+    }
+
+    /**
+     * Usage:
+     * 查询出错，带HTTP状态码
+     */
+    private static class QueryException extends RuntimeException {
+
+        /** HTTP状态码 */
+        private final int status;
+
+        /**
+         * 全参构造函数
+         * @param status HTTP状态码
+         * @param message 错误信息
+         */
+        QueryException(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+
+    }
+
+}
@@ -0,0 +1,83 @@
+package indi.liht.stat.reader;
+
+import indi.liht.stat.utils.PoiUtils;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.util.IOUtils;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+/**
+ * Usage:
+ * 基于整个Workbook（DOM）的读取器。Workbook在close之前一直保持打开。
+ * .xlsx以只读方式打开包，close时revert，不回写输入文件
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/03
+ **/
+public class DomSheetReader implements ISheetReader {
+
+    /** 已加载的工作表 */
+    private final Workbook workbook;
+
+    /** 只读打开的.xlsx包，没有时为空 */
+    private final OPCPackage pkg;
+
+    /**
+     * 构造函数
+     * @param workbook 已加载的工作表
+     */
+    public DomSheetReader(Workbook workbook) {
+        this(workbook, null);
+    }
+
+    /**
+     * 全参构造函数
+     * @param workbook 已加载的工作表
+     * @param pkg 只读打开的.xlsx包，close时revert而不是关闭Workbook；没有时为空
+     */
+    public DomSheetReader(Workbook workbook, OPCPackage pkg) {
+        this.workbook = workbook;
+        this.pkg = pkg;
+    }
+
+    @Override
+    public void read(IRowHandler handler, String... sheetNames) throws IOException {
+        SheetRow sheetRow = new SheetRow();
+        for (int sheetIndex = 0, sheetCount = workbook.getNumberOfSheets(); sheetIndex < sheetCount; sheetIndex++) {
+            Sheet sheet = workbook.getSheetAt(sheetIndex);
+            String sheetName = PoiUtils.matchSheetName(sheet.getSheetName(), sheetNames);
+            if (sheetName == null) {
+                continue;
+            }
+            handler.startSheet(sheetName);
+            Iterator<Row> rowIterator = sheet.rowIterator();
+            while (rowIterator.hasNext()) {
+                Row row = rowIterator.next();
+                sheetRow.reset(row.getRowNum());
+                Iterator<Cell> cellIterator = row.cellIterator();
+                while (cellIterator.hasNext()) {
+                    Cell cell = cellIterator.next();
+                    PoiUtils.copyCell(cell, sheetRow);
+                }
+                sheetRow.setCellRange(row.getFirstCellNum(), row.getLastCellNum());
+                handler.handleRow(sheetName, sheetRow);
+            }
+            handler.endSheet(sheetName);
+        }
+    }
+
+    @Override
+    public void close() {
+        if (pkg != null) {
+            // 只读的包关闭Workbook也会尝试保存，直接revert
+            pkg.revert();
+            return;
+        }
+        IOUtils.closeQuietly(workbook);
+    }
+
+}
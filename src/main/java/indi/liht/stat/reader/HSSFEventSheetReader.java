@@ -0,0 +1,260 @@
+package indi.liht.stat.reader;
+
+import indi.liht.stat.utils.PoiUtils;
+import org.apache.poi.hssf.eventusermodel.HSSFEventFactory;
+import org.apache.poi.hssf.eventusermodel.HSSFListener;
+import org.apache.poi.hssf.eventusermodel.HSSFRequest;
+import org.apache.poi.hssf.record.BOFRecord;
+import org.apache.poi.hssf.record.BoundSheetRecord;
+import org.apache.poi.hssf.record.CellValueRecordInterface;
+import org.apache.poi.hssf.record.EOFRecord;
+import org.apache.poi.hssf.record.LabelRecord;
+import org.apache.poi.hssf.record.LabelSSTRecord;
+import org.apache.poi.hssf.record.MulBlankRecord;
+import org.apache.poi.hssf.record.NumberRecord;
+import org.apache.poi.hssf.record.Record;
+import org.apache.poi.hssf.record.RowRecord;
+import org.apache.poi.hssf.record.SSTRecord;
+import org.apache.poi.poifs.filesystem.POIFSFileSystem;
+import org.apache.poi.util.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Usage:
+ * .xls的流式读取器。基于HSSFEventFactory+HSSFListener，一次遍历Workbook流就能读完所有要读的工作表，
+ * 内存占用只和共享字符串表有关，与行数无关
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/04
+ **/
+public class HSSFEventSheetReader implements ISheetReader {
+
+    /** OLE2文件系统 */
+    private final POIFSFileSystem fileSystem;
+
+    /**
+     * 以只读方式打开.xls
+     * @param excelFilePath Excel（.xls）完整路径
+     * @throws IOException 打开失败
+     */
+    public HSSFEventSheetReader(String excelFilePath) throws IOException {
+        this.fileSystem = new POIFSFileSystem(new File(excelFilePath), true);
+    }
+
+    @Override
+    public void read(IRowHandler handler, String... sheetNames) throws IOException {
+        HSSFRequest request = new HSSFRequest();
+        request.addListenerForAllRecords(new SheetRecordListener(handler, sheetNames));
+        new HSSFEventFactory().processWorkbookEvents(request, fileSystem);
+    }
+
+    @Override
+    public void close() {
+        IOUtils.closeQuietly(fileSystem);
+    }
+
+    /**
+     * Usage:
+     * Workbook流的记录监听器。单元格取值规则与PoiUtils.copyCell一致：
+     * 公式、布尔、错误、空白单元格为空，数字和字符串按类型写入SheetRow。
+     * 单元格范围与HSSFRow一致，以RowRecord中记录的范围为准，再用实际的单元格扩展
+     */
+    private static class SheetRecordListener implements HSSFListener {
+
+        /** 行处理器 */
+        private final IRowHandler handler;
+
+        /** 要读取的工作表名 */
+        private final String[] sheetNames;
+
+        /** 按顺序排列的工作表名（来自BoundSheetRecord） */
+        private final List<String> boundSheetNames = new ArrayList<>();
+
+        /** 复用的行对象 */
+        private final SheetRow sheetRow = new SheetRow();
+
+        /** 当前行块中还没输出的RowRecord */
+        private final Deque<RowRecord> pendingRowRecords = new ArrayDeque<>();
+
+        /** 共享字符串表 */
+        private SSTRecord sstRecord;
+
+        /** BOF/EOF嵌套深度 */
+        private int depth;
+
+        /** 当前是第几个工作表子流 */
+        private int substreamIndex = -1;
+
+        /** 当前工作表名，不需要读取时为空 */
+        private String sheetName;
+
+        /** sheetRow是否有未输出的数据 */
+        private boolean rowInProgress;
+
+        /** 当前行对应的RowRecord，没有时为空 */
+        private RowRecord rowRecord;
+
+        /**
+         * 全参构造函数
+         * @param handler 行处理器
+         * @param sheetNames 要读取的工作表名
+         */
+        SheetRecordListener(IRowHandler handler, String[] sheetNames) {
+            this.handler = handler;
+            this.sheetNames = sheetNames;
+        }
+
+        @Override
+        public void processRecord(Record record) {
+            switch (record.getSid()) {
+                case BOFRecord.sid:
+                    if (depth++ == 0) {
+                        startSubstream((BOFRecord) record);
+                    }
+                    break;
+                case EOFRecord.sid:
+                    if (--depth == 0 && sheetName != null) {
+                        endSheet();
+                    }
+                    break;
+                case BoundSheetRecord.sid:
+                    boundSheetNames.add(((BoundSheetRecord) record).getSheetname());
+                    break;
+                case SSTRecord.sid:
+                    sstRecord = (SSTRecord) record;
+                    break;
+                default:
+                    if (sheetName != null && depth == 1) {
+                        processSheetRecord(record);
+                    }
+            }
+        }
+
+        /**
+         * 顶层的BOF，开始一个新的子流
+         * @param bofRecord BOF记录
+         */
+        private void startSubstream(BOFRecord bofRecord) {
+            sheetName = null;
+            // Workbook全局流之后，每个子流按顺序对应一个BoundSheetRecord
+            if (bofRecord.getType() == BOFRecord.TYPE_WORKBOOK || ++substreamIndex >= boundSheetNames.size()) {
+                return;
+            }
+            sheetName = PoiUtils.matchSheetName(boundSheetNames.get(substreamIndex), sheetNames);
+            if (sheetName != null) {
+                pendingRowRecords.clear();
+                rowInProgress = false;
+                handler.startSheet(sheetName);
+            }
+        }
+
+        /**
+         * 工作表流中的记录
+         * @param record 记录
+         */
+        private void processSheetRecord(Record record) {
+            switch (record.getSid()) {
+                case RowRecord.sid:
+                    pendingRowRecords.addLast((RowRecord) record);
+                    break;
+                case NumberRecord.sid:
+                    NumberRecord numberRecord = (NumberRecord) record;
+                    moveToRow(numberRecord.getRow());
+                    sheetRow.setNumber(numberRecord.getColumn(), numberRecord.getValue());
+                    break;
+                case LabelSSTRecord.sid:
+                    LabelSSTRecord labelSSTRecord = (LabelSSTRecord) record;
+                    moveToRow(labelSSTRecord.getRow());
+                    sheetRow.setString(labelSSTRecord.getColumn(),
+                            sstRecord.getString(labelSSTRecord.getSSTIndex()).getString());
+                    break;
+                case LabelRecord.sid:
+                    LabelRecord labelRecord = (LabelRecord) record;
+                    moveToRow(labelRecord.getRow());
+                    sheetRow.setString(labelRecord.getColumn(), labelRecord.getValue());
+                    break;
+                case MulBlankRecord.sid:
+                    MulBlankRecord mulBlankRecord = (MulBlankRecord) record;
+                    moveToRow(mulBlankRecord.getRow());
+                    for (int i = 0, size = mulBlankRecord.getNumColumns(); i < size; i++) {
+                        sheetRow.setBlank(mulBlankRecord.getFirstColumn() + i);
+                    }
+                    break;
+                default:
+                    // 公式、布尔、错误、空白单元格为空，但仍占据单元格范围
+                    if (record instanceof CellValueRecordInterface) {
+                        CellValueRecordInterface cell = (CellValueRecordInterface) record;
+                        moveToRow(cell.getRow());
+                        sheetRow.setBlank(cell.getColumn());
+                    }
+            }
+        }
+
+        /**
+         * 切换到第rowNum行：输出上一行，以及前面只有RowRecord没有单元格的行
+         * @param rowNum 行号
+         */
+        private void moveToRow(int rowNum) {
+            if (rowInProgress && sheetRow.getRowNum() == rowNum) {
+                return;
+            }
+            flushRow();
+            flushEmptyRowsBefore(rowNum);
+            rowRecord = null;
+            if (!pendingRowRecords.isEmpty() && pendingRowRecords.peekFirst().getRowNumber() == rowNum) {
+                rowRecord = pendingRowRecords.pollFirst();
+            }
+            sheetRow.reset(rowNum);
+            rowInProgress = true;
+        }
+
+        /**
+         * 输出当前行
+         */
+        private void flushRow() {
+            if (!rowInProgress) {
+                return;
+            }
+            if (rowRecord != null && !rowRecord.isEmpty()) {
+                int firstCellNum = sheetRow.getFirstCellNum() < 0
+                        ? rowRecord.getFirstCol() : Math.min(rowRecord.getFirstCol(), sheetRow.getFirstCellNum());
+                int lastCellNum = Math.max(rowRecord.getLastCol(), sheetRow.getLastCellNum());
+                sheetRow.setCellRange(firstCellNum, lastCellNum);
+            }
+            handler.handleRow(sheetName, sheetRow);
+            rowInProgress = false;
+        }
+
+        /**
+         * 输出行号小于rowNum、只有RowRecord没有单元格的行
+         * @param rowNum 行号
+         */
+        private void flushEmptyRowsBefore(int rowNum) {
+            while (!pendingRowRecords.isEmpty() && pendingRowRecords.peekFirst().getRowNumber() < rowNum) {
+                RowRecord emptyRowRecord = pendingRowRecords.pollFirst();
+                sheetRow.reset(emptyRowRecord.getRowNumber());
+                if (!emptyRowRecord.isEmpty()) {
+                    sheetRow.setCellRange(emptyRowRecord.getFirstCol(), emptyRowRecord.getLastCol());
+                }
+                handler.handleRow(sheetName, sheetRow);
+            }
+        }
+
+        /**
+         * 工作表流结束
+         */
+        private void endSheet() {
+            flushRow();
+            flushEmptyRowsBefore(Integer.MAX_VALUE);
+            handler.endSheet(sheetName);
+            sheetName = null;
+        }
+
+    }
+
+}
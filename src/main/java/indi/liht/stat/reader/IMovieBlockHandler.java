@@ -0,0 +1,33 @@
+package indi.liht.stat.reader;
+
+import indi.liht.stat.models.MovieBlock;
+
+/**
+ * Usage:
+ * 电影处理器，接收从来源工作表（或者输入缓存）中整理出来的电影
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/17
+ **/
+public interface IMovieBlockHandler {
+
+    /**
+     * 开始某个工作表
+     * @param sheetName 工作表名
+     */
+    default void startSheet(String sheetName) {}
+
+    /**
+     * 处理一部电影（至少两个电影公司）
+     * @param sheetName 工作表名
+     * @param movieBlock 电影公司与其分工
+     */
+    void handleBlock(String sheetName, MovieBlock movieBlock);
+
+    /**
+     * 某个工作表结束
+     * @param sheetName 工作表名
+     * @param cnt 工作表的有效电影数（含只有一个电影公司的电影）
+     */
+    default void endSheet(String sheetName, int cnt) {}
+
+}
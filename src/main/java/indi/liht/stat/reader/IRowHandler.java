@@ -0,0 +1,30 @@
+package indi.liht.stat.reader;
+
+/**
+ * Usage:
+ * 行处理器，接收ISheetReader推过来的行
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/03
+ **/
+public interface IRowHandler {
+
+    /**
+     * 开始读取某个工作表
+     * @param sheetName 工作表名（调用read时传入的名字）
+     */
+    default void startSheet(String sheetName) {}
+
+    /**
+     * 处理一行。row会被读取器复用，不能在方法外持有
+     * @param sheetName 工作表名（调用read时传入的名字）
+     * @param row 当前行
+     */
+    void handleRow(String sheetName, SheetRow row);
+
+    /**
+     * 某个工作表读取完成
+     * @param sheetName 工作表名（调用read时传入的名字）
+     */
+    default void endSheet(String sheetName) {}
+
+}
@@ -0,0 +1,22 @@
+package indi.liht.stat.reader;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Usage:
+ * 工作表逐行读取接口。实现类一次遍历工作表，把每一行推给IRowHandler，不在内存中保留整个工作表
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/03
+ **/
+public interface ISheetReader extends Closeable {
+
+    /**
+     * 按工作表在Excel中的顺序，逐行读取名为sheetNames的工作表（名字不区分大小写，与Workbook.getSheet一致）
+     * @param handler 行处理器
+     * @param sheetNames 工作表名
+     * @throws IOException 读取失败
+     */
+    void read(IRowHandler handler, String... sheetNames) throws IOException;
+
+}
@@ -0,0 +1,219 @@
+package indi.liht.stat.reader;
+
+import java.util.Arrays;
+
+/**
+ * Usage:
+ * 读取器推送的一行数据，按类型存放各列的值：数字放在double数组里，字符串直接引用解析出来的String，
+ * 公式、布尔、错误和空白单元格都算空。取值不装箱、不产生临时字符串，同一个读取器会复用同一个对象
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/03
+ **/
+public class SheetRow {
+
+    /** 空单元格 */
+    private static final byte BLANK = 0;
+
+    /** 数字单元格 */
+    private static final byte NUMBER = 1;
+
+    /** 字符串单元格 */
+    private static final byte STRING = 2;
+
+    /** 行号，从0开始 */
+    private int rowNum;
+
+    /** 各列的类型 */
+    private byte[] types = new byte[16];
+
+    /** 各列的数字 */
+    private double[] numbers = new double[16];
+
+    /** 各列的字符串 */
+    private String[] strings = new String[16];
+
+    /** 已写入的长度，reset时只清理这一段 */
+    private int usedLength;
+
+    /** 第一个单元格的列号，没有单元格时为-1（同Row.getFirstCellNum） */
+    private int firstCellNum = -1;
+
+    /** 最后一个单元格的列号+1，没有单元格时为-1（同Row.getLastCellNum） */
+    private int lastCellNum = -1;
+
+    /**
+     * 清空上一行的数据，开始新的一行
+     * @param rowNum 行号
+     */
+    public void reset(int rowNum) {
+        if (usedLength > 0) {
+            Arrays.fill(types, 0, usedLength, BLANK);
+            Arrays.fill(strings, 0, usedLength, null);
+            usedLength = 0;
+        }
+        this.rowNum = rowNum;
+        this.firstCellNum = -1;
+        this.lastCellNum = -1;
+    }
+
+    /**
+     * 设置某列为数字
+     * @param columnNum 第几列
+     * @param value 数字
+     */
+    public void setNumber(int columnNum, double value) {
+        this.touch(columnNum);
+        types[columnNum] = NUMBER;
+        numbers[columnNum] = value;
+        strings[columnNum] = null;
+    }
+
+    /**
+     * 设置某列为字符串
+     * @param columnNum 第几列
+     * @param value 字符串，为空时当作空单元格
+     */
+    public void setString(int columnNum, String value) {
+        this.touch(columnNum);
+        types[columnNum] = value != null ? STRING : BLANK;
+        strings[columnNum] = value;
+    }
+
+    /**
+     * 设置某列为空单元格（公式、布尔、错误、空白），它仍然占据单元格范围
+     * @param columnNum 第几列
+     */
+    public void setBlank(int columnNum) {
+        this.touch(columnNum);
+        types[columnNum] = BLANK;
+        strings[columnNum] = null;
+    }
+
+    /**
+     * 直接指定单元格范围（以文件中记录的范围为准时使用）
+     * @param firstCellNum 第一个单元格的列号
+     * @param lastCellNum 最后一个单元格的列号+1
+     */
+    public void setCellRange(int firstCellNum, int lastCellNum) {
+        this.firstCellNum = firstCellNum;
+        this.lastCellNum = lastCellNum;
+    }
+
+    /**
+     * 某列是否为空：没有值，或者是空字符串。与原来的StringUtils.isNotEmpty判断一致，只有空白字符的字符串不算空
+     * @param columnNum 第几列
+     * @return 是否为空
+     */
+    public boolean isBlank(int columnNum) {
+        if (columnNum < 0 || columnNum >= usedLength) {
+            return true;
+        }
+        switch (types[columnNum]) {
+            case NUMBER:
+                return false;
+            case STRING:
+                return strings[columnNum].isEmpty();
+            default:
+                return true;
+        }
+    }
+
+    /**
+     * 以字符串获取某列的值。字符串原样返回；数字按Excel显示的样子转换，整数不带“.0”
+     * @param columnNum 第几列
+     * @return 字符串，空单元格返回空
+     */
+    public String getString(int columnNum) {
+        if (columnNum < 0 || columnNum >= usedLength) {
+            return null;
+        }
+        switch (types[columnNum]) {
+            case STRING:
+                return strings[columnNum];
+            case NUMBER:
+                double value = numbers[columnNum];
+                long longValue = (long) value;
+                return longValue == value ? Long.toString(longValue) : Double.toString(value);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 以数字获取某列的值。字符串按十进制数解析
+     * @param columnNum 第几列
+     * @return 数字，空单元格或者空白字符串返回0
+     * @throws NumberFormatException 字符串不是数字
+     */
+    public double getDouble(int columnNum) {
+        if (columnNum < 0 || columnNum >= usedLength) {
+            return 0;
+        }
+        switch (types[columnNum]) {
+            case NUMBER:
+                return numbers[columnNum];
+            case STRING:
+                String value = strings[columnNum].trim();
+                return value.isEmpty() ? 0 : Double.parseDouble(value);
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * 以整数获取某列的值，小数部分截掉
+     * @param columnNum 第几列
+     * @return 整数，空单元格或者空白字符串返回0
+     * @throws NumberFormatException 字符串不是数字
+     */
+    public int getInt(int columnNum) {
+        return (int) this.getDouble(columnNum);
+    }
+
+    /**
+     * 获取 行号
+     * @return 行号
+     */
+    public int getRowNum() {
+        return rowNum;
+    }
+
+    /**
+     * 获取 第一个单元格的列号
+     * @return 第一个单元格的列号
+     */
+    public int getFirstCellNum() {
+        return firstCellNum;
+    }
+
+    /**
+     * 获取 最后一个单元格的列号+1
+     * @return 最后一个单元格的列号+1
+     */
+    public int getLastCellNum() {
+        return lastCellNum;
+    }
+
+    /**
+     * 写入某列之前：必要时扩容，同时扩展单元格范围
+     * @param columnNum 第几列
+     */
+    private void touch(int columnNum) {
+        if (columnNum >= types.length) {
+            int length = Math.max(columnNum + 1, types.length * 2);
+            types = Arrays.copyOf(types, length);
+            numbers = Arrays.copyOf(numbers, length);
+            strings = Arrays.copyOf(strings, length);
+        }
+        if (columnNum + 1 > usedLength) {
+            usedLength = columnNum + 1;
+        }
+        if (firstCellNum < 0 || columnNum < firstCellNum) {
+            firstCellNum = columnNum;
+        }
+        if (columnNum + 1 > lastCellNum) {
+            lastCellNum = columnNum + 1;
+        }
+    }
+
+}
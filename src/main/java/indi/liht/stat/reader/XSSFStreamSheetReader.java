@@ -0,0 +1,367 @@
+package indi.liht.stat.reader;
+
+import indi.liht.stat.utils.PoiUtils;
+import org.apache.poi.ooxml.util.SAXHelper;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+import javax.xml.parsers.ParserConfigurationException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Usage:
+ * .xlsx的流式读取器。基于XSSFReader+SAX逐行解析sheet.xml，内存占用只和共享字符串表有关，与行数无关
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/03
+ **/
+public class XSSFStreamSheetReader implements ISheetReader {
+
+    /** Excel（.xlsx）完整路径 */
+    private final String excelFilePath;
+
+    /** OOXML包 */
+    private final OPCPackage pkg;
+
+    /** 共享字符串（不含注音），整个工作簿共用 */
+    private final SharedStrings sharedStrings;
+
+    /** 工作表读取器 */
+    private final XSSFReader xssfReader;
+
+    /**
+     * 以只读方式打开.xlsx
+     * @param excelFilePath Excel（.xlsx）完整路径
+     * @throws IOException 打开失败
+     */
+    public XSSFStreamSheetReader(String excelFilePath) throws IOException {
+        this.excelFilePath = excelFilePath;
+        try {
+            this.pkg = OPCPackage.open(excelFilePath, PackageAccess.READ);
+        } catch (InvalidFormatException e) {
+            throw new IOException("无法打开[" + excelFilePath + "]", e);
+        }
+        try {
+            this.sharedStrings = new SharedStrings(new ReadOnlySharedStringsTable(pkg, false));
+            this.xssfReader = new XSSFReader(pkg);
+        } catch (SAXException | OpenXML4JException e) {
+            pkg.revert();
+            throw new IOException("无法解析[" + excelFilePath + "]", e);
+        }
+    }
+
+    @Override
+    public void read(IRowHandler handler, String... sheetNames) throws IOException {
+        XSSFReader.SheetIterator sheetIterator;
+        XMLReader xmlReader;
+        try {
+            sheetIterator = (XSSFReader.SheetIterator) xssfReader.getSheetsData();
+            xmlReader = SAXHelper.newXMLReader();
+        } catch (InvalidFormatException | SAXException | ParserConfigurationException e) {
+            throw new IOException("无法解析[" + excelFilePath + "]", e);
+        }
+        SheetContentHandler contentHandler = new SheetContentHandler(sharedStrings, handler);
+        xmlReader.setContentHandler(contentHandler);
+        while (sheetIterator.hasNext()) {
+            InputStream is = sheetIterator.next();
+            try {
+                String sheetName = PoiUtils.matchSheetName(sheetIterator.getSheetName(), sheetNames);
+                if (sheetName == null) {
+                    continue;
+                }
+                handler.startSheet(sheetName);
+                contentHandler.sheetName = sheetName;
+                xmlReader.parse(new InputSource(is));
+                handler.endSheet(sheetName);
+            } catch (SAXException e) {
+                throw new IOException("解析[" + excelFilePath + "]的工作表失败", e);
+            } finally {
+                IOUtils.closeQuietly(is);
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        // 只读打开，revert即可，不会回写文件
+        pkg.revert();
+    }
+
+    /**
+     * Usage:
+     * sheet.xml的SAX处理器。单元格取值规则与PoiUtils.copyCell一致：
+     * 公式、布尔、错误、空白单元格为空，数字和字符串按类型写入SheetRow
+     */
+    private static class SheetContentHandler extends DefaultHandler {
+
+        /** 共享字符串 */
+        private final SharedStrings sharedStrings;
+
+        /** 行处理器 */
+        private final IRowHandler handler;
+
+        /** 复用的行对象 */
+        private final SheetRow sheetRow = new SheetRow();
+
+        /** 文本缓冲 */
+        private final StringBuilder text = new StringBuilder();
+
+        /** 当前工作表名 */
+        private String sheetName;
+
+        /** 上一行行号，用于r属性缺失时推算 */
+        private int lastRowNum;
+
+        /** 当前列号 */
+        private int columnNum;
+
+        /** 当前单元格的t属性 */
+        private String cellType;
+
+        /** 当前单元格是否包含公式 */
+        private boolean formula;
+
+        /** 当前单元格是否有v元素 */
+        private boolean hasValue;
+
+        /** 当前单元格的内联字符串 */
+        private StringBuilder inlineString;
+
+        /** 是否在收集文本 */
+        private boolean collecting;
+
+        /** 是否在注音（rPh）内 */
+        private boolean inPhonetic;
+
+        /**
+         * 全参构造函数
+         * @param sharedStrings 共享字符串
+         * @param handler 行处理器
+         */
+        SheetContentHandler(SharedStrings sharedStrings, IRowHandler handler) {
+            this.sharedStrings = sharedStrings;
+            this.handler = handler;
+        }
+
+        @Override
+        public void startDocument() {
+            lastRowNum = -1;
+        }
+
+        @Override
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            switch (localName) {
+                case "row":
+                    String r = attributes.getValue("r");
+                    lastRowNum = r != null ? Integer.parseInt(r) - 1 : lastRowNum + 1;
+                    sheetRow.reset(lastRowNum);
+                    columnNum = -1;
+                    break;
+                case "c":
+                    String ref = attributes.getValue("r");
+                    columnNum = ref != null ? columnIndex(ref) : columnNum + 1;
+                    cellType = attributes.getValue("t");
+                    formula = false;
+                    hasValue = false;
+                    inlineString = null;
+                    text.setLength(0);
+                    break;
+                case "f":
+                    formula = true;
+                    break;
+                case "v":
+                    hasValue = true;
+                    text.setLength(0);
+                    collecting = true;
+                    break;
+                case "is":
+                    inlineString = new StringBuilder();
+                    break;
+                case "rPh":
+                    inPhonetic = true;
+                    break;
+                case "t":
+                    if (inlineString != null && !inPhonetic) {
+                        text.setLength(0);
+                        collecting = true;
+                    }
+                    break;
+                default:
+            }
+        }
+
+        @Override
+        public void endElement(String uri, String localName, String qName) {
+            switch (localName) {
+                case "row":
+                    handler.handleRow(sheetName, sheetRow);
+                    break;
+                case "c":
+                    this.storeCellValue();
+                    break;
+                case "v":
+                    collecting = false;
+                    break;
+                case "rPh":
+                    inPhonetic = false;
+                    break;
+                case "t":
+                    if (collecting && inlineString != null) {
+                        inlineString.append(text);
+                        collecting = false;
+                    }
+                    break;
+                default:
+            }
+        }
+
+        @Override
+        public void characters(char[] ch, int start, int length) {
+            if (collecting) {
+                text.append(ch, start, length);
+            }
+        }
+
+        /**
+         * 从单元格引用（如AB12）中解析出列号，免去构造CellReference
+         * @param ref 单元格引用
+         * @return 列号，从0开始
+         */
+        private static int columnIndex(String ref) {
+            int column = 0;
+            for (int i = 0, length = ref.length(); i < length; i++) {
+                char ch = ref.charAt(i);
+                if (ch < 'A' || ch > 'Z') {
+                    break;
+                }
+                column = column * 26 + (ch - 'A' + 1);
+            }
+            return column - 1;
+        }
+
+        /**
+         * 按单元格类型把值写入当前行，数字和共享字符串的下标直接从文本缓冲中解析
+         */
+        private void storeCellValue() {
+            if (formula) {
+                sheetRow.setBlank(columnNum);
+                return;
+            }
+            if (cellType == null || "n".equals(cellType)) {
+                if (hasValue) {
+                    sheetRow.setNumber(columnNum, parseNumber(text));
+                } else {
+                    sheetRow.setBlank(columnNum);
+                }
+                return;
+            }
+            switch (cellType) {
+                case "s":
+                    sheetRow.setString(columnNum, hasValue
+                            ? sharedStrings.get((int) parseLong(text, 0, text.length())) : "");
+                    break;
+                case "inlineStr":
+                    sheetRow.setString(columnNum, inlineString != null ? inlineString.toString() : "");
+                    break;
+                case "str":
+                    sheetRow.setString(columnNum, text.toString());
+                    break;
+                default:
+                    sheetRow.setBlank(columnNum);
+            }
+        }
+
+        /**
+         * 解析数字。Excel里绝大多数数字是整数，整数直接按字符累加，其余的（小数、科学计数法）才转成字符串解析
+         * @param chars 文本
+         * @return 数字
+         */
+        private static double parseNumber(CharSequence chars) {
+            int length = chars.length();
+            int start = length > 0 && chars.charAt(0) == '-' ? 1 : 0;
+            // 超过18位可能溢出long，交给Double.parseDouble
+            if (length > start && length - start <= 18) {
+                long value = parseLong(chars, start, length);
+                if (value >= 0) {
+                    return start == 1 ? -value : value;
+                }
+            }
+            return Double.parseDouble(chars.toString());
+        }
+
+        /**
+         * 把一段只有数字的文本解析成非负整数
+         * @param chars 文本
+         * @param start 开始下标
+         * @param end 结束下标
+         * @return 非负整数，含有数字以外的字符时为-1
+         */
+        private static long parseLong(CharSequence chars, int start, int end) {
+            long value = 0;
+            for (int i = start; i < end; i++) {
+                char ch = chars.charAt(i);
+                if (ch < '0' || ch > '9') {
+                    return -1;
+                }
+                value = value * 10 + (ch - '0');
+            }
+            return value;
+        }
+
+    }
+
+    /**
+     * Usage:
+     * 共享字符串的纯文本。ReadOnlySharedStringsTable.getItemAt每次都新建一个富文本对象，
+     * 这里每个下标只取一次，之后的单元格直接用缓存的字符串
+     */
+    private static class SharedStrings {
+
+        /** 共享字符串表 */
+        private final ReadOnlySharedStringsTable table;
+
+        /** 已经取过的纯文本，按下标存放，没取过的为空 */
+        private String[] strings;
+
+        /**
+         * 全参构造函数
+         * @param table 共享字符串表
+         */
+        SharedStrings(ReadOnlySharedStringsTable table) {
+            this.table = table;
+            // uniqueCount属性可能缺失，这时为0，用到时再扩容
+            this.strings = new String[Math.max(table.getUniqueCount(), 16)];
+        }
+
+        /**
+         * 获取 某个下标的纯文本
+         * @param idx 下标
+         * @return 纯文本
+         */
+        String get(int idx) {
+            String string = idx < strings.length ? strings[idx] : null;
+            if (string == null) {
+                // 下标越界时在这里就抛出，不会先按错误的下标扩容
+                string = table.getItemAt(idx).getString();
+                if (idx >= strings.length) {
+                    strings = Arrays.copyOf(strings, Math.max(idx + 1, strings.length * 2));
+                }
+                strings[idx] = string;
+            }
+            return string;
+        }
+
+    }
+
+}
@@ -0,0 +1,168 @@
+package indi.liht.stat.spill;
+
+import indi.liht.stat.collection.LongIntProcedure;
+import org.apache.poi.util.IOUtils;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+/**
+ * Usage:
+ * 溢出到磁盘的一段有序记录：每条记录为long公司对（PairKey）加int权重，按公司对从小到大排列，同一个公司对只出现一次。
+ * 只能顺序读取，读多少次都可以
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/23
+ **/
+public class SortedRun {
+
+    /** 每条记录的字节数 */
+    static final int RECORD_BYTES = 12;
+
+    /** 读缓冲区大小 */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** 文件 */
+    private final File file;
+
+    /** 记录数 */
+    private final long count;
+
+    /**
+     * 全参构造函数
+     * @param file 文件
+     * @param count 记录数
+     */
+    SortedRun(File file, long count) {
+        this.file = file;
+        this.count = count;
+    }
+
+    /**
+     * 获取 记录数
+     * @return 记录数
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * 获取 文件大小
+     * @return 字节数
+     */
+    public long getBytes() {
+        return count * RECORD_BYTES;
+    }
+
+    /**
+     * 获取 文件
+     * @return 文件
+     */
+    File getFile() {
+        return file;
+    }
+
+    /**
+     * 从头到尾顺序读一遍
+     * @param procedure 对每条记录执行的操作，键为PairKey
+     * @throws IOException 读取失败
+     */
+    public void forEach(LongIntProcedure procedure) throws IOException {
+        Cursor cursor = this.open();
+        try {
+            while (cursor.next()) {
+                procedure.apply(cursor.key(), cursor.weight());
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * 打开一个游标
+     * @return 游标，位于第一条记录之前
+     * @throws IOException 打开失败
+     */
+    Cursor open() throws IOException {
+        return new Cursor(new DataInputStream(new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)),
+                count);
+    }
+
+    /**
+     * 删除文件
+     */
+    public void delete() {
+        file.delete();
+    }
+
+    /**
+     * Usage:
+     * 顺序读取记录的游标
+     */
+    static class Cursor {
+
+        /** 输入 */
+        private final DataInputStream dis;
+
+        /** 剩余的记录数 */
+        private long remaining;
+
+        /** 当前记录的公司对 */
+        private long key;
+
+        /** 当前记录的权重 */
+        private int weight;
+
+        /**
+         * 全参构造函数
+         * @param dis 输入
+         * @param count 记录数
+         */
+        Cursor(DataInputStream dis, long count) {
+            this.dis = dis;
+            this.remaining = count;
+        }
+
+        /**
+         * 移到下一条记录
+         * @return 是否还有记录
+         * @throws IOException 读取失败
+         */
+        boolean next() throws IOException {
+            if (remaining == 0) {
+                return false;
+            }
+            key = dis.readLong();
+            weight = dis.readInt();
+            remaining--;
+            return true;
+        }
+
+        /**
+         * 获取 当前记录的公司对
+         * @return PairKey
+         */
+        long key() {
+            return key;
+        }
+
+        /**
+         * 获取 当前记录的权重
+         * @return 权重
+         */
+        int weight() {
+            return weight;
+        }
+
+        /**
+         * 关闭
+         */
+        void close() {
+            IOUtils.closeQuietly(dis);
+        }
+
+    }
+
+}
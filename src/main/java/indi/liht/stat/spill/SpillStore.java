@@ -0,0 +1,411 @@
+package indi.liht.stat.spill;
+
+import indi.liht.stat.collection.CsrMatrix;
+import indi.liht.stat.collection.LongIntHashMap;
+import org.apache.poi.util.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Usage:
+ * 聚合超出内存预算时的溢出区：把权重表排好序写成临时文件（SortedRun），最后用多路归并把若干段合成一段。
+ * 一次最多同时归并MAX_FAN_IN段，段数更多时先分组归并成中间段，打开的文件数和读缓冲区占用的内存都有上限。
+ * 临时文件放在基础目录下新建的子目录里，close时整个删掉。可以被多个线程同时使用
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/23
+ **/
+public class SpillStore {
+
+    /** 一次最多同时归并的段数 */
+    private static final int MAX_FAN_IN = 64;
+
+    /** 写缓冲区大小 */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** 基础目录 */
+    private final File baseDir;
+
+    /** 本次运行的临时目录，第一次溢出时创建 */
+    private File dir;
+
+    /** 文件序号 */
+    private final AtomicInteger sequence = new AtomicInteger();
+
+    /** 溢出的段数（不含归并出来的中间段） */
+    private final AtomicInteger runCount = new AtomicInteger();
+
+    /** 写出的总字节数（含归并出来的段） */
+    private final AtomicLong writtenBytes = new AtomicLong();
+
+    /**
+     * 全参构造函数
+     * @param baseDir 基础目录，临时文件放在它下面新建的子目录里
+     */
+    public SpillStore(File baseDir) {
+        this.baseDir = baseDir;
+    }
+
+    /**
+     * 把权重表排好序写成一段。写完之后权重表可以丢弃
+     * @param movieABWeight 电影公司权重，Key为PairKey
+     * @return 有序段
+     * @throws UncheckedIOException 写入失败
+     */
+    public SortedRun spill(LongIntHashMap movieABWeight) {
+        long[] keys = new long[movieABWeight.size()];
+        int[] count = new int[1];
+        movieABWeight.forEach((key, weight) -> keys[count[0]++] = key);
+        Arrays.sort(keys);
+        RunWriter writer = this.newWriter();
+        try {
+            for (long key : keys) {
+                writer.write(key, movieABWeight.getOrDefault(key, 0));
+            }
+            return this.finishSpill(writer);
+        } catch (IOException e) {
+            writer.abort();
+            throw new UncheckedIOException("写入溢出文件失败", e);
+        }
+    }
+
+    /**
+     * 把矩阵的每一对写成一段，矩阵按行遍历上三角就是公司对的顺序，不用再排序
+     * @param movieABWeight 电影公司权重
+     * @return 有序段
+     * @throws UncheckedIOException 写入失败
+     */
+    public SortedRun spill(CsrMatrix movieABWeight) {
+        RunWriter writer = this.newWriter();
+        try {
+            IOException[] error = new IOException[1];
+            movieABWeight.forEachPair((key, weight) -> {
+                if (error[0] == null) {
+                    try {
+                        writer.write(key, weight);
+                    } catch (IOException e) {
+                        error[0] = e;
+                    }
+                }
+            });
+            if (error[0] != null) {
+                throw error[0];
+            }
+            return this.finishSpill(writer);
+        } catch (IOException e) {
+            writer.abort();
+            throw new UncheckedIOException("写入溢出文件失败", e);
+        }
+    }
+
+    /**
+     * 把若干段归并成一段，同一个公司对的权重相加。归并完删除输入的段
+     * @param runs 有序段
+     * @return 归并后的有序段
+     * @throws UncheckedIOException 读写失败
+     */
+    public SortedRun merge(List<SortedRun> runs) {
+        List<SortedRun> pending = new ArrayList<>(runs);
+        try {
+            while (pending.size() > 1) {
+                // 每次归并最前面的一组，结果放到最后，直到只剩一段
+                int fanIn = Math.min(pending.size(), MAX_FAN_IN);
+                List<SortedRun> group = new ArrayList<>(pending.subList(0, fanIn));
+                pending.subList(0, fanIn).clear();
+                pending.add(this.mergeGroup(group));
+            }
+        } catch (IOException e) {
+            for (SortedRun run : pending) {
+                run.delete();
+            }
+            throw new UncheckedIOException("归并溢出文件失败", e);
+        }
+        return pending.isEmpty() ? this.finishMerge(this.newWriter()) : pending.get(0);
+    }
+
+    /**
+     * 复制一段，两段各自读取、删除，互不影响
+     * @param run 有序段
+     * @return 新的有序段
+     * @throws UncheckedIOException 复制失败
+     */
+    public SortedRun copy(SortedRun run) {
+        File file = new File(this.getDir(), "run-" + sequence.incrementAndGet() + ".bin");
+        try {
+            Files.copy(run.getFile().toPath(), file.toPath());
+        } catch (IOException e) {
+            file.delete();
+            throw new UncheckedIOException("复制溢出文件[" + run.getFile().getPath() + "]失败", e);
+        }
+        writtenBytes.addAndGet(run.getBytes());
+        return new SortedRun(file, run.getCount());
+    }
+
+    /**
+     * 获取 溢出的段数
+     * @return 段数
+     */
+    public int getRunCount() {
+        return runCount.get();
+    }
+
+    /**
+     * 获取 写出的总字节数
+     * @return 字节数
+     */
+    public long getWrittenBytes() {
+        return writtenBytes.get();
+    }
+
+    /**
+     * 删除临时目录和其中剩下的文件
+     */
+    public synchronized void close() {
+        if (dir == null) {
+            return;
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+        dir = null;
+    }
+
+    /**
+     * 归并一组段：每段一个游标，用小顶堆按当前的公司对取最小的，相同的公司对连续出现，累加后写出
+     * @param group 有序段
+     * @return 归并后的有序段
+     * @throws IOException 读写失败
+     */
+    private SortedRun mergeGroup(List<SortedRun> group) throws IOException {
+        SortedRun.Cursor[] heap = new SortedRun.Cursor[group.size()];
+        int size = 0;
+        RunWriter writer = this.newWriter();
+        try {
+            for (SortedRun run : group) {
+                SortedRun.Cursor cursor = run.open();
+                if (cursor.next()) {
+                    heap[size] = cursor;
+                    siftUp(heap, size++);
+                } else {
+                    cursor.close();
+                }
+            }
+            boolean hasPending = false;
+            long pendingKey = 0L;
+            int pendingWeight = 0;
+            while (size > 0) {
+                SortedRun.Cursor top = heap[0];
+                if (hasPending && top.key() == pendingKey) {
+                    pendingWeight += top.weight();
+                } else {
+                    if (hasPending) {
+                        writer.write(pendingKey, pendingWeight);
+                    }
+                    hasPending = true;
+                    pendingKey = top.key();
+                    pendingWeight = top.weight();
+                }
+                if (!top.next()) {
+                    top.close();
+                    heap[0] = heap[--size];
+                    heap[size] = null;
+                }
+                siftDown(heap, size);
+            }
+            if (hasPending) {
+                writer.write(pendingKey, pendingWeight);
+            }
+        } catch (IOException e) {
+            writer.abort();
+            throw e;
+        } finally {
+            for (int i = 0; i < size; i++) {
+                heap[i].close();
+            }
+        }
+        for (SortedRun run : group) {
+            run.delete();
+        }
+        return this.finishMerge(writer);
+    }
+
+    /**
+     * 堆的最后一个元素上浮
+     * @param heap 堆
+     * @param i 元素下标
+     */
+    private static void siftUp(SortedRun.Cursor[] heap, int i) {
+        SortedRun.Cursor cursor = heap[i];
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heap[parent].key() <= cursor.key()) {
+                break;
+            }
+            heap[i] = heap[parent];
+            i = parent;
+        }
+        heap[i] = cursor;
+    }
+
+    /**
+     * 堆顶元素下沉
+     * @param heap 堆
+     * @param size 堆的大小
+     */
+    private static void siftDown(SortedRun.Cursor[] heap, int size) {
+        if (size == 0) {
+            return;
+        }
+        SortedRun.Cursor cursor = heap[0];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && heap[child + 1].key() < heap[child].key()) {
+                child++;
+            }
+            if (cursor.key() <= heap[child].key()) {
+                break;
+            }
+            heap[i] = heap[child];
+            i = child;
+        }
+        heap[i] = cursor;
+    }
+
+    /**
+     * 新建一个段文件
+     * @return 写入器
+     * @throws UncheckedIOException 创建失败
+     */
+    private RunWriter newWriter() {
+        File file = new File(this.getDir(), "run-" + sequence.incrementAndGet() + ".bin");
+        try {
+            return new RunWriter(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException("创建溢出文件[" + file.getPath() + "]失败", e);
+        }
+    }
+
+    /**
+     * 写完一个溢出的段
+     * @param writer 写入器
+     * @return 有序段
+     * @throws IOException 写入失败
+     */
+    private SortedRun finishSpill(RunWriter writer) throws IOException {
+        SortedRun run = writer.finish();
+        runCount.incrementAndGet();
+        writtenBytes.addAndGet(run.getBytes());
+        return run;
+    }
+
+    /**
+     * 写完一个归并出来的段
+     * @param writer 写入器
+     * @return 有序段
+     */
+    private SortedRun finishMerge(RunWriter writer) {
+        try {
+            SortedRun run = writer.finish();
+            writtenBytes.addAndGet(run.getBytes());
+            return run;
+        } catch (IOException e) {
+            writer.abort();
+            throw new UncheckedIOException("写入溢出文件失败", e);
+        }
+    }
+
+    /**
+     * 获取 本次运行的临时目录，没有就创建
+     * @return 临时目录
+     * @throws UncheckedIOException 创建失败
+     */
+    private synchronized File getDir() {
+        if (dir == null) {
+            try {
+                if (!baseDir.isDirectory() && !baseDir.mkdirs()) {
+                    throw new IOException("创建目录[" + baseDir.getPath() + "]失败！");
+                }
+                dir = Files.createTempDirectory(baseDir.toPath(), "stat-spill-").toFile();
+            } catch (IOException e) {
+                throw new UncheckedIOException("创建溢出目录失败", e);
+            }
+        }
+        return dir;
+    }
+
+    /**
+     * Usage:
+     * 顺序写一个段文件
+     */
+    private static class RunWriter {
+
+        /** 文件 */
+        private final File file;
+
+        /** 输出 */
+        private final DataOutputStream dos;
+
+        /** 已写的记录数 */
+        private long count;
+
+        /**
+         * 全参构造函数
+         * @param file 文件
+         * @throws IOException 创建失败
+         */
+        RunWriter(File file) throws IOException {
+            this.file = file;
+            this.dos = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE));
+        }
+
+        /**
+         * 写一条记录
+         * @param key 公司对
+         * @param weight 权重
+         * @throws IOException 写入失败
+         */
+        void write(long key, int weight) throws IOException {
+            dos.writeLong(key);
+            dos.writeInt(weight);
+            count++;
+        }
+
+        /**
+         * 写完并关闭
+         * @return 有序段
+         * @throws IOException 写入失败
+         */
+        SortedRun finish() throws IOException {
+            dos.close();
+            return new SortedRun(file, count);
+        }
+
+        /**
+         * 出错时关闭并删除文件
+         */
+        void abort() {
+            IOUtils.closeQuietly(dos);
+            file.delete();
+        }
+
+    }
+
+}
@@ -0,0 +1,217 @@
+package indi.liht.stat.utils;
+
+/**
+ * Usage:
+ * 拼接带缩进的JSON（运行摘要、查询服务的响应），只支持字符串、数字、布尔、对象和数组
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/21
+ **/
+public class JsonBuilder {
+
+    /** 拼接结果 */
+    private final StringBuilder sb = new StringBuilder();
+
+    /** 当前嵌套深度 */
+    private int depth;
+
+    /** 当前对象或数组是否还没有元素 */
+    private boolean empty = true;
+
+    /** 刚写完名字，下一个值跟在冒号后面 */
+    private boolean afterName;
+
+    /**
+     * 开始一个对象
+     * @return this
+     */
+    public JsonBuilder beginObject() {
+        this.beforeValue();
+        sb.append('{');
+        depth++;
+        empty = true;
+        return this;
+    }
+
+    /**
+     * 结束一个对象
+     * @return this
+     */
+    public JsonBuilder endObject() {
+        return this.end('}');
+    }
+
+    /**
+     * 开始一个数组
+     * @return this
+     */
+    public JsonBuilder beginArray() {
+        this.beforeValue();
+        sb.append('[');
+        depth++;
+        empty = true;
+        return this;
+    }
+
+    /**
+     * 结束一个数组
+     * @return this
+     */
+    public JsonBuilder endArray() {
+        return this.end(']');
+    }
+
+    /**
+     * 写入对象中的名字，后面跟一个值
+     * @param name 名字
+     * @return this
+     */
+    public JsonBuilder name(String name) {
+        this.beforeValue();
+        this.appendString(name);
+        sb.append(": ");
+        afterName = true;
+        return this;
+    }
+
+    /**
+     * 写入字符串值
+     * @param value 值，为空时写null
+     * @return this
+     */
+    public JsonBuilder value(String value) {
+        this.beforeValue();
+        if (value == null) {
+            sb.append("null");
+        } else {
+            this.appendString(value);
+        }
+        return this;
+    }
+
+    /**
+     * 写入名字和字符串值
+     * @param name 名字
+     * @param value 值
+     * @return this
+     */
+    public JsonBuilder field(String name, String value) {
+        return this.name(name).value(value);
+    }
+
+    /**
+     * 写入名字和数字值
+     * @param name 名字
+     * @param value 值
+     * @return this
+     */
+    public JsonBuilder field(String name, long value) {
+        return this.name(name).value(value);
+    }
+
+    /**
+     * 写入数字值
+     * @param value 值
+     * @return this
+     */
+    public JsonBuilder value(long value) {
+        this.beforeValue();
+        sb.append(value);
+        return this;
+    }
+
+    /**
+     * 写入名字和布尔值
+     * @param name 名字
+     * @param value 值
+     * @return this
+     */
+    public JsonBuilder field(String name, boolean value) {
+        this.name(name).beforeValue();
+        sb.append(value);
+        return this;
+    }
+
+    @Override
+    public String toString() {
+        return sb.toString();
+    }
+
+    /**
+     * 结束对象或数组
+     * @param c 结束符
+     * @return this
+     */
+    private JsonBuilder end(char c) {
+        depth--;
+        if (!empty) {
+            this.newLine();
+        }
+        sb.append(c);
+        empty = false;
+        return this;
+    }
+
+    /**
+     * 写值之前：名字后面直接写；否则先写逗号（不是第一个元素时）和换行缩进
+     */
+    private void beforeValue() {
+        if (afterName) {
+            afterName = false;
+            return;
+        }
+        if (depth == 0) {
+            return;
+        }
+        if (!empty) {
+            sb.append(',');
+        }
+        this.newLine();
+        empty = false;
+    }
+
+    /**
+     * 换行并缩进到当前深度
+     */
+    private void newLine() {
+        sb.append('\n');
+        for (int i = 0; i < depth; i++) {
+            sb.append("  ");
+        }
+    }
+
+    /**
+     * 写入转义后的字符串
+     * @param s 字符串
+     */
+    private void appendString(String s) {
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append('"');
+    }
+
+}
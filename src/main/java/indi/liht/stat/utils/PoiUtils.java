@@ -1,19 +1,21 @@
 package indi.liht.stat.utils;
 
-import org.apache.poi.hssf.usermodel.HSSFSheet;
+import indi.liht.stat.reader.DomSheetReader;
+import indi.liht.stat.reader.HSSFEventSheetReader;
+import indi.liht.stat.reader.ISheetReader;
+import indi.liht.stat.reader.SheetRow;
+import indi.liht.stat.reader.XSSFStreamSheetReader;
 import org.apache.poi.hssf.usermodel.HSSFWorkbook;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
 import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
 import org.apache.poi.util.IOUtils;
-import org.apache.poi.xssf.usermodel.XSSFSheet;
 import org.apache.poi.xssf.usermodel.XSSFWorkbook;
 
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.util.Arrays;
 
 /**
  * Usage:
@@ -24,112 +26,76 @@ import java.util.Arrays;
 public class PoiUtils {
 
     /**
-     * 根据后缀，使用不同方法从工作表重获取工作簿
+     * 根据后缀，打开逐行读取的读取器。streaming为true时流式读取（.xlsx用SAX，.xls用HSSFListener），否则加载整个Workbook
      * @param excelFilePath Excel完整路径
-     * @param sheetNames 工作簿名
-     * @return Sheet
+     * @param streaming 是否流式读取
+     * @return 读取器，不支持的后缀返回空
+     * @throws IOException 打开失败
      */
-    public static Sheet[] getSheetsFromPath(String excelFilePath, String... sheetNames) {
+    public static ISheetReader getSheetReaderFromPath(String excelFilePath, boolean streaming) throws IOException {
         if (excelFilePath.toLowerCase().endsWith(".xls")) {
-            return getHSSFSheetsFromPath(excelFilePath, sheetNames);
+            if (streaming) {
+                return new HSSFEventSheetReader(excelFilePath);
+            }
+            InputStream is = new FileInputStream(excelFilePath);
+            try {
+                return new DomSheetReader(new HSSFWorkbook(is));
+            } finally {
+                IOUtils.closeQuietly(is);
+            }
         } else if (excelFilePath.toLowerCase().endsWith("xlsx")) {
-            return getXSSFSheetsFromPath(excelFilePath, sheetNames);
-        } else {
-            return null;
-        }
-    }
-
-    /**
-     * 返回.xls后缀，名为sheetName的工作簿
-     * @param excelFilePath Excel（.xls后缀）完整路径
-     * @param sheetNames 工作簿名
-     * @return Sheet
-     */
-    private static HSSFSheet[] getHSSFSheetsFromPath(String excelFilePath, String... sheetNames) {
-        HSSFSheet[] sheet = new HSSFSheet[sheetNames.length];
-        InputStream is = null;
-        HSSFWorkbook workbook = null;
-        try {
-            is = new FileInputStream(excelFilePath);
-            workbook = new HSSFWorkbook(is);
-            for (int i = 0, size = sheetNames.length; i < size; i++) {
-                // 通过sheetName获取Sheet
-                sheet[i] = workbook.getSheet(sheetNames[i]);
+            if (streaming) {
+                return new XSSFStreamSheetReader(excelFilePath);
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            IOUtils.closeQuietly(workbook);
-            IOUtils.closeQuietly(is);
-        }
-        System.out.println("加载[" + excelFilePath + "]工作簿[类型：OLE2]的"
-                + Arrays.toString(sheetNames) + "工作表完成！");
-        return sheet;
-    }
-
-    /**
-     * 返回.xlsx后缀，名为sheetName的工作簿
-     * @param excelFilePath Excel（.xlsx）完整路径
-     * @param sheetNames 工作簿名
-     * @return Sheet
-     */
-    private static XSSFSheet[] getXSSFSheetsFromPath(String excelFilePath, String... sheetNames) {
-        XSSFSheet[] sheet = new XSSFSheet[sheetNames.length];
-        XSSFWorkbook workbook = null;
-        try {
-            workbook = new XSSFWorkbook(excelFilePath);
-            for (int i = 0, size = sheetNames.length; i < size; i++) {
-                // 通过sheetName获取Sheet
-                sheet[i] = workbook.getSheet(sheetNames[i]);
+            // 只读打开，关闭时revert，不会回写输入文件（否则修改时间变化，输入缓存和增量计算都会失效）
+            OPCPackage pkg;
+            try {
+                pkg = OPCPackage.open(excelFilePath, PackageAccess.READ);
+            } catch (InvalidFormatException e) {
+                throw new IOException("打开[" + excelFilePath + "]失败", e);
+            }
+            try {
+                return new DomSheetReader(new XSSFWorkbook(pkg), pkg);
+            } catch (IOException | RuntimeException e) {
+                pkg.revert();
+                throw e;
             }
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            IOUtils.closeQuietly(workbook);
+        } else {
+            return null;
         }
-        System.out.println("加载[" + excelFilePath + "]工作簿[类型：OOXML]的"
-                + Arrays.toString(sheetNames) + "工作表完成！");
-        return sheet;
     }
 
     /**
-     * 从某行的第columnNum列获取值
-     * @param row 某行
-     * @param columnNum 第几列
-     * @return 该行该列的值，cell为空则返回空
+     * 在要读取的工作表名中，找出与实际工作表名匹配的那个（不区分大小写，与Workbook.getSheet一致）
+     * @param actualSheetName Excel中的工作表名
+     * @param sheetNames 要读取的工作表名
+     * @return 匹配到的要读取的工作表名，没有匹配返回空
      */
-    public static Object getCellValueFromRow(Row row, int columnNum) {
-        Cell cell;
-        if ((cell = row.getCell(columnNum)) != null) {
-            Object obj = getValueFromCell(cell);
-            if (obj != null) {
-                return obj;
+    public static String matchSheetName(String actualSheetName, String... sheetNames) {
+        for (String sheetName : sheetNames) {
+            if (sheetName.equalsIgnoreCase(actualSheetName)) {
+                return sheetName;
             }
         }
         return null;
     }
 
     /**
-     * 根据cell的cellType类型判断，调用不同方法取值（只判断了字符串和数字类型的）
+     * 根据cell的cellType类型判断，把值按类型写入SheetRow的对应列（只区分字符串和数字，其他类型为空）
      * @param cell 要取值的cell
-     * @return cell的值
+     * @param sheetRow 写入的行
      */
-    public static Object getValueFromCell(Cell cell) {
-        if (cell == null) {
-            return null;
-        }
-        Object value;
+    public static void copyCell(Cell cell, SheetRow sheetRow) {
         switch (cell.getCellType()) {
             case NUMERIC:
-                value = cell.getNumericCellValue();
+                sheetRow.setNumber(cell.getColumnIndex(), cell.getNumericCellValue());
                 break;
             case STRING:
-                value = cell.getStringCellValue();
+                sheetRow.setString(cell.getColumnIndex(), cell.getStringCellValue());
                 break;
             default:
-                value = null;
+                sheetRow.setBlank(cell.getColumnIndex());
         }
-        return value;
     }
 
 }
@@ -0,0 +1,279 @@
+package indi.liht.stat.writer;
+
+import indi.liht.stat.collection.IntDictionary;
+import indi.liht.stat.collection.CsrMatrix;
+import indi.liht.stat.collection.PairKey;
+import org.apache.poi.util.IOUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Usage:
+ * 以边列表的形式输出电影公司权重：输出目录下每个结果Sheet一个csv文件，每行为“电影公司A,电影公司B,权重”，
+ * 权重为0的公司对不输出，所以文件大小和耗时只与非0的公司对数成正比。
+ * 逐行读取权重矩阵的上三角，行按电影公司第一次出现的顺序排列，不需要排序，经由一块直接内存缓冲区用FileChannel写出。
+ * 溢出到磁盘时也可以直接顺序读取归并出的有序公司对，按PairKey的顺序就是同样的输出顺序，不用先读成矩阵
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/16
+ **/
+public class CsvResultWriter implements IResultWriter {
+
+    /** 表头 */
+    private static final byte[] HEADER = "companyA,companyB,weight\n".getBytes(StandardCharsets.UTF_8);
+
+    /** 写缓冲区大小 */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** 输出目录的完整路径 */
+    private final String outputPath;
+
+    /** 电影公司字典 */
+    private final IntDictionary movieComDictionary;
+
+    /** 写缓冲区，writeSheet串行执行，所有文件共用 */
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /** 电影公司编号 -> 转义后的UTF-8公司名，按需填充 */
+    private byte[][] movieComBytes = new byte[64][];
+
+    /**
+     * 全参构造函数
+     * @param outputPath 输出目录的完整路径
+     * @param movieComDictionary 电影公司字典
+     */
+    public CsvResultWriter(String outputPath, IntDictionary movieComDictionary) {
+        this.outputPath = outputPath;
+        this.movieComDictionary = movieComDictionary;
+    }
+
+    @Override
+    public synchronized void writeSheet(String sheetName, CsrMatrix movieABWeight, int[] movieComList)
+            throws IOException {
+        File outputFile = this.getOutputFile(sheetName);
+        int edges = 0;
+        FileChannel channel = null;
+        try {
+            channel = this.open(outputFile);
+            // 矩阵只存上三角，每行的列号从小到大，逐行输出就是按(A, B)编号顺序输出每一对
+            for (int movieComId : movieComList) {
+                for (int i = movieABWeight.rowStart(movieComId), end = movieABWeight.rowEnd(movieComId);
+                     i < end; i++) {
+                    int partner = movieABWeight.column(i);
+                    int weight = movieABWeight.weight(i);
+                    if (weight == 0) {
+                        continue;
+                    }
+                    this.putEdge(channel, movieComId, partner, weight);
+                    edges++;
+                }
+            }
+            this.flush(channel);
+        } finally {
+            IOUtils.closeQuietly(channel);
+        }
+        System.out.println("完成写入[" + outputFile.getPath() + "]，共" + edges + "对电影公司！");
+    }
+
+    /**
+     * 直接输出有序的公司对，不经过矩阵。输出与writeSheet输出同样的公司对时，文件内容相同
+     * @param sheetName 输出的Sheet名
+     * @param sortedPairs 按PairKey从小到大排列的公司对
+     * @throws IOException 输出失败
+     */
+    public synchronized void writeSortedPairs(String sheetName, CsrMatrix.PairSource sortedPairs)
+            throws IOException {
+        File outputFile = this.getOutputFile(sheetName);
+        int[] edges = new int[1];
+        FileChannel channel = null;
+        try {
+            channel = this.open(outputFile);
+            FileChannel out = channel;
+            IOException[] error = new IOException[1];
+            sortedPairs.forEach((key, weight) -> {
+                if (weight == 0 || error[0] != null) {
+                    return;
+                }
+                try {
+                    this.putEdge(out, PairKey.first(key), PairKey.second(key), weight);
+                    edges[0]++;
+                } catch (IOException e) {
+                    error[0] = e;
+                }
+            });
+            if (error[0] != null) {
+                throw error[0];
+            }
+            this.flush(channel);
+        } finally {
+            IOUtils.closeQuietly(channel);
+        }
+        System.out.println("完成写入[" + outputFile.getPath() + "]，共" + edges[0] + "对电影公司！");
+    }
+
+    @Override
+    public String getOutputPath() {
+        return outputPath;
+    }
+
+    @Override
+    public void close() {
+        // 每个文件写完就已经关闭了
+    }
+
+    /**
+     * 获取 结果Sheet对应的csv文件，没有输出目录就创建
+     * @param sheetName 输出的Sheet名
+     * @return csv文件
+     * @throws IOException 创建输出目录失败
+     */
+    private File getOutputFile(String sheetName) throws IOException {
+        File outputDir = new File(outputPath);
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("创建输出目录[" + outputPath + "]失败！");
+        }
+        return new File(outputDir, toFileName(sheetName) + ".csv");
+    }
+
+    /**
+     * 创建csv文件并写入表头
+     * @param outputFile csv文件
+     * @return 文件
+     * @throws IOException 创建失败
+     */
+    private FileChannel open(File outputFile) throws IOException {
+        FileChannel channel = FileChannel.open(outputFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        buffer.clear();
+        try {
+            this.put(channel, HEADER);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(channel);
+            throw e;
+        }
+        return channel;
+    }
+
+    /**
+     * 写入一行“电影公司A,电影公司B,权重”
+     * @param channel 文件
+     * @param movieComId 电影公司A的编号
+     * @param partner 电影公司B的编号
+     * @param weight 权重
+     * @throws IOException 写入失败
+     */
+    private void putEdge(FileChannel channel, int movieComId, int partner, int weight) throws IOException {
+        this.put(channel, this.getMovieComBytes(movieComId));
+        this.put(channel, (byte) ',');
+        this.put(channel, this.getMovieComBytes(partner));
+        this.put(channel, (byte) ',');
+        this.putInt(channel, weight);
+        this.put(channel, (byte) '\n');
+    }
+
+    /**
+     * 获取电影公司名的csv字节，必要时加引号转义
+     * @param movieComId 电影公司编号
+     * @return UTF-8字节
+     */
+    private byte[] getMovieComBytes(int movieComId) {
+        if (movieComId >= movieComBytes.length) {
+            movieComBytes = Arrays.copyOf(movieComBytes,
+                    Math.max(movieComBytes.length << 1, movieComId + 1));
+        }
+        byte[] bytes = movieComBytes[movieComId];
+        if (bytes == null) {
+            String movieCom = movieComDictionary.getName(movieComId);
+            if (movieCom.indexOf(',') >= 0 || movieCom.indexOf('"') >= 0
+                    || movieCom.indexOf('\n') >= 0 || movieCom.indexOf('\r') >= 0) {
+                movieCom = "\"" + movieCom.replace("\"", "\"\"") + "\"";
+            }
+            bytes = movieCom.getBytes(StandardCharsets.UTF_8);
+            movieComBytes[movieComId] = bytes;
+        }
+        return bytes;
+    }
+
+    /**
+     * 写入字节，缓冲区满了先刷到文件
+     * @param channel 文件
+     * @param bytes 字节
+     * @throws IOException 写入失败
+     */
+    private void put(FileChannel channel, byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            if (!buffer.hasRemaining()) {
+                this.flush(channel);
+            }
+            int length = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, length);
+            offset += length;
+        }
+    }
+
+    /**
+     * 写入一个字节
+     * @param channel 文件
+     * @param b 字节
+     * @throws IOException 写入失败
+     */
+    private void put(FileChannel channel, byte b) throws IOException {
+        if (!buffer.hasRemaining()) {
+            this.flush(channel);
+        }
+        buffer.put(b);
+    }
+
+    /**
+     * 写入整数的十进制字符，不产生临时字符串
+     * @param channel 文件
+     * @param value 整数
+     * @throws IOException 写入失败
+     */
+    private void putInt(FileChannel channel, int value) throws IOException {
+        if (buffer.remaining() < 11) {
+            this.flush(channel);
+        }
+        long v = value;
+        if (v < 0) {
+            buffer.put((byte) '-');
+            v = -v;
+        }
+        long divisor = 1;
+        while (divisor * 10 <= v) {
+            divisor *= 10;
+        }
+        for (; divisor > 0; divisor /= 10) {
+            buffer.put((byte) ('0' + v / divisor % 10));
+        }
+    }
+
+    /**
+     * 把缓冲区的内容全部写到文件
+     * @param channel 文件
+     * @throws IOException 写入失败
+     */
+    private void flush(FileChannel channel) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Sheet名中不能用作文件名的字符替换成下划线
+     * @param sheetName Sheet名
+     * @return 文件名（不含后缀）
+     */
+    private static String toFileName(String sheetName) {
+        return sheetName.replaceAll("[\\\\/:*?\"<>|]", "_");
+    }
+
+}
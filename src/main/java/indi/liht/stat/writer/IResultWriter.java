@@ -0,0 +1,32 @@
+package indi.liht.stat.writer;
+
+import indi.liht.stat.collection.CsrMatrix;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Usage:
+ * 统计结果输出接口。每个结果Sheet调用一次writeSheet，全部写完后close生成最终文件。
+ * 权重按行存储，实现按行号从小到大顺序读取
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/10
+ **/
+public interface IResultWriter extends Closeable {
+
+    /**
+     * 输出一个结果Sheet
+     * @param sheetName 输出的Sheet名
+     * @param movieABWeight 电影公司权重，行号、列号为电影公司编号
+     * @param movieComList 涉及到的所有电影公司编号，从小到大排列，也是输出顺序
+     * @throws IOException 输出失败
+     */
+    void writeSheet(String sheetName, CsrMatrix movieABWeight, int[] movieComList) throws IOException;
+
+    /**
+     * 获取 输出文件的完整路径
+     * @return 输出文件的完整路径
+     */
+    String getOutputPath();
+
+}
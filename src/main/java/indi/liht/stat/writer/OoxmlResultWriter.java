@@ -0,0 +1,577 @@
+package indi.liht.stat.writer;
+
+import indi.liht.stat.collection.CsrMatrix;
+import indi.liht.stat.collection.IntDictionary;
+import org.apache.commons.compress.archivers.zip.ZipArchiveEntry;
+import org.apache.commons.compress.archivers.zip.ZipArchiveOutputStream;
+import org.apache.commons.compress.utils.CountingOutputStream;
+import org.apache.poi.ss.util.WorkbookUtil;
+import org.apache.poi.util.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * Usage:
+ * 不经过POI的Workbook，直接生成xlsx：每个结果Sheet在线程池中独立生成自己的worksheet XML，边生成边压缩到临时文件，
+ * 多个Sheet同时生成，互不加锁。close时等所有Sheet生成完，再把共享字符串、样式、工作簿等小文件和各Sheet压缩好的数据
+ * 原样拼成最终的zip，Sheet的数据不用再压缩一遍。
+ * 公司名写入共享字符串表，编号在writeSheet中（输出线程上）分配，Sheet的生成只读自己的那份编号。
+ * 只有数字和字符串两种单元格，一种默认样式；左上角的单元格留空
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class OoxmlResultWriter implements IResultWriter {
+
+    /** xlsx的最大列数 */
+    private static final int MAX_COLUMNS = 16384;
+
+    /** 写缓冲区大小 */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /** SpreadsheetML命名空间 */
+    private static final String MAIN_NS = "http://schemas.openxmlformats.org/spreadsheetml/2006/main";
+
+    /** 关系命名空间 */
+    private static final String REL_NS = "http://schemas.openxmlformats.org/officeDocument/2006/relationships";
+
+    /** 包关系命名空间 */
+    private static final String PACKAGE_REL_NS = "http://schemas.openxmlformats.org/package/2006/relationships";
+
+    /** XML声明 */
+    private static final String XML_HEADER = "<?xml version=\"1.0\" encoding=\"UTF-8\" standalone=\"yes\"?>\n";
+
+    /** 默认样式 */
+    private static final String STYLES_XML = XML_HEADER
+            + "<styleSheet xmlns=\"" + MAIN_NS + "\">"
+            + "<fonts count=\"1\"><font><sz val=\"11\"/><name val=\"Calibri\"/><family val=\"2\"/></font></fonts>"
+            + "<fills count=\"2\"><fill><patternFill patternType=\"none\"/></fill>"
+            + "<fill><patternFill patternType=\"gray125\"/></fill></fills>"
+            + "<borders count=\"1\"><border><left/><right/><top/><bottom/><diagonal/></border></borders>"
+            + "<cellStyleXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\"/></cellStyleXfs>"
+            + "<cellXfs count=\"1\"><xf numFmtId=\"0\" fontId=\"0\" fillId=\"0\" borderId=\"0\" xfId=\"0\"/></cellXfs>"
+            + "<cellStyles count=\"1\"><cellStyle name=\"Normal\" xfId=\"0\" builtinId=\"0\"/></cellStyles>"
+            + "</styleSheet>";
+
+    /** 输出文件的完整路径 */
+    private final String outputPath;
+
+    /** 电影公司字典 */
+    private final IntDictionary movieComDictionary;
+
+    /** 是否稀疏输出：只写权重表中有的公司对 */
+    private final boolean sparse;
+
+    /** 生成Sheet的线程池 */
+    private final ExecutorService executor;
+
+    /** 同时在生成（含排队）的Sheet数上限，每个Sheet都持有自己的矩阵，不能无限积压 */
+    private final Semaphore permits;
+
+    /** 已经提交的Sheet，按输出顺序排列 */
+    private final List<SheetPart> sheetParts = new ArrayList<>();
+
+    /** 共享字符串，下标为共享字符串编号 */
+    private final List<String> sharedStrings = new ArrayList<>();
+
+    /** 电影公司编号 -> 共享字符串编号，没有时为-1 */
+    private int[] stringIndexes = new int[0];
+
+    /** Sheet的临时文件目录，第一次writeSheet时创建 */
+    private File tempDir;
+
+    /**
+     * 全参构造函数
+     * @param outputPath 输出文件的完整路径
+     * @param movieComDictionary 电影公司字典
+     * @param sparse 是否稀疏输出：只写权重表中有的公司对，其余单元格留空
+     * @param parallelism 同时生成的Sheet数
+     */
+    public OoxmlResultWriter(String outputPath, IntDictionary movieComDictionary, boolean sparse, int parallelism) {
+        this.outputPath = outputPath;
+        this.movieComDictionary = movieComDictionary;
+        this.sparse = sparse;
+        int threads = Math.max(parallelism, 1);
+        AtomicInteger threadNo = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "Sheet-Writer-Thread-" + threadNo.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.permits = new Semaphore(threads);
+    }
+
+    @Override
+    public void writeSheet(String sheetName, CsrMatrix movieABWeight, int[] movieComList) throws IOException {
+        WorkbookUtil.validateSheetName(sheetName);
+        if (movieComList.length + 1 > MAX_COLUMNS) {
+            throw new IOException("[" + sheetName + "]共" + movieComList.length + "个电影公司，超出xlsx的最大列数"
+                    + MAX_COLUMNS + "，请设置top-k或者改用csv输出！");
+        }
+        // 公司名的共享字符串编号在这里串行分配，生成Sheet时只读这一份
+        int[] nameIndexes = new int[movieComList.length];
+        synchronized (this) {
+            for (int i = 0; i < movieComList.length; i++) {
+                nameIndexes[i] = this.getStringIndex(movieComList[i]);
+            }
+        }
+        try {
+            permits.acquire();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("等待输出[" + sheetName + "]时被中断");
+        }
+        try {
+            synchronized (this) {
+                SheetPart sheetPart = new SheetPart(sheetName,
+                        new File(this.getTempDir(), "sheet" + (sheetParts.size() + 1) + ".xml.deflate"));
+                sheetPart.nameCount = movieComList.length;
+                sheetPart.future = executor.submit(() -> {
+                    try {
+                        this.renderSheet(sheetPart, movieABWeight, movieComList, nameIndexes);
+                    } finally {
+                        permits.release();
+                    }
+                    return null;
+                });
+                sheetParts.add(sheetPart);
+            }
+        } catch (RuntimeException | IOException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    @Override
+    public String getOutputPath() {
+        return outputPath;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            // 等所有Sheet生成完，有出错的就不生成输出文件
+            IOException error = null;
+            for (SheetPart sheetPart : sheetParts) {
+                try {
+                    sheetPart.future.get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("等待输出[" + sheetPart.sheetName + "]时被中断");
+                } catch (ExecutionException e) {
+                    if (error == null) {
+                        error = new IOException("输出[" + sheetPart.sheetName + "]失败", e.getCause());
+                    } else {
+                        error.addSuppressed(e.getCause());
+                    }
+                }
+            }
+            if (error != null) {
+                throw error;
+            }
+            this.assemble();
+        } finally {
+            executor.shutdownNow();
+            this.deleteTempDir();
+        }
+    }
+
+    /**
+     * 生成一个Sheet的worksheet XML，压缩后写到临时文件，同时记下zip需要的CRC和大小
+     * @param sheetPart Sheet
+     * @param movieABWeight 电影公司权重
+     * @param movieComList 涉及到的所有电影公司编号，也是输出顺序
+     * @param nameIndexes 各公司名的共享字符串编号，与movieComList一一对应
+     * @throws IOException 写入失败
+     */
+    private void renderSheet(SheetPart sheetPart, CsrMatrix movieABWeight, int[] movieComList,
+                             int[] nameIndexes) throws IOException {
+        int listSize = movieComList.length;
+        String[] columnNames = new String[listSize + 1];
+        for (int i = 0; i <= listSize; i++) {
+            columnNames[i] = columnName(i);
+        }
+        Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+        CRC32 crc = new CRC32();
+        CountingOutputStream counter = null;
+        Writer writer = null;
+        try {
+            counter = new CountingOutputStream(new DeflaterOutputStream(new BufferedOutputStream(
+                    new FileOutputStream(sheetPart.file), BUFFER_SIZE), deflater, BUFFER_SIZE));
+            writer = new BufferedWriter(new OutputStreamWriter(new CheckedOutputStream(counter, crc),
+                    StandardCharsets.UTF_8), BUFFER_SIZE);
+            writer.write(XML_HEADER);
+            writer.write("<worksheet xmlns=\"" + MAIN_NS + "\"><dimension ref=\"A1:"
+                    + columnNames[listSize] + (listSize + 1) + "\"/><sheetData>");
+            // 第一行：左上角留空，之后是公司名
+            writer.write("<row r=\"1\">");
+            for (int i = 0; i < listSize; i++) {
+                writeStringCell(writer, columnNames[i + 1], 1, nameIndexes[i]);
+            }
+            writer.write("</row>");
+            int[] positions = sparse ? this.positionsOf(movieComList) : null;
+            for (int i = 0; i < listSize; i++) {
+                int rowNum = i + 2;
+                writer.write("<row r=\"");
+                writer.write(Integer.toString(rowNum));
+                writer.write("\">");
+                writeStringCell(writer, columnNames[0], rowNum, nameIndexes[i]);
+                CsrMatrix.PartnerCursor partners = movieABWeight.partners(movieComList[i]);
+                if (sparse) {
+                    // 只写整行（含镜像的下三角）有的元素，列号换成输出的列
+                    while (partners.next()) {
+                        writeNumberCell(writer, columnNames[positions[partners.partner()] + 1],
+                                rowNum, partners.weight());
+                    }
+                } else {
+                    // 输出的列和整行（含镜像的下三角）的元素都按编号从小到大，同时往后走，没有元素的列写0
+                    boolean more = partners.next();
+                    for (int j = 0; j < listSize; j++) {
+                        while (more && partners.partner() < movieComList[j]) {
+                            more = partners.next();
+                        }
+                        int weight = more && partners.partner() == movieComList[j] ? partners.weight() : 0;
+                        writeNumberCell(writer, columnNames[j + 1], rowNum, weight);
+                    }
+                }
+                writer.write("</row>");
+            }
+            writer.write("</sheetData></worksheet>");
+            writer.close();
+            writer = null;
+        } finally {
+            IOUtils.closeQuietly(writer);
+            deflater.end();
+        }
+        sheetPart.crc = crc.getValue();
+        sheetPart.size = counter.getBytesWritten();
+        sheetPart.compressedSize = sheetPart.file.length();
+        System.out.println("完成写入[" + sheetPart.sheetName + "]工作簿[类型：xlsx]，共" + (listSize + 1) + "行"
+                + (sparse ? movieABWeight.getPairCount() + "对电影公司" : "") + "！");
+    }
+
+    /**
+     * 拼成最终的xlsx：先写各个小文件，再把各Sheet压缩好的数据原样放进去
+     * @throws IOException 写入失败
+     */
+    private void assemble() throws IOException {
+        ZipArchiveOutputStream zos = null;
+        try {
+            zos = new ZipArchiveOutputStream(new File(outputPath));
+            putText(zos, "[Content_Types].xml", this.contentTypesXml());
+            putText(zos, "_rels/.rels", XML_HEADER + "<Relationships xmlns=\"" + PACKAGE_REL_NS + "\">"
+                    + "<Relationship Id=\"rId1\" Type=\"" + REL_NS + "/officeDocument\" Target=\"xl/workbook.xml\"/>"
+                    + "</Relationships>");
+            putText(zos, "xl/workbook.xml", this.workbookXml());
+            putText(zos, "xl/_rels/workbook.xml.rels", this.workbookRelsXml());
+            putText(zos, "xl/styles.xml", STYLES_XML);
+            putText(zos, "xl/sharedStrings.xml", this.sharedStringsXml());
+            for (int i = 0; i < sheetParts.size(); i++) {
+                SheetPart sheetPart = sheetParts.get(i);
+                ZipArchiveEntry entry = new ZipArchiveEntry("xl/worksheets/sheet" + (i + 1) + ".xml");
+                entry.setMethod(ZipEntry.DEFLATED);
+                entry.setCrc(sheetPart.crc);
+                entry.setSize(sheetPart.size);
+                entry.setCompressedSize(sheetPart.compressedSize);
+                InputStream is = null;
+                try {
+                    is = new FileInputStream(sheetPart.file);
+                    zos.addRawArchiveEntry(entry, is);
+                } finally {
+                    IOUtils.closeQuietly(is);
+                }
+            }
+            zos.finish();
+        } finally {
+            IOUtils.closeQuietly(zos);
+        }
+    }
+
+    /**
+     * [Content_Types].xml
+     * @return XML
+     */
+    private String contentTypesXml() {
+        StringBuilder sb = new StringBuilder(XML_HEADER)
+                .append("<Types xmlns=\"http://schemas.openxmlformats.org/package/2006/content-types\">")
+                .append("<Default Extension=\"rels\" ContentType=\"application/vnd.openxmlformats-package.relationships+xml\"/>")
+                .append("<Default Extension=\"xml\" ContentType=\"application/xml\"/>")
+                .append("<Override PartName=\"/xl/workbook.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sheet.main+xml\"/>")
+                .append("<Override PartName=\"/xl/styles.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.styles+xml\"/>")
+                .append("<Override PartName=\"/xl/sharedStrings.xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.sharedStrings+xml\"/>");
+        for (int i = 1; i <= sheetParts.size(); i++) {
+            sb.append("<Override PartName=\"/xl/worksheets/sheet").append(i)
+                    .append(".xml\" ContentType=\"application/vnd.openxmlformats-officedocument.spreadsheetml.worksheet+xml\"/>");
+        }
+        return sb.append("</Types>").toString();
+    }
+
+    /**
+     * xl/workbook.xml，Sheet按writeSheet的顺序排列
+     * @return XML
+     */
+    private String workbookXml() {
+        StringBuilder sb = new StringBuilder(XML_HEADER)
+                .append("<workbook xmlns=\"").append(MAIN_NS).append("\" xmlns:r=\"").append(REL_NS).append("\"><sheets>");
+        for (int i = 1; i <= sheetParts.size(); i++) {
+            sb.append("<sheet name=\"").append(escape(sheetParts.get(i - 1).sheetName))
+                    .append("\" sheetId=\"").append(i).append("\" r:id=\"rId").append(i).append("\"/>");
+        }
+        return sb.append("</sheets></workbook>").toString();
+    }
+
+    /**
+     * xl/_rels/workbook.xml.rels
+     * @return XML
+     */
+    private String workbookRelsXml() {
+        int sheetCount = sheetParts.size();
+        StringBuilder sb = new StringBuilder(XML_HEADER)
+                .append("<Relationships xmlns=\"").append(PACKAGE_REL_NS).append("\">");
+        for (int i = 1; i <= sheetCount; i++) {
+            sb.append("<Relationship Id=\"rId").append(i).append("\" Type=\"").append(REL_NS)
+                    .append("/worksheet\" Target=\"worksheets/sheet").append(i).append(".xml\"/>");
+        }
+        sb.append("<Relationship Id=\"rId").append(sheetCount + 1).append("\" Type=\"").append(REL_NS)
+                .append("/styles\" Target=\"styles.xml\"/>");
+        sb.append("<Relationship Id=\"rId").append(sheetCount + 2).append("\" Type=\"").append(REL_NS)
+                .append("/sharedStrings\" Target=\"sharedStrings.xml\"/>");
+        return sb.append("</Relationships>").toString();
+    }
+
+    /**
+     * xl/sharedStrings.xml。每个公司名在每个Sheet中出现两次（表头和行首）
+     * @return XML
+     */
+    private String sharedStringsXml() {
+        int count = 0;
+        for (SheetPart sheetPart : sheetParts) {
+            count += sheetPart.nameCount * 2;
+        }
+        StringBuilder sb = new StringBuilder(XML_HEADER)
+                .append("<sst xmlns=\"").append(MAIN_NS).append("\" count=\"").append(count)
+                .append("\" uniqueCount=\"").append(sharedStrings.size()).append("\">");
+        for (String value : sharedStrings) {
+            sb.append("<si><t xml:space=\"preserve\">").append(escape(value)).append("</t></si>");
+        }
+        return sb.append("</sst>").toString();
+    }
+
+    /**
+     * 获取 电影公司名的共享字符串编号，没有就分配一个
+     * @param movieComId 电影公司编号
+     * @return 共享字符串编号
+     */
+    private int getStringIndex(int movieComId) {
+        if (movieComId >= stringIndexes.length) {
+            int oldLength = stringIndexes.length;
+            stringIndexes = Arrays.copyOf(stringIndexes, Math.max(oldLength << 1, movieComId + 1));
+            Arrays.fill(stringIndexes, oldLength, stringIndexes.length, -1);
+        }
+        if (stringIndexes[movieComId] < 0) {
+            stringIndexes[movieComId] = sharedStrings.size();
+            sharedStrings.add(movieComDictionary.getName(movieComId));
+        }
+        return stringIndexes[movieComId];
+    }
+
+    /**
+     * 电影公司编号 -> 输出的列（不含第一列）
+     * @param movieComList 涉及到的所有电影公司编号
+     * @return 下标为电影公司编号
+     */
+    private int[] positionsOf(int[] movieComList) {
+        int maxId = -1;
+        for (int movieComId : movieComList) {
+            maxId = Math.max(maxId, movieComId);
+        }
+        int[] positions = new int[maxId + 1];
+        for (int i = 0; i < movieComList.length; i++) {
+            positions[movieComList[i]] = i;
+        }
+        return positions;
+    }
+
+    /**
+     * 获取 Sheet临时文件目录，没有就创建
+     * @return 临时目录
+     * @throws IOException 创建失败
+     */
+    private File getTempDir() throws IOException {
+        if (tempDir == null) {
+            tempDir = Files.createTempDirectory("stat-xlsx-").toFile();
+        }
+        return tempDir;
+    }
+
+    /**
+     * 删除Sheet临时文件目录
+     */
+    private void deleteTempDir() {
+        if (tempDir == null) {
+            return;
+        }
+        for (SheetPart sheetPart : sheetParts) {
+            sheetPart.file.delete();
+        }
+        tempDir.delete();
+        tempDir = null;
+    }
+
+    /**
+     * 写一个共享字符串单元格
+     * @param writer 输出
+     * @param columnName 列名
+     * @param rowNum 行号，从1开始
+     * @param stringIndex 共享字符串编号
+     * @throws IOException 写入失败
+     */
+    private static void writeStringCell(Writer writer, String columnName, int rowNum, int stringIndex)
+            throws IOException {
+        writer.write("<c r=\"");
+        writer.write(columnName);
+        writer.write(Integer.toString(rowNum));
+        writer.write("\" t=\"s\"><v>");
+        writer.write(Integer.toString(stringIndex));
+        writer.write("</v></c>");
+    }
+
+    /**
+     * 写一个数字单元格
+     * @param writer 输出
+     * @param columnName 列名
+     * @param rowNum 行号，从1开始
+     * @param value 数值
+     * @throws IOException 写入失败
+     */
+    private static void writeNumberCell(Writer writer, String columnName, int rowNum, int value)
+            throws IOException {
+        writer.write("<c r=\"");
+        writer.write(columnName);
+        writer.write(Integer.toString(rowNum));
+        writer.write("\"><v>");
+        writer.write(Integer.toString(value));
+        writer.write("</v></c>");
+    }
+
+    /**
+     * 写入一个小文件
+     * @param zos zip
+     * @param name 文件名
+     * @param text 内容
+     * @throws IOException 写入失败
+     */
+    private static void putText(ZipArchiveOutputStream zos, String name, String text) throws IOException {
+        zos.putArchiveEntry(new ZipArchiveEntry(name));
+        zos.write(text.getBytes(StandardCharsets.UTF_8));
+        zos.closeArchiveEntry();
+    }
+
+    /**
+     * 列号转成列名：0 -> A，25 -> Z，26 -> AA
+     * @param column 列号，从0开始
+     * @return 列名
+     */
+    private static String columnName(int column) {
+        StringBuilder sb = new StringBuilder();
+        for (int n = column + 1; n > 0; n = (n - 1) / 26) {
+            sb.append((char) ('A' + (n - 1) % 26));
+        }
+        return sb.reverse().toString();
+    }
+
+    /**
+     * XML转义，去掉XML中不允许的控制字符
+     * @param value 文本
+     * @return 转义后的文本
+     */
+    private static String escape(String value) {
+        StringBuilder sb = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char ch = value.charAt(i);
+            switch (ch) {
+                case '&':
+                    sb.append("&amp;");
+                    break;
+                case '<':
+                    sb.append("&lt;");
+                    break;
+                case '>':
+                    sb.append("&gt;");
+                    break;
+                case '"':
+                    sb.append("&quot;");
+                    break;
+                default:
+                    if (ch >= 0x20 || ch == '\t' || ch == '\n' || ch == '\r') {
+                        sb.append(ch);
+                    }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Usage:
+     * 一个Sheet的生成状态
+     */
+    private static class SheetPart {
+
+        /** Sheet名 */
+        private final String sheetName;
+
+        /** 压缩后的worksheet XML */
+        private final File file;
+
+        /** 公司数 */
+        private int nameCount;
+
+        /** 生成任务 */
+        private Future<?> future;
+
+        /** 压缩前的CRC32 */
+        private long crc;
+
+        /** 压缩前的字节数 */
+        private long size;
+
+        /** 压缩后的字节数 */
+        private long compressedSize;
+
+        /**
+         * 全参构造函数
+         * @param sheetName Sheet名
+         * @param file 压缩后的worksheet XML
+         */
+        SheetPart(String sheetName, File file) {
+            this.sheetName = sheetName;
+            this.file = file;
+        }
+
+    }
+
+}
@@ -0,0 +1,106 @@
+package indi.liht.stat.writer;
+
+import indi.liht.stat.collection.HeavyHitterTracker;
+import indi.liht.stat.collection.IntDictionary;
+import indi.liht.stat.collection.PairKey;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Usage:
+ * 近似统计的输出：一个csv文件，每行为“结果Sheet,名次,电影公司A,电影公司B,估计权重,权重下限”，
+ * 各结果Sheet按输出顺序排列，Sheet内按估计权重从大到小排列。估计权重不小于真实权重，
+ * 权重下限为估计权重减去误差上限（不小于0），真实权重以草图给出的概率落在两者之间
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class TopPairCsvWriter implements Closeable {
+
+    /** 表头 */
+    private static final String HEADER = "sheet,rank,companyA,companyB,estimate,lowerBound\n";
+
+    /** 输出文件的完整路径 */
+    private final String outputPath;
+
+    /** 电影公司字典 */
+    private final IntDictionary movieComDictionary;
+
+    /** 输出 */
+    private final Writer writer;
+
+    /**
+     * 全参构造函数，创建输出文件并写入表头
+     * @param outputPath 输出文件的完整路径
+     * @param movieComDictionary 电影公司字典
+     * @throws IOException 创建失败
+     */
+    public TopPairCsvWriter(String outputPath, IntDictionary movieComDictionary) throws IOException {
+        this.outputPath = outputPath;
+        this.movieComDictionary = movieComDictionary;
+        this.writer = new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(outputPath), StandardCharsets.UTF_8), 64 * 1024);
+        writer.write(HEADER);
+    }
+
+    /**
+     * 输出一个结果Sheet的重要公司对
+     * @param sheetName 结果Sheet名
+     * @param tracker 重要公司对，键为PairKey
+     * @param errorBound 估计权重最多高出的权重
+     * @return 输出的公司对数
+     * @throws IOException 输出失败
+     */
+    public int writeSheet(String sheetName, HeavyHitterTracker tracker, long errorBound) throws IOException {
+        String sheet = escape(sheetName);
+        long[] pairs = tracker.topKeys();
+        for (int rank = 0; rank < pairs.length; rank++) {
+            long estimate = tracker.countOf(pairs[rank]);
+            writer.write(sheet);
+            writer.write(',');
+            writer.write(Integer.toString(rank + 1));
+            writer.write(',');
+            writer.write(escape(movieComDictionary.getName(PairKey.first(pairs[rank]))));
+            writer.write(',');
+            writer.write(escape(movieComDictionary.getName(PairKey.second(pairs[rank]))));
+            writer.write(',');
+            writer.write(Long.toString(estimate));
+            writer.write(',');
+            writer.write(Long.toString(Math.max(estimate - errorBound, 0L)));
+            writer.write('\n');
+        }
+        return pairs.length;
+    }
+
+    /**
+     * 获取 输出文件的完整路径
+     * @return 输出文件的完整路径
+     */
+    public String getOutputPath() {
+        return outputPath;
+    }
+
+    @Override
+    public void close() throws IOException {
+        writer.close();
+    }
+
+    /**
+     * 必要时加引号转义
+     * @param value 值
+     * @return csv中的值
+     */
+    private static String escape(String value) {
+        if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0
+                || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+            return "\"" + value.replace("\"", "\"\"") + "\"";
+        }
+        return value;
+    }
+
+}
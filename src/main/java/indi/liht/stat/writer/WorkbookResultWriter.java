@@ -0,0 +1,160 @@
+package indi.liht.stat.writer;
+
+import indi.liht.stat.collection.CsrMatrix;
+import indi.liht.stat.collection.IntDictionary;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Usage:
+ * 用POI的Workbook输出n×n的电影公司权重矩阵（HSSFWorkbook、XSSFWorkbook或者SXSSFWorkbook）。
+ * 权重矩阵按行读取：每行的列号和输出的列都是按编号从小到大排列，一边走一边对齐，不需要查表。
+ * 稀疏输出时只写权重表中有的公司对，其余单元格留空，单元格数与公司对数成正比。
+ * Workbook不是线程安全的，writeSheet串行执行；SXSSFWorkbook只在内存中保留最近的若干行，其余的行写到临时文件
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/10
+ **/
+public class WorkbookResultWriter implements IResultWriter {
+
+    /** 要写入的工作表 */
+    private final Workbook workbookToWrite;
+
+    /** 输出文件的完整路径 */
+    private final String outputPath;
+
+    /** 工作表类型，用于打印 */
+    private final String typeName;
+
+    /** 电影公司字典 */
+    private final IntDictionary movieComDictionary;
+
+    /** 是否稀疏输出：只写权重表中有的公司对 */
+    private final boolean sparse;
+
+    /**
+     * 全参构造函数
+     * @param workbookToWrite 要写入的工作表
+     * @param outputPath 输出文件的完整路径
+     * @param typeName 工作表类型，用于打印
+     * @param movieComDictionary 电影公司字典
+     * @param sparse 是否稀疏输出：只写权重表中有的公司对，其余单元格留空
+     */
+    public WorkbookResultWriter(Workbook workbookToWrite, String outputPath, String typeName,
+                                IntDictionary movieComDictionary, boolean sparse) {
+        this.workbookToWrite = workbookToWrite;
+        this.outputPath = outputPath;
+        this.typeName = typeName;
+        this.movieComDictionary = movieComDictionary;
+        this.sparse = sparse;
+    }
+
+    @Override
+    public synchronized void writeSheet(String sheetName, CsrMatrix movieABWeight, int[] movieComList) {
+        Sheet sheet = workbookToWrite.createSheet(sheetName);
+        int listSize = movieComList.length;
+        // 先准备好公司名，之后按行号从小到大逐行生成，SXSSF可以随时把写完的行刷到磁盘
+        String[] movieComNames = new String[listSize];
+        for (int i = 0; i < listSize; i++) {
+            movieComNames[i] = movieComDictionary.getName(movieComList[i]);
+        }
+
+        // 写入第一行
+        Row firstRow = sheet.createRow(0);
+        // 第一行第一列空白
+        firstRow.createCell(0).setCellValue("");
+        for (int i = 0; i < listSize; i++) {
+            firstRow.createCell(i + 1).setCellValue(movieComNames[i]);
+        }
+
+        // 写入第二行开始的行
+        if (sparse) {
+            this.writeSparseRows(sheet, movieComNames, movieABWeight, movieComList);
+            System.out.println("完成写入[" + sheetName + "]工作簿[类型：" + typeName + "]，共"
+                    + (listSize + 1) + "行" + movieABWeight.getPairCount() + "对电影公司！");
+            return;
+        }
+        for (int i = 0; i < listSize; i++) {
+            // 每行第一列写入公司名
+            Row row = sheet.createRow(i + 1);
+            row.createCell(0).setCellValue(movieComNames[i]);
+            this.writeWeightToCell(movieComList[i], row, movieABWeight, movieComList);
+        }
+        System.out.println("完成写入[" + sheetName + "]工作簿[类型：" + typeName + "]，共"
+                + (listSize + 1) + "行！");
+    }
+
+    /**
+     * 把权重写入：输出的列和整行（含镜像的下三角）的元素都按编号从小到大，同时往后走，没有元素的列写0
+     * @param movieComId 当前行的电影公司编号
+     * @param row 当前行
+     * @param movieABWeight 电影公司权重
+     * @param movieComList 涉及到的所有电影公司编号
+     */
+    private void writeWeightToCell(int movieComId, Row row,
+                                   CsrMatrix movieABWeight,
+                                   int[] movieComList) {
+        CsrMatrix.PartnerCursor partners = movieABWeight.partners(movieComId);
+        boolean more = partners.next();
+        for (int j = 0; j < movieComList.length; j++) {
+            while (more && partners.partner() < movieComList[j]) {
+                more = partners.next();
+            }
+            int weight = more && partners.partner() == movieComList[j] ? partners.weight() : 0;
+            row.createCell(j + 1).setCellValue(weight);
+        }
+    }
+
+    /**
+     * 稀疏输出第二行开始的行：逐行只写整行（含镜像的下三角）有的元素，列号换成输出的列
+     * @param sheet 工作表
+     * @param movieComNames 公司名，按输出顺序排列
+     * @param movieABWeight 电影公司权重
+     * @param movieComList 涉及到的所有电影公司编号
+     */
+    private void writeSparseRows(Sheet sheet, String[] movieComNames,
+                                 CsrMatrix movieABWeight, int[] movieComList) {
+        int listSize = movieComList.length;
+        int[] positions = new int[movieComDictionary.size()];
+        for (int i = 0; i < listSize; i++) {
+            positions[movieComList[i]] = i;
+        }
+        for (int i = 0; i < listSize; i++) {
+            Row row = sheet.createRow(i + 1);
+            row.createCell(0).setCellValue(movieComNames[i]);
+            CsrMatrix.PartnerCursor partners = movieABWeight.partners(movieComList[i]);
+            while (partners.next()) {
+                row.createCell(positions[partners.partner()] + 1).setCellValue(partners.weight());
+            }
+        }
+    }
+
+    @Override
+    public String getOutputPath() {
+        return outputPath;
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        // 保存Workbook工作表
+        OutputStream os = null;
+        try {
+            os = new FileOutputStream(outputPath);
+            workbookToWrite.write(os);
+        } finally {
+            IOUtils.closeQuietly(os);
+            if (workbookToWrite instanceof SXSSFWorkbook) {
+                // 删除SXSSF的临时文件
+                ((SXSSFWorkbook) workbookToWrite).dispose();
+            }
+            IOUtils.closeQuietly(workbookToWrite);
+        }
+    }
+
+}
@@ -0,0 +1,206 @@
+package indi.liht.stat.cache;
+
+import indi.liht.stat.collection.IntDictionary;
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.collection.PairKey;
+import indi.liht.stat.models.MovieBlock;
+import indi.liht.stat.reader.IMovieBlockHandler;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage:
+ * InputCache的单元测试：写入后读出的分工权重、字典和电影与解析时相同，读完不占用缓存文件，
+ * 截断或者内容损坏的缓存在回放之前就被发现，不会被使用
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class InputCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void replaysWhatWasRecorded() throws IOException {
+        InputCache inputCache = this.newInputCache();
+        List<String> recorded = this.record(inputCache);
+
+        IntDictionary sectionDictionary = new IntDictionary();
+        IntDictionary movieComDictionary = new IntDictionary();
+        InputCache.CachedInput cachedInput = inputCache.load(sectionDictionary, movieComDictionary);
+        assertNotNull(cachedInput);
+        assertEquals(7, cachedInput.getRelationCnt());
+        assertEquals(3, cachedInput.getSectionABWeight().getOrDefault(PairKey.of(0, 1), -1));
+        assertEquals(2, sectionDictionary.size());
+        assertEquals("导演", sectionDictionary.getName(1));
+        assertEquals(3, movieComDictionary.size());
+        assertEquals("光线传媒", movieComDictionary.getName(1));
+
+        List<String> replayed = new ArrayList<>();
+        cachedInput.replay(new RecordingHandler(replayed));
+        assertEquals(recorded, replayed);
+        // 回放完文件已经关闭，可以直接删除或覆盖
+        assertTrue(new File(temporaryFolder.getRoot(), "input.cache").delete());
+    }
+
+    @Test
+    public void ignoresTruncatedCache() throws IOException {
+        InputCache inputCache = this.newInputCache();
+        this.record(inputCache);
+        File cacheFile = new File(temporaryFolder.getRoot(), "input.cache");
+        RandomAccessFile raf = new RandomAccessFile(cacheFile, "rw");
+        try {
+            raf.setLength(raf.length() / 2);
+        } finally {
+            raf.close();
+        }
+        assertNull(inputCache.load(new IntDictionary(), new IntDictionary()));
+    }
+
+    @Test
+    public void deletesCorruptedCache() throws IOException {
+        InputCache inputCache = this.newInputCache();
+        this.record(inputCache);
+        File cacheFile = new File(temporaryFolder.getRoot(), "input.cache");
+        byte[] bytes = Files.readAllBytes(cacheFile.toPath());
+        // 第二个工作表的第一部电影：工作表名之后就是它的记录类型，改成未知的类型
+        byte[] sheetName = "例子2".getBytes(StandardCharsets.UTF_8);
+        int position = lastIndexOf(bytes, sheetName) + sheetName.length;
+        assertEquals(2, bytes[position]);
+        bytes[position] = 9;
+        Files.write(cacheFile.toPath(), bytes);
+
+        IntDictionary sectionDictionary = new IntDictionary();
+        IntDictionary movieComDictionary = new IntDictionary();
+        assertNull(inputCache.load(sectionDictionary, movieComDictionary));
+        // 字典没有被改动，可以直接用来重新解析；损坏的缓存已经删除，下次解析重新写入
+        assertEquals(0, sectionDictionary.size());
+        assertEquals(0, movieComDictionary.size());
+        assertFalse(cacheFile.exists());
+    }
+
+    /**
+     * 创建输入缓存，两个Excel用内容固定的临时文件代替，文件名不用中文，不依赖系统的文件名编码
+     * @return 输入缓存
+     * @throws IOException 创建文件失败
+     */
+    private InputCache newInputCache() throws IOException {
+        File relationFile = this.newFile("relation.xlsx", "relation");
+        File mainFile = this.newFile("main.xlsx", "main");
+        return new InputCache(new File(temporaryFolder.getRoot(), "input.cache"), relationFile, "赋值表",
+                mainFile, new String[]{"例子", "例子2"});
+    }
+
+    /**
+     * 解析一次：两个工作表，每个工作表几部电影，全部写入缓存
+     * @param inputCache 输入缓存
+     * @return 解析时交给下一个处理器的事件
+     * @throws IOException 写入失败
+     */
+    private List<String> record(InputCache inputCache) throws IOException {
+        IntDictionary sectionDictionary = new IntDictionary();
+        IntDictionary movieComDictionary = new IntDictionary();
+        LongIntHashMap sectionABWeight = new LongIntHashMap();
+        sectionABWeight.put(PairKey.of(sectionDictionary.intern("出品"), sectionDictionary.intern("导演")), 3);
+        List<String> recorded = new ArrayList<>();
+        InputCache.Recorder recorder = inputCache.record(sectionABWeight, 7, new RecordingHandler(recorded));
+        String[] movieComs = {"华谊兄弟", "光线传媒", "博纳影业"};
+        for (String sheetName : new String[]{"例子", "例子2"}) {
+            recorder.startSheet(sheetName);
+            for (int movie = 0; movie < 3; movie++) {
+                MovieBlock movieBlock = new MovieBlock(2);
+                movieBlock.add(movieComDictionary.intern(movieComs[movie]), movie % 2);
+                movieBlock.add(movieComDictionary.intern(movieComs[(movie + 1) % 3]), 1);
+                recorder.handleBlock(sheetName, movieBlock);
+            }
+            recorder.endSheet(sheetName, 4);
+        }
+        recorder.commit(sectionDictionary, movieComDictionary);
+        return recorded;
+    }
+
+    /**
+     * 查找一段字节最后一次出现的位置
+     * @param bytes 全部字节
+     * @param target 要查找的字节
+     * @return 位置，没有时为-1
+     */
+    private static int lastIndexOf(byte[] bytes, byte[] target) {
+        for (int i = bytes.length - target.length; i >= 0; i--) {
+            if (Arrays.equals(target, Arrays.copyOfRange(bytes, i, i + target.length))) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * 在临时目录下创建一个文件
+     * @param name 文件名
+     * @param content 内容
+     * @return 文件
+     * @throws IOException 写入失败
+     */
+    private File newFile(String name, String content) throws IOException {
+        File file = temporaryFolder.newFile(name);
+        FileOutputStream fos = new FileOutputStream(file);
+        try {
+            fos.write(content.getBytes(StandardCharsets.UTF_8));
+        } finally {
+            fos.close();
+        }
+        return file;
+    }
+
+    /**
+     * Usage:
+     * 把收到的事件记成字符串，便于比较
+     */
+    private static class RecordingHandler implements IMovieBlockHandler {
+
+        /** 收到的事件 */
+        private final List<String> events;
+
+        /**
+         * 全参构造函数
+         * @param events 收到的事件
+         */
+        RecordingHandler(List<String> events) {
+            this.events = events;
+        }
+
+        @Override
+        public void startSheet(String sheetName) {
+            events.add("start " + sheetName);
+        }
+
+        @Override
+        public void handleBlock(String sheetName, MovieBlock movieBlock) {
+            events.add("block " + sheetName + " " + movieBlock);
+        }
+
+        @Override
+        public void endSheet(String sheetName, int cnt) {
+            events.add("end " + sheetName + " " + cnt);
+        }
+
+    }
+
+}
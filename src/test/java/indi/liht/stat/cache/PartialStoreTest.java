@@ -0,0 +1,86 @@
+package indi.liht.stat.cache;
+
+import indi.liht.stat.collection.CsrMatrix;
+import indi.liht.stat.collection.IntDictionary;
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.collection.PairKey;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Usage:
+ * PartialStore的单元测试：保存的权重换成新字典的编号后不变，指纹和中间摘要原样读出；
+ * 计算配置不同时不复用，按新配置保存后才复用
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class PartialStoreTest {
+
+    /** 保存时的计算配置 */
+    private static final String SETTINGS = "dedup-window=0;approx=false;top-k=0;min-weight=null";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void loadsWhatWasSaved() throws IOException {
+        PartialStore partialStore = new PartialStore(temporaryFolder.getRoot(), SETTINGS);
+        this.save(partialStore);
+
+        // 新的一次运行：字典里已经有别的公司，编号和保存时不同
+        IntDictionary movieComDictionary = new IntDictionary();
+        movieComDictionary.intern("博纳影业");
+        PartialStore.StoredPartial partial = partialStore.load("例子");
+        assertNotNull(partial);
+        assertArrayEquals(new byte[]{1, 2, 3}, partial.getFingerprint());
+        assertArrayEquals(new byte[]{4}, partial.getCheckpoint(0));
+        assertNull(partial.getCheckpoint(1));
+        LongIntHashMap movieABWeight = partial.toWeightMap(movieComDictionary);
+        int huayi = movieComDictionary.intern("华谊兄弟");
+        int guangxian = movieComDictionary.intern("光线传媒");
+        assertEquals(2, movieABWeight.size());
+        assertEquals(5, movieABWeight.getOrDefault(PairKey.of(huayi, guangxian), -1));
+        assertEquals(3, movieABWeight.getOrDefault(PairKey.of(guangxian, guangxian), -1));
+        assertNull(partialStore.load("例子2"));
+    }
+
+    @Test
+    public void ignoresPartialSavedWithOtherSettings() throws IOException {
+        this.save(new PartialStore(temporaryFolder.getRoot(), SETTINGS));
+        PartialStore changed = new PartialStore(temporaryFolder.getRoot(),
+                "dedup-window=0;approx=false;top-k=5;min-weight=null");
+        assertNull(changed.load("例子"));
+        // 按新配置重新算过、保存之后就可以复用了
+        this.save(changed);
+        assertNotNull(changed.load("例子"));
+        assertNull(new PartialStore(temporaryFolder.getRoot(), SETTINGS).load("例子"));
+    }
+
+    /**
+     * 保存一个工作表：两对公司，其中一对是公司与自己
+     * @param partialStore 存放各工作表结果的目录
+     * @throws IOException 写入失败
+     */
+    private void save(PartialStore partialStore) throws IOException {
+        IntDictionary movieComDictionary = new IntDictionary();
+        int huayi = movieComDictionary.intern("华谊兄弟");
+        int guangxian = movieComDictionary.intern("光线传媒");
+        LongIntHashMap movieABWeight = new LongIntHashMap();
+        movieABWeight.put(PairKey.of(huayi, guangxian), 5);
+        movieABWeight.put(PairKey.of(guangxian, guangxian), 3);
+        List<byte[]> checkpoints = Arrays.asList(new byte[][]{{4}});
+        partialStore.save("例子", new byte[]{1, 2, 3}, checkpoints,
+                CsrMatrix.of(movieABWeight, 0)::forEachPair, movieComDictionary);
+    }
+
+}
@@ -0,0 +1,74 @@
+package indi.liht.stat.collection;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage:
+ * CountMinSketch的单元测试：估计值不小于真实值，超出误差上限εN的键不多于失败概率δ所允许的比例；
+ * 按内存大小构造时每行的计数器数为2的幂且不超过预算；清空后可以重新使用
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class CountMinSketchTest {
+
+    @Test
+    public void estimatesStayWithinErrorBound() {
+        CountMinSketch sketch = new CountMinSketch(1024, 4);
+        Map<Long, Long> expected = new HashMap<>();
+        Random random = new Random(20181201L);
+        for (int i = 0; i < 100000; i++) {
+            long key = PairKey.of(random.nextInt(200), random.nextInt(200));
+            long weight = 1 + random.nextInt(10);
+            long estimate = sketch.add(key, weight);
+            long count = expected.merge(key, weight, Long::sum);
+            assertTrue(estimate >= count);
+        }
+
+        long total = 0L;
+        for (long count : expected.values()) {
+            total += count;
+        }
+        assertEquals(total, sketch.getTotal());
+        long errorBound = sketch.getErrorBound();
+        int exceeded = 0;
+        for (Map.Entry<Long, Long> entry : expected.entrySet()) {
+            long estimate = sketch.estimate(entry.getKey());
+            assertTrue(estimate >= entry.getValue());
+            if (estimate - entry.getValue() > errorBound) {
+                exceeded++;
+            }
+        }
+        assertTrue(exceeded <= Math.ceil(sketch.getFailureProbability() * expected.size()));
+    }
+
+    @Test
+    public void sizesByBytes() {
+        CountMinSketch sketch = CountMinSketch.ofBytes(100000, 3);
+        assertEquals(3, sketch.getDepth());
+        assertEquals(1, Integer.bitCount(sketch.getWidth()));
+        assertTrue(sketch.getBytes() <= 100000);
+        // 再翻一倍就超出预算
+        assertTrue(sketch.getBytes() * 2 > 100000);
+        assertEquals(Math.exp(-3), sketch.getFailureProbability(), 1e-12);
+    }
+
+    @Test
+    public void clearResetsCounters() {
+        CountMinSketch sketch = new CountMinSketch(64, 2);
+        sketch.add(PairKey.of(1, 2), 7);
+        sketch.add(PairKey.of(3, 4), 2);
+        sketch.clear();
+        assertEquals(0L, sketch.getTotal());
+        assertEquals(0L, sketch.estimate(PairKey.of(1, 2)));
+        assertEquals(0L, sketch.getErrorBound());
+        assertEquals(3L, sketch.add(PairKey.of(1, 2), 3));
+    }
+
+}
@@ -0,0 +1,129 @@
+package indi.liht.stat.collection;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage:
+ * CsrMatrix的单元测试：只存上三角，整行和查询按镜像读出的结果与对称的稠密矩阵相同
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class CsrMatrixTest {
+
+    @Test
+    public void fullRowsMirrorTheUpperTriangle() throws Exception {
+        int rows = 60;
+        Random random = new Random(20181124L);
+        LongIntHashMap pairWeights = new LongIntHashMap();
+        int[][] dense = new int[rows][rows];
+        for (int i = 0; i < 500; i++) {
+            // 包括(0, 0)在内的对角元素也会出现，最后几行留空
+            int a = random.nextInt(rows - 5);
+            int b = random.nextInt(rows - 5);
+            int weight = random.nextInt(10) + 1;
+            pairWeights.addTo(PairKey.of(a, b), weight);
+        }
+        pairWeights.forEach((key, weight) -> {
+            dense[PairKey.first(key)][PairKey.second(key)] = weight;
+            dense[PairKey.second(key)][PairKey.first(key)] = weight;
+        });
+
+        CsrMatrix matrix = CsrMatrix.of(pairWeights, rows);
+        assertEquals(rows, matrix.getRowCount());
+        assertEquals(pairWeights.size(), matrix.getPairCount());
+        assertDense(dense, matrix);
+
+        // 按PairKey排好序的公司对构造出同样的矩阵
+        List<long[]> sorted = new ArrayList<>();
+        matrix.forEachPair((key, weight) -> sorted.add(new long[]{key, weight}));
+        CsrMatrix copy = CsrMatrix.ofSortedPairs(procedure -> {
+            for (long[] pair : sorted) {
+                procedure.apply(pair[0], (int) pair[1]);
+            }
+        });
+        assertEquals(matrix.getPairCount(), copy.getPairCount());
+        assertDense(Arrays.copyOf(dense, copy.getRowCount()), copy);
+    }
+
+    @Test
+    public void retainKeepsEachPairOnce() {
+        LongIntHashMap pairWeights = new LongIntHashMap();
+        pairWeights.put(PairKey.of(0, 1), 5);
+        pairWeights.put(PairKey.of(0, 2), 1);
+        pairWeights.put(PairKey.of(1, 2), 7);
+        pairWeights.put(PairKey.of(2, 2), 3);
+        CsrMatrix matrix = CsrMatrix.of(pairWeights, 0);
+
+        boolean[] keep = new boolean[matrix.getPairCount()];
+        for (int i = 0; i < keep.length; i++) {
+            keep[i] = matrix.weight(i) >= 3;
+        }
+        CsrMatrix retained = matrix.retain(keep);
+        assertEquals(3, retained.getPairCount());
+        assertEquals(0, retained.get(2, 0, 0));
+        assertEquals(7, retained.get(2, 1, 0));
+        assertEquals(3, retained.get(2, 2, 0));
+        assertEquals(2, retained.getPartnerCount(2));
+        assertArrayEquals(new int[]{1, 2}, partnersOf(retained, 2));
+        assertEquals(-1, retained.indexOf(0, 2));
+        assertEquals(0, retained.getPartnerCount(3));
+    }
+
+    /**
+     * 逐行逐列比对
+     * @param dense 稠密矩阵
+     * @param matrix 矩阵
+     */
+    private static void assertDense(int[][] dense, CsrMatrix matrix) {
+        for (int row = 0; row < dense.length; row++) {
+            int count = 0;
+            for (int column = 0; column < dense.length; column++) {
+                assertEquals(dense[row][column], matrix.get(row, column, 0));
+                if (dense[row][column] != 0) {
+                    count++;
+                }
+            }
+            assertEquals(count, matrix.getPartnerCount(row));
+            int previous = -1;
+            int k = 0;
+            CsrMatrix.PartnerCursor partners = matrix.partners(row);
+            while (partners.next()) {
+                int partner = partners.partner();
+                // 整行的列号从小到大，游标和entryOf指向同一个元素
+                assertTrue(partner > previous);
+                assertEquals(dense[row][partner], partners.weight());
+                assertEquals(matrix.entryOf(row, k++), partners.entry());
+                previous = partner;
+            }
+            assertEquals(count, k);
+            for (int i = matrix.rowStart(row); i < matrix.rowEnd(row); i++) {
+                assertTrue(matrix.column(i) >= row);
+            }
+        }
+    }
+
+    /**
+     * 整行的列号
+     * @param matrix 矩阵
+     * @param row 行号
+     * @return 列号
+     */
+    private static int[] partnersOf(CsrMatrix matrix, int row) {
+        int[] partners = new int[matrix.getPartnerCount(row)];
+        CsrMatrix.PartnerCursor cursor = matrix.partners(row);
+        for (int k = 0; cursor.next(); k++) {
+            partners[k] = cursor.partner();
+        }
+        return partners;
+    }
+
+}
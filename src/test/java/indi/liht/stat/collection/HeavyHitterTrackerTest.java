@@ -0,0 +1,101 @@
+package indi.liht.stat.collection;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage:
+ * HeavyHitterTracker的单元测试：估计值相同时键小的在前，堆满后顶替估计值最小的键；
+ * 配合CountMinSketch跟踪一个已知的长尾分布，真实的前K个键都能找到
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class HeavyHitterTrackerTest {
+
+    @Test
+    public void ordersByCountThenKey() {
+        HeavyHitterTracker tracker = new HeavyHitterTracker(4);
+        tracker.offer(5L, 3);
+        tracker.offer(2L, 3);
+        tracker.offer(9L, 7);
+        tracker.offer(7L, 1);
+        assertArrayEquals(new long[]{9L, 2L, 5L, 7L}, tracker.topKeys());
+        // 估计值只增不减，更新后重新排列
+        tracker.offer(7L, 8);
+        assertArrayEquals(new long[]{7L, 9L, 2L, 5L}, tracker.topKeys());
+        assertEquals(8L, tracker.countOf(7L));
+    }
+
+    @Test
+    public void evictsSmallestWhenFull() {
+        HeavyHitterTracker tracker = new HeavyHitterTracker(2);
+        tracker.offer(1L, 5);
+        tracker.offer(2L, 2);
+        // 不超过堆顶，跳过
+        tracker.offer(3L, 2);
+        assertEquals(0L, tracker.countOf(3L));
+        tracker.offer(3L, 4);
+        assertArrayEquals(new long[]{1L, 3L}, tracker.topKeys());
+        assertEquals(0L, tracker.countOf(2L));
+        assertEquals(2, tracker.size());
+
+        tracker.clear();
+        assertEquals(0, tracker.size());
+        assertEquals(0L, tracker.countOf(1L));
+        assertEquals(0, tracker.topKeys().length);
+        tracker.offer(4L, 1);
+        assertArrayEquals(new long[]{4L}, tracker.topKeys());
+    }
+
+    @Test
+    public void recallsTopKeysOfSkewedDistribution() {
+        final int keys = 5000;
+        final int topK = 20;
+        // 第i个键的权重约与1/(i+1)成正比，乱序到达
+        List<Long> stream = new ArrayList<>();
+        Map<Long, Long> expected = new HashMap<>();
+        for (int i = 0; i < keys; i++) {
+            long key = PairKey.of(i, keys + i);
+            int times = Math.max(1, 2000 / (i + 1));
+            for (int j = 0; j < times; j++) {
+                stream.add(key);
+            }
+            expected.put(key, (long) times);
+        }
+        Collections.shuffle(stream, new Random(20181202L));
+
+        CountMinSketch sketch = new CountMinSketch(4096, 4);
+        HeavyHitterTracker tracker = new HeavyHitterTracker(topK);
+        for (long key : stream) {
+            tracker.offer(key, sketch.add(key, 1));
+        }
+
+        long[] topKeys = tracker.topKeys();
+        assertEquals(topK, topKeys.length);
+        Set<Long> found = new HashSet<>();
+        for (long key : topKeys) {
+            found.add(key);
+            // 跟踪的估计值就是草图的估计值，不小于真实值
+            assertTrue(tracker.countOf(key) >= expected.get(key));
+        }
+        // 权重最大的前K个键（第K个与第K+1个权重不同）都找到了
+        for (int i = 0; i < topK; i++) {
+            assertTrue("缺少第" + i + "个键", found.contains(PairKey.of(i, keys + i)));
+        }
+        // 排在第一的是权重最大的键
+        assertEquals(PairKey.of(0, keys), topKeys[0]);
+    }
+
+}
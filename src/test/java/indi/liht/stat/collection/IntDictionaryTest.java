@@ -0,0 +1,46 @@
+package indi.liht.stat.collection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Usage:
+ * IntDictionary的单元测试：编号按第一次出现的顺序分配，扩容后不变
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class IntDictionaryTest {
+
+    @Test
+    public void idsAreStable() {
+        IntDictionary dictionary = new IntDictionary(1);
+        assertEquals(-1, dictionary.getId("华谊兄弟"));
+        assertEquals(0, dictionary.intern("华谊兄弟"));
+        assertEquals(1, dictionary.intern("光线传媒"));
+        assertEquals(0, dictionary.intern("华谊兄弟"));
+        assertEquals(2, dictionary.size());
+
+        int n = 50000;
+        for (int i = 0; i < n; i++) {
+            assertEquals(i + 2, dictionary.intern("公司" + i));
+        }
+        assertEquals(n + 2, dictionary.size());
+        assertEquals(0, dictionary.getId("华谊兄弟"));
+        assertEquals(1, dictionary.intern(new String("光线传媒")));
+        for (int i = 0; i < n; i++) {
+            assertEquals(i + 2, dictionary.getId("公司" + i));
+            assertEquals("公司" + i, dictionary.getName(i + 2));
+        }
+        assertEquals(-1, dictionary.getId("公司" + n));
+        assertEquals(n + 2, dictionary.size());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void unknownIdIsRejected() {
+        IntDictionary dictionary = new IntDictionary();
+        dictionary.intern("华谊兄弟");
+        dictionary.getName(1);
+    }
+
+}
@@ -0,0 +1,153 @@
+package indi.liht.stat.collection;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage:
+ * LongIntHashMap的单元测试：键为0的条目、扩容、删除后重新插入，以及和HashMap的随机对比
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class LongIntHashMapTest {
+
+    @Test
+    public void zeroKeyIsStoredSeparately() {
+        LongIntHashMap map = new LongIntHashMap();
+        // PairKey.of(0, 0)就是0，和空槽位的标记相同
+        long zero = PairKey.of(0, 0);
+        assertFalse(map.containsKey(zero));
+        assertEquals(-1, map.getOrDefault(zero, -1));
+
+        map.put(zero, 5);
+        assertTrue(map.containsKey(zero));
+        assertEquals(5, map.getOrDefault(zero, -1));
+        assertEquals(1, map.size());
+        assertEquals(8, map.addTo(zero, 3));
+
+        map.put(1L, 1);
+        int[] seen = new int[1];
+        map.forEach((key, value) -> {
+            if (key == zero) {
+                assertEquals(8, value);
+            }
+            seen[0]++;
+        });
+        assertEquals(2, seen[0]);
+
+        assertTrue(map.remove(zero));
+        assertFalse(map.remove(zero));
+        assertFalse(map.containsKey(zero));
+        assertEquals(1, map.size());
+        assertEquals(2, map.addTo(zero, 2));
+    }
+
+    @Test
+    public void growsAndKeepsAllEntries() {
+        LongIntHashMap map = new LongIntHashMap(1);
+        int n = 100000;
+        for (int i = 0; i < n; i++) {
+            map.addTo(PairKey.of(i, i + 1), i);
+        }
+        assertEquals(n, map.size());
+        for (int i = 0; i < n; i++) {
+            assertEquals(i, map.getOrDefault(PairKey.of(i + 1, i), -1));
+        }
+        assertFalse(map.containsKey(PairKey.of(n, n + 1)));
+
+        for (int i = 0; i < n; i++) {
+            map.addTo(PairKey.of(i, i + 1), 1);
+        }
+        assertEquals(n, map.size());
+        assertEquals(n, map.getOrDefault(PairKey.of(n - 1, n), -1));
+    }
+
+    @Test
+    public void removeThenReinsert() {
+        // 容量16，这些键都挤在同一段里，删除时要把后面的条目前移
+        LongIntHashMap map = new LongIntHashMap(8);
+        for (long key = 1; key <= 9; key++) {
+            map.put(key, (int) key * 10);
+        }
+        for (long key = 1; key <= 9; key += 2) {
+            assertTrue(map.remove(key));
+        }
+        assertFalse(map.remove(1L));
+        assertEquals(4, map.size());
+        for (long key = 1; key <= 9; key++) {
+            assertEquals(key % 2 == 0, map.containsKey(key));
+            assertEquals(key % 2 == 0 ? (int) key * 10 : -1, map.getOrDefault(key, -1));
+        }
+        for (long key = 1; key <= 9; key += 2) {
+            assertEquals(1, map.addTo(key, 1));
+        }
+        assertEquals(9, map.size());
+        for (long key = 1; key <= 9; key++) {
+            assertEquals(key % 2 == 0 ? (int) key * 10 : 1, map.getOrDefault(key, -1));
+        }
+    }
+
+    @Test
+    public void matchesHashMapUnderRandomOperations() {
+        Random random = new Random(20181124L);
+        LongIntHashMap map = new LongIntHashMap();
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int i = 0; i < 200000; i++) {
+            // 键的范围小，插入、累加和删除会反复落在同一批键上
+            long key = PairKey.of(random.nextInt(64), random.nextInt(64));
+            int op = random.nextInt(4);
+            if (op == 0) {
+                assertEquals(expected.remove(key) != null, map.remove(key));
+            } else if (op == 1) {
+                map.put(key, i);
+                expected.put(key, i);
+            } else {
+                assertEquals((int) expected.merge(key, op, Integer::sum), map.addTo(key, op));
+            }
+            if (i % 1000 == 0) {
+                assertSameEntries(expected, map);
+            }
+        }
+        assertSameEntries(expected, map);
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertFalse(map.containsKey(0L));
+    }
+
+    @Test
+    public void addAllSumsValues() {
+        LongIntHashMap a = new LongIntHashMap();
+        LongIntHashMap b = new LongIntHashMap();
+        a.put(0L, 1);
+        a.put(PairKey.of(1, 2), 2);
+        b.put(0L, 10);
+        b.put(PairKey.of(2, 1), 20);
+        b.put(PairKey.of(3, 4), 30);
+        a.addAll(b);
+        assertEquals(3, a.size());
+        assertEquals(11, a.getOrDefault(0L, -1));
+        assertEquals(22, a.getOrDefault(PairKey.of(1, 2), -1));
+        assertEquals(30, a.getOrDefault(PairKey.of(3, 4), -1));
+    }
+
+    /**
+     * 两个表的条目完全相同
+     * @param expected 期望的条目
+     * @param map 实际的表
+     */
+    private static void assertSameEntries(Map<Long, Integer> expected, LongIntHashMap map) {
+        assertEquals(expected.size(), map.size());
+        for (Map.Entry<Long, Integer> entry : expected.entrySet()) {
+            assertEquals((int) entry.getValue(), map.getOrDefault(entry.getKey(), -1));
+        }
+        map.forEach((key, value) -> assertEquals(expected.get(key), Integer.valueOf(value)));
+    }
+
+}
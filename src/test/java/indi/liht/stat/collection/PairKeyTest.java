@@ -0,0 +1,37 @@
+package indi.liht.stat.collection;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+/**
+ * Usage:
+ * PairKey的单元测试：两个编号不分先后，拆开后较小的在前
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class PairKeyTest {
+
+    @Test
+    public void orderDoesNotMatter() {
+        int[] ids = {0, 1, 2, 65535, 65536, Integer.MAX_VALUE - 1, Integer.MAX_VALUE};
+        for (int a : ids) {
+            for (int b : ids) {
+                long key = PairKey.of(a, b);
+                assertEquals(PairKey.of(b, a), key);
+                assertEquals(Math.min(a, b), PairKey.first(key));
+                assertEquals(Math.max(a, b), PairKey.second(key));
+            }
+        }
+    }
+
+    @Test
+    public void distinctPairsHaveDistinctKeys() {
+        assertNotEquals(PairKey.of(1, 2), PairKey.of(1, 3));
+        assertNotEquals(PairKey.of(1, 2), PairKey.of(2, 2));
+        assertNotEquals(PairKey.of(0, 1), PairKey.of(1, 1));
+        assertEquals(0L, PairKey.of(0, 0));
+    }
+
+}
@@ -0,0 +1,77 @@
+package indi.liht.stat.collection;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Usage:
+ * StripedLongIntMap的单元测试：多个线程同时合并键相互重叠的表，结果与顺序累加相同
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class StripedLongIntMapTest {
+
+    @Test
+    public void concurrentAddAllMatchesSequentialSum() throws InterruptedException {
+        int threadCount = 8;
+        int partsPerThread = 20;
+        Random random = new Random(20181124L);
+        List<LongIntHashMap> parts = new ArrayList<>();
+        LongIntHashMap expected = new LongIntHashMap();
+        for (int i = 0; i < threadCount * partsPerThread; i++) {
+            LongIntHashMap part = new LongIntHashMap();
+            for (int j = 0; j < 2000; j++) {
+                // 编号范围小，各表的键大量重叠，也会出现键为0的公司对
+                part.addTo(PairKey.of(random.nextInt(200), random.nextInt(200)), random.nextInt(10) + 1);
+            }
+            parts.add(part);
+            expected.addAll(part);
+        }
+
+        StripedLongIntMap map = new StripedLongIntMap(threadCount);
+        CountDownLatch startLatch = new CountDownLatch(1);
+        Thread[] threads = new Thread[threadCount];
+        Throwable[] failures = new Throwable[threadCount];
+        for (int t = 0; t < threadCount; t++) {
+            final int threadIndex = t;
+            threads[t] = new Thread(() -> {
+                try {
+                    startLatch.await();
+                    for (int i = threadIndex; i < parts.size(); i += threadCount) {
+                        map.addAll(parts.get(i));
+                        // 再混进单个键的累加，和批量合并抢同一段的锁
+                        map.addTo(PairKey.of(0, 0), 1);
+                    }
+                } catch (Throwable e) {
+                    failures[threadIndex] = e;
+                }
+            });
+            threads[t].start();
+        }
+        startLatch.countDown();
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (Throwable failure : failures) {
+            if (failure != null) {
+                throw new AssertionError(failure);
+            }
+        }
+        expected.addTo(PairKey.of(0, 0), parts.size());
+
+        assertEquals(expected.size(), map.size());
+        LongIntHashMap merged = map.toMap();
+        assertEquals(expected.size(), merged.size());
+        expected.forEach((key, value) -> {
+            assertEquals(value, map.getOrDefault(key, -1));
+            assertEquals(value, merged.getOrDefault(key, -1));
+        });
+    }
+
+}
@@ -0,0 +1,137 @@
+package indi.liht.stat.core;
+
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.collection.PairKey;
+import indi.liht.stat.models.MovieBlock;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage:
+ * BlockDeduplicator的单元测试：(公司, 分工)相同、只是顺序不同的电影合并成一部，重数为出现的次数；
+ * 公司相同但分工不同的不合并；按重数计算出的权重与不合并时完全相同，中途记满取出也一样
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class BlockDeduplicatorTest {
+
+    /** 分工数 */
+    private static final int SECTIONS = 3;
+
+    @Test
+    public void mergesIdenticalLineups() {
+        BlockDeduplicator deduplicator = new BlockDeduplicator(16);
+        assertFalse(deduplicator.add(block(1, 0, 2, 1)));
+        assertFalse(deduplicator.add(block(2, 1, 1, 0)));
+        // 公司相同，分工不同
+        assertFalse(deduplicator.add(block(1, 1, 2, 0)));
+        assertFalse(deduplicator.add(block(1, 0, 2, 1)));
+        List<MovieBlock> drained = new ArrayList<>();
+        deduplicator.drain(drained::add);
+
+        assertEquals(2, drained.size());
+        assertEquals(3, drained.get(0).getMultiplicity());
+        assertEquals(1, drained.get(1).getMultiplicity());
+        // 第一部按(公司, 分工)排好序
+        assertEquals(1, drained.get(0).getMovieComId(0));
+        assertEquals(0, drained.get(0).getSectionId(0));
+        assertEquals(2, drained.get(0).getMovieComId(1));
+        assertEquals(1, drained.get(0).getSectionId(1));
+        assertEquals(4, deduplicator.getAdded());
+        assertEquals(2, deduplicator.getDrained());
+
+        // 取出后清空
+        List<MovieBlock> empty = new ArrayList<>();
+        deduplicator.drain(empty::add);
+        assertTrue(empty.isEmpty());
+    }
+
+    @Test
+    public void reportsFullWindow() {
+        BlockDeduplicator deduplicator = new BlockDeduplicator(2);
+        assertFalse(deduplicator.add(block(1, 0, 2, 1)));
+        // 重复的不占位置
+        assertFalse(deduplicator.add(block(1, 0, 2, 1)));
+        assertTrue(deduplicator.add(block(3, 0, 4, 1)));
+    }
+
+    @Test
+    public void weightsMatchWithoutMerging() {
+        Random random = new Random(20181130L);
+        // 少量不同的阵容反复出现，窗口很小，中途多次记满取出
+        List<MovieBlock> lineups = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            int size = 2 + random.nextInt(4);
+            MovieBlock movieBlock = new MovieBlock(size);
+            for (int j = 0; j < size; j++) {
+                movieBlock.add(random.nextInt(30), random.nextInt(SECTIONS));
+            }
+            lineups.add(movieBlock);
+        }
+        LongIntHashMap expected = new LongIntHashMap();
+        LongIntHashMap merged = new LongIntHashMap();
+        BlockDeduplicator deduplicator = new BlockDeduplicator(8);
+        for (int i = 0; i < 5000; i++) {
+            MovieBlock movieBlock = lineups.get(random.nextInt(lineups.size()));
+            MovieWeightAggregator.putToWeightMap(movieBlock, expected, sectionABWeight());
+            if (deduplicator.add(movieBlock)) {
+                deduplicator.drain(drained -> MovieWeightAggregator.putToWeightMap(drained, merged, sectionABWeight()));
+            }
+        }
+        deduplicator.drain(drained -> MovieWeightAggregator.putToWeightMap(drained, merged, sectionABWeight()));
+
+        assertEquals(toMap(expected), toMap(merged));
+        assertEquals(5000, deduplicator.getAdded());
+        assertTrue(deduplicator.getDrained() < 5000);
+    }
+
+    /**
+     * 两个公司的电影
+     * @param movieComA 公司A
+     * @param sectionA 公司A的分工
+     * @param movieComB 公司B
+     * @param sectionB 公司B的分工
+     * @return 电影
+     */
+    private static MovieBlock block(int movieComA, int sectionA, int movieComB, int sectionB) {
+        MovieBlock movieBlock = new MovieBlock(2);
+        movieBlock.add(movieComA, sectionA);
+        movieBlock.add(movieComB, sectionB);
+        return movieBlock;
+    }
+
+    /**
+     * 分工权重：两个分工的编号之和加1，都为正
+     * @return 分工权重
+     */
+    private static LongIntHashMap sectionABWeight() {
+        LongIntHashMap sectionABWeight = new LongIntHashMap();
+        for (int a = 0; a < SECTIONS; a++) {
+            for (int b = a; b < SECTIONS; b++) {
+                sectionABWeight.put(PairKey.of(a, b), a + b + 1);
+            }
+        }
+        return sectionABWeight;
+    }
+
+    /**
+     * 把权重表读出来，便于比较
+     * @param movieABWeight 权重表
+     * @return 公司对权重
+     */
+    private static Map<Long, Integer> toMap(LongIntHashMap movieABWeight) {
+        Map<Long, Integer> weights = new HashMap<>();
+        movieABWeight.forEach(weights::put);
+        return weights;
+    }
+
+}
@@ -0,0 +1,240 @@
+package indi.liht.stat.core;
+
+import indi.liht.stat.cache.PartialStore;
+import indi.liht.stat.cache.SheetFingerprint;
+import indi.liht.stat.collection.IntDictionary;
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.collection.PairKey;
+import indi.liht.stat.metrics.StatMetrics;
+import indi.liht.stat.models.MovieBlock;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Usage:
+ * IncrementalBlockHandler的单元测试：工作表没变时复用上次的权重，一部电影也不计算；
+ * 中间摘要不同、或者只有最后一段不同时，暂存的电影（临时文件里的和内存里的）按原来的顺序交给流水线，结果与重新计算相同；
+ * 计算配置变了也重新计算。暂存的临时文件用完都会删除
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class IncrementalBlockHandlerTest {
+
+    /** 工作表名 */
+    private static final String SHEET = "例子";
+
+    /** 每个工作表的电影数：三个完整的摘要间隔，再多一段 */
+    private static final int BLOCKS = SheetFingerprint.CHECKPOINT_INTERVAL * 3 + 100;
+
+    /** 计算配置 */
+    private static final String SETTINGS = "dedup-window=0;approx=false;top-k=0;min-weight=null";
+
+    /** 分工数 */
+    private static final int SECTIONS = 4;
+
+    /** 公司数 */
+    private static final int MOVIE_COMS = 60;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void reusesUnchangedSheet() throws IOException {
+        File partialDir = temporaryFolder.newFolder();
+        List<MovieBlock> movieBlocks = randomBlocks(BLOCKS);
+        Run first = this.run(partialDir, SETTINGS, movieBlocks);
+        assertEquals(BLOCKS, first.blocksAggregated);
+        assertEquals(sequentialWeights(movieBlocks), first.written);
+
+        Run second = this.run(partialDir, SETTINGS, randomBlocks(BLOCKS));
+        assertEquals(0, second.blocksAggregated);
+        assertEquals(first.written, second.written);
+    }
+
+    @Test
+    public void recomputesFromTheFirstDifferentCheckpoint() throws IOException {
+        File partialDir = temporaryFolder.newFolder();
+        this.run(partialDir, SETTINGS, randomBlocks(BLOCKS));
+        // 第一个中间摘要相同，之前的电影已经写进临时文件；第二个不同，全部交给流水线
+        List<MovieBlock> changed = randomBlocks(BLOCKS);
+        changed.set(SheetFingerprint.CHECKPOINT_INTERVAL + 10, block(1, 0, 2, 1));
+        Run second = this.run(partialDir, SETTINGS, changed);
+        assertEquals(BLOCKS, second.blocksAggregated);
+        assertEquals(sequentialWeights(changed), second.written);
+        // 重新计算之后保存的是新的权重
+        assertEquals(0, this.run(partialDir, SETTINGS, copyOf(changed)).blocksAggregated);
+    }
+
+    @Test
+    public void replaysHeldBlocksWhenOnlyTheLastPartChanged() throws IOException {
+        File partialDir = temporaryFolder.newFolder();
+        this.run(partialDir, SETTINGS, randomBlocks(BLOCKS));
+        // 中间摘要都相同，到工作表结束才发现不同：临时文件里的三段和内存里的最后一段都要交给流水线
+        List<MovieBlock> changed = randomBlocks(BLOCKS);
+        changed.set(BLOCKS - 1, block(3, 3, 4, 2));
+        Run second = this.run(partialDir, SETTINGS, changed);
+        assertEquals(BLOCKS, second.blocksAggregated);
+        assertEquals(sequentialWeights(changed), second.written);
+    }
+
+    @Test
+    public void recomputesWhenSettingsChange() throws IOException {
+        File partialDir = temporaryFolder.newFolder();
+        this.run(partialDir, SETTINGS, randomBlocks(BLOCKS));
+        String changedSettings = "dedup-window=0;approx=false;top-k=3;min-weight=null";
+        Run second = this.run(partialDir, changedSettings, randomBlocks(BLOCKS));
+        assertEquals(BLOCKS, second.blocksAggregated);
+        assertEquals(sequentialWeights(randomBlocks(BLOCKS)), second.written);
+        assertEquals(0, this.run(partialDir, changedSettings, randomBlocks(BLOCKS)).blocksAggregated);
+    }
+
+    /**
+     * 模拟一次运行：新的字典、新的流水线，读一个工作表，输出后保存重新计算的权重
+     * @param partialDir 各工作表结果的存放目录，多次运行共用
+     * @param settings 计算配置
+     * @param movieBlocks 工作表的电影
+     * @return 这次运行的结果
+     * @throws IOException 创建暂存目录失败
+     */
+    private Run run(File partialDir, String settings, List<MovieBlock> movieBlocks) throws IOException {
+        IntDictionary sectionDictionary = new IntDictionary();
+        for (int section = 0; section < SECTIONS; section++) {
+            sectionDictionary.intern("分工" + section);
+        }
+        IntDictionary movieComDictionary = new IntDictionary();
+        for (int movieCom = 0; movieCom < MOVIE_COMS; movieCom++) {
+            movieComDictionary.intern("公司" + movieCom);
+        }
+        Run run = new Run();
+        StatMetrics metrics = new StatMetrics();
+        IncrementalBlockHandler[] incremental = new IncrementalBlockHandler[1];
+        MoviePipeline pipeline = new MoviePipeline(sectionABWeight(), 2, 4, 2,
+                (fileName, sheetName, movieABWeight) -> {
+                    if (SHEET.equals(sheetName)) {
+                        movieABWeight.forEachPair(run.written::put);
+                        incremental[0].afterOutput(sheetName, movieABWeight::forEachPair);
+                    }
+                }, metrics);
+        File holdDir = temporaryFolder.newFolder();
+        incremental[0] = new IncrementalBlockHandler(new PipelineBlockHandler(pipeline, 256, 0),
+                new PartialStore(partialDir, settings), sectionABWeight(), sectionDictionary, movieComDictionary,
+                holdDir);
+        pipeline.start();
+        incremental[0].startSheet(SHEET);
+        for (MovieBlock movieBlock : movieBlocks) {
+            incremental[0].handleBlock(SHEET, movieBlock);
+        }
+        incremental[0].endSheet(SHEET, movieBlocks.size());
+        pipeline.finish("All");
+        run.blocksAggregated = metrics.getBlocksAggregated();
+        String[] heldFiles = holdDir.list();
+        assertEquals(0, heldFiles != null ? heldFiles.length : 0);
+        return run;
+    }
+
+    /**
+     * 分工权重：两个分工的编号之和加1，都为正
+     * @return 分工权重
+     */
+    private static LongIntHashMap sectionABWeight() {
+        LongIntHashMap sectionABWeight = new LongIntHashMap();
+        for (int a = 0; a < SECTIONS; a++) {
+            for (int b = a; b < SECTIONS; b++) {
+                sectionABWeight.put(PairKey.of(a, b), a + b + 1);
+            }
+        }
+        return sectionABWeight;
+    }
+
+    /**
+     * 随机生成电影，种子固定，每次调用得到内容相同的新对象
+     * @param count 电影数
+     * @return 电影
+     */
+    private static List<MovieBlock> randomBlocks(int count) {
+        Random random = new Random(20181129L);
+        List<MovieBlock> movieBlocks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int size = 2 + random.nextInt(4);
+            MovieBlock movieBlock = new MovieBlock(size);
+            for (int j = 0; j < size; j++) {
+                movieBlock.add(random.nextInt(MOVIE_COMS), random.nextInt(SECTIONS));
+            }
+            movieBlocks.add(movieBlock);
+        }
+        return movieBlocks;
+    }
+
+    /**
+     * 复制电影，交给流水线的电影对象每次运行都用新的
+     * @param movieBlocks 电影
+     * @return 内容相同的新对象
+     */
+    private static List<MovieBlock> copyOf(List<MovieBlock> movieBlocks) {
+        List<MovieBlock> copies = new ArrayList<>(movieBlocks.size());
+        for (MovieBlock movieBlock : movieBlocks) {
+            MovieBlock copy = new MovieBlock(movieBlock.size());
+            for (int i = 0; i < movieBlock.size(); i++) {
+                copy.add(movieBlock.getMovieComId(i), movieBlock.getSectionId(i));
+            }
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    /**
+     * 两个公司的电影
+     * @param movieComA 公司A
+     * @param sectionA 公司A的分工
+     * @param movieComB 公司B
+     * @param sectionB 公司B的分工
+     * @return 电影
+     */
+    private static MovieBlock block(int movieComA, int sectionA, int movieComB, int sectionB) {
+        MovieBlock movieBlock = new MovieBlock(2);
+        movieBlock.add(movieComA, sectionA);
+        movieBlock.add(movieComB, sectionB);
+        return movieBlock;
+    }
+
+    /**
+     * 在当前线程上顺序计算电影公司权重
+     * @param movieBlocks 电影
+     * @return 电影公司权重
+     */
+    private static Map<Long, Integer> sequentialWeights(List<MovieBlock> movieBlocks) {
+        LongIntHashMap movieABWeight = new LongIntHashMap();
+        for (MovieBlock movieBlock : movieBlocks) {
+            MovieWeightAggregator.putToWeightMap(movieBlock, movieABWeight, sectionABWeight());
+        }
+        Map<Long, Integer> weights = new HashMap<>();
+        movieABWeight.forEach(weights::put);
+        return weights;
+    }
+
+    /**
+     * Usage:
+     * 一次运行的结果
+     */
+    private static class Run {
+
+        /** 输出的工作表权重 */
+        private final Map<Long, Integer> written = new HashMap<>();
+
+        /** 交给计算线程的电影数，复用时为0 */
+        private long blocksAggregated;
+
+    }
+
+}
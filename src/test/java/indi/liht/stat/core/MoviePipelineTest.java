@@ -0,0 +1,390 @@
+package indi.liht.stat.core;
+
+import indi.liht.stat.collection.CsrMatrix;
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.collection.PairKey;
+import indi.liht.stat.metrics.StatMetrics;
+import indi.liht.stat.models.MovieBlock;
+import indi.liht.stat.spill.SpillStore;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Usage:
+ * MoviePipeline的单元测试：多个计算线程算出的各Sheet结果与顺序计算相同，汇总等于各Sheet之和，
+ * 批量统计时文件的汇总等于它各Sheet之和；设置了内存预算、累加表溢出到磁盘时结果也不变，
+ * 输出直接读取归并出的有序公司对时也不变，并且输出完不留下溢出文件；
+ * 放弃流水线或者输出时出现Error，计算线程和输出线程都会退出，不会一直等待队列；
+ * 计算出错的Sheet不输出、不并入汇总，所属文件和总汇总都不输出，finish抛出这个错误
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class MoviePipelineTest {
+
+    /** 汇总的Sheet名 */
+    private static final String ALL = "All";
+
+    /** 分工数 */
+    private static final int SECTIONS = 4;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void allEqualsSumOfSheets() {
+        this.runSheets(null, false);
+    }
+
+    @Test
+    public void allEqualsSumOfSheetsWhenSpilling() throws Exception {
+        this.runSheets(this.newSpillStore(), false);
+        this.runSheets(this.newSpillStore(), true);
+    }
+
+    @Test
+    public void fileTotalEqualsSumOfItsSheets() throws Exception {
+        this.runFiles(null, false);
+        this.runFiles(this.newSpillStore(), false);
+        this.runFiles(this.newSpillStore(), true);
+    }
+
+    @Test(timeout = 30000)
+    public void abortStopsWorkersAndWriter() {
+        Random random = new Random(20181126L);
+        Map<String, Map<Long, Integer>> written = new HashMap<>();
+        MoviePipeline pipeline = newPipeline(2, null, false, written);
+        // 读到一半出错：Sheet没有关闭，电影队列里还有没算的电影
+        MoviePipeline.SheetTask sheetTask = pipeline.openSheet("Sheet0");
+        for (int i = 0; i < 10; i++) {
+            pipeline.submit(sheetTask, randomBlocks(random, 100));
+        }
+        pipeline.abort(new IllegalStateException("读取出错"));
+        assertPipelineThreadsStopped();
+        assertTrue(written.isEmpty());
+        // 放弃之后再finish什么也不做
+        pipeline.finish(ALL);
+        assertTrue(written.isEmpty());
+    }
+
+    @Test(timeout = 30000)
+    public void writerSurvivesError() {
+        Random random = new Random(20181127L);
+        Map<String, Map<Long, Integer>> written = new HashMap<>();
+        MoviePipeline pipeline = new MoviePipeline(sectionABWeight(), 2, 4, 1,
+                (fileName, sheetName, movieABWeight) -> {
+                    if ("Sheet0".equals(sheetName)) {
+                        throw new OutOfMemoryError("输出Sheet0时内存不足");
+                    }
+                    written.put(sheetName, toMap(movieABWeight));
+                }, new StatMetrics());
+        pipeline.start();
+        // 结果队列只能放一个结果，输出线程退出的话这里就会一直等待
+        for (int sheet = 0; sheet < 4; sheet++) {
+            MoviePipeline.SheetTask sheetTask = pipeline.openSheet("Sheet" + sheet);
+            pipeline.submit(sheetTask, randomBlocks(random, 100));
+            pipeline.closeSheet(sheetTask, 100);
+        }
+        pipeline.finish(ALL);
+        assertPipelineThreadsStopped();
+        assertTrue(written.containsKey("Sheet3"));
+        assertTrue(written.containsKey(ALL));
+    }
+
+    @Test(timeout = 30000)
+    public void failedSheetIsNeitherWrittenNorMerged() {
+        Random random = new Random(20181128L);
+        Map<String, Map<Long, Integer>> written = new HashMap<>();
+        List<String> finishedFiles = new ArrayList<>();
+        MoviePipeline pipeline = new MoviePipeline(sectionABWeight(), 2, 4, 2,
+                new MoviePipeline.SheetWriter() {
+                    @Override
+                    public void write(String fileName, String sheetName, CsrMatrix movieABWeight) {
+                        written.put(MoviePipeline.sheetKey(fileName, sheetName), toMap(movieABWeight));
+                    }
+
+                    @Override
+                    public void fileFinished(String fileName) {
+                        finishedFiles.add(fileName);
+                    }
+                }, new StatMetrics());
+        pipeline.start();
+        Map<Long, Integer> expectedSheet0 = null;
+        for (int file = 0; file < 2; file++) {
+            MoviePipeline.FileTask fileTask = pipeline.openFile("file" + file, "Total");
+            for (int sheet = 0; sheet < 2; sheet++) {
+                List<MovieBlock> movieBlocks = randomBlocks(random, 300);
+                MoviePipeline.SheetTask sheetTask = pipeline.openSheet(fileTask, "Sheet" + sheet);
+                pipeline.submit(sheetTask, movieBlocks);
+                if (file == 0 && sheet == 1) {
+                    // 空的电影让计算线程出错
+                    List<MovieBlock> broken = randomBlocks(random, 10);
+                    broken.add(null);
+                    pipeline.submit(sheetTask, broken);
+                    pipeline.submit(sheetTask, randomBlocks(random, 10));
+                }
+                pipeline.closeSheet(sheetTask, movieBlocks.size());
+                if (file == 0 && sheet == 0) {
+                    expectedSheet0 = sequentialWeights(movieBlocks);
+                }
+            }
+            pipeline.closeFile(fileTask);
+        }
+        try {
+            pipeline.finish(ALL);
+            fail("计算出错时finish应该抛出异常");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("file0/Sheet1"));
+            assertTrue(e.getCause() instanceof NullPointerException);
+        }
+        assertPipelineThreadsStopped();
+        assertEquals(expectedSheet0, written.get("file0/Sheet0"));
+        assertFalse(written.containsKey("file0/Sheet1"));
+        assertFalse(written.containsKey("file0/Total"));
+        assertTrue(written.containsKey("file1/Total"));
+        assertFalse(written.containsKey(ALL));
+        // 出错的文件也要结束，它的输出照常关闭
+        assertEquals(2, finishedFiles.size());
+        assertTrue(finishedFiles.contains("file0"));
+    }
+
+    /**
+     * 由计算线程计算几个Sheet，核对每个Sheet和汇总
+     * @param spillStore 溢出区，为空时不设置内存预算
+     * @param sorted 输出是否直接读取归并出的有序公司对
+     */
+    private void runSheets(SpillStore spillStore, boolean sorted) {
+        Random random = new Random(20181124L);
+        Map<String, Map<Long, Integer>> written = new HashMap<>();
+        MoviePipeline pipeline = newPipeline(4, spillStore, sorted, written);
+        Map<String, Map<Long, Integer>> expected = new HashMap<>();
+        for (int sheet = 0; sheet < 5; sheet++) {
+            String sheetName = "Sheet" + sheet;
+            List<MovieBlock> movieBlocks = randomBlocks(random, 3000);
+            MoviePipeline.SheetTask sheetTask = pipeline.openSheet(sheetName);
+            for (int from = 0; from < movieBlocks.size(); from += 100) {
+                pipeline.submit(sheetTask, new ArrayList<>(
+                        movieBlocks.subList(from, Math.min(from + 100, movieBlocks.size()))));
+            }
+            pipeline.closeSheet(sheetTask, movieBlocks.size());
+            expected.put(sheetName, sequentialWeights(movieBlocks));
+        }
+        // finish等输出线程结束后才返回，之后written里就是全部结果
+        pipeline.finish(ALL);
+        this.closeSpillStore(spillStore);
+
+        Map<Long, Integer> sumOfSheets = new HashMap<>();
+        for (Map.Entry<String, Map<Long, Integer>> entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue(), written.get(entry.getKey()));
+            written.get(entry.getKey()).forEach((key, weight) -> sumOfSheets.merge(key, weight, Integer::sum));
+        }
+        assertEquals(sumOfSheets, written.get(ALL));
+    }
+
+    /**
+     * 批量统计：在调用方的线程上算好Sheet，用completeSheet提交，核对文件的汇总和总汇总
+     * @param spillStore 溢出区，为空时不设置内存预算
+     * @param sorted 输出是否直接读取归并出的有序公司对
+     */
+    private void runFiles(SpillStore spillStore, boolean sorted) {
+        Random random = new Random(20181125L);
+        Map<String, Map<Long, Integer>> written = new HashMap<>();
+        MoviePipeline pipeline = newPipeline(0, spillStore, sorted, written);
+        Map<String, Map<Long, Integer>> expected = new HashMap<>();
+        for (int file = 0; file < 3; file++) {
+            String fileName = "file" + file;
+            MoviePipeline.FileTask fileTask = pipeline.openFile(fileName, "Total");
+            Map<Long, Integer> expectedFile = new HashMap<>();
+            for (int sheet = 0; sheet < 3; sheet++) {
+                List<MovieBlock> movieBlocks = randomBlocks(random, 1000);
+                MoviePipeline.SheetTask sheetTask = pipeline.openSheet(fileTask, "Sheet" + sheet);
+                LongIntHashMap movieABWeight = new LongIntHashMap();
+                for (MovieBlock movieBlock : movieBlocks) {
+                    MovieWeightAggregator.putToWeightMap(movieBlock, movieABWeight, sectionABWeight());
+                    if (spillStore != null) {
+                        movieABWeight = pipeline.spillIfNeeded(sheetTask, movieABWeight);
+                    }
+                }
+                pipeline.completeSheet(sheetTask, movieBlocks.size(), movieBlocks.size(), movieABWeight);
+                sequentialWeights(movieBlocks).forEach((key, weight) -> expectedFile.merge(key, weight, Integer::sum));
+            }
+            pipeline.closeFile(fileTask);
+            expected.put(MoviePipeline.sheetKey(fileName, "Total"), expectedFile);
+        }
+        pipeline.finish(ALL);
+        this.closeSpillStore(spillStore);
+
+        Map<Long, Integer> sumOfFiles = new HashMap<>();
+        for (Map.Entry<String, Map<Long, Integer>> entry : expected.entrySet()) {
+            assertEquals(entry.getKey(), entry.getValue(), written.get(entry.getKey()));
+            entry.getValue().forEach((key, weight) -> sumOfFiles.merge(key, weight, Integer::sum));
+        }
+        assertEquals(sumOfFiles, written.get(ALL));
+    }
+
+    /**
+     * 流水线的计算线程和输出线程都已经退出
+     */
+    private static void assertPipelineThreadsStopped() {
+        for (Thread thread : Thread.getAllStackTraces().keySet()) {
+            String name = thread.getName();
+            assertTrue(name, !thread.isAlive() || !name.startsWith("Aggregate-Thread-") && !"Write-Thread".equals(name));
+        }
+    }
+
+    /**
+     * 在临时目录下创建溢出区
+     * @return 溢出区
+     * @throws IOException 创建目录失败
+     */
+    private SpillStore newSpillStore() throws IOException {
+        return new SpillStore(temporaryFolder.newFolder());
+    }
+
+    /**
+     * 流水线结束后核对溢出区里没有剩下的段，再关闭溢出区
+     * @param spillStore 溢出区，为空时什么也不做
+     */
+    private void closeSpillStore(SpillStore spillStore) {
+        if (spillStore == null) {
+            return;
+        }
+        assertTrue(spillStore.getRunCount() > 0);
+        File[] dirs = temporaryFolder.getRoot().listFiles();
+        for (File dir : dirs != null ? dirs : new File[0]) {
+            File[] spillDirs = dir.listFiles();
+            for (File spillDir : spillDirs != null ? spillDirs : new File[0]) {
+                String[] runs = spillDir.list();
+                assertEquals(spillDir.getPath(), 0, runs != null ? runs.length : 0);
+            }
+        }
+        spillStore.close();
+    }
+
+    /**
+     * 创建流水线并启动，输出线程把输出的结果Sheet按“文件名/Sheet名”放进written。
+     * 设置内存预算时预算很小，每个累加表只能容纳64个条目
+     * @param workerCount 计算线程数
+     * @param spillStore 溢出区，为空时不设置内存预算
+     * @param sorted 输出是否直接读取归并出的有序公司对
+     * @param written 输出的结果Sheet
+     * @return 流水线
+     */
+    private static MoviePipeline newPipeline(int workerCount, SpillStore spillStore, boolean sorted,
+                                             Map<String, Map<Long, Integer>> written) {
+        MoviePipeline pipeline = new MoviePipeline(sectionABWeight(), workerCount, 4, 2,
+                new MoviePipeline.SheetWriter() {
+                    @Override
+                    public void write(String fileName, String sheetName, CsrMatrix movieABWeight) {
+                        written.put(MoviePipeline.sheetKey(fileName, sheetName), toMap(movieABWeight));
+                    }
+
+                    @Override
+                    public boolean isSortedPairsAccepted(String fileName) {
+                        return sorted;
+                    }
+
+                    @Override
+                    public void writeSorted(String fileName, String sheetName, CsrMatrix.PairSource sortedPairs) {
+                        Map<Long, Integer> weights = new HashMap<>();
+                        long[] previous = {-1L};
+                        boolean[] ordered = {true};
+                        try {
+                            sortedPairs.forEach((key, weight) -> {
+                                ordered[0] &= key > previous[0];
+                                previous[0] = key;
+                                weights.put(key, weight);
+                            });
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                        // 公司对严格从小到大排列时才放进结果，否则核对时缺少这个Sheet
+                        if (ordered[0]) {
+                            written.put(MoviePipeline.sheetKey(fileName, sheetName), weights);
+                        }
+                    }
+                }, new StatMetrics());
+        if (spillStore != null) {
+            pipeline.enableSpill(spillStore, 1L, 1);
+        }
+        pipeline.start();
+        return pipeline;
+    }
+
+    /**
+     * 分工权重：两个分工的编号之和加1，都为正
+     * @return 分工权重
+     */
+    private static LongIntHashMap sectionABWeight() {
+        LongIntHashMap sectionABWeight = new LongIntHashMap();
+        for (int a = 0; a < SECTIONS; a++) {
+            for (int b = a; b < SECTIONS; b++) {
+                sectionABWeight.put(PairKey.of(a, b), a + b + 1);
+            }
+        }
+        return sectionABWeight;
+    }
+
+    /**
+     * 随机生成电影，公司编号范围小，各电影的公司对大量重叠
+     * @param random 随机数
+     * @param count 电影数
+     * @return 电影
+     */
+    private static List<MovieBlock> randomBlocks(Random random, int count) {
+        List<MovieBlock> movieBlocks = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            int size = 2 + random.nextInt(5);
+            MovieBlock movieBlock = new MovieBlock(size);
+            for (int j = 0; j < size; j++) {
+                movieBlock.add(random.nextInt(60), random.nextInt(SECTIONS));
+            }
+            if (random.nextInt(10) == 0) {
+                movieBlock.setMultiplicity(2 + random.nextInt(3));
+            }
+            movieBlocks.add(movieBlock);
+        }
+        return movieBlocks;
+    }
+
+    /**
+     * 在当前线程上顺序计算电影公司权重
+     * @param movieBlocks 电影
+     * @return 电影公司权重
+     */
+    private static Map<Long, Integer> sequentialWeights(List<MovieBlock> movieBlocks) {
+        LongIntHashMap movieABWeight = new LongIntHashMap();
+        for (MovieBlock movieBlock : movieBlocks) {
+            MovieWeightAggregator.putToWeightMap(movieBlock, movieABWeight, sectionABWeight());
+        }
+        Map<Long, Integer> weights = new HashMap<>();
+        movieABWeight.forEach(weights::put);
+        return weights;
+    }
+
+    /**
+     * 把矩阵中的公司对读出来。在输出线程上调用，不在这里断言，输出线程会把断言失败当作输出出错记下来
+     * @param matrix 矩阵
+     * @return 公司对权重
+     */
+    private static Map<Long, Integer> toMap(CsrMatrix matrix) {
+        Map<Long, Integer> weights = new HashMap<>();
+        matrix.forEachPair(weights::put);
+        return weights;
+    }
+
+}
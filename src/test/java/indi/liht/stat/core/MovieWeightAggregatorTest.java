@@ -0,0 +1,48 @@
+package indi.liht.stat.core;
+
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.collection.PairKey;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Usage:
+ * MovieWeightAggregator的单元测试：在线程池上两两合并的结果与顺序累加相同
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class MovieWeightAggregatorTest {
+
+    @Test
+    public void mergeAllMatchesSequentialSum() {
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            Random random = new Random(20181124L);
+            for (int count = 0; count <= 9; count++) {
+                List<LongIntHashMap> movieABWeights = new ArrayList<>();
+                LongIntHashMap expected = new LongIntHashMap();
+                for (int i = 0; i < count; i++) {
+                    LongIntHashMap movieABWeight = new LongIntHashMap();
+                    // 各表大小不同，合并时小表并入大表
+                    for (int j = random.nextInt(3000); j > 0; j--) {
+                        movieABWeight.addTo(PairKey.of(random.nextInt(300), random.nextInt(300)), 1 + random.nextInt(5));
+                    }
+                    movieABWeights.add(movieABWeight);
+                    expected.addAll(movieABWeight);
+                }
+                LongIntHashMap merged = MovieWeightAggregator.mergeAll(pool, movieABWeights);
+                assertEquals(expected.size(), merged.size());
+                expected.forEach((key, weight) -> assertEquals(weight, merged.getOrDefault(key, -1)));
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}
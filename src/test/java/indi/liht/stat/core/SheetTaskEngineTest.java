@@ -0,0 +1,128 @@
+package indi.liht.stat.core;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage:
+ * SheetTaskEngine的单元测试：超时的任务以超时失败、并在下一次检查时停下；快速失败时一个任务失败就取消其余的任务，
+ * 包括正在执行的和还在排队的；任务抛出Error时同样汇总为失败，不会让await一直等下去
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class SheetTaskEngineTest {
+
+    @Test
+    public void completesWithoutFailures() {
+        SheetTaskEngine engine = new SheetTaskEngine("Test-Thread-", 2, 0, true);
+        AtomicInteger finished = new AtomicInteger();
+        for (int i = 0; i < 5; i++) {
+            engine.submit("任务" + i, task -> finished.incrementAndGet());
+        }
+        assertTrue(engine.await().isEmpty());
+        assertEquals(5, finished.get());
+    }
+
+    @Test
+    public void timesOutSlowTask() {
+        SheetTaskEngine engine = new SheetTaskEngine("Test-Thread-", 2, 100, false);
+        AtomicBoolean stopped = new AtomicBoolean();
+        engine.submit("慢", task -> {
+            try {
+                spin(task);
+            } finally {
+                stopped.set(true);
+            }
+        });
+        engine.submit("快", task -> { });
+
+        List<SheetTaskEngine.Failure> failures = engine.await();
+        assertEquals(1, failures.size());
+        assertEquals("慢", failures.get(0).getName());
+        assertTrue(failures.get(0).isTimedOut());
+        // await等到超时的任务停下才返回
+        assertTrue(stopped.get());
+    }
+
+    @Test
+    public void failFastCancelsOtherTasks() {
+        SheetTaskEngine engine = new SheetTaskEngine("Test-Thread-", 2, 0, true);
+        CountDownLatch started = new CountDownLatch(1);
+        IllegalArgumentException cause = new IllegalArgumentException("坏数据");
+        AtomicBoolean queuedRan = new AtomicBoolean();
+        engine.submit("执行中", task -> {
+            started.countDown();
+            spin(task);
+        });
+        engine.submit("失败", task -> {
+            try {
+                started.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            throw cause;
+        });
+        // 两个线程都占着，这个任务在排队，轮到它时已经被取消了
+        engine.submit("排队", task -> {
+            task.checkCancelled();
+            queuedRan.set(true);
+        });
+
+        List<SheetTaskEngine.Failure> failures = engine.await();
+        assertEquals(3, failures.size());
+        assertEquals("执行中", failures.get(0).getName());
+        assertTrue(failures.get(0).isCancelled());
+        assertEquals("失败", failures.get(1).getName());
+        assertSame(cause, failures.get(1).getCause());
+        assertFalse(failures.get(1).isCancelled());
+        assertEquals("排队", failures.get(2).getName());
+        assertTrue(failures.get(2).isCancelled());
+        assertFalse(queuedRan.get());
+    }
+
+    @Test
+    public void reportsError() {
+        SheetTaskEngine engine = new SheetTaskEngine("Test-Thread-", 2, 0, false);
+        Error error = new Error("内存不足");
+        engine.submit("出错", task -> {
+            throw error;
+        });
+        AtomicBoolean finished = new AtomicBoolean();
+        engine.submit("正常", task -> finished.set(true));
+
+        List<SheetTaskEngine.Failure> failures = engine.await();
+        assertEquals(1, failures.size());
+        assertEquals("出错", failures.get(0).getName());
+        assertSame(error, failures.get(0).getCause());
+        assertFalse(failures.get(0).isTimedOut());
+        assertFalse(failures.get(0).isCancelled());
+        // 没有开启快速失败，其他任务照常完成
+        assertTrue(finished.get());
+    }
+
+    /**
+     * 一直执行到被取消，模拟读取一个很大的工作表
+     * @param task 任务
+     */
+    private static void spin(SheetTaskEngine.Task task) {
+        while (true) {
+            task.checkCancelled();
+            try {
+                Thread.sleep(5);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,135 @@
+package indi.liht.stat.core;
+
+import indi.liht.stat.collection.CsrMatrix;
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.collection.PairKey;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Usage:
+ * TopPartnerSelector的单元测试：权重相同时编号小的合作公司优先；低于最小权重的公司对不保留，即使在前K名里；
+ * 随机的矩阵与逐行排序取前K名的结果相同
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class TopPartnerSelectorTest {
+
+    @Test
+    public void tiesPreferSmallerPartner() {
+        // 5个公司两两合作，权重都相同
+        LongIntHashMap pairWeights = new LongIntHashMap();
+        for (int a = 0; a < 5; a++) {
+            for (int b = a + 1; b < 5; b++) {
+                pairWeights.put(PairKey.of(a, b), 5);
+            }
+        }
+        Map<Long, Integer> selected = toMap(TopPartnerSelector.select(CsrMatrix.of(pairWeights, 5), 1, 0));
+        // 公司0选1，其余公司都选0
+        Map<Long, Integer> expected = new HashMap<>();
+        for (int b = 1; b < 5; b++) {
+            expected.put(PairKey.of(0, b), 5);
+        }
+        assertEquals(expected, selected);
+    }
+
+    @Test
+    public void dropsPairsBelowMinWeight() {
+        LongIntHashMap pairWeights = new LongIntHashMap();
+        pairWeights.put(PairKey.of(0, 1), 9);
+        pairWeights.put(PairKey.of(0, 2), 3);
+        pairWeights.put(PairKey.of(2, 3), 2);
+        pairWeights.put(PairKey.of(3, 3), 4);
+        CsrMatrix matrix = CsrMatrix.of(pairWeights, 4);
+
+        // 不限K，只按权重筛选
+        Map<Long, Integer> expected = new HashMap<>();
+        expected.put(PairKey.of(0, 1), 9);
+        expected.put(PairKey.of(3, 3), 4);
+        assertEquals(expected, toMap(TopPartnerSelector.select(matrix, 0, 4)));
+
+        // 公司2的前2名是(0, 2)和(2, 3)，但都低于最小权重；与自己合作的(3, 3)是公司3的第一名
+        assertEquals(expected, toMap(TopPartnerSelector.select(matrix, 2, 4)));
+
+        // 最小权重不限制时，公司2的前1名(0, 2)也保留
+        expected.put(PairKey.of(0, 2), 3);
+        assertEquals(expected, toMap(TopPartnerSelector.select(matrix, 1, Integer.MIN_VALUE)));
+    }
+
+    @Test
+    public void matchesSortingEveryRow() {
+        int rows = 50;
+        Random random = new Random(20181204L);
+        LongIntHashMap pairWeights = new LongIntHashMap();
+        for (int i = 0; i < 600; i++) {
+            // 权重范围小，相同权重很多
+            pairWeights.put(PairKey.of(random.nextInt(rows), random.nextInt(rows)), random.nextInt(6) + 1);
+        }
+        CsrMatrix matrix = CsrMatrix.of(pairWeights, rows);
+        for (int topK = 0; topK <= 4; topK++) {
+            for (int minWeight = 1; minWeight <= 4; minWeight += 3) {
+                assertEquals("topK=" + topK + ",minWeight=" + minWeight,
+                        sortEveryRow(pairWeights, rows, topK, minWeight),
+                        toMap(TopPartnerSelector.select(matrix, topK, minWeight)));
+            }
+        }
+    }
+
+    /**
+     * 逐行把合作公司按权重从大到小、编号从小到大排序，取前K名，再合并
+     * @param pairWeights 公司对权重
+     * @param rows 公司数
+     * @param topK 每个公司最多保留的合作公司数，不大于0表示不限
+     * @param minWeight 最小权重
+     * @return 保留下来的公司对权重
+     */
+    private static Map<Long, Integer> sortEveryRow(LongIntHashMap pairWeights, int rows, int topK, int minWeight) {
+        List<List<int[]>> partners = new ArrayList<>();
+        for (int row = 0; row < rows; row++) {
+            partners.add(new ArrayList<>());
+        }
+        pairWeights.forEach((key, weight) -> {
+            int a = PairKey.first(key);
+            int b = PairKey.second(key);
+            partners.get(a).add(new int[]{b, weight});
+            if (a != b) {
+                partners.get(b).add(new int[]{a, weight});
+            }
+        });
+        Map<Long, Integer> selected = new HashMap<>();
+        for (int row = 0; row < rows; row++) {
+            List<int[]> rowPartners = partners.get(row);
+            rowPartners.sort((x, y) -> x[1] != y[1] ? Integer.compare(y[1], x[1]) : Integer.compare(x[0], y[0]));
+            int taken = 0;
+            for (int[] partner : rowPartners) {
+                if (topK > 0 && taken == topK) {
+                    break;
+                }
+                if (partner[1] >= minWeight) {
+                    selected.put(PairKey.of(row, partner[0]), partner[1]);
+                    taken++;
+                }
+            }
+        }
+        return selected;
+    }
+
+    /**
+     * 把矩阵读出来，便于比较
+     * @param movieABWeight 电影公司权重
+     * @return 公司对权重
+     */
+    private static Map<Long, Integer> toMap(CsrMatrix movieABWeight) {
+        Map<Long, Integer> weights = new HashMap<>();
+        movieABWeight.forEachPair(weights::put);
+        return weights;
+    }
+
+}
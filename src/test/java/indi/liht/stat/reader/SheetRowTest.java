@@ -0,0 +1,63 @@
+package indi.liht.stat.reader;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage:
+ * SheetRow的单元测试：空的判断与StringUtils.isNotEmpty一致，只有空白字符的字符串不算空；取数字时空白字符串按0算
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class SheetRowTest {
+
+    @Test
+    public void onlyMissingValuesAndEmptyStringsAreBlank() {
+        SheetRow row = new SheetRow();
+        row.reset(2);
+        row.setString(0, "华谊兄弟");
+        row.setString(1, "");
+        row.setString(2, " ");
+        row.setString(3, null);
+        row.setBlank(4);
+        row.setNumber(5, 0);
+
+        assertFalse(row.isBlank(0));
+        assertTrue(row.isBlank(1));
+        assertFalse(row.isBlank(2));
+        assertEquals(" ", row.getString(2));
+        assertTrue(row.isBlank(3));
+        assertNull(row.getString(3));
+        assertTrue(row.isBlank(4));
+        assertFalse(row.isBlank(5));
+        assertTrue(row.isBlank(6));
+        assertTrue(row.isBlank(-1));
+    }
+
+    @Test
+    public void numbersAndWhitespace() {
+        SheetRow row = new SheetRow();
+        row.reset(0);
+        row.setNumber(0, 3);
+        row.setNumber(1, 2.5);
+        row.setString(2, " 4 ");
+        row.setString(3, "  ");
+        row.setString(4, "");
+
+        assertEquals("3", row.getString(0));
+        assertEquals("2.5", row.getString(1));
+        assertEquals(4, row.getInt(2));
+        assertEquals(0, row.getInt(3));
+        assertEquals(0, row.getInt(4));
+        assertEquals(0, row.getInt(5));
+
+        row.reset(1);
+        assertTrue(row.isBlank(0));
+        assertEquals(0, row.getInt(0));
+    }
+
+}
@@ -0,0 +1,162 @@
+package indi.liht.stat.writer;
+
+import indi.liht.stat.collection.CsrMatrix;
+import indi.liht.stat.collection.IntDictionary;
+import indi.liht.stat.collection.LongIntHashMap;
+import indi.liht.stat.collection.PairKey;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellType;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.util.IOUtils;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Usage:
+ * OoxmlResultWriter的单元测试：生成的xlsx能用POI打开，与WorkbookResultWriter（XSSFWorkbook）输出的内容逐个单元格相同，
+ * 包括要转义的公司名和工作表名、稠密输出补的0，以及稀疏输出留空的单元格
+ * @author lihongtao ibraxwell@sina.com
+ * on 2018/11/24
+ **/
+public class OoxmlResultWriterTest {
+
+    /** 公司数 */
+    private static final int MOVIE_COMS = 40;
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void denseOutputMatchesWorkbook() throws IOException {
+        this.assertSameOutput(false);
+    }
+
+    @Test
+    public void sparseOutputMatchesWorkbook() throws IOException {
+        this.assertSameOutput(true);
+    }
+
+    /**
+     * 同样的工作表分别用两种方式输出，再用POI读出来比较
+     * @param sparse 是否稀疏输出
+     * @throws IOException 读写失败
+     */
+    private void assertSameOutput(boolean sparse) throws IOException {
+        IntDictionary movieComDictionary = new IntDictionary();
+        for (int i = 0; i < MOVIE_COMS; i++) {
+            // 带上要转义的字符和首尾空格
+            movieComDictionary.intern(i % 7 == 0 ? " 公司<" + i + ">&\"' " : "公司" + i);
+        }
+        Random random = new Random(20181203L);
+        // 第一个工作表涉及所有公司；第二个只涉及编号为奇数的公司，稀疏时还有很多公司没有任何权重
+        CsrMatrix allMatrix = randomMatrix(random, 1, 300);
+        CsrMatrix oddMatrix = randomMatrix(random, 2, sparse ? 15 : 100);
+        int[] allList = new int[MOVIE_COMS];
+        int[] oddList = new int[MOVIE_COMS / 2];
+        for (int i = 0; i < MOVIE_COMS; i++) {
+            allList[i] = i;
+            if (i % 2 == 1) {
+                oddList[i / 2] = i;
+            }
+        }
+
+        File expectedFile = temporaryFolder.newFile("expected.xlsx");
+        File actualFile = new File(temporaryFolder.getRoot(), "actual.xlsx");
+        IResultWriter expectedWriter = new WorkbookResultWriter(new XSSFWorkbook(), expectedFile.getPath(),
+                "xlsx", movieComDictionary, sparse);
+        IResultWriter actualWriter = new OoxmlResultWriter(actualFile.getPath(), movieComDictionary, sparse, 2);
+        for (IResultWriter writer : new IResultWriter[]{expectedWriter, actualWriter}) {
+            writer.writeSheet("全部", allMatrix, allList);
+            writer.writeSheet("奇数&<公司>", oddMatrix, oddList);
+            writer.close();
+        }
+
+        List<List<String>> expected = read(expectedFile);
+        List<List<String>> actual = read(actualFile);
+        assertEquals(2, actual.size());
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * 随机生成权重矩阵
+     * @param random 随机数
+     * @param step 公司编号的间隔，从step - 1开始
+     * @param pairs 随机取的公司对数
+     * @return 矩阵
+     */
+    private static CsrMatrix randomMatrix(Random random, int step, int pairs) {
+        LongIntHashMap pairWeights = new LongIntHashMap();
+        int count = MOVIE_COMS / step;
+        for (int i = 0; i < pairs; i++) {
+            int a = random.nextInt(count) * step + step - 1;
+            int b = random.nextInt(count) * step + step - 1;
+            pairWeights.addTo(PairKey.of(a, b), random.nextInt(20) + 1);
+        }
+        return CsrMatrix.of(pairWeights, MOVIE_COMS);
+    }
+
+    /**
+     * 用POI读出整个文件：每个工作表先是表名，之后每个单元格一项，写明行列和内容，空白的单元格跳过
+     * @param file 文件
+     * @return 各工作表的内容
+     * @throws IOException 读取失败
+     */
+    private static List<List<String>> read(File file) throws IOException {
+        List<List<String>> sheets = new ArrayList<>();
+        InputStream is = null;
+        Workbook workbook = null;
+        try {
+            is = new FileInputStream(file);
+            workbook = new XSSFWorkbook(is);
+            for (Sheet sheet : workbook) {
+                List<String> cells = new ArrayList<>();
+                cells.add(sheet.getSheetName());
+                for (Row row : sheet) {
+                    for (Cell cell : row) {
+                        String value = text(cell);
+                        if (!value.isEmpty()) {
+                            cells.add(row.getRowNum() + "," + cell.getColumnIndex() + "=" + value);
+                        }
+                    }
+                }
+                assertTrue(cells.size() > 1);
+                sheets.add(cells);
+            }
+        } finally {
+            IOUtils.closeQuietly(workbook);
+            IOUtils.closeQuietly(is);
+        }
+        return sheets;
+    }
+
+    /**
+     * 单元格的内容，区分数字和字符串
+     * @param cell 单元格
+     * @return 内容，空白时为空串
+     */
+    private static String text(Cell cell) {
+        if (cell.getCellType() == CellType.NUMERIC) {
+            return "n:" + cell.getNumericCellValue();
+        }
+        if (cell.getCellType() == CellType.STRING && !cell.getStringCellValue().isEmpty()) {
+            return "s:" + cell.getStringCellValue();
+        }
+        return "";
+    }
+
+}